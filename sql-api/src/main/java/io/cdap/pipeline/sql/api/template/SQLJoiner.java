@@ -22,8 +22,29 @@ import io.cdap.pipeline.sql.api.template.interfaces.SQLNode;
  * An abstract class which represents a node that combines multiple inputs into one. This class type is checked
  * in the application.
  *
- * The RelBuilder passed into the QueryContext of this class is guaranteed to have two inputs.
+ * The RelBuilder passed into the QueryContext of this class is guaranteed to have at least two inputs, pushed in
+ * the order of {@link QueryContext#getInputs()}.
  */
 public abstract class SQLJoiner implements SQLNode {
   public static final String PLUGIN_TYPE = "sqljoiner";
+  public static final double DEFAULT_SKEW_THRESHOLD = 0.1;
+
+  /**
+   * Returns the number of buckets which the rows of heavily skewed join keys are spread across. Joiners are not
+   * checked for skew by default.
+   *
+   * @return The number of buckets, or 0 if the join should not be checked for skew
+   */
+  public int getSkewBuckets() {
+    return 0;
+  }
+
+  /**
+   * Returns the fraction of the rows of an input which a single join key must account for to be treated as skewed.
+   *
+   * @return The minimum fraction of rows of a skewed key
+   */
+  public double getSkewThreshold() {
+    return DEFAULT_SKEW_THRESHOLD;
+  }
 }
@@ -30,4 +30,33 @@ public abstract class SQLSink extends SQLTransform {
    * @return The table to create or insert into
    */
   public abstract AbstractTableInfo getDestinationTable();
+
+  /**
+   * Returns how the output is written to the destination table. Sinks append to the table by default.
+   *
+   * @return The write mode of the sink
+   */
+  public WriteMode getWriteMode() {
+    return WriteMode.APPEND;
+  }
+
+  /**
+   * The ways in which a sink can write to its destination table.
+   */
+  public enum WriteMode {
+    /**
+     * Adds the output to the existing rows of the table.
+     */
+    APPEND,
+    /**
+     * Replaces the existing rows of the table with the output.
+     */
+    TRUNCATE,
+    /**
+     * Merges the output into the existing rows of the table. Binary columns hold sketches of distinct values, and
+     * every other column is part of the key. The sketches of rows with the same key are merged, and rows with new
+     * keys are inserted.
+     */
+    MERGE_SKETCHES
+  }
 }
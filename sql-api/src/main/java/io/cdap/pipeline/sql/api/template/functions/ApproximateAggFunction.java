@@ -0,0 +1,167 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.cdap.pipeline.sql.api.template.functions;
+
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.sql.SqlAggFunction;
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlFunctionCategory;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlWriter;
+import org.apache.calcite.sql.type.OperandTypes;
+import org.apache.calcite.sql.type.ReturnTypes;
+import org.apache.calcite.sql.type.SqlReturnTypeInference;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.sql.type.SqlTypeTransforms;
+import org.apache.calcite.util.Optionality;
+
+import java.util.Arrays;
+import java.util.Objects;
+import javax.annotation.Nullable;
+
+/**
+ * An approximate aggregate function of a single field. The parameter of the function, such as the number of
+ * quantiles, must be a constant, so it is held by the function rather than passed as an operand.
+ *
+ * Calls are generated as NAME(field, parameter), and dialects which name or parameterize the functions differently
+ * rewrite them when the call is unparsed. The name of the operator includes the parameter, such as
+ * APPROX_QUANTILES[4], so that calls with different parameters have different digests and are never merged.
+ */
+public class ApproximateAggFunction extends SqlAggFunction {
+  public static final String COUNT_DISTINCT = "APPROX_COUNT_DISTINCT";
+  public static final String QUANTILES = "APPROX_QUANTILES";
+  public static final String TOP_COUNT = "APPROX_TOP_COUNT";
+  public static final String SKETCH = "APPROX_COUNT_DISTINCT_SKETCH";
+  public static final String MERGE_SKETCHES = "MERGE_SKETCHES";
+  public static final String COUNT_SKETCHES = "COUNT_SKETCHES";
+
+  // Sketches of groups without any non-null values are null
+  private static final SqlReturnTypeInference NULLABLE_BINARY =
+    ReturnTypes.cascade(ReturnTypes.explicit(SqlTypeName.VARBINARY), SqlTypeTransforms.FORCE_NULLABLE);
+
+  private final String functionName;
+  private final Integer parameter;
+
+  private ApproximateAggFunction(String functionName, SqlReturnTypeInference returnTypeInference,
+                                 @Nullable Integer parameter) {
+    // The functions neither require an order nor a window, and do not accept WITHIN GROUP
+    super(parameter == null ? functionName : functionName + "[" + parameter + "]", null, SqlKind.OTHER_FUNCTION,
+          returnTypeInference, null, OperandTypes.ANY, SqlFunctionCategory.SYSTEM, false, false,
+          Optionality.FORBIDDEN);
+    this.functionName = functionName;
+    this.parameter = parameter;
+  }
+
+  /**
+   * Creates a function which approximates the number of distinct values of a field.
+   *
+   * @param precision The precision of the sketch used to count the values, or null to use the default precision
+   */
+  public static ApproximateAggFunction countDistinct(@Nullable Integer precision) {
+    return new ApproximateAggFunction(COUNT_DISTINCT, ReturnTypes.BIGINT, precision);
+  }
+
+  /**
+   * Creates a function which approximates the boundaries of the quantiles of a field. The function returns an
+   * array holding the minimum, the boundaries between the quantiles, and the maximum.
+   *
+   * @param quantiles The number of quantiles
+   */
+  public static ApproximateAggFunction quantiles(int quantiles) {
+    return new ApproximateAggFunction(QUANTILES, opBinding -> opBinding.getTypeFactory()
+      .createArrayType(opBinding.getOperandType(0), -1), quantiles);
+  }
+
+  /**
+   * Creates a function which approximates the most frequent values of a field. The function returns an array of
+   * structs holding each value and its count, ordered by the count.
+   *
+   * @param number The number of values to return
+   */
+  public static ApproximateAggFunction topCount(int number) {
+    return new ApproximateAggFunction(TOP_COUNT, opBinding -> {
+      RelDataTypeFactory typeFactory = opBinding.getTypeFactory();
+      RelDataType valueCount = typeFactory.createStructType(
+        Arrays.asList(opBinding.getOperandType(0), typeFactory.createSqlType(SqlTypeName.BIGINT)),
+        Arrays.asList("value", "count"));
+      return typeFactory.createArrayType(valueCount, -1);
+    }, number);
+  }
+
+  /**
+   * Creates a function which builds a sketch of the distinct values of a field. Sketches of the same field can be
+   * merged, so the distinct values of several groups can be counted without reading the values again.
+   *
+   * @param precision The precision of the sketch, or null to use the default precision
+   */
+  public static ApproximateAggFunction sketch(@Nullable Integer precision) {
+    return new ApproximateAggFunction(SKETCH, NULLABLE_BINARY, precision);
+  }
+
+  /**
+   * Creates a function which merges sketches of distinct values into a single sketch.
+   */
+  public static ApproximateAggFunction mergeSketches() {
+    return new ApproximateAggFunction(MERGE_SKETCHES, NULLABLE_BINARY, null);
+  }
+
+  /**
+   * Creates a function which merges sketches of distinct values and returns the approximate number of distinct
+   * values.
+   */
+  public static ApproximateAggFunction countSketches() {
+    return new ApproximateAggFunction(COUNT_SKETCHES, ReturnTypes.BIGINT, null);
+  }
+
+  /**
+   * @return The name of the function without its parameter, such as {@link #QUANTILES}
+   */
+  public String getFunctionName() {
+    return functionName;
+  }
+
+  /**
+   * @return The parameter of the function, or null if the function uses its default
+   */
+  @Nullable
+  public Integer getParameter() {
+    return parameter;
+  }
+
+  @Override
+  public void unparse(SqlWriter writer, SqlCall call, int leftPrec, int rightPrec) {
+    SqlWriter.Frame frame = writer.startFunCall(functionName);
+    call.operand(0).unparse(writer, 0, 0);
+    if (parameter != null) {
+      writer.sep(",");
+      writer.print(parameter.toString());
+    }
+    writer.endFunCall(frame);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return super.equals(obj) && Objects.equals(parameter, ((ApproximateAggFunction) obj).parameter);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(super.hashCode(), parameter);
+  }
+}
@@ -0,0 +1,139 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.api.template.functions;
+
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlFunction;
+import org.apache.calcite.sql.SqlFunctionCategory;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlWriter;
+import org.apache.calcite.sql.type.OperandTypes;
+import org.apache.calcite.sql.type.ReturnTypes;
+import org.apache.calcite.sql.type.SqlReturnTypeInference;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.sql.type.SqlTypeTransforms;
+
+import java.math.BigDecimal;
+import java.util.Objects;
+
+/**
+ * Assigns numeric, date or timestamp values to buckets of equal width, so that a range condition can be joined on
+ * the buckets with an equality. Dates are bucketed by days and timestamps by seconds since the epoch.
+ *
+ * {@link #bucket} returns the bucket of a value, and {@link #bucketRange} returns the array of every bucket between
+ * the buckets of two values, which covers the buckets of all the values in the range. Calls are generated as
+ * NAME(operand, ..., width), and dialects rewrite them with their own functions when the call is unparsed. The name
+ * of the operator includes the width, such as BUCKET[3600], so that calls with different widths have different
+ * digests and are never merged.
+ */
+public class BucketFunction extends SqlFunction {
+  public static final String BUCKET = "BUCKET";
+  public static final String BUCKET_RANGE = "BUCKET_RANGE";
+
+  private static final SqlReturnTypeInference BUCKET_ARRAY = ReturnTypes.cascade(
+    opBinding -> opBinding.getTypeFactory().createArrayType(
+      opBinding.getTypeFactory().createSqlType(SqlTypeName.BIGINT), -1), SqlTypeTransforms.TO_NULLABLE);
+
+  private final String functionName;
+  private final SqlTypeName valueType;
+  private final double width;
+
+  private BucketFunction(String functionName, SqlReturnTypeInference returnTypeInference, SqlTypeName valueType,
+                         double width) {
+    super(functionName + "[" + getWidthLiteral(width) + "]", SqlKind.OTHER_FUNCTION, returnTypeInference, null,
+          OperandTypes.ANY, SqlFunctionCategory.SYSTEM);
+    if (width <= 0) {
+      throw new IllegalArgumentException("The width of a bucket must be positive.");
+    }
+    this.functionName = functionName;
+    this.valueType = valueType;
+    this.width = width;
+  }
+
+  /**
+   * Creates a function which returns the bucket of a value.
+   *
+   * @param valueType The type of the value, which is a numeric type, DATE or TIMESTAMP
+   * @param width The width of each bucket, in days for dates and in seconds for timestamps
+   */
+  public static BucketFunction bucket(SqlTypeName valueType, double width) {
+    return new BucketFunction(BUCKET, ReturnTypes.BIGINT_NULLABLE, valueType, width);
+  }
+
+  /**
+   * Creates a function which returns the array of every bucket from the bucket of its first operand up to the
+   * bucket of its second operand. The array is empty if the first operand is after the second.
+   *
+   * @param valueType The type of the operands, which is a numeric type, DATE or TIMESTAMP
+   * @param width The width of each bucket, in days for dates and in seconds for timestamps
+   */
+  public static BucketFunction bucketRange(SqlTypeName valueType, double width) {
+    return new BucketFunction(BUCKET_RANGE, BUCKET_ARRAY, valueType, width);
+  }
+
+  /**
+   * @return The name of the function without its width, which is {@link #BUCKET} or {@link #BUCKET_RANGE}
+   */
+  public String getFunctionName() {
+    return functionName;
+  }
+
+  /**
+   * @return The type of the values which are bucketed
+   */
+  public SqlTypeName getValueType() {
+    return valueType;
+  }
+
+  public double getWidth() {
+    return width;
+  }
+
+  /**
+   * @return The width as a numeric literal, without trailing zeros
+   */
+  public String getWidthLiteral() {
+    return getWidthLiteral(width);
+  }
+
+  private static String getWidthLiteral(double width) {
+    return BigDecimal.valueOf(width).stripTrailingZeros().toPlainString();
+  }
+
+  @Override
+  public void unparse(SqlWriter writer, SqlCall call, int leftPrec, int rightPrec) {
+    SqlWriter.Frame frame = writer.startFunCall(functionName);
+    for (int i = 0; i < call.operandCount(); i++) {
+      writer.sep(",");
+      call.operand(i).unparse(writer, 0, 0);
+    }
+    writer.sep(",");
+    writer.print(getWidthLiteral());
+    writer.endFunCall(frame);
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return super.equals(obj) && valueType == ((BucketFunction) obj).valueType
+      && width == ((BucketFunction) obj).width;
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(super.hashCode(), valueType, width);
+  }
+}
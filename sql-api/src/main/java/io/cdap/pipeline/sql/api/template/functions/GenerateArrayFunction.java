@@ -0,0 +1,44 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.api.template.functions;
+
+import org.apache.calcite.sql.SqlFunction;
+import org.apache.calcite.sql.SqlFunctionCategory;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.OperandTypes;
+import org.apache.calcite.sql.type.ReturnTypes;
+import org.apache.calcite.sql.type.SqlReturnTypeInference;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.sql.type.SqlTypeTransforms;
+
+/**
+ * Returns the array of every integer from its first operand up to its second operand, which is empty if the first
+ * operand is greater than the second. Calls are generated as GENERATE_ARRAY(start, end), and dialects rewrite them
+ * with their own functions when the call is unparsed.
+ */
+public class GenerateArrayFunction extends SqlFunction {
+  private static final SqlReturnTypeInference INTEGER_ARRAY = ReturnTypes.cascade(
+    opBinding -> opBinding.getTypeFactory().createArrayType(
+      opBinding.getTypeFactory().createSqlType(SqlTypeName.BIGINT), -1), SqlTypeTransforms.TO_NULLABLE);
+
+  public static final String NAME = "GENERATE_ARRAY";
+  public static final GenerateArrayFunction INSTANCE = new GenerateArrayFunction();
+
+  private GenerateArrayFunction() {
+    super(NAME, SqlKind.OTHER_FUNCTION, INTEGER_ARRAY, null, OperandTypes.NUMERIC_NUMERIC, SqlFunctionCategory.SYSTEM);
+  }
+}
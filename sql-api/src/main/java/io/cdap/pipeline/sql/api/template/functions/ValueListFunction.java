@@ -0,0 +1,79 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.api.template.functions;
+
+import org.apache.calcite.sql.SqlFunction;
+import org.apache.calcite.sql.SqlFunctionCategory;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.type.OperandTypes;
+import org.apache.calcite.sql.type.ReturnTypes;
+
+import java.util.Objects;
+
+/**
+ * A predicate which holds when a field is one of a list of values kept outside of the pipeline, such as in a runtime
+ * argument, a file or a table. The list is only known at runtime, so the predicate cannot be unparsed. The executor
+ * replaces it with the values themselves, or with a lookup of the values if the list is large or held by a file or
+ * a table.
+ */
+public class ValueListFunction extends SqlFunction {
+  public static final String NAME = "IN_VALUE_LIST";
+
+  /**
+   * Where the values of the list are read from.
+   */
+  public enum Source {
+    // A runtime argument holding comma separated values
+    ARGUMENT,
+    // A file holding one value per line, which is read by the platform running the queries
+    FILE,
+    // A column of a table, given as table.column, which is read by the queries
+    TABLE
+  }
+
+  private final Source source;
+  private final String reference;
+
+  public ValueListFunction(Source source, String reference) {
+    super(NAME, SqlKind.OTHER_FUNCTION, ReturnTypes.BOOLEAN_NULLABLE, null, OperandTypes.ANY,
+          SqlFunctionCategory.SYSTEM);
+    this.source = source;
+    this.reference = reference;
+  }
+
+  public Source getSource() {
+    return source;
+  }
+
+  /**
+   * @return The name of the runtime argument, the URI of the file, or the table and column holding the values
+   */
+  public String getReference() {
+    return reference;
+  }
+
+  @Override
+  public boolean equals(Object obj) {
+    return super.equals(obj) && source == ((ValueListFunction) obj).source
+      && reference.equals(((ValueListFunction) obj).reference);
+  }
+
+  @Override
+  public int hashCode() {
+    return Objects.hash(super.hashCode(), source, reference);
+  }
+}
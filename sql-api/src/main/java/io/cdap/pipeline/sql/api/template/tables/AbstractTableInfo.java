@@ -18,9 +18,21 @@ package io.cdap.pipeline.sql.api.template.tables;
 
 import org.apache.calcite.schema.impl.AbstractTable;
 
+import javax.annotation.Nullable;
+
 /**
  * Represents a Calcite table with a name identifier.
  */
 public abstract class AbstractTableInfo extends AbstractTable {
   public abstract String getTableName();
+
+  /**
+   * Returns the metadata of the table, if the table exists and its metadata is known.
+   *
+   * @return The metadata of the table, or null if unknown
+   */
+  @Nullable
+  public TableMetadata getMetadata() {
+    return null;
+  }
 }
@@ -18,6 +18,8 @@ package io.cdap.pipeline.sql.api.template.tables;
 
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
 import org.apache.calcite.schema.Table;
 
 import javax.annotation.Nullable;
@@ -28,10 +30,16 @@ import javax.annotation.Nullable;
 public class DelegateTable extends AbstractTableInfo {
   private final String tableName;
   private final Table table;
+  private final TableMetadata metadata;
 
   public DelegateTable(String tableName, @Nullable Table table) {
+    this(tableName, table, null);
+  }
+
+  public DelegateTable(String tableName, @Nullable Table table, @Nullable TableMetadata metadata) {
     this.tableName = tableName;
     this.table = table;
+    this.metadata = metadata;
   }
 
   @Override
@@ -42,7 +50,21 @@ public class DelegateTable extends AbstractTableInfo {
     return table.getRowType(typeFactory);
   }
 
+  @Override
+  public Statistic getStatistic() {
+    if (table == null) {
+      return Statistics.UNKNOWN;
+    }
+    return table.getStatistic();
+  }
+
   public String getTableName() {
     return tableName;
   }
+
+  @Nullable
+  @Override
+  public TableMetadata getMetadata() {
+    return metadata;
+  }
 }
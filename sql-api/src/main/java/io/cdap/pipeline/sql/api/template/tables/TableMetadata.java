@@ -0,0 +1,196 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.api.template.tables;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Metadata about a table which is known without querying its contents. Every property is optional, and is only
+ * set when the source of the table can guarantee it is accurate, except for the column sizes which are estimates.
+ */
+public class TableMetadata {
+  private final Long rowCount;
+  private final String partitionColumn;
+  private final Long lastModifiedTime;
+  private final List<MaterializedView> materializedViews;
+  private final Set<String> pruningColumns;
+  private final List<String> primaryKey;
+  private final Map<String, Long> columnSizes;
+
+  private TableMetadata(@Nullable Long rowCount, @Nullable String partitionColumn, @Nullable Long lastModifiedTime,
+                        List<MaterializedView> materializedViews, Set<String> pruningColumns,
+                        List<String> primaryKey, Map<String, Long> columnSizes) {
+    this.rowCount = rowCount;
+    this.partitionColumn = partitionColumn;
+    this.lastModifiedTime = lastModifiedTime;
+    this.materializedViews = Collections.unmodifiableList(materializedViews);
+    this.pruningColumns = Collections.unmodifiableSet(pruningColumns);
+    this.primaryKey = Collections.unmodifiableList(primaryKey);
+    this.columnSizes = Collections.unmodifiableMap(columnSizes);
+  }
+
+  /**
+   * @return The exact number of rows in the table, or null if unknown
+   */
+  @Nullable
+  public Long getRowCount() {
+    return rowCount;
+  }
+
+  /**
+   * @return The column which holds a single value in each partition of the table, so that its bounds can be read
+   * from the partition metadata, or null if there is no such column
+   */
+  @Nullable
+  public String getPartitionColumn() {
+    return partitionColumn;
+  }
+
+  /**
+   * @return The time in milliseconds since the epoch at which the contents of the table last changed, or null if
+   * unknown
+   */
+  @Nullable
+  public Long getLastModifiedTime() {
+    return lastModifiedTime;
+  }
+
+  /**
+   * @return The materialized views over the table which may be read instead of the table
+   */
+  public List<MaterializedView> getMaterializedViews() {
+    return materializedViews;
+  }
+
+  /**
+   * @return The columns which the table is partitioned or clustered by, so that filtering them reduces the amount of
+   * data read from the table
+   */
+  public Set<String> getPruningColumns() {
+    return pruningColumns;
+  }
+
+  /**
+   * @return The columns which uniquely identify each row of the table, or an empty list if there are none
+   */
+  public List<String> getPrimaryKey() {
+    return primaryKey;
+  }
+
+  /**
+   * @return The estimated number of bytes stored by each top-level column of the table, for the columns whose size
+   * can be estimated
+   */
+  public Map<String, Long> getColumnSizes() {
+    return columnSizes;
+  }
+
+  public static Builder builder() {
+    return new Builder();
+  }
+
+  /**
+   * A builder for {@link TableMetadata}.
+   */
+  public static class Builder {
+    private Long rowCount;
+    private String partitionColumn;
+    private Long lastModifiedTime;
+    private final List<MaterializedView> materializedViews = new ArrayList<>();
+    private final Set<String> pruningColumns = new LinkedHashSet<>();
+    private final List<String> primaryKey = new ArrayList<>();
+    private final Map<String, Long> columnSizes = new HashMap<>();
+
+    private Builder() {
+    }
+
+    public Builder setRowCount(@Nullable Long rowCount) {
+      this.rowCount = rowCount;
+      return this;
+    }
+
+    public Builder setPartitionColumn(@Nullable String partitionColumn) {
+      this.partitionColumn = partitionColumn;
+      return this;
+    }
+
+    public Builder setLastModifiedTime(@Nullable Long lastModifiedTime) {
+      this.lastModifiedTime = lastModifiedTime;
+      return this;
+    }
+
+    public Builder addMaterializedView(MaterializedView materializedView) {
+      materializedViews.add(materializedView);
+      return this;
+    }
+
+    public Builder addPruningColumn(String pruningColumn) {
+      pruningColumns.add(pruningColumn);
+      return this;
+    }
+
+    public Builder setPrimaryKey(List<String> primaryKey) {
+      this.primaryKey.clear();
+      this.primaryKey.addAll(primaryKey);
+      return this;
+    }
+
+    public Builder setColumnSize(String column, long bytes) {
+      columnSizes.put(column, bytes);
+      return this;
+    }
+
+    public TableMetadata build() {
+      return new TableMetadata(rowCount, partitionColumn, lastModifiedTime, materializedViews, pruningColumns,
+                               primaryKey, columnSizes);
+    }
+  }
+
+  /**
+   * A materialized view, which is a table holding the always up to date result of a query over other tables.
+   */
+  public static class MaterializedView {
+    private final String tableName;
+    private final String query;
+
+    public MaterializedView(String tableName, String query) {
+      this.tableName = tableName;
+      this.query = query;
+    }
+
+    /**
+     * @return The name of the table which holds the result of the view
+     */
+    public String getTableName() {
+      return tableName;
+    }
+
+    /**
+     * @return The SQL query which defines the view, referring to tables by the names used in the pipeline
+     */
+    public String getQuery() {
+      return query;
+    }
+  }
+}
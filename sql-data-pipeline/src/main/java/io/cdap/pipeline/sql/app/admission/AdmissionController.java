@@ -0,0 +1,214 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.admission;
+
+import com.google.gson.Gson;
+import io.cdap.pipeline.sql.app.state.StateStore;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Limits the number of statements which run concurrently against a pool, such as a project or a reservation,
+ * across all pipelines sharing a {@link StateStore}.
+ *
+ * Each running statement holds a lease in the pool. Statements which cannot be admitted wait in a queue ordered by
+ * priority (higher first) and then by arrival time. Leases and queue entries expire unless they are renewed, so a
+ * pipeline which dies while holding a lease does not block the pool forever.
+ */
+public class AdmissionController {
+  private static final Logger LOG = LoggerFactory.getLogger(AdmissionController.class);
+  private static final Gson GSON = new Gson();
+  private static final String KEY_PREFIX = "admission:";
+
+  private final StateStore store;
+  private final String pool;
+  private final int maxConcurrent;
+  private final long expiryMillis;
+  private final long pollIntervalMillis;
+
+  public AdmissionController(StateStore store, String pool, int maxConcurrent, long expiryMillis,
+                             long pollIntervalMillis) {
+    if (maxConcurrent <= 0) {
+      throw new IllegalArgumentException("The maximum number of concurrent statements must be positive.");
+    }
+    this.store = store;
+    this.pool = pool;
+    this.maxConcurrent = maxConcurrent;
+    this.expiryMillis = expiryMillis;
+    this.pollIntervalMillis = pollIntervalMillis;
+  }
+
+  /**
+   * Blocks until the holder is admitted to the pool.
+   *
+   * @param holder A unique identifier for the statement requesting admission
+   * @param priority The priority of the statement. Statements with a higher priority are admitted first.
+   * @param timeoutMillis The maximum amount of time to wait in the queue
+   * @return The lease held by the statement, which must be released once the statement completes
+   * @throws TimeoutException If the statement was not admitted before the timeout
+   */
+  public Lease acquire(String holder, int priority, long timeoutMillis)
+    throws IOException, InterruptedException, TimeoutException {
+    long enqueueTime = System.currentTimeMillis();
+    AtomicBoolean admitted = new AtomicBoolean();
+    while (true) {
+      long now = System.currentTimeMillis();
+      store.update(KEY_PREFIX + pool, value -> {
+        PoolState state = PoolState.parse(value);
+        state.expire(now);
+        Entry waiter = state.waiters.computeIfAbsent(holder, k -> new Entry(priority, enqueueTime));
+        waiter.expiry = now + expiryMillis;
+        int free = maxConcurrent - state.leases.size();
+        admitted.set(free > 0 && state.rank(holder) < free);
+        if (admitted.get()) {
+          state.waiters.remove(holder);
+          state.leases.put(holder, waiter);
+        }
+        return GSON.toJson(state);
+      });
+
+      if (admitted.get()) {
+        long waitMillis = now - enqueueTime;
+        LOG.debug("Statement {} admitted to pool {} after waiting {} ms.", holder, pool, waitMillis);
+        return new Lease(holder, waitMillis);
+      }
+      if (now - enqueueTime > timeoutMillis) {
+        remove(holder);
+        throw new TimeoutException(String.format("Statement %s was not admitted to pool %s within %d ms.",
+                                                 holder, pool, timeoutMillis));
+      }
+      Thread.sleep(pollIntervalMillis);
+    }
+  }
+
+  /**
+   * Extends the expiry of a lease. This must be called periodically while the statement is running.
+   *
+   * @param lease The lease to renew
+   */
+  public void renew(Lease lease) throws IOException {
+    long now = System.currentTimeMillis();
+    store.update(KEY_PREFIX + pool, value -> {
+      PoolState state = PoolState.parse(value);
+      Entry entry = state.leases.get(lease.getHolder());
+      if (entry != null) {
+        entry.expiry = now + expiryMillis;
+      } else {
+        LOG.warn("Lease for statement {} in pool {} expired before it was renewed.", lease.getHolder(), pool);
+      }
+      return GSON.toJson(state);
+    });
+  }
+
+  /**
+   * Releases a lease, allowing the next statement in the queue to be admitted.
+   *
+   * @param lease The lease to release
+   */
+  public void release(Lease lease) throws IOException {
+    remove(lease.getHolder());
+  }
+
+  private void remove(String holder) throws IOException {
+    store.update(KEY_PREFIX + pool, value -> {
+      PoolState state = PoolState.parse(value);
+      state.leases.remove(holder);
+      state.waiters.remove(holder);
+      return GSON.toJson(state);
+    });
+  }
+
+  /**
+   * A lease on a slot of the pool.
+   */
+  public static class Lease {
+    private final String holder;
+    private final long waitMillis;
+
+    private Lease(String holder, long waitMillis) {
+      this.holder = holder;
+      this.waitMillis = waitMillis;
+    }
+
+    public String getHolder() {
+      return holder;
+    }
+
+    /**
+     * @return The time the statement spent in the queue before it was admitted
+     */
+    public long getWaitMillis() {
+      return waitMillis;
+    }
+  }
+
+  /**
+   * The serialized state of a pool.
+   */
+  private static class PoolState {
+    private Map<String, Entry> leases = new HashMap<>();
+    private Map<String, Entry> waiters = new HashMap<>();
+
+    private static PoolState parse(String value) {
+      PoolState state = value == null ? null : GSON.fromJson(value, PoolState.class);
+      return state == null ? new PoolState() : state;
+    }
+
+    private void expire(long now) {
+      leases.values().removeIf(entry -> entry.expiry < now);
+      waiters.values().removeIf(entry -> entry.expiry < now);
+    }
+
+    /**
+     * Returns the number of waiters which are ahead of the holder in the queue.
+     */
+    private int rank(String holder) {
+      Entry entry = waiters.get(holder);
+      int rank = 0;
+      for (Map.Entry<String, Entry> other : waiters.entrySet()) {
+        Entry otherEntry = other.getValue();
+        if (otherEntry.priority > entry.priority
+          || (otherEntry.priority == entry.priority && otherEntry.enqueueTime < entry.enqueueTime)
+          || (otherEntry.priority == entry.priority && otherEntry.enqueueTime == entry.enqueueTime
+          && other.getKey().compareTo(holder) < 0)) {
+          rank++;
+        }
+      }
+      return rank;
+    }
+  }
+
+  /**
+   * A lease or a queue entry.
+   */
+  private static class Entry {
+    private final int priority;
+    private final long enqueueTime;
+    private long expiry;
+
+    private Entry(int priority, long enqueueTime) {
+      this.priority = priority;
+      this.enqueueTime = enqueueTime;
+    }
+  }
+}
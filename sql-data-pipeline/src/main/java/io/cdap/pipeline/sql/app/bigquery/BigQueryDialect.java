@@ -0,0 +1,401 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.cdap.pipeline.sql.app.bigquery;
+
+import io.cdap.pipeline.sql.api.template.functions.ApproximateAggFunction;
+import io.cdap.pipeline.sql.api.template.functions.BucketFunction;
+import org.apache.calcite.avatica.util.Casing;
+import org.apache.calcite.config.NullCollation;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlDataTypeSpec;
+import org.apache.calcite.sql.SqlDialect;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlLiteral;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.SqlNumericLiteral;
+import org.apache.calcite.sql.SqlSelect;
+import org.apache.calcite.sql.SqlSetOperator;
+import org.apache.calcite.sql.SqlUserDefinedTypeNameSpec;
+import org.apache.calcite.sql.SqlWriter;
+import org.apache.calcite.sql.dialect.BigQuerySqlDialect;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.parser.SqlParserPos;
+import org.apache.calcite.util.Util;
+
+import java.math.BigDecimal;
+import java.util.EnumSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * The BigQuery dialect, with fixes for statements which Calcite does not generate correctly.
+ *
+ * Calcite only unparses set operations which remove duplicates, so UNION ALL, EXCEPT ALL and INTERSECT ALL are
+ * generated as empty strings. Casts are also generated with standard type names, such as DOUBLE, which BigQuery
+ * does not accept. Sketches of distinct values, and approximate distinct counts with an explicit precision, are
+ * generated with the HLL_COUNT functions, since APPROX_COUNT_DISTINCT always uses the default precision. GROUPING_ID
+ * is generated from the GROUPING function. Filters on a window function of a subquery, such as keeping the first
+ * row of each key, are generated with QUALIFY so that the rows are filtered without an extra query block. Decimal
+ * literals, which {@link BigQueryRelToSqlConverter} casts to NUMERIC, are generated as NUMERIC literals since BigQuery
+ * reads a number with a fraction as a FLOAT64.
+ */
+public class BigQueryDialect extends BigQuerySqlDialect {
+  public static final SqlDialect DEFAULT = new BigQueryDialect(
+    EMPTY_CONTEXT.withDatabaseProduct(DatabaseProduct.BIG_QUERY)
+      .withLiteralQuoteString("'")
+      .withLiteralEscapedQuoteString("\\'")
+      .withIdentifierQuoteString("`")
+      .withNullCollation(NullCollation.LOW)
+      .withUnquotedCasing(Casing.UNCHANGED)
+      .withQuotedCasing(Casing.UNCHANGED)
+      .withCaseSensitive(false));
+
+  private static final Set<SqlKind> QUALIFY_COMPARISONS =
+    EnumSet.of(SqlKind.EQUALS, SqlKind.LESS_THAN, SqlKind.LESS_THAN_OR_EQUAL);
+
+  public BigQueryDialect(Context context) {
+    super(context);
+  }
+
+  @Override
+  public void unparseCall(SqlWriter writer, SqlCall call, int leftPrec, int rightPrec) {
+    switch (call.getKind()) {
+      case UNION:
+      case EXCEPT:
+      case INTERSECT:
+        if (((SqlSetOperator) call.getOperator()).isAll()) {
+          unparseSetOperation(writer, call, leftPrec, rightPrec);
+          return;
+        }
+        break;
+      case CAST:
+        if (unparseNumericLiteral(writer, call)) {
+          return;
+        }
+        break;
+      case GROUPING:
+        if (call.getOperator() == SqlStdOperatorTable.GROUPING_ID) {
+          unparseGroupingId(writer, call);
+          return;
+        }
+        break;
+      case SELECT:
+        if (unparseQualify(writer, (SqlSelect) call, leftPrec, rightPrec)) {
+          return;
+        }
+        break;
+      case OTHER_FUNCTION:
+        if (call.getOperator() instanceof ApproximateAggFunction
+          && unparseApproximateCall(writer, call, (ApproximateAggFunction) call.getOperator())) {
+          return;
+        }
+        if (call.getOperator() instanceof BucketFunction) {
+          unparseBucketCall(writer, call, (BucketFunction) call.getOperator());
+          return;
+        }
+        break;
+      default:
+        break;
+    }
+    super.unparseCall(writer, call, leftPrec, rightPrec);
+  }
+
+  /**
+   * Unparses a cast of an exact number to NUMERIC as a NUMERIC literal, such as NUMERIC '1.50'.
+   *
+   * @return Whether the cast was unparsed
+   */
+  private static boolean unparseNumericLiteral(SqlWriter writer, SqlCall call) {
+    if (!(call.operand(0) instanceof SqlNumericLiteral) || !((SqlNumericLiteral) call.operand(0)).isExact()
+      || !(call.operand(1) instanceof SqlDataTypeSpec)
+      || !"NUMERIC".equals(((SqlDataTypeSpec) call.operand(1)).getTypeName().getSimple())) {
+      return false;
+    }
+    BigDecimal value = ((SqlNumericLiteral) call.operand(0)).bigDecimalValue();
+    writer.keyword("NUMERIC");
+    writer.literal("'" + value.toPlainString() + "'");
+    return true;
+  }
+
+  /**
+   * Unparses a set operation which keeps duplicates. Inputs which are sorted or limited are enclosed in parentheses,
+   * since the ORDER BY and LIMIT clauses would otherwise apply to the result of the set operation.
+   */
+  private void unparseSetOperation(SqlWriter writer, SqlCall call, int leftPrec, int rightPrec) {
+    SqlSetOperator operator = (SqlSetOperator) call.getOperator();
+    SqlWriter.Frame frame = writer.startList(SqlWriter.FrameTypeEnum.SETOP);
+    unparseSetOperand(writer, call.operand(0), leftPrec, operator.getLeftPrec());
+    writer.sep(operator.getName());
+    unparseSetOperand(writer, call.operand(1), operator.getRightPrec(), rightPrec);
+    writer.endList(frame);
+  }
+
+  private static void unparseSetOperand(SqlWriter writer, SqlNode operand, int leftPrec, int rightPrec) {
+    if (operand instanceof SqlSelect && (((SqlSelect) operand).getOrderList() != null
+      || ((SqlSelect) operand).getFetch() != null || ((SqlSelect) operand).getOffset() != null)) {
+      // Outside of a query frame, the input is unparsed as a subquery
+      SqlWriter.Frame frame = writer.startList(SqlWriter.FrameTypeEnum.SIMPLE);
+      operand.unparse(writer, 0, 0);
+      writer.endList(frame);
+      return;
+    }
+    operand.unparse(writer, leftPrec, rightPrec);
+  }
+
+  /**
+   * Unparses a query which filters on a window function computed by its subquery, and otherwise only selects other
+   * columns of the subquery, as the subquery filtered with QUALIFY. Such queries are generated when the rows of each
+   * partition are numbered and only some numbers are kept.
+   *
+   * @return Whether the query was unparsed
+   */
+  private boolean unparseQualify(SqlWriter writer, SqlSelect select, int leftPrec, int rightPrec) {
+    if (!(select.getWhere() instanceof SqlCall) || select.getGroup() != null || select.getHaving() != null
+      || select.getWindowList().size() > 0 || select.getOrderList() != null || select.getOffset() != null
+      || select.getFetch() != null || select.isDistinct() || select.getFrom() == null
+      || select.getFrom().getKind() != SqlKind.AS) {
+      return false;
+    }
+    SqlCall condition = (SqlCall) select.getWhere();
+    if (!QUALIFY_COMPARISONS.contains(condition.getKind()) || !(condition.operand(0) instanceof SqlIdentifier)
+      || !(condition.operand(1) instanceof SqlNumericLiteral)) {
+      return false;
+    }
+    SqlNode from = ((SqlCall) select.getFrom()).operand(0);
+    if (!(from instanceof SqlSelect)) {
+      return false;
+    }
+    SqlSelect subQuery = (SqlSelect) from;
+    if (subQuery.getOrderList() != null || subQuery.getOffset() != null || subQuery.getFetch() != null
+      || subQuery.isDistinct()) {
+      return false;
+    }
+
+    // Find the window function which is filtered on, and check that only the other columns are selected
+    String filteredName = Util.last(((SqlIdentifier) condition.operand(0)).names);
+    SqlNode window = null;
+    Map<String, SqlNode> columns = new LinkedHashMap<>();
+    for (SqlNode item : subQuery.getSelectList()) {
+      String name = getColumnName(item);
+      if (name == null) {
+        return false;
+      }
+      if (name.equals(filteredName)) {
+        SqlNode expression = ((SqlCall) item).operand(0);
+        if (item.getKind() != SqlKind.AS || expression.getKind() != SqlKind.OVER) {
+          return false;
+        }
+        window = expression;
+      } else {
+        columns.put(name, item);
+      }
+    }
+    if (window == null) {
+      return false;
+    }
+    SqlNodeList selectList = new SqlNodeList(columns.values(), SqlParserPos.ZERO);
+    if (select.getSelectList() != null) {
+      selectList = new SqlNodeList(SqlParserPos.ZERO);
+      for (SqlNode item : select.getSelectList()) {
+        SqlNode column = item instanceof SqlIdentifier ? columns.get(getColumnName(item)) : null;
+        if (column == null) {
+          return false;
+        }
+        selectList.add(column);
+      }
+    }
+
+    // QUALIFY must be accompanied by a WHERE, GROUP BY or HAVING clause
+    SqlNode where = subQuery.getWhere();
+    if (where == null && subQuery.getGroup() == null && subQuery.getHaving() == null) {
+      where = SqlLiteral.createBoolean(true, SqlParserPos.ZERO);
+    }
+    SqlSelect qualified = new SqlSelect(SqlParserPos.ZERO, null, selectList, subQuery.getFrom(), where,
+                                        subQuery.getGroup(), subQuery.getHaving(), subQuery.getWindowList(), null,
+                                        null, null);
+    super.unparseCall(writer, qualified, leftPrec, rightPrec);
+    writer.newlineAndIndent();
+    writer.keyword("QUALIFY");
+    condition.getOperator().createCall(SqlParserPos.ZERO, window, condition.operand(1)).unparse(writer, 0, 0);
+    return true;
+  }
+
+  /**
+   * Returns the name of a column of a select list, or null if the column is not named.
+   */
+  @Nullable
+  private static String getColumnName(SqlNode item) {
+    if (item instanceof SqlIdentifier && !((SqlIdentifier) item).isStar()) {
+      return Util.last(((SqlIdentifier) item).names);
+    }
+    if (item.getKind() == SqlKind.AS) {
+      return Util.last(((SqlIdentifier) ((SqlCall) item).operand(1)).names);
+    }
+    return null;
+  }
+
+  /**
+   * Unparses GROUPING_ID, which BigQuery does not support, as the sum of the GROUPING bits of its operands. The
+   * first operand is the most significant bit.
+   */
+  private void unparseGroupingId(SqlWriter writer, SqlCall call) {
+    SqlWriter.Frame frame = writer.startList("(", ")");
+    List<SqlNode> operands = call.getOperandList();
+    for (int i = 0; i < operands.size(); i++) {
+      if (i > 0) {
+        writer.keyword("+");
+      }
+      SqlWriter.Frame groupingFrame = writer.startFunCall("GROUPING");
+      operands.get(i).unparse(writer, 0, 0);
+      writer.endFunCall(groupingFrame);
+      long bit = 1L << (operands.size() - 1 - i);
+      if (bit > 1) {
+        writer.keyword("*");
+        writer.literal(Long.toString(bit));
+      }
+    }
+    writer.endList(frame);
+  }
+
+  /**
+   * Unparses the approximate functions which BigQuery implements with the HLL_COUNT functions.
+   *
+   * @return Whether the call was unparsed
+   */
+  private boolean unparseApproximateCall(SqlWriter writer, SqlCall call, ApproximateAggFunction function) {
+    switch (function.getFunctionName()) {
+      case ApproximateAggFunction.COUNT_DISTINCT:
+        if (function.getParameter() == null) {
+          return false;
+        }
+        SqlWriter.Frame extractFrame = writer.startFunCall("HLL_COUNT.EXTRACT");
+        unparseFunctionCall(writer, "HLL_COUNT.INIT", call.operand(0), function.getParameter());
+        writer.endFunCall(extractFrame);
+        return true;
+      case ApproximateAggFunction.SKETCH:
+        unparseFunctionCall(writer, "HLL_COUNT.INIT", call.operand(0), function.getParameter());
+        return true;
+      case ApproximateAggFunction.MERGE_SKETCHES:
+        unparseFunctionCall(writer, "HLL_COUNT.MERGE_PARTIAL", call.operand(0), null);
+        return true;
+      case ApproximateAggFunction.COUNT_SKETCHES:
+        unparseFunctionCall(writer, "HLL_COUNT.MERGE", call.operand(0), null);
+        return true;
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * Unparses a bucket function. The bucket of a value is the floor of its distance from the epoch divided by the
+   * width, and a range of buckets is generated as an array between the buckets of its bounds.
+   */
+  private static void unparseBucketCall(SqlWriter writer, SqlCall call, BucketFunction function) {
+    if (BucketFunction.BUCKET_RANGE.equals(function.getFunctionName())) {
+      SqlWriter.Frame frame = writer.startFunCall("GENERATE_ARRAY");
+      unparseBucket(writer, call.operand(0), function);
+      writer.sep(",");
+      unparseBucket(writer, call.operand(1), function);
+      writer.endFunCall(frame);
+    } else {
+      unparseBucket(writer, call.operand(0), function);
+    }
+  }
+
+  private static void unparseBucket(SqlWriter writer, SqlNode operand, BucketFunction function) {
+    SqlWriter.Frame castFrame = writer.startFunCall("CAST");
+    SqlWriter.Frame floorFrame = writer.startFunCall("FLOOR");
+    switch (function.getValueType()) {
+      case DATE:
+        SqlWriter.Frame dateFrame = writer.startFunCall("UNIX_DATE");
+        operand.unparse(writer, 0, 0);
+        writer.endFunCall(dateFrame);
+        break;
+      case TIMESTAMP:
+        // Timestamps are read from DATETIME columns, which are converted to a timestamp in UTC first
+        SqlWriter.Frame secondsFrame = writer.startFunCall("UNIX_SECONDS");
+        SqlWriter.Frame timestampFrame = writer.startFunCall("TIMESTAMP");
+        operand.unparse(writer, 0, 0);
+        writer.endFunCall(timestampFrame);
+        writer.endFunCall(secondsFrame);
+        break;
+      default:
+        operand.unparse(writer, SqlStdOperatorTable.DIVIDE.getLeftPrec(), SqlStdOperatorTable.DIVIDE.getRightPrec());
+        break;
+    }
+    writer.sep("/");
+    writer.print(function.getWidthLiteral());
+    writer.endFunCall(floorFrame);
+    writer.sep("AS");
+    writer.keyword("INT64");
+    writer.endFunCall(castFrame);
+  }
+
+  private static void unparseFunctionCall(SqlWriter writer, String name, SqlNode operand,
+                                          @Nullable Integer parameter) {
+    SqlWriter.Frame frame = writer.startFunCall(name);
+    operand.unparse(writer, 0, 0);
+    if (parameter != null) {
+      writer.sep(",");
+      writer.print(parameter.toString());
+    }
+    writer.endFunCall(frame);
+  }
+
+  @Override
+  public SqlNode getCastSpec(RelDataType type) {
+    switch (type.getSqlTypeName()) {
+      case TINYINT:
+      case SMALLINT:
+      case INTEGER:
+      case BIGINT:
+        return createTypeSpec("INT64");
+      case FLOAT:
+      case REAL:
+      case DOUBLE:
+        return createTypeSpec("FLOAT64");
+      case DECIMAL:
+        return createTypeSpec("NUMERIC");
+      case CHAR:
+      case VARCHAR:
+        return createTypeSpec("STRING");
+      case BOOLEAN:
+        return createTypeSpec("BOOL");
+      case BINARY:
+      case VARBINARY:
+        return createTypeSpec("BYTES");
+      default:
+        return super.getCastSpec(type);
+    }
+  }
+
+  private static SqlNode createTypeSpec(String typeName) {
+    return new SqlDataTypeSpec(new SqlUserDefinedTypeNameSpec(typeName, SqlParserPos.ZERO) {
+      @Override
+      public void unparse(SqlWriter writer, int leftPrec, int rightPrec) {
+        writer.keyword(typeName);
+      }
+    }, SqlParserPos.ZERO);
+  }
+}
@@ -18,20 +18,61 @@ package io.cdap.pipeline.sql.app.bigquery;
 
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.auth.oauth2.ServiceAccountCredentials;
+import com.google.cloud.BaseServiceException;
 import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryError;
+import com.google.cloud.bigquery.BigQueryException;
 import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.CopyJobConfiguration;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldValue;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.Job;
+import com.google.cloud.bigquery.JobConfiguration;
+import com.google.cloud.bigquery.JobInfo;
 import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.QueryParameterValue;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardSQLTypeName;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.Table;
+import com.google.cloud.bigquery.TableDefinition;
+import com.google.cloud.bigquery.TableId;
+import io.cdap.cdap.api.annotation.TransactionControl;
+import io.cdap.cdap.api.annotation.TransactionPolicy;
+import io.cdap.pipeline.sql.api.template.SQLSink;
 import io.cdap.pipeline.sql.api.template.interfaces.SQLNode;
+import io.cdap.pipeline.sql.app.admission.AdmissionController;
 import io.cdap.pipeline.sql.app.core.AbstractSQLExecutor;
 import io.cdap.pipeline.sql.app.core.SQLConfig;
+import io.cdap.pipeline.sql.app.core.TableCopy;
+import io.cdap.pipeline.sql.app.core.ValueList;
+import io.cdap.pipeline.sql.app.core.ValueListTable;
+import org.apache.calcite.config.Lex;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.rel2sql.RelToSqlConverter;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
 import org.apache.calcite.sql.SqlDialect;
-import org.apache.calcite.sql.dialect.BigQuerySqlDialect;
+import org.apache.calcite.sql.parser.SqlParser;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.sql.util.SqlBuilder;
+import org.apache.calcite.sql.validate.SqlConformanceEnum;
+import org.apache.calcite.tools.RelBuilder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.io.File;
 import java.io.FileInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Objects;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import javax.annotation.Nullable;
 
 /**
  * A custom action which executes an SQL pipeline upon BigQuery.
@@ -40,50 +81,554 @@ public class BigQueryExecutor extends AbstractSQLExecutor {
   private static final Logger LOG = LoggerFactory.getLogger(BigQueryExecutor.class);
 
   private static final String SERVICE_ACCOUNT_PATH_NAME = "serviceAccountPath";
+  private static final long JOB_POLL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+  private static final String RESOURCES_EXCEEDED_REASON = "resourcesExceeded";
+  private static final int MAX_REPLAN_ATTEMPTS = 3;
+  // Staging tables are dropped after each run, and expire on their own if the run dies before dropping them
+  private static final int STAGING_TABLE_EXPIRATION_HOURS = 24;
+  private static final String CLOUD_STORAGE_SCHEME = "gs://";
 
   private String serviceAccountPath;
+  private GoogleCredentials credentials;
+  private BigQuery bigquery;
+  private MetadataQueryRewriter metadataQueryRewriter;
+  private final Set<String> stagedTables = new LinkedHashSet<>();
 
   public BigQueryExecutor(SQLConfig config, Map<String, SQLNode> pluginMap) {
     super(config, pluginMap);
   }
 
   @Override
+  @TransactionPolicy(TransactionControl.EXPLICIT)
   public void initialize() {
-    super.initialize();
-
     // Get service account path from runtime arguments
     serviceAccountPath = getContext().getRuntimeArguments().get(SERVICE_ACCOUNT_PATH_NAME);
     if (serviceAccountPath == null) {
       throw new IllegalArgumentException("A service account path must be provided.");
     }
+    File credentialsPath = new File(serviceAccountPath);
+    try (FileInputStream serviceAccountStream = new FileInputStream(credentialsPath)) {
+      credentials = ServiceAccountCredentials.fromStream(serviceAccountStream);
+    } catch (IOException e) {
+      throw new IllegalArgumentException("Unable to load service account credentials file.", e);
+    }
+    // Instantiate a client.
+    bigquery = BigQueryOptions.newBuilder().setCredentials(credentials).build().getService();
+
+    super.initialize();
   }
 
   @Override
   public void run() throws Exception {
+    try {
+      runQueries();
+    } finally {
+      dropStagingTables();
+    }
+    // Copies and renames are separate jobs which run after the script commits, outside of its transaction. If one
+    // of them fails, the sinks written by the script are kept.
+    for (TableCopy copy : getTableCopies()) {
+      runCopy(copy);
+    }
+    recordSuccessfulRun();
+  }
+
+  private void runQueries() throws Exception {
+    if (getQueries().isEmpty() && getTableCreationQueries().isEmpty()) {
+      return;
+    }
+    int attempt = 0;
+    while (true) {
+      try {
+        boolean staged = runStagingQueries();
+        runStatement(buildScript(!staged));
+        return;
+      } catch (BigQueryException e) {
+        // Sinks are only written by the script, which runs in a transaction, so it is safe to run a smaller plan
+        if (e.getError() == null || !RESOURCES_EXCEEDED_REASON.equals(e.getError().getReason())
+          || attempt++ >= MAX_REPLAN_ATTEMPTS || !replan()) {
+          throw e;
+        }
+        LOG.warn("Queries exceeded the available resources, retrying with additional staging tables.", e);
+        // The staging tables are created again by the new plan
+        dropStagingTables();
+      }
+    }
+  }
+
+  /**
+   * Creates the missing tables, then fills each staging table with a separate job, so that the statements which
+   * fill them do not count towards the length of the script.
+   *
+   * @return Whether any staging statement was run
+   */
+  private boolean runStagingQueries() throws Exception {
+    if (getStagingQueries().isEmpty()) {
+      return false;
+    }
+    // Staging statements may fill cache tables, which must exist first
+    if (!getTableCreationQueries().isEmpty()) {
+      runStatement(String.join(";\n", getTableCreationQueries()));
+    }
+    stagedTables.addAll(getStagingTables());
+    for (String query : getStagingQueries()) {
+      runStatement(query);
+    }
+    return true;
+  }
+
+  /**
+   * Drops the staging tables of every attempt. Failures are only logged, since the tables expire on their own.
+   */
+  private void dropStagingTables() {
+    for (String tableName : stagedTables) {
+      try {
+        dropTable(tableName);
+      } catch (IOException e) {
+        LOG.warn("Failed to drop staging table {}, it will expire on its own.", tableName, e);
+      }
+    }
+    stagedTables.clear();
+  }
+
+  /**
+   * Runs a statement or a script as a single job. Large value lists are passed as parameters, which do not count
+   * towards the length of the statement.
+   */
+  private void runStatement(String query) throws Exception {
+    LOG.info("Executing queries: " + query);
+    QueryJobConfiguration.Builder queryConfig = QueryJobConfiguration.newBuilder(query);
+    for (Map.Entry<String, ValueList> valueList : getValueLists().entrySet()) {
+      String parameterName = getParameterName(valueList.getKey());
+      if (valueList.getValue().getFileUri() == null && query.contains("@" + parameterName)) {
+        queryConfig.addNamedParameter(parameterName, getArrayParameter(valueList.getValue()));
+      }
+    }
+    runJob(queryConfig.build());
+  }
+
+  /**
+   * Builds a script which creates missing sink tables, then runs all queries in a single transaction so that a
+   * failure leaves the sinks untouched.
+   *
+   * @param createTables Whether the script creates the missing tables, which is not needed if they were created
+   *                     before the staging tables were filled
+   */
+  private String buildScript(boolean createTables) {
     StringBuilder queryBuilder = new StringBuilder();
+    // Table creation is idempotent and not allowed within a transaction
+    if (createTables) {
+      for (String query : getTableCreationQueries()) {
+        queryBuilder.append(query);
+        queryBuilder.append(";\n");
+      }
+    }
+    queryBuilder.append("BEGIN TRANSACTION;\n");
     // Construct queries
     for (String query: getQueries()) {
       queryBuilder.append(query);
       queryBuilder.append(";\n");
     }
+    queryBuilder.append("COMMIT TRANSACTION;\n");
+    return queryBuilder.toString();
+  }
 
-    String queries = queryBuilder.toString();
-    LOG.info("Executing queries: " + queries);
-    GoogleCredentials credentials;
-    File credentialsPath = new File(serviceAccountPath);
-    try (FileInputStream serviceAccountStream = new FileInputStream(credentialsPath)) {
-      credentials = ServiceAccountCredentials.fromStream(serviceAccountStream);
+  /**
+   * Copies a source table to the destination table of a sink, then renames the columns renamed by the sink.
+   */
+  private void runCopy(TableCopy copy) throws Exception {
+    LOG.info("Copying table {} to {}.", copy.getSourceTable(), copy.getDestinationTable());
+    CopyJobConfiguration copyConfig =
+      CopyJobConfiguration.newBuilder(parseTableId(copy.getDestinationTable()), parseTableId(copy.getSourceTable()))
+        .setWriteDisposition(copy.getWriteMode() == SQLSink.WriteMode.TRUNCATE
+                               ? JobInfo.WriteDisposition.WRITE_TRUNCATE : JobInfo.WriteDisposition.WRITE_APPEND)
+        .setCreateDisposition(copy.isCreateTable()
+                                ? JobInfo.CreateDisposition.CREATE_IF_NEEDED : JobInfo.CreateDisposition.CREATE_NEVER)
+        .build();
+    runJob(copyConfig);
+
+    if (copy.getRenamedColumns().isEmpty()) {
+      return;
+    }
+    SqlBuilder query = new SqlBuilder(getDialect());
+    query.append("ALTER TABLE ");
+    query.identifier(copy.getDestinationTable());
+    String separator = " ";
+    for (Map.Entry<String, String> column : copy.getRenamedColumns().entrySet()) {
+      query.append(separator);
+      query.append("RENAME COLUMN ");
+      query.identifier(column.getKey());
+      query.append(" TO ");
+      query.identifier(column.getValue());
+      separator = ", ";
+    }
+    String renameQuery = query.toSqlString().getSql();
+    LOG.info("Executing queries: " + renameQuery);
+    runJob(QueryJobConfiguration.newBuilder(renameQuery).build());
+  }
+
+  /**
+   * Copies are only used when they leave the destination with the same layout as a query would. Appending by copy
+   * requires the destination to have exactly the same columns as the source, and replacing by copy also replaces the
+   * schema, partitioning and clustering of the destination with those of the source, so the source must match the
+   * destination in both cases. The destination must look like the source after the renames are applied, since it
+   * was renamed the same way by the previous run.
+   */
+  @Override
+  protected boolean supportsTableCopy(TableCopy copy) {
+    Table destination = bigquery.getTable(parseTableId(copy.getDestinationTable()));
+    if (destination == null) {
+      // The copy creates the destination from the source
+      return true;
     }
+    Table source = bigquery.getTable(parseTableId(copy.getSourceTable()));
+    return source != null && isCopyCompatible(source.getDefinition(), destination.getDefinition(),
+                                              copy.getRenamedColumns());
+  }
 
-    // Instantiate a client.
-    BigQuery bigquery =
-      BigQueryOptions.newBuilder().setCredentials(credentials).build().getService();
-    QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(queries).build();
-    bigquery.query(queryConfig);
+  /**
+   * Checks whether copying a source table leaves the destination with the same schema, partitioning and clustering
+   * as it has, once the renames are applied.
+   */
+  static boolean isCopyCompatible(TableDefinition source, TableDefinition destination,
+                                  Map<String, String> renamedColumns) {
+    if (!(source instanceof StandardTableDefinition) || !(destination instanceof StandardTableDefinition)) {
+      return false;
+    }
+    StandardTableDefinition sourceDefinition = (StandardTableDefinition) source;
+    StandardTableDefinition destinationDefinition = (StandardTableDefinition) destination;
+    return destinationDefinition.getSchema() != null && sourceDefinition.getSchema() != null
+      && destinationDefinition.getSchema().equals(renameFields(sourceDefinition.getSchema(), renamedColumns))
+      && Objects.equals(sourceDefinition.getTimePartitioning(), destinationDefinition.getTimePartitioning())
+      && Objects.equals(sourceDefinition.getClustering(), destinationDefinition.getClustering());
+  }
+
+  private static Schema renameFields(Schema schema, Map<String, String> renamedColumns) {
+    List<Field> fields = new ArrayList<>();
+    for (Field field : schema.getFields()) {
+      String newName = renamedColumns.get(field.getName());
+      fields.add(newName == null ? field : field.toBuilder().setName(newName).build());
+    }
+    return Schema.of(fields);
+  }
+
+  /**
+   * Parses a table name of the form project.dataset.table. Project names may contain dots, so the name is split
+   * from the right.
+   */
+  static TableId parseTableId(String tableName) {
+    int tableIndex = tableName.lastIndexOf('.');
+    int datasetIndex = tableName.lastIndexOf('.', tableIndex - 1);
+    if (datasetIndex <= 0) {
+      throw new IllegalArgumentException("Invalid table name " + tableName);
+    }
+    return TableId.of(tableName.substring(0, datasetIndex), tableName.substring(datasetIndex + 1, tableIndex),
+                      tableName.substring(tableIndex + 1));
+  }
+
+  @Override
+  protected RelNode rewrite(RelNode relationalNode) {
+    if (metadataQueryRewriter == null) {
+      metadataQueryRewriter = new MetadataQueryRewriter(getRootSchema(), createRelBuilder());
+    }
+    return metadataQueryRewriter.rewrite(relationalNode);
+  }
+
+  @Override
+  protected List<Object> findHeavyKeys(RelNode relationalNode, int field, double minFraction) throws Exception {
+    RelDataTypeField keyField = relationalNode.getRowType().getFieldList().get(field);
+    RelBuilder builder = createRelBuilder();
+    RelNode keys = builder.push(relationalNode).project(builder.field(field)).build();
+    // Every key above the threshold is among the top 1 / threshold keys
+    int topCount = (int) Math.ceil(1 / minFraction);
+    String query = String.format("SELECT top.value AS value, top.count / total AS fraction "
+                                   + "FROM (SELECT APPROX_TOP_COUNT(%s, %d) AS tops, COUNT(*) AS total FROM (%s)), "
+                                   + "UNNEST(tops) AS top",
+                                 getDialect().quoteIdentifier(keyField.getName()), topCount, toSql(keys));
+    LOG.info("Sampling join keys: " + query);
+
+    List<Object> heavyKeys = new ArrayList<>();
+    AdmissionController.Lease lease = acquireLease();
+    try {
+      for (FieldValueList row : bigquery.query(QueryJobConfiguration.of(query)).iterateAll()) {
+        if (row.get("fraction").getDoubleValue() >= minFraction) {
+          heavyKeys.add(getKeyValue(row.get("value"), keyField.getType().getSqlTypeName()));
+        }
+      }
+    } finally {
+      releaseLease(lease);
+    }
+    return heavyKeys;
+  }
+
+  @Nullable
+  private Object getKeyValue(FieldValue value, SqlTypeName type) {
+    if (value.isNull()) {
+      return null;
+    }
+    switch (type) {
+      case TINYINT:
+      case SMALLINT:
+      case INTEGER:
+      case BIGINT:
+        return value.getLongValue();
+      case DECIMAL:
+        return value.getNumericValue();
+      case BOOLEAN:
+        return value.getBooleanValue();
+      case CHAR:
+      case VARCHAR:
+        return value.getStringValue();
+      default:
+        throw new IllegalArgumentException("Unable to salt join keys of type " + type);
+    }
+  }
+
+  @Override
+  protected SqlParser.Config getParserConfig() {
+    // Table names are quoted with backticks, and BigQuery accepts constructs outside of standard SQL
+    return SqlParser.configBuilder()
+      .setLex(Lex.MYSQL)
+      .setConformance(SqlConformanceEnum.LENIENT)
+      .build();
+  }
+
+  @Override
+  protected String mergeSketchesStatement(String tableName, String query, List<String> keys,
+                                          List<String> sketchColumns) {
+    SqlBuilder statement = new SqlBuilder(getDialect());
+    statement.append("MERGE ");
+    statement.identifier(tableName);
+    statement.append(" AS target USING (");
+    statement.append(query);
+    statement.append(") AS source ON ");
+    if (keys.isEmpty()) {
+      statement.append("TRUE");
+    }
+    String separator = "";
+    for (String key : keys) {
+      // Null keys are merged like any other key
+      statement.append(separator);
+      statement.append("target.");
+      statement.identifier(key);
+      statement.append(" IS NOT DISTINCT FROM source.");
+      statement.identifier(key);
+      separator = " AND ";
+    }
+    statement.append(" WHEN MATCHED THEN UPDATE SET ");
+    separator = "";
+    for (String sketchColumn : sketchColumns) {
+      statement.append(separator);
+      statement.identifier(sketchColumn);
+      statement.append(" = (SELECT HLL_COUNT.MERGE_PARTIAL(sketch) FROM UNNEST([target.");
+      statement.identifier(sketchColumn);
+      statement.append(", source.");
+      statement.identifier(sketchColumn);
+      statement.append("]) AS sketch)");
+      separator = ", ";
+    }
+    // The columns of the table may be in a different order than the columns of the query
+    List<String> columns = new ArrayList<>(keys);
+    columns.addAll(sketchColumns);
+    statement.append(" WHEN NOT MATCHED THEN INSERT (");
+    separator = "";
+    for (String column : columns) {
+      statement.append(separator);
+      statement.identifier(column);
+      separator = ", ";
+    }
+    statement.append(") VALUES (");
+    separator = "";
+    for (String column : columns) {
+      statement.append(separator);
+      statement.append("source.");
+      statement.identifier(column);
+      separator = ", ";
+    }
+    statement.append(")");
+    return statement.toSqlString().getSql();
+  }
+
+  @Override
+  protected String loadValueListQuery(String tableName, ValueList valueList) {
+    SqlBuilder query = new SqlBuilder(getDialect());
+    query.append("SELECT ");
+    query.identifier(ValueList.COLUMN_NAME);
+    query.append(" FROM UNNEST(@");
+    query.append(getParameterName(tableName));
+    query.append(") AS ");
+    query.identifier(ValueList.COLUMN_NAME);
+    return query.toSqlString().getSql();
+  }
+
+  @Override
+  protected String createStagingTableStatement(String tableName, String query) {
+    SqlBuilder statement = new SqlBuilder(getDialect());
+    statement.append("CREATE TABLE ");
+    statement.identifier(tableName);
+    statement.append(" OPTIONS(expiration_timestamp = TIMESTAMP_ADD(CURRENT_TIMESTAMP(), INTERVAL ");
+    statement.append(STAGING_TABLE_EXPIRATION_HOURS);
+    statement.append(" HOUR)) AS ");
+    statement.append(query);
+    return statement.toSqlString().getSql();
+  }
+
+  /**
+   * Returns the name of the parameter holding the values of a value list, which is the name of its table without
+   * the dataset.
+   */
+  private static String getParameterName(String tableName) {
+    return tableName.substring(tableName.lastIndexOf('.') + 1);
+  }
+
+  private QueryParameterValue getArrayParameter(ValueList valueList) {
+    StandardSQLTypeName type = getParameterType(valueList.getType());
+    List<QueryParameterValue> values = new ArrayList<>();
+    for (String value : valueList.getValues()) {
+      values.add(QueryParameterValue.newBuilder().setType(type).setValue(value).build());
+    }
+    return QueryParameterValue.newBuilder()
+      .setType(StandardSQLTypeName.ARRAY)
+      .setArrayType(type)
+      .setArrayValues(values)
+      .build();
+  }
+
+  private StandardSQLTypeName getParameterType(RelDataType type) {
+    switch (type.getSqlTypeName()) {
+      case TINYINT:
+      case SMALLINT:
+      case INTEGER:
+      case BIGINT:
+        return StandardSQLTypeName.INT64;
+      case DECIMAL:
+        return StandardSQLTypeName.NUMERIC;
+      case FLOAT:
+      case REAL:
+      case DOUBLE:
+        return StandardSQLTypeName.FLOAT64;
+      case BOOLEAN:
+        return StandardSQLTypeName.BOOL;
+      case CHAR:
+      case VARCHAR:
+        return StandardSQLTypeName.STRING;
+      case DATE:
+        return StandardSQLTypeName.DATE;
+      case TIMESTAMP:
+        // Timestamps are read from DATETIME columns
+        return StandardSQLTypeName.DATETIME;
+      default:
+        throw new IllegalArgumentException("Unable to load value lists of type " + type);
+    }
+  }
+
+  @Override
+  protected ValueListTable getValueListTable(String tableName, String column, RelDataType type) throws IOException {
+    Table table;
+    try {
+      table = bigquery.getTable(parseTableId(tableName));
+    } catch (BigQueryException e) {
+      throw new IOException("Failed to read the schema of table " + tableName, e);
+    }
+    if (table == null || table.getDefinition().getSchema() == null) {
+      throw new IllegalArgumentException("Table " + tableName + " holding a value list does not exist.");
+    }
+    List<String> columns = new ArrayList<>();
+    for (Field field : table.getDefinition().getSchema().getFields()) {
+      columns.add(field.getName());
+    }
+    return new ValueListTable(tableName, columns, column, type, table.getLastModifiedTime());
+  }
+
+  /**
+   * Creates an external table over a file in Cloud Storage, so that the file is read by the queries themselves.
+   */
+  @Override
+  protected String createValueListFileStatement(String tableName, ValueList valueList) {
+    if (!valueList.getFileUri().startsWith(CLOUD_STORAGE_SCHEME)) {
+      throw new IllegalArgumentException(String.format(
+        "Value list file %s must be in Cloud Storage, such as %sbucket/values.csv.", valueList.getFileUri(),
+        CLOUD_STORAGE_SCHEME));
+    }
+    SqlBuilder statement = new SqlBuilder(getDialect());
+    statement.append("CREATE EXTERNAL TABLE ");
+    statement.identifier(tableName);
+    statement.append(" (");
+    statement.identifier(ValueList.COLUMN_NAME);
+    statement.append(" ");
+    statement.append(getParameterType(valueList.getType()).name());
+    statement.append(") OPTIONS(format = 'CSV', uris = [");
+    statement.literal(valueList.getFileUri());
+    statement.append("], expiration_timestamp = TIMESTAMP_ADD(CURRENT_TIMESTAMP(), INTERVAL ");
+    statement.append(STAGING_TABLE_EXPIRATION_HOURS);
+    statement.append(" HOUR))");
+    return statement.toSqlString().getSql();
+  }
+
+  @Override
+  protected long getTableSizeBytes(String tableName) throws IOException {
+    Table table;
+    try {
+      table = bigquery.getTable(parseTableId(tableName));
+    } catch (BigQueryException e) {
+      throw new IOException("Failed to read the size of table " + tableName, e);
+    }
+    if (table == null || !(table.getDefinition() instanceof StandardTableDefinition)) {
+      throw new IOException("Table " + tableName + " does not exist.");
+    }
+    Long numBytes = ((StandardTableDefinition) table.getDefinition()).getNumBytes();
+    return numBytes == null ? 0L : numBytes;
+  }
+
+  @Override
+  protected void dropTable(String tableName) throws IOException {
+    try {
+      bigquery.delete(parseTableId(tableName));
+    } catch (BigQueryException e) {
+      throw new IOException("Failed to drop table " + tableName, e);
+    }
+  }
+
+  @Override
+  protected String getDefaultAdmissionPool() {
+    // Statements are billed to and limited by the project of the service account
+    return BigQueryOptions.newBuilder().setCredentials(credentials).build().getProjectId();
   }
 
   @Override
   public SqlDialect getDialect() {
-    return BigQuerySqlDialect.DEFAULT;
+    return BigQueryDialect.DEFAULT;
+  }
+
+  @Override
+  protected RelToSqlConverter createSqlConverter() {
+    return new BigQueryRelToSqlConverter(getDialect());
+  }
+
+  /**
+   * Submits a job once it is admitted, then waits for it to complete.
+   *
+   * @param configuration The configuration of the job to run
+   * @throws BigQueryException If the job fails
+   */
+  private void runJob(JobConfiguration configuration) throws Exception {
+    AdmissionController.Lease lease = acquireLease();
+    try {
+      Job job = bigquery.create(JobInfo.of(configuration));
+      while (!job.isDone()) {
+        Thread.sleep(JOB_POLL_MILLIS);
+        renewLease(lease);
+      }
+      job = job.reload();
+      if (job == null) {
+        throw new IllegalStateException("Job no longer exists.");
+      }
+      BigQueryError error = job.getStatus().getError();
+      if (error != null) {
+        throw new BigQueryException(BaseServiceException.UNKNOWN_CODE, error.getMessage(), error);
+      }
+    } finally {
+      releaseLease(lease);
+    }
   }
 }
@@ -0,0 +1,246 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.bigquery;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
+import org.apache.calcite.rel.RelHomogeneousShuttle;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Correlate;
+import org.apache.calcite.rel.core.CorrelationId;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.Uncollect;
+import org.apache.calcite.rel.core.Values;
+import org.apache.calcite.rel.rel2sql.RelToSqlConverter;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexCorrelVariable;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.rex.RexVisitorImpl;
+import org.apache.calcite.sql.JoinConditionType;
+import org.apache.calcite.sql.JoinType;
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlDialect;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlJoin;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlLiteral;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.SqlSelect;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.util.Util;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Converts relational expressions to BigQuery statements, with support for flattening arrays.
+ *
+ * Calcite represents the flattening of an array as a correlated join of the input with an {@link Uncollect} of the
+ * array, and generates it as a lateral subquery which BigQuery does not accept. Instead, the array is joined with
+ * UNNEST, and the fields of record elements are selected from the element. The array may be a field of the input or
+ * an expression of its fields, such as a generated array. Decimal literals are cast to their type, so that they are
+ * generated as NUMERIC literals by the {@link BigQueryDialect}.
+ */
+public class BigQueryRelToSqlConverter extends RelToSqlConverter {
+  private static final String INPUT_ALIAS = "t";
+  private static final String ELEMENT_ALIAS = "element";
+
+  // The largest scale and number of integer digits of a NUMERIC value
+  private static final int NUMERIC_MAX_SCALE = 9;
+  private static final int NUMERIC_MAX_INTEGER_DIGITS = 29;
+
+  // Whether the expression being converted already has its decimal literals cast to NUMERIC
+  private boolean decimalsCast;
+
+  public BigQueryRelToSqlConverter(SqlDialect dialect) {
+    super(dialect);
+  }
+
+  /**
+   * Converts an expression after casting its decimal literals to their type. Calcite generates decimal and double
+   * literals alike, which BigQuery reads as FLOAT64 values, so the casts let the dialect generate decimal literals
+   * as NUMERIC literals. The casts are added once, when the root of the expression is converted.
+   */
+  @Override
+  public Result visitChild(int i, RelNode e) {
+    if (decimalsCast) {
+      return super.visitChild(i, e);
+    }
+    decimalsCast = true;
+    try {
+      return super.visitChild(i, castDecimalLiterals(e));
+    } finally {
+      decimalsCast = false;
+    }
+  }
+
+  @Override
+  public Result visit(Correlate e) {
+    RexNode array = getUnnestedArray(e);
+    if (array == null) {
+      return super.visit(e);
+    }
+
+    SqlNode input = visitChild(0, e.getLeft()).asFrom();
+    String inputAlias;
+    if (input.getKind() == SqlKind.AS) {
+      inputAlias = ((SqlIdentifier) ((SqlCall) input).operand(1)).getSimple();
+    } else if (input instanceof SqlIdentifier) {
+      inputAlias = Util.last(((SqlIdentifier) input).names);
+    } else {
+      inputAlias = INPUT_ALIAS;
+      input = SqlStdOperatorTable.AS.createCall(POS, input, new SqlIdentifier(inputAlias, POS));
+    }
+
+    // The element is referenced through its own alias, which may not clash with the input or its fields
+    Set<String> usedNames = new HashSet<>(e.getLeft().getRowType().getFieldNames());
+    usedNames.add(inputAlias);
+    String elementAlias = ELEMENT_ALIAS;
+    for (int i = 0; usedNames.contains(elementAlias); i++) {
+      elementAlias = ELEMENT_ALIAS + i;
+    }
+
+    SqlNodeList selectList = new SqlNodeList(POS);
+    List<RelDataTypeField> fields = e.getRowType().getFieldList();
+    List<RelDataTypeField> inputFields = e.getLeft().getRowType().getFieldList();
+    for (RelDataTypeField field : inputFields) {
+      selectList.add(as(new SqlIdentifier(ImmutableList.of(inputAlias, field.getName()), POS), field.getName()));
+    }
+    RelDataType elementType = e.getRight().getInput(0).getRowType().getFieldList().get(0).getType()
+      .getComponentType();
+    if (elementType.isStruct()) {
+      for (RelDataTypeField field : elementType.getFieldList()) {
+        SqlIdentifier elementField = new SqlIdentifier(ImmutableList.of(elementAlias, field.getName()), POS);
+        selectList.add(as(elementField, fields.get(inputFields.size() + field.getIndex()).getName()));
+      }
+    } else {
+      selectList.add(as(new SqlIdentifier(elementAlias, POS), fields.get(inputFields.size()).getName()));
+    }
+
+    // Fields of the current row of the input are referenced through the alias of the input
+    Context inputContext = aliasContext(ImmutableMap.of(inputAlias, e.getLeft().getRowType()), true);
+    correlTableMap.put(e.getCorrelationId(), inputContext);
+    SqlNode unnest = SqlStdOperatorTable.AS.createCall(
+      POS, SqlStdOperatorTable.UNNEST.createCall(POS, inputContext.toSql(null, array)),
+      new SqlIdentifier(elementAlias, POS));
+    // Rows with an empty array are kept by a left join, with null element fields
+    JoinType joinType = e.getJoinType() == JoinRelType.LEFT ? JoinType.LEFT : JoinType.CROSS;
+    SqlNode join = new SqlJoin(POS, input, SqlLiteral.createBoolean(false, POS), joinType.symbol(POS), unnest,
+                               JoinConditionType.NONE.symbol(POS), null);
+    SqlSelect select = new SqlSelect(POS, SqlNodeList.EMPTY, selectList, join, null, null, null, null, null, null,
+                                     null);
+    return result(select, ImmutableList.of(Clause.SELECT), e, null);
+  }
+
+  /**
+   * Returns the array which is flattened by a correlated join, if the right input of the join uncollects a single
+   * array which only references the current row of the left input.
+   */
+  @Nullable
+  private static RexNode getUnnestedArray(Correlate correlate) {
+    if (correlate.getJoinType() != JoinRelType.INNER && correlate.getJoinType() != JoinRelType.LEFT) {
+      return null;
+    }
+    RelNode right = correlate.getRight();
+    if (!(right instanceof Uncollect) || ((Uncollect) right).withOrdinality
+      || !(right.getInput(0) instanceof Project)) {
+      return null;
+    }
+    Project project = (Project) right.getInput(0);
+    if (project.getProjects().size() != 1 || !(project.getInput() instanceof Values)
+      || ((Values) project.getInput()).getTuples().size() != 1) {
+      return null;
+    }
+
+    RexNode array = project.getProjects().get(0);
+    Set<CorrelationId> correlations = new HashSet<>();
+    boolean[] readsValues = {false};
+    array.accept(new RexVisitorImpl<Void>(true) {
+      @Override
+      public Void visitCorrelVariable(RexCorrelVariable correlVariable) {
+        correlations.add(correlVariable.id);
+        return null;
+      }
+
+      @Override
+      public Void visitInputRef(RexInputRef inputRef) {
+        readsValues[0] = true;
+        return null;
+      }
+    });
+    if (readsValues[0] || !correlations.equals(Collections.singleton(correlate.getCorrelationId()))) {
+      return null;
+    }
+    return array;
+  }
+
+  private static RelNode castDecimalLiterals(RelNode rel) {
+    RexBuilder rexBuilder = rel.getCluster().getRexBuilder();
+    RexShuttle castLiterals = new RexShuttle() {
+      @Override
+      public RexNode visitCall(RexCall call) {
+        if (call.getKind() == SqlKind.CAST && call.getOperands().get(0) instanceof RexLiteral) {
+          return call;
+        }
+        return super.visitCall(call);
+      }
+
+      @Override
+      public RexNode visitLiteral(RexLiteral literal) {
+        if (!isNumericLiteral(literal)) {
+          return literal;
+        }
+        return rexBuilder.makeAbstractCast(literal.getType(), literal);
+      }
+    };
+    return rel.accept(new RelHomogeneousShuttle() {
+      @Override
+      public RelNode visit(RelNode other) {
+        return super.visit(other).accept(castLiterals);
+      }
+    });
+  }
+
+  /**
+   * Returns whether a literal is a decimal with a fraction which fits in a NUMERIC value.
+   */
+  private static boolean isNumericLiteral(RexLiteral literal) {
+    if (literal.getType().getSqlTypeName() != SqlTypeName.DECIMAL || literal.getValue() == null) {
+      return false;
+    }
+    BigDecimal value = (BigDecimal) literal.getValue();
+    return value.scale() > 0 && value.scale() <= NUMERIC_MAX_SCALE
+      && value.precision() - value.scale() <= NUMERIC_MAX_INTEGER_DIGITS;
+  }
+
+  private static SqlNode as(SqlNode node, String alias) {
+    return SqlStdOperatorTable.AS.createCall(POS, node, new SqlIdentifier(alias, POS));
+  }
+}
@@ -0,0 +1,208 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.bigquery;
+
+import com.google.cloud.bigquery.TableId;
+import io.cdap.pipeline.sql.api.template.tables.AbstractTableInfo;
+import io.cdap.pipeline.sql.api.template.tables.TableMetadata;
+import io.cdap.pipeline.sql.app.core.TemporaryTable;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.sql.SqlFunction;
+import org.apache.calcite.sql.SqlFunctionCategory;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.OperandTypes;
+import org.apache.calcite.sql.type.ReturnTypes;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.sql.type.SqlTypeTransforms;
+import org.apache.calcite.tools.RelBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Rewrites aggregates which BigQuery can answer from table metadata, so that they do not scan the table.
+ *
+ * A global COUNT(*) is read from the __TABLES__ view of the dataset, and the MIN or MAX of a column which holds a
+ * single value in each partition is read from the INFORMATION_SCHEMA.PARTITIONS view. Aggregates over filtered or
+ * otherwise transformed input cannot be proven against the metadata, so they still scan the table. The views
+ * describe each shard of a wildcard table separately, so aggregates over wildcard tables are not rewritten.
+ */
+public class MetadataQueryRewriter {
+  private static final Logger LOG = LoggerFactory.getLogger(MetadataQueryRewriter.class);
+  private static final SqlFunction PARSE_DATE =
+    new SqlFunction("PARSE_DATE", SqlKind.OTHER_FUNCTION,
+                    ReturnTypes.cascade(ReturnTypes.explicit(SqlTypeName.DATE), SqlTypeTransforms.FORCE_NULLABLE),
+                    null, OperandTypes.STRING_STRING, SqlFunctionCategory.TIMEDATE);
+  private static final String PARTITION_DATE_FORMAT = "%Y%m%d";
+  private static final String NULL_PARTITION = "__NULL__";
+  private static final String UNPARTITIONED_PARTITION = "__UNPARTITIONED__";
+  private static final String WILDCARD = "*";
+
+  private final SchemaPlus rootSchema;
+  private final RelBuilder builder;
+
+  public MetadataQueryRewriter(SchemaPlus rootSchema, RelBuilder builder) {
+    this.rootSchema = rootSchema;
+    this.builder = builder;
+  }
+
+  /**
+   * Rewrites an aggregate into a metadata query if every aggregate call can be answered from metadata.
+   *
+   * @param relationalNode The node to rewrite
+   * @return The metadata query, or the given node if it cannot be answered from metadata
+   */
+  public RelNode rewrite(RelNode relationalNode) {
+    if (!(relationalNode instanceof Aggregate)) {
+      return relationalNode;
+    }
+    Aggregate aggregate = (Aggregate) relationalNode;
+    if (aggregate.getGroupCount() != 0 || aggregate.getGroupType() != Aggregate.Group.SIMPLE) {
+      return relationalNode;
+    }
+
+    // A projection which only selects columns does not change the answer
+    RelNode input = aggregate.getInput();
+    List<Integer> columns = new ArrayList<>();
+    if (input instanceof Project) {
+      for (RexNode expression : ((Project) input).getProjects()) {
+        if (!(expression instanceof RexInputRef)) {
+          return relationalNode;
+        }
+        columns.add(((RexInputRef) expression).getIndex());
+      }
+      input = ((Project) input).getInput();
+    } else {
+      for (int i = 0; i < input.getRowType().getFieldCount(); i++) {
+        columns.add(i);
+      }
+    }
+    if (!(input instanceof TableScan)) {
+      return relationalNode;
+    }
+    AbstractTableInfo table = input.getTable().unwrap(AbstractTableInfo.class);
+    if (table == null || table.getMetadata() == null) {
+      return relationalNode;
+    }
+    TableMetadata metadata = table.getMetadata();
+    TableId tableId = BigQueryExecutor.parseTableId(table.getTableName());
+    if (tableId.getTable().endsWith(WILDCARD)) {
+      return relationalNode;
+    }
+    List<String> columnNames = input.getRowType().getFieldNames();
+
+    // Build a single row query for each aggregate call
+    List<RelNode> answers = new ArrayList<>();
+    for (AggregateCall call : aggregate.getAggCallList()) {
+      if (call.isDistinct() || call.filterArg >= 0) {
+        return relationalNode;
+      }
+      RelNode answer = null;
+      if (call.getAggregation().getKind() == SqlKind.COUNT && call.getArgList().isEmpty()) {
+        answer = metadata.getRowCount() == null ? null : createRowCountQuery(tableId);
+      } else if ((call.getAggregation().getKind() == SqlKind.MIN || call.getAggregation().getKind() == SqlKind.MAX)
+        && call.getArgList().size() == 1) {
+        String column = columnNames.get(columns.get(call.getArgList().get(0)));
+        answer = column.equals(metadata.getPartitionColumn())
+          ? createPartitionBoundQuery(tableId, call.getAggregation().getKind()) : null;
+      }
+      if (answer == null) {
+        return relationalNode;
+      }
+      answers.add(answer);
+    }
+
+    // Combine the single row answers into one row with the columns of the aggregate
+    for (int i = 0; i < answers.size(); i++) {
+      builder.push(answers.get(i));
+      if (i > 0) {
+        builder.join(JoinRelType.INNER, builder.literal(true));
+      }
+    }
+    List<RexNode> fields = new ArrayList<>();
+    for (int i = 0; i < answers.size(); i++) {
+      RexNode field = builder.field(i);
+      RelDataType type = aggregate.getRowType().getFieldList().get(i).getType();
+      if (field.getType().getSqlTypeName() != type.getSqlTypeName()) {
+        field = builder.getRexBuilder().makeCast(type, field, true);
+      }
+      fields.add(field);
+    }
+    builder.project(fields, aggregate.getRowType().getFieldNames(), true);
+    LOG.info("Answering aggregate over table {} from table metadata.", table.getTableName());
+    return builder.build();
+  }
+
+  /**
+   * Creates a query which reads the number of rows of a table from the __TABLES__ view of its dataset.
+   */
+  private RelNode createRowCountQuery(TableId tableId) {
+    RelDataTypeFactory typeFactory = builder.getTypeFactory();
+    String viewName = String.format("%s.%s.__TABLES__", tableId.getProject(), tableId.getDataset());
+    RelDataType viewType = typeFactory.builder()
+      .add("table_id", SqlTypeName.VARCHAR)
+      .add("row_count", SqlTypeName.BIGINT)
+      .build();
+    rootSchema.add(viewName, new TemporaryTable(viewName, viewType));
+
+    return builder.scan(viewName)
+      .filter(builder.equals(builder.field("table_id"), builder.literal(tableId.getTable())))
+      .project(builder.field("row_count"))
+      .build();
+  }
+
+  /**
+   * Creates a query which reads the lowest or highest partition date of a table with rows from the
+   * INFORMATION_SCHEMA.PARTITIONS view of its dataset.
+   */
+  @Nullable
+  private RelNode createPartitionBoundQuery(TableId tableId, SqlKind kind) {
+    RelDataTypeFactory typeFactory = builder.getTypeFactory();
+    String viewName = String.format("%s.%s.INFORMATION_SCHEMA.PARTITIONS", tableId.getProject(),
+                                    tableId.getDataset());
+    RelDataType viewType = typeFactory.builder()
+      .add("table_name", SqlTypeName.VARCHAR)
+      .add("partition_id", SqlTypeName.VARCHAR)
+      .add("total_rows", SqlTypeName.BIGINT)
+      .build();
+    rootSchema.add(viewName, new TemporaryTable(viewName, viewType));
+
+    builder.scan(viewName)
+      .filter(builder.equals(builder.field("table_name"), builder.literal(tableId.getTable())),
+              builder.call(SqlStdOperatorTable.GREATER_THAN, builder.field("total_rows"), builder.literal(0)),
+              builder.notEquals(builder.field("partition_id"), builder.literal(NULL_PARTITION)),
+              builder.notEquals(builder.field("partition_id"), builder.literal(UNPARTITIONED_PARTITION)));
+    RexNode partitionDate = builder.call(PARSE_DATE, builder.literal(PARTITION_DATE_FORMAT),
+                                         builder.field("partition_id"));
+    RelBuilder.AggCall bound = kind == SqlKind.MIN ? builder.min(partitionDate) : builder.max(partitionDate);
+    return builder.aggregate(builder.groupKey(), bound).build();
+  }
+}
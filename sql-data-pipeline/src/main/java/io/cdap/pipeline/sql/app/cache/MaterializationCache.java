@@ -0,0 +1,142 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.cache;
+
+import com.google.gson.Gson;
+import io.cdap.pipeline.sql.app.state.StateStore;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.atomic.AtomicReference;
+import javax.annotation.Nullable;
+
+/**
+ * An index of intermediate results which are kept in tables across pipeline runs, stored in a {@link StateStore}.
+ *
+ * Each entry maps a cache key, which identifies the logic of an intermediate result and the versions of the
+ * tables it reads, to the table which holds the result. Entries expire after a fixed time to live, and the least
+ * recently used entries are evicted once the total size of the cached tables exceeds the limit.
+ */
+public class MaterializationCache {
+  private static final Gson GSON = new Gson();
+  private static final String KEY_PREFIX = "materializationCache:";
+
+  private final StateStore store;
+  private final String name;
+  private final long ttlMillis;
+  private final long maxBytes;
+
+  public MaterializationCache(StateStore store, String name, long ttlMillis, long maxBytes) {
+    this.store = store;
+    this.name = name;
+    this.ttlMillis = ttlMillis;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Looks up the table which holds the result for a cache key, and marks the entry as recently used.
+   *
+   * @param key The cache key
+   * @return The name of the table, or null if there is no entry or the entry expired
+   */
+  @Nullable
+  public String lookup(String key) throws IOException {
+    long now = System.currentTimeMillis();
+    AtomicReference<String> table = new AtomicReference<>();
+    store.update(KEY_PREFIX + name, value -> {
+      CacheState state = CacheState.parse(value);
+      Entry entry = state.entries.get(key);
+      table.set(null);
+      if (entry != null && now - entry.createdTime < ttlMillis) {
+        entry.lastAccessTime = now;
+        table.set(entry.table);
+      }
+      return GSON.toJson(state);
+    });
+    return table.get();
+  }
+
+  /**
+   * Adds the table which holds the result for a cache key, then evicts expired entries and the least recently used
+   * entries until the cache fits within its size limit. A result which is larger than the limit on its own is
+   * evicted immediately.
+   *
+   * @param key The cache key
+   * @param table The name of the table which holds the result
+   * @param sizeBytes The size of the table
+   * @return The names of the tables which were evicted and should be dropped
+   */
+  public List<String> put(String key, String table, long sizeBytes) throws IOException {
+    long now = System.currentTimeMillis();
+    List<String> evicted = new ArrayList<>();
+    store.update(KEY_PREFIX + name, value -> {
+      CacheState state = CacheState.parse(value);
+      evicted.clear();
+      state.entries.put(key, new Entry(table, now, sizeBytes));
+
+      List<Map.Entry<String, Entry>> entries = new ArrayList<>(state.entries.entrySet());
+      entries.sort(Comparator.comparingLong(e -> e.getValue().lastAccessTime));
+      long totalBytes = 0;
+      for (Map.Entry<String, Entry> entry : entries) {
+        totalBytes += entry.getValue().sizeBytes;
+      }
+      for (Map.Entry<String, Entry> entry : entries) {
+        Entry cached = entry.getValue();
+        if (now - cached.createdTime >= ttlMillis || totalBytes > maxBytes) {
+          state.entries.remove(entry.getKey());
+          totalBytes -= cached.sizeBytes;
+          evicted.add(cached.table);
+        }
+      }
+      return GSON.toJson(state);
+    });
+    return evicted;
+  }
+
+  /**
+   * The serialized state of the cache.
+   */
+  private static class CacheState {
+    private Map<String, Entry> entries = new HashMap<>();
+
+    private static CacheState parse(String value) {
+      CacheState state = value == null ? null : GSON.fromJson(value, CacheState.class);
+      return state == null ? new CacheState() : state;
+    }
+  }
+
+  /**
+   * A cached result.
+   */
+  private static class Entry {
+    private final String table;
+    private final long createdTime;
+    private final long sizeBytes;
+    private long lastAccessTime;
+
+    private Entry(String table, long createdTime, long sizeBytes) {
+      this.table = table;
+      this.createdTime = createdTime;
+      this.sizeBytes = sizeBytes;
+      this.lastAccessTime = createdTime;
+    }
+  }
+}
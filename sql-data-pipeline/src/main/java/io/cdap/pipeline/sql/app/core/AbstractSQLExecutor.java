@@ -19,7 +19,14 @@ package io.cdap.pipeline.sql.app.core;
 import com.google.gson.Gson;
 import com.google.gson.GsonBuilder;
 import com.google.gson.reflect.TypeToken;
+import io.cdap.cdap.api.annotation.TransactionControl;
+import io.cdap.cdap.api.annotation.TransactionPolicy;
 import io.cdap.cdap.api.customaction.AbstractCustomAction;
+import io.cdap.cdap.api.macro.MacroEvaluator;
+import io.cdap.cdap.api.metrics.Metrics;
+import io.cdap.cdap.api.workflow.WorkflowToken;
+import io.cdap.cdap.etl.common.BasicArguments;
+import io.cdap.cdap.etl.common.DefaultMacroEvaluator;
 import io.cdap.cdap.etl.planner.Dag;
 import io.cdap.cdap.etl.proto.Connection;
 import io.cdap.cdap.etl.proto.v2.ETLStage;
@@ -27,16 +34,35 @@ import io.cdap.pipeline.sql.api.template.QueryContext;
 import io.cdap.pipeline.sql.api.template.SQLJoiner;
 import io.cdap.pipeline.sql.api.template.SQLSink;
 import io.cdap.pipeline.sql.api.template.SQLSource;
+import io.cdap.pipeline.sql.api.template.functions.ApproximateAggFunction;
 import io.cdap.pipeline.sql.api.template.interfaces.SQLNode;
 import io.cdap.pipeline.sql.api.template.tables.AbstractTableInfo;
+import io.cdap.pipeline.sql.api.template.tables.TableMetadata;
+import io.cdap.pipeline.sql.app.admission.AdmissionController;
+import io.cdap.pipeline.sql.app.cache.MaterializationCache;
+import io.cdap.pipeline.sql.app.state.DatasetStateStore;
+import io.cdap.pipeline.sql.app.state.FileStateStore;
+import io.cdap.pipeline.sql.app.state.StateStore;
 import org.apache.calcite.jdbc.CalciteSchema;
 import org.apache.calcite.jdbc.Driver;
+import org.apache.calcite.plan.RelOptMaterialization;
 import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelOptUtil;
 import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelShuttleImpl;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.JoinInfo;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
 import org.apache.calcite.rel.rel2sql.RelToSqlConverter;
+import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeField;
 import org.apache.calcite.schema.ColumnStrategy;
 import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
 import org.apache.calcite.sql.SqlDataTypeSpec;
 import org.apache.calcite.sql.SqlDialect;
 import org.apache.calcite.sql.SqlIdentifier;
@@ -44,26 +70,45 @@ import org.apache.calcite.sql.SqlNode;
 import org.apache.calcite.sql.SqlNodeList;
 import org.apache.calcite.sql.ddl.SqlCreateTable;
 import org.apache.calcite.sql.ddl.SqlDdlNodes;
+import org.apache.calcite.sql.parser.SqlParseException;
+import org.apache.calcite.sql.parser.SqlParser;
 import org.apache.calcite.sql.parser.SqlParserPos;
 import org.apache.calcite.sql.type.SqlTypeUtil;
 import org.apache.calcite.sql.util.SqlBuilder;
 import org.apache.calcite.tools.FrameworkConfig;
 import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.Planner;
 import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.tools.RelConversionException;
+import org.apache.calcite.tools.ValidationException;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.function.Function;
+import javax.annotation.Nullable;
 
 /**
  * A custom action which executes SQL upon a target platform.
  */
 public abstract class AbstractSQLExecutor extends AbstractCustomAction {
+  private static final Logger LOG = LoggerFactory.getLogger(AbstractSQLExecutor.class);
   private static final String TEMPORARY_TABLE_PREFIX = "temporary_table_";
   private static final String CONFIG_NAME = "serializedSqlConfig";
   private static final String FROM_CONNECTIONS_NAME = "fromConnections";
@@ -71,6 +116,33 @@ public abstract class AbstractSQLExecutor extends AbstractCustomAction {
   private static final String SOURCES_NAME = "sources";
   private static final String SINKS_NAME = "sinks";
   private static final String CREATE_TABLE_FEATURE_FLAG = "createTable";
+  private static final String STATE_FILE_NAME = "stateFile";
+  private static final String MAX_CONCURRENT_STATEMENTS_NAME = "maxConcurrentStatements";
+  private static final String ADMISSION_POOL_NAME = "admissionPool";
+  private static final String STATEMENT_PRIORITY_NAME = "statementPriority";
+  private static final String ADMISSION_TIMEOUT_NAME = "admissionTimeoutSeconds";
+  private static final long DEFAULT_ADMISSION_TIMEOUT_SECONDS = TimeUnit.HOURS.toSeconds(1);
+  private static final long LEASE_EXPIRY_MILLIS = TimeUnit.MINUTES.toMillis(5);
+  private static final long ADMISSION_POLL_MILLIS = TimeUnit.SECONDS.toMillis(5);
+  private static final String MAX_QUERY_LENGTH_NAME = "maxQueryLength";
+  private static final String MAX_QUERY_DEPTH_NAME = "maxQueryDepth";
+  private static final int DEFAULT_MAX_QUERY_LENGTH = 1000000;
+  private static final int DEFAULT_MAX_QUERY_DEPTH = 50;
+  static final String STAGING_DATASET_NAME = "stagingDataset";
+  private static final String FORCE_FULL_RUN_NAME = "forceFullRun";
+  private static final Gson GSON = new Gson();
+  private static final String CACHE_DATASET_NAME = "materializationCacheDataset";
+  private static final String CACHE_TTL_NAME = "materializationCacheTtlHours";
+  private static final String CACHE_MAX_BYTES_NAME = "materializationCacheMaxBytes";
+  private static final long DEFAULT_CACHE_TTL_HOURS = 24;
+  private static final long DEFAULT_CACHE_MAX_BYTES = 100L * 1024 * 1024 * 1024;
+  private static final String CACHE_TABLE_PREFIX = "materialization_";
+  private static final String SEMI_JOIN_RATIO_NAME = "semiJoinReductionRatio";
+  private static final double DEFAULT_SEMI_JOIN_RATIO = 100;
+  private static final String EAGER_AGGREGATION_NAME = "eagerAggregation";
+  private static final String LATE_MATERIALIZATION_NAME = "lateMaterialization";
+  private static final String VALUE_LIST_INLINE_THRESHOLD_NAME = "valueListInlineThreshold";
+  private static final int DEFAULT_VALUE_LIST_INLINE_THRESHOLD = 1000;
 
   private SQLConfig config;
   private Dag dag;
@@ -81,8 +153,32 @@ public abstract class AbstractSQLExecutor extends AbstractCustomAction {
   private Map<String, Set<String>> toNodeMap;
   private Map<String, RelNode> relationalNodeMap;
   private Map<String, TemporaryTable> temporaryTableMap;
+  private ValueListResolver valueListResolver;
   private List<String> queries;
+  private List<String> tableCreationQueries;
+  private List<String> stagingQueries;
+  private List<String> stagingTables;
+  private List<TableCopy> tableCopies;
+  private Map<String, AbstractTableInfo> sourceTables;
+  private Set<String> skippedSinks;
+  private SinkStateTracker sinkStateTracker;
+  private MaterializationCache materializationCache;
+  private Map<String, String> cacheMisses;
+  private Set<String> cacheHits;
   private boolean createTableFeatureFlag;
+  private List<String> topologicalOrder;
+  private SchemaPlus rootSchema;
+  private FrameworkConfig builderConfig;
+  private int temporaryTableCounter;
+  private JoinReorderer joinReorderer;
+  private QueryPlanner queryPlanner;
+  private String stagingDataset;
+  private StagingTableNames stagingTableNames;
+  private AdmissionController admissionController;
+  private int statementPriority;
+  private long admissionTimeoutMillis;
+  private int statementCounter;
+  private Metrics metrics;
 
   public AbstractSQLExecutor(SQLConfig config, Map<String, SQLNode> pluginMap) {
     this.config = config;
@@ -92,8 +188,16 @@ public abstract class AbstractSQLExecutor extends AbstractCustomAction {
     this.fromNodeMap = new HashMap<>();
     this.toNodeMap = new HashMap<>();
     this.relationalNodeMap = new HashMap<>();
-    this.temporaryTableMap = new HashMap<>();
+    this.temporaryTableMap = new LinkedHashMap<>();
     this.queries = new ArrayList<>();
+    this.tableCreationQueries = new ArrayList<>();
+    this.stagingQueries = new ArrayList<>();
+    this.stagingTables = new ArrayList<>();
+    this.tableCopies = new ArrayList<>();
+    this.sourceTables = new HashMap<>();
+    this.skippedSinks = new HashSet<>();
+    this.cacheMisses = new HashMap<>();
+    this.cacheHits = new HashSet<>();
     this.createTableFeatureFlag = false;
   }
 
@@ -107,6 +211,88 @@ public abstract class AbstractSQLExecutor extends AbstractCustomAction {
     return queries;
   }
 
+  /**
+   * Returns the list of statements which create sink tables that do not exist yet. These statements are
+   * idempotent and must be executed before the queries returned by {@link #getQueries()}.
+   *
+   * @return The generated table creation statements
+   */
+  public List<String> getTableCreationQueries() {
+    return tableCreationQueries;
+  }
+
+  /**
+   * Returns the statements which fill the staging tables, when a staging dataset is given in the runtime arguments.
+   * Each statement must be run as a separate job, in order, after the table creation statements and before the
+   * queries returned by {@link #getQueries()}. Splitting the work this way keeps the script of queries, which runs
+   * in a single transaction, within the length limit. Staging tables do not hold any sink, so running these
+   * statements outside of the transaction never leaves a sink partially written.
+   *
+   * @return The staging statements, which are empty if no staging dataset is given
+   */
+  public List<String> getStagingQueries() {
+    return stagingQueries;
+  }
+
+  /**
+   * Returns the persistent tables which are written by the statements returned by {@link #getStagingQueries()}.
+   * They are only needed while the queries run and must be dropped afterwards.
+   *
+   * @return The names of the staging tables
+   */
+  public List<String> getStagingTables() {
+    return stagingTables;
+  }
+
+  /**
+   * Returns the sinks which only copy a source table and are not part of the queries returned by
+   * {@link #getQueries()}. Only copies accepted by {@link #supportsTableCopy(TableCopy)} are planned this way.
+   * Copies must be run after the queries, and are not part of their transaction.
+   *
+   * @return The planned table copies
+   */
+  public List<TableCopy> getTableCopies() {
+    return tableCopies;
+  }
+
+  /**
+   * Returns the value lists which are staged before the queries run, keyed by the name of the staging table which
+   * must hold them. The tables are loaded first, using {@link #loadValueListQuery(String, ValueList)},
+   * or {@link #createValueListFileStatement(String, ValueList)} for lists read from a file.
+   *
+   * @return The value lists to stage
+   */
+  public Map<String, ValueList> getValueLists() {
+    return valueListResolver.getValueLists();
+  }
+
+  /**
+   * Returns whether the target platform can write a sink by copying the source table rather than running a query.
+   *
+   * @param copy The table copy which would replace the query for the sink
+   * @return Whether the sink should be written using a copy
+   */
+  protected boolean supportsTableCopy(TableCopy copy) {
+    return false;
+  }
+
+  /**
+   * Generates a statement which creates a persistent staging table holding the result of a query. The table is
+   * dropped once the queries complete.
+   *
+   * @param tableName The name of the staging table
+   * @param query The query whose result the table holds
+   * @return The statement creating the table
+   */
+  protected String createStagingTableStatement(String tableName, String query) {
+    SqlBuilder statement = new SqlBuilder(getDialect());
+    statement.append("CREATE TABLE ");
+    statement.identifier(tableName);
+    statement.append(" AS ");
+    statement.append(query);
+    return statement.toSqlString().getSql();
+  }
+
   /**
    * Returns the {@link SqlDialect} to use for the concrete implementation of this class.
    *
@@ -114,6 +300,15 @@ public abstract class AbstractSQLExecutor extends AbstractCustomAction {
    */
   public abstract SqlDialect getDialect();
 
+  /**
+   * Creates the converter which generates statements from relational nodes in the dialect of the target platform.
+   *
+   * @return The converter for the concrete implementation
+   */
+  protected RelToSqlConverter createSqlConverter() {
+    return new RelToSqlConverter(getDialect());
+  }
+
   @Override
   public void configure() {
     Gson gson = new GsonBuilder().create();
@@ -129,7 +324,12 @@ public abstract class AbstractSQLExecutor extends AbstractCustomAction {
     traverseTopologicalOrder();
   }
 
+  /**
+   * Plans the queries of the pipeline. Planning reads and updates the shared state store, and the dataset state store
+   * runs each operation in its own transaction, so initialization must not run in an implicit transaction.
+   */
   @Override
+  @TransactionPolicy(TransactionControl.EXPLICIT)
   public void initialize() {
     // Set the config
     Gson gson = new GsonBuilder().create();
@@ -142,23 +342,756 @@ public abstract class AbstractSQLExecutor extends AbstractCustomAction {
       createTableFeatureFlag = true;
     }
 
+    // Set up admission control if the number of concurrent statements is limited
+    admissionController = createAdmissionController();
+
     // Load the dag and other properties previously initialized at configure time
     loadExecutorConfig(gson, getContext().getSpecification().getProperties());
 
+    // Staging tables are created in this dataset, rather than as temporary tables of the script, if it is given
+    stagingDataset = getDatasetArgument(STAGING_DATASET_NAME);
+    stagingTableNames = new StagingTableNames(stagingDataset, getContext().getRunId().getId());
+
     // Load the Calcite JDBC driver
     loadCalciteJdbcDriver();
     // Traversal Logic to prepare the query ordering
     traverseTopologicalOrder();
+    // Replace the value lists given to filters by reference with their values
+    resolveValueLists();
+    // Narrow splitter tables to the fields, and the fields nested in records, which are read from them
+    pruneTemporaryTables();
+    // Merge nested unions, and apply the filters and projections shared by the inputs of unions only once
+    rewriteNodes(new UnionFlattener(createRelBuilder())::rewrite, null);
 
-    // Serialize all sink and splitter RelNodes
-    // Converter to convert RelNodes to SqlNodes
-    RelToSqlConverter converter = new RelToSqlConverter(getDialect());
-    // Creates a temporary table for each splitter
-    createTemporaryTables(converter);
-    // Creates a query for each sink
-    createSinkQueries(converter);
-    // Make the query list unmodifiable
-    queries = Collections.unmodifiableList(queries);
+    // Order chains of joins by the estimated size of their inputs
+    joinReorderer = new JoinReorderer(pluginMap, fromNodeMap, toNodeMap, temporaryTableMap);
+    reorderJoins();
+    // Spread heavily skewed join keys across several workers
+    saltSkewedJoins();
+    // Aggregate the inputs of joins and unions before they are combined
+    aggregateEagerly();
+    // Limit the inputs of stages which only keep their first rows
+    pushDownLimits();
+    // Read the wide columns of selective joins only for the rows which survive them
+    materializeLate();
+    // Replace nodes with cheaper equivalents
+    rewriteNodes(this::rewrite, null);
+    // Read materialized views which already hold the results of parts of the pipeline
+    applyMaterializedViews();
+    // Skip sinks which would be rewritten with the same contents
+    findUnchangedSinks();
+    // Reuse intermediate results of previous runs
+    applyMaterializationCache();
+    // Prune the large inputs of joins by the keys of their small inputs. This is applied last since the filters hold
+    // copies of the small inputs which the other rewrites do not visit.
+    reduceJoins();
+    // Serialize all sink and splitter RelNodes within the limits on the size of each generated statement
+    queryPlanner = createQueryPlanner();
+    queryPlanner.planQueries(getIntArgument(MAX_QUERY_LENGTH_NAME, DEFAULT_MAX_QUERY_LENGTH),
+                             getIntArgument(MAX_QUERY_DEPTH_NAME, DEFAULT_MAX_QUERY_DEPTH));
+  }
+
+  /**
+   * Plans the queries again with more aggressive staging, halving the limits on the length and nesting depth of
+   * each statement. This is used when the target platform rejects a statement as too expensive.
+   *
+   * @return Whether any additional stages were materialized
+   */
+  protected boolean replan() {
+    return queryPlanner.replan();
+  }
+
+  /**
+   * Records the state of the sources of every sink which was written, so that the next run can skip the sinks
+   * whose sources have not changed since. Must be called once all queries have completed successfully.
+   */
+  protected void recordSuccessfulRun() {
+    for (String node : sinkStages) {
+      if (skippedSinks.contains(node)) {
+        continue;
+      }
+      try {
+        sinkStateTracker.recordWritten(node);
+      } catch (IOException e) {
+        LOG.warn("Failed to record the state of sink {}, it will be written again on the next run.", node, e);
+      }
+      reportSinkOutcome(node, "written");
+    }
+
+    if (materializationCache == null) {
+      return;
+    }
+    List<String> statementNodes = queryPlanner.getStatementNodes();
+    for (Map.Entry<String, String> cacheMiss : cacheMisses.entrySet()) {
+      if (!statementNodes.contains(cacheMiss.getKey())) {
+        continue;
+      }
+      String tableName = temporaryTableMap.get(cacheMiss.getKey()).getTableName();
+      try {
+        for (String evictedTable : materializationCache.put(cacheMiss.getValue(), tableName,
+                                                            getTableSizeBytes(tableName))) {
+          LOG.info("Evicting cached result table {}.", evictedTable);
+          dropTable(evictedTable);
+        }
+      } catch (IOException e) {
+        LOG.warn("Failed to cache the result of stage {} in table {}.", cacheMiss.getKey(), tableName, e);
+      }
+      if (metrics != null) {
+        metrics.count("cache.misses", 1);
+      }
+    }
+  }
+
+  /**
+   * Returns the size of a table on the target platform.
+   *
+   * @param tableName The name of the table
+   * @return The size of the table in bytes
+   */
+  protected abstract long getTableSizeBytes(String tableName) throws IOException;
+
+  /**
+   * Drops a table from the target platform if it exists.
+   *
+   * @param tableName The name of the table
+   */
+  protected abstract void dropTable(String tableName) throws IOException;
+
+  /**
+   * Replaces every splitter whose result can be cached with a persistent table in the cache dataset, if one is
+   * given in the runtime arguments. Splitters with an entry in the cache are read from the cached table instead of
+   * being computed, while the others write their result to the table so that later runs can reuse it.
+   */
+  private void applyMaterializationCache() {
+    Map<String, String> arguments = getContext().getRuntimeArguments();
+    // Cache tables are named project.dataset.table, so the dataset must be qualified with its project
+    String cacheDataset = getDatasetArgument(CACHE_DATASET_NAME);
+    if (cacheDataset == null) {
+      return;
+    }
+    String ttlStr = arguments.get(CACHE_TTL_NAME);
+    long ttlMillis = TimeUnit.HOURS.toMillis(ttlStr == null ? DEFAULT_CACHE_TTL_HOURS : Long.parseLong(ttlStr));
+    String maxBytesStr = arguments.get(CACHE_MAX_BYTES_NAME);
+    long maxBytes = maxBytesStr == null ? DEFAULT_CACHE_MAX_BYTES : Long.parseLong(maxBytesStr);
+    materializationCache = new MaterializationCache(getStateStore(), cacheDataset, ttlMillis, maxBytes);
+
+    Set<String> cacheTables = new HashSet<>();
+    // Temporary tables are in topological order, so the inputs of a splitter are replaced before it is keyed
+    for (String node : new ArrayList<>(temporaryTableMap.keySet())) {
+      RelNode relationalNode = relationalNodeMap.get(node);
+      String cacheKey = getCacheKey(relationalNode, cacheTables);
+      if (cacheKey == null) {
+        continue;
+      }
+      String cachedTableName;
+      try {
+        cachedTableName = materializationCache.lookup(cacheKey);
+      } catch (IOException e) {
+        LOG.warn("Failed to look up the cached result of stage {}.", node, e);
+        continue;
+      }
+
+      // Read the cache table wherever the temporary table was read
+      String temporaryTableName = temporaryTableMap.get(node).getTableName();
+      String tableName = cacheDataset + "." + CACHE_TABLE_PREFIX + cacheKey;
+      TemporaryTable cacheTable = new TemporaryTable(tableName, relationalNode.getRowType(),
+                                                     estimateStatistic(relationalNode));
+      rootSchema.add(tableName, cacheTable);
+      cacheTables.add(tableName);
+      RelNode scan = createRelBuilder().scan(tableName).build();
+      rewriteNodes(rel -> temporaryTableName.equals(getScannedTableName(rel)) ? scan : rel, node);
+
+      if (cachedTableName != null) {
+        LOG.info("Reusing the cached result of stage {} from table {}.", node, tableName);
+        temporaryTableMap.remove(node);
+        cacheHits.add(node);
+        if (metrics != null) {
+          metrics.count("cache.hits", 1);
+        }
+      } else {
+        temporaryTableMap.put(node, cacheTable);
+        cacheMisses.put(node, cacheKey);
+      }
+    }
+  }
+
+  /**
+   * Reorders the joins of the last stage of each chain of joiner stages. See {@link JoinReorderer}.
+   */
+  private void reorderJoins() {
+    for (String node : topologicalOrder) {
+      RelNode target = relationalNodeMap.get(node);
+      RelNode reordered = joinReorderer.reorder(node, target);
+      if (reordered != target) {
+        LOG.info("Reordered the joins of stage {} by the estimated size of their inputs.", node);
+        rewriteNodes(rel -> rel == target ? reordered : rel, null);
+      }
+    }
+  }
+
+  /**
+   * Samples the keys of every joiner which salts skewed keys, and rewrites the join to spread the keys which
+   * account for more than the skew threshold of the rows across buckets. The skewed keys of each stage are reported
+   * in the workflow token.
+   */
+  private void saltSkewedJoins() {
+    for (String node : topologicalOrder) {
+      SQLNode plugin = pluginMap.get(node);
+      if (!(plugin instanceof SQLJoiner) || ((SQLJoiner) plugin).getSkewBuckets() <= 0) {
+        continue;
+      }
+      SQLJoiner joiner = (SQLJoiner) plugin;
+      RelNode target = relationalNodeMap.get(node);
+      if (fromNodeMap.get(node).size() != 2 || !(target instanceof Project)
+        || !(target.getInput(0) instanceof Join)) {
+        LOG.warn("Unable to salt the skewed keys of stage {} since only joins of two inputs can be salted.", node);
+        continue;
+      }
+      Join join = (Join) target.getInput(0);
+      int saltedInput = JoinSalter.getSaltedInput(join);
+      if (saltedInput < 0 || join.analyzeCondition().leftKeys.isEmpty()) {
+        LOG.warn("Unable to salt the skewed keys of stage {} since neither input of the join can be replicated.",
+                 node);
+        continue;
+      }
+
+      JoinInfo joinInfo = join.analyzeCondition();
+      int key = saltedInput == 0 ? joinInfo.leftKeys.get(0) : joinInfo.rightKeys.get(0);
+      List<Object> heavyKeys;
+      try {
+        heavyKeys = findHeavyKeys(inlineTemporaryTables(join.getInput(saltedInput)), key,
+                                  joiner.getSkewThreshold());
+      } catch (Exception e) {
+        LOG.warn("Failed to sample the join keys of stage {}, the join will not be salted.", node, e);
+        continue;
+      }
+      if (heavyKeys.isEmpty()) {
+        continue;
+      }
+
+      LOG.info("Salting skewed join keys {} of stage {} across {} buckets.", heavyKeys, node,
+               joiner.getSkewBuckets());
+      if (metrics != null) {
+        metrics.count("joins.skewedKeys", heavyKeys.size());
+      }
+      WorkflowToken token = getContext().getWorkflowToken();
+      if (token != null) {
+        token.put(node + ".skewedKeys", heavyKeys.toString());
+      }
+      RelNode salted = new JoinSalter(createRelBuilder()).salt((Project) target, saltedInput,
+                                                               joiner.getSkewBuckets(), heavyKeys);
+      rewriteNodes(rel -> rel == target ? salted : rel, null);
+    }
+  }
+
+  /**
+   * Finds the values of a field which each account for at least the given fraction of the rows of a node. Skew is
+   * not detected by default.
+   *
+   * @param relationalNode The node to sample, which only reads tables which exist before the pipeline runs
+   * @param field The index of the field to sample
+   * @param minFraction The minimum fraction of rows of a returned value
+   * @return The heavy values, where null represents the null value
+   * @throws Exception If the node could not be sampled
+   */
+  protected List<Object> findHeavyKeys(RelNode relationalNode, int field, double minFraction) throws Exception {
+    return Collections.emptyList();
+  }
+
+  /**
+   * Describes a table holding a value list given by reference to one of its columns, so that filters can look their
+   * field up in the table. Tables are not supported by default.
+   *
+   * @param tableName The name of the table
+   * @param column The name of the column holding the values
+   * @param type The type of the field the values are compared to
+   * @return The table
+   * @throws Exception If the table could not be described
+   */
+  protected ValueListTable getValueListTable(String tableName, String column, RelDataType type) throws Exception {
+    throw new IllegalArgumentException(String.format("Reading a value list from table %s is not supported.",
+                                                     tableName));
+  }
+
+  /**
+   * Replaces each value list given to a filter by reference with the values of the list. See
+   * {@link ValueListResolver}.
+   */
+  private void resolveValueLists() {
+    valueListResolver = new ValueListResolver(
+      createRelBuilder(), rootSchema, getContext().getRuntimeArguments(), this::getValueListTable, stagingTableNames,
+      getIntArgument(VALUE_LIST_INLINE_THRESHOLD_NAME, DEFAULT_VALUE_LIST_INLINE_THRESHOLD));
+    rewriteNodes(valueListResolver::resolve, null);
+  }
+
+  /**
+   * Replaces every scan of a temporary table with the node it holds, so that the node can be queried before the
+   * temporary tables are created.
+   */
+  private RelNode inlineTemporaryTables(RelNode rel) {
+    for (Map.Entry<String, TemporaryTable> entry : temporaryTableMap.entrySet()) {
+      if (entry.getValue().getTableName().equals(getScannedTableName(rel))) {
+        return inlineTemporaryTables(relationalNodeMap.get(entry.getKey()));
+      }
+    }
+    List<RelNode> inputs = new ArrayList<>();
+    boolean changed = false;
+    for (RelNode input : rel.getInputs()) {
+      RelNode newInput = inlineTemporaryTables(input);
+      changed |= newInput != input;
+      inputs.add(newInput);
+    }
+    return changed ? rel.copy(rel.getTraitSet(), inputs) : rel;
+  }
+
+  /**
+   * Converts a relational node into a query in the dialect of the target platform.
+   */
+  protected String toSql(RelNode relationalNode) {
+    return toSqlNode(createSqlConverter(), relationalNode).toSqlString(getDialect()).getSql();
+  }
+
+  /**
+   * Narrows each splitter table to the fields which the stages reading it use. See {@link TemporaryTablePruner}.
+   */
+  private void pruneTemporaryTables() {
+    TemporaryTablePruner pruner = new TemporaryTablePruner(createRelBuilder(), rootSchema);
+    for (String node : topologicalOrder) {
+      TemporaryTable table = temporaryTableMap.get(node);
+      if (table == null) {
+        continue;
+      }
+      RelNode rel = relationalNodeMap.get(node);
+      TemporaryTablePruner.PrunedTable pruned = pruner.prune(table, rel, relationalNodeMap.values());
+      if (pruned == null) {
+        continue;
+      }
+      temporaryTableMap.put(node, pruned.getTable());
+      relationalNodeMap.put(node, pruned.getNode());
+      rewriteNodes(pruned::rewriteReader, node);
+      LOG.info("Narrowed the table of stage {} from {} fields to {} fields.", node,
+               rel.getRowType().getFieldCount(), pruned.getNode().getRowType().getFieldCount());
+    }
+  }
+
+  /**
+   * Pushes the limits of stages which sort their input and keep the first rows through projections and into the
+   * inputs of unions. See {@link LimitPusher}.
+   */
+  private void pushDownLimits() {
+    LimitPusher pusher = new LimitPusher();
+    for (String node : topologicalOrder) {
+      RelNode target = relationalNodeMap.get(node);
+      RelNode pushed;
+      try {
+        pushed = pusher.rewrite(target);
+      } catch (RuntimeException e) {
+        LOG.debug("Failed to push down the limit of stage {}.", node, e);
+        continue;
+      }
+      if (pushed == target) {
+        continue;
+      }
+      LOG.info("Pushed the limit of stage {} into its inputs.", node);
+      rewriteNodes(rel -> rel == target ? pushed : rel, null);
+    }
+  }
+
+  /**
+   * Pushes partial aggregations below the joins and unions read by aggregation stages, unless disabled in the
+   * runtime arguments. See {@link EagerAggregator}.
+   */
+  private void aggregateEagerly() {
+    String enabled = getContext().getRuntimeArguments().get(EAGER_AGGREGATION_NAME);
+    if (enabled != null && !Boolean.parseBoolean(enabled)) {
+      return;
+    }
+    for (String node : topologicalOrder) {
+      RelNode target = relationalNodeMap.get(node);
+      RelNode aggregate = target instanceof Project ? target.getInput(0) : target;
+      if (!(aggregate instanceof Aggregate) || joinReorderer.hasSkewedJoiner(node)) {
+        continue;
+      }
+      RelNode aggregated;
+      try {
+        aggregated = EagerAggregator.rewrite(target);
+      } catch (RuntimeException e) {
+        LOG.debug("Failed to push the aggregation of stage {} below its input.", node, e);
+        continue;
+      }
+      if (aggregated == target) {
+        continue;
+      }
+      LOG.info("Pushed partial aggregations of stage {} below its joins and unions.", node);
+      rewriteNodes(rel -> rel == target ? aggregated : rel, null);
+    }
+  }
+
+  /**
+   * Runs the selective joins of the pipeline on the keys of the tables they read, and joins the surviving keys back
+   * to the tables to read their remaining columns, unless disabled in the runtime arguments. Joins of skewed keys
+   * are left as they are since they are already spread across several workers.
+   */
+  private void materializeLate() {
+    String enabled = getContext().getRuntimeArguments().get(LATE_MATERIALIZATION_NAME);
+    if (enabled != null && !Boolean.parseBoolean(enabled)) {
+      return;
+    }
+    Map<String, TableMetadata> tableMetadata = getSourceTableMetadata();
+    if (tableMetadata.isEmpty()) {
+      return;
+    }
+    LateMaterializer materializer = new LateMaterializer(createRelBuilder(), tableMetadata);
+    for (String node : topologicalOrder) {
+      RelNode target = relationalNodeMap.get(node);
+      if (target == null || joinReorderer.hasSkewedJoiner(node)) {
+        continue;
+      }
+      RelNode rewritten = materializer.rewrite(target);
+      if (rewritten != target) {
+        rewriteNodes(rel -> rel == target ? rewritten : rel, null);
+      }
+    }
+  }
+
+  /**
+   * Returns the metadata of the tables read by the sources of the pipeline, by table name.
+   */
+  private Map<String, TableMetadata> getSourceTableMetadata() {
+    Map<String, TableMetadata> tableMetadata = new HashMap<>();
+    for (AbstractTableInfo sourceTable : sourceTables.values()) {
+      if (sourceTable.getMetadata() != null) {
+        tableMetadata.put(sourceTable.getTableName(), sourceTable.getMetadata());
+      }
+    }
+    return tableMetadata;
+  }
+
+  /**
+   * Adds semi-join filters to the large inputs of joins, unless disabled in the runtime arguments.
+   */
+  private void reduceJoins() {
+    String ratioStr = getContext().getRuntimeArguments().get(SEMI_JOIN_RATIO_NAME);
+    double minRatio = ratioStr == null ? DEFAULT_SEMI_JOIN_RATIO : Double.parseDouble(ratioStr);
+    if (minRatio <= 0) {
+      return;
+    }
+    Map<String, TableMetadata> tableMetadata = getSourceTableMetadata();
+    if (tableMetadata.isEmpty()) {
+      return;
+    }
+    SemiJoinReducer reducer = new SemiJoinReducer(createRelBuilder(), tableMetadata, minRatio);
+    rewriteNodes(reducer::rewrite, null);
+  }
+
+  /**
+   * Rewrites the nodes of the pipeline to read the materialized views declared by its sources wherever a view holds
+   * the result of a node, or a result which the node can be computed from. Aggregations are matched first, so that
+   * a view which pre-aggregates a table is preferred over one which only filters it.
+   */
+  private void applyMaterializedViews() {
+    Map<String, RelOptMaterialization> materializations = new LinkedHashMap<>();
+    for (AbstractTableInfo sourceTable : sourceTables.values()) {
+      TableMetadata metadata = sourceTable.getMetadata();
+      if (metadata == null) {
+        continue;
+      }
+      for (TableMetadata.MaterializedView view : metadata.getMaterializedViews()) {
+        if (materializations.containsKey(view.getTableName())) {
+          continue;
+        }
+        RelNode query;
+        try {
+          query = parseQuery(view.getQuery());
+        } catch (IllegalArgumentException e) {
+          LOG.warn("Ignoring materialized view {} since its query cannot be planned.", view.getTableName(), e);
+          continue;
+        }
+        if (!rootSchema.getTableNames().contains(view.getTableName())) {
+          rootSchema.add(view.getTableName(), new TemporaryTable(view.getTableName(), query.getRowType()));
+        }
+        RelNode scan = createRelBuilder().scan(view.getTableName()).build();
+        materializations.put(view.getTableName(), new RelOptMaterialization(
+          scan, query, null, Collections.singletonList(view.getTableName())));
+      }
+    }
+    if (materializations.isEmpty()) {
+      return;
+    }
+
+    MaterializedViewRewriter rewriter = new MaterializedViewRewriter(new ArrayList<>(materializations.values()),
+                                                                     metrics);
+    rewriteNodes(rewriter::rewriteAggregate, null);
+    rewriteNodes(rewriter::rewriteFilter, null);
+  }
+
+  /**
+   * Computes the cache key of a node from its plan and the versions of the tables it reads.
+   *
+   * @return The cache key, or null if the node reads a table whose changes cannot be tracked
+   */
+  @Nullable
+  private String getCacheKey(RelNode relationalNode, Set<String> cacheTables) {
+    Map<String, Long> tableVersions = new TreeMap<>();
+    if (!collectTableVersions(relationalNode, cacheTables, tableVersions)
+      || !valueListResolver.collectVersions(relationalNode, tableVersions)) {
+      return null;
+    }
+    String plan = stagingTableNames.removeRunSuffix(RelOptUtil.toString(relationalNode))
+      + GSON.toJson(tableVersions);
+    return UUID.nameUUIDFromBytes(plan.getBytes(StandardCharsets.UTF_8)).toString().replace("-", "");
+  }
+
+  private boolean collectTableVersions(RelNode relationalNode, Set<String> cacheTables,
+                                       Map<String, Long> tableVersions) {
+    String tableName = getScannedTableName(relationalNode);
+    if (tableName != null) {
+      if (cacheTables.contains(tableName)) {
+        // The name of a cache table already identifies its contents
+        return true;
+      }
+      AbstractTableInfo table = relationalNode.getTable().unwrap(AbstractTableInfo.class);
+      if (table == null || table.getMetadata() == null || table.getMetadata().getLastModifiedTime() == null) {
+        return false;
+      }
+      tableVersions.put(tableName, table.getMetadata().getLastModifiedTime());
+      return true;
+    }
+    for (RelNode input : relationalNode.getInputs()) {
+      if (!collectTableVersions(input, cacheTables, tableVersions)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Returns the name of the table read by a node if it is a table scan.
+   */
+  @Nullable
+  private String getScannedTableName(RelNode relationalNode) {
+    if (!(relationalNode instanceof TableScan)) {
+      return null;
+    }
+    List<String> qualifiedName = relationalNode.getTable().getQualifiedName();
+    return qualifiedName.get(qualifiedName.size() - 1);
+  }
+
+  /**
+   * Finds the sinks whose plan and sources are unchanged since the last successful run, unless a full run is
+   * forced. These sinks, and the temporary tables only they read, are left out of the generated queries.
+   */
+  private void findUnchangedSinks() {
+    boolean forceFullRun = Boolean.parseBoolean(getContext().getRuntimeArguments().get(FORCE_FULL_RUN_NAME));
+    sinkStateTracker = new SinkStateTracker(
+      getStateStore(), getContext().getNamespace() + "." + getContext().getApplicationSpecification().getName(),
+      relationalNodeMap, fromNodeMap, sourceTables, valueListResolver, stagingTableNames);
+    for (String node : topologicalOrder) {
+      if (!sinkStages.contains(node)) {
+        continue;
+      }
+      boolean unchanged = false;
+      try {
+        unchanged = sinkStateTracker.isUnchanged(node, forceFullRun);
+      } catch (IOException e) {
+        LOG.warn("Failed to read the state of sink {}, it will be written.", node, e);
+      }
+      if (unchanged) {
+        LOG.info("Skipping sink {} since none of its sources changed since the last successful run.", node);
+        skippedSinks.add(node);
+        reportSinkOutcome(node, "skipped");
+      }
+    }
+  }
+
+  private void reportSinkOutcome(String sink, String outcome) {
+    if (metrics != null) {
+      metrics.count("sinks." + outcome, 1);
+    }
+    WorkflowToken token = getContext().getWorkflowToken();
+    if (token != null) {
+      token.put(sink + ".outcome", outcome);
+    }
+  }
+
+  /**
+   * Rewrites a relational node into an equivalent node which is cheaper to run on the target platform. This is
+   * called bottom-up for every node of the pipeline once its inputs have been rewritten, before any query is
+   * generated.
+   *
+   * @param relationalNode The node to rewrite
+   * @return The rewritten node, or the given node if it cannot be improved
+   */
+  protected RelNode rewrite(RelNode relationalNode) {
+    return relationalNode;
+  }
+
+  /**
+   * Returns the schema which holds every table the pipeline reads. Tables used by rewritten nodes must be added to
+   * this schema.
+   */
+  protected SchemaPlus getRootSchema() {
+    return rootSchema;
+  }
+
+  /**
+   * Creates a {@link RelBuilder} for the schema returned by {@link #getRootSchema()}.
+   */
+  protected RelBuilder createRelBuilder() {
+    return RelBuilder.create(builderConfig);
+  }
+
+  /**
+   * Returns the configuration of the parser for queries written in the dialect of the target platform.
+   */
+  protected SqlParser.Config getParserConfig() {
+    return SqlParser.Config.DEFAULT;
+  }
+
+  /**
+   * Plans a query over the tables in the schema returned by {@link #getRootSchema()}. The tables of the returned
+   * node are scanned the same way as the tables of the pipeline, so the node can be combined with them.
+   *
+   * @param sql The query to plan
+   * @return The relational node of the query
+   * @throws IllegalArgumentException If the query cannot be parsed or validated
+   */
+  protected RelNode parseQuery(String sql) {
+    FrameworkConfig frameworkConfig = Frameworks.newConfigBuilder()
+      .defaultSchema(rootSchema)
+      .parserConfig(getParserConfig())
+      .build();
+    Planner planner = Frameworks.getPlanner(frameworkConfig);
+    RelNode query;
+    try {
+      query = planner.rel(planner.validate(planner.parse(sql))).project();
+    } catch (SqlParseException | ValidationException | RelConversionException e) {
+      throw new IllegalArgumentException("Unable to plan query: " + sql, e);
+    } finally {
+      planner.close();
+    }
+    RelBuilder relBuilder = createRelBuilder();
+    return query.accept(new RelShuttleImpl() {
+      @Override
+      public RelNode visit(TableScan scan) {
+        return relBuilder.scan(scan.getTable().getQualifiedName()).build();
+      }
+    });
+  }
+
+  private int getIntArgument(String name, int defaultValue) {
+    String value = getContext().getRuntimeArguments().get(name);
+    return value == null ? defaultValue : Integer.parseInt(value);
+  }
+
+  /**
+   * Reads a runtime argument naming a dataset. The dataset must be qualified with its project, since the tables
+   * created in it are referenced as project.dataset.table.
+   *
+   * @return The dataset, or null if the argument is not given
+   */
+  @Nullable
+  private String getDatasetArgument(String name) {
+    String value = getContext().getRuntimeArguments().get(name);
+    if (value == null) {
+      return null;
+    }
+    int index = value.lastIndexOf('.');
+    if (index <= 0 || index == value.length() - 1) {
+      throw new IllegalArgumentException(String.format(
+        "Runtime argument '%s' must be a dataset qualified with its project, such as project.dataset, but is '%s'.",
+        name, value));
+    }
+    return value;
+  }
+
+  /**
+   * Returns the name of the pool which statements are admitted to when no pool is given in the runtime arguments.
+   * This is typically the project which the statements are billed to.
+   *
+   * @return The default admission pool
+   */
+  protected abstract String getDefaultAdmissionPool();
+
+  /**
+   * Returns the store for state which is shared across pipeline runs. The state is kept in a dataset shared by all
+   * SQL pipelines in the namespace, unless a local state file is given in the runtime arguments. The dataset store
+   * starts its own transactions, so it must only be used outside of a transaction.
+   *
+   * @return The shared state store
+   */
+  protected StateStore getStateStore() {
+    String stateFile = getContext().getRuntimeArguments().get(STATE_FILE_NAME);
+    if (stateFile != null) {
+      return new FileStateStore(new File(stateFile));
+    }
+    return new DatasetStateStore(getContext(), SQLPipelineApp.STATE_DATASET_NAME);
+  }
+
+  /**
+   * Waits until a statement may be submitted to the target platform. Every lease acquired must be released once the
+   * statement completes.
+   *
+   * @return The lease for the statement, or null if admission control is disabled
+   */
+  @Nullable
+  protected AdmissionController.Lease acquireLease() throws IOException, InterruptedException, TimeoutException {
+    if (admissionController == null) {
+      return null;
+    }
+    String holder = String.format("%s.%s.%s.%d", getContext().getNamespace(),
+                                  getContext().getApplicationSpecification().getName(),
+                                  getContext().getRunId().getId(), statementCounter++);
+    AdmissionController.Lease lease = admissionController.acquire(holder, statementPriority, admissionTimeoutMillis);
+    if (metrics != null) {
+      metrics.gauge("admission.queue.wait.ms", lease.getWaitMillis());
+    }
+    LOG.info("Statement {} admitted after waiting {} ms.", holder, lease.getWaitMillis());
+    return lease;
+  }
+
+  /**
+   * Renews a lease acquired by {@link #acquireLease()}. Must be called periodically while the statement runs.
+   */
+  protected void renewLease(@Nullable AdmissionController.Lease lease) throws IOException {
+    if (lease != null) {
+      admissionController.renew(lease);
+    }
+  }
+
+  /**
+   * Releases a lease acquired by {@link #acquireLease()}.
+   */
+  protected void releaseLease(@Nullable AdmissionController.Lease lease) throws IOException {
+    if (lease != null) {
+      admissionController.release(lease);
+    }
+  }
+
+  /**
+   * Creates the admission controller from the runtime arguments.
+   *
+   * @return The admission controller, or null if the number of concurrent statements is not limited
+   */
+  @Nullable
+  private AdmissionController createAdmissionController() {
+    Map<String, String> arguments = getContext().getRuntimeArguments();
+    String maxConcurrentStr = arguments.get(MAX_CONCURRENT_STATEMENTS_NAME);
+    if (maxConcurrentStr == null) {
+      return null;
+    }
+    String pool = arguments.get(ADMISSION_POOL_NAME);
+    if (pool == null) {
+      pool = getDefaultAdmissionPool();
+    }
+    String priorityStr = arguments.get(STATEMENT_PRIORITY_NAME);
+    statementPriority = priorityStr == null ? 0 : Integer.parseInt(priorityStr);
+    String timeoutStr = arguments.get(ADMISSION_TIMEOUT_NAME);
+    long timeoutSeconds = timeoutStr == null ? DEFAULT_ADMISSION_TIMEOUT_SECONDS : Long.parseLong(timeoutStr);
+    admissionTimeoutMillis = TimeUnit.SECONDS.toMillis(timeoutSeconds);
+    statementCounter = 0;
+    return new AdmissionController(getStateStore(), pool, Integer.parseInt(maxConcurrentStr),
+                                   LEASE_EXPIRY_MILLIS, ADMISSION_POLL_MILLIS);
   }
 
   /**
@@ -219,19 +1152,30 @@ public abstract class AbstractSQLExecutor extends AbstractCustomAction {
     fromNodeMap = new HashMap<>();
     toNodeMap = new HashMap<>();
     relationalNodeMap = new HashMap<>();
-    temporaryTableMap = new HashMap<>();
+    temporaryTableMap = new LinkedHashMap<>();
     queries = new ArrayList<>();
+    tableCreationQueries = new ArrayList<>();
+    stagingQueries = new ArrayList<>();
+    stagingTables = new ArrayList<>();
+    tableCopies = new ArrayList<>();
+    sourceTables = new HashMap<>();
+    skippedSinks = new HashSet<>();
+    cacheMisses = new HashMap<>();
+    cacheHits = new HashSet<>();
 
     // Load the config
     config = gson.fromJson(getContext().getSpecification().getProperty(CONFIG_NAME), SQLConfig.class);
-    // Load the plugins
+    // Load the plugins, evaluating macros in their properties from the runtime arguments
+    MacroEvaluator macroEvaluator = new DefaultMacroEvaluator(
+      new BasicArguments(getContext().getRuntimeArguments()), getContext().getLogicalStartTime(), getContext(),
+      getContext().getNamespace());
     for (ETLStage stage: config.getStages()) {
       String node = stage.getName();
 
       // Instantiate the plugin
       SQLNode plugin;
       try {
-        plugin = getContext().newPluginInstance(node);
+        plugin = getContext().newPluginInstance(node, macroEvaluator);
       } catch (InstantiationException e) {
         // This probably should have been caught at configure time
         throw new IllegalStateException("Failed to instantiate plugin for stage " + node);
@@ -272,18 +1216,17 @@ public abstract class AbstractSQLExecutor extends AbstractCustomAction {
    */
   private void traverseTopologicalOrder() {
     // Get topological ordering
-    List<String> topologicalOrder;
     if (dag != null) {
-      topologicalOrder = dag.getTopologicalOrder();
+      topologicalOrder = new ArrayList<>(dag.getTopologicalOrder());
     } else {
       topologicalOrder = new ArrayList<>();
     }
 
     // Schema and framework config creation
-    SchemaPlus rootSchema = CalciteSchema.createRootSchema(true).plus();
-    final FrameworkConfig builderConfig = Frameworks.newConfigBuilder().defaultSchema(rootSchema).build();
+    rootSchema = CalciteSchema.createRootSchema(true).plus();
+    builderConfig = Frameworks.newConfigBuilder().defaultSchema(rootSchema).build();
     // Identifier for temporary table
-    int temporaryTableCounter = 0;
+    temporaryTableCounter = 0;
     // Traverse the topological ordering
     for (String node: topologicalOrder) {
       // Get the plugin
@@ -303,6 +1246,7 @@ public abstract class AbstractSQLExecutor extends AbstractCustomAction {
         AbstractTableInfo table = sourcePlugin.getSourceTable();
         // Add the table to the root schema
         rootSchema.add(table.getTableName(), table);
+        sourceTables.put(node, table);
         // Add a scan for the source table
         builder.scan(table.getTableName());
         nodeInputs.add(table.getTableName());
@@ -324,8 +1268,8 @@ public abstract class AbstractSQLExecutor extends AbstractCustomAction {
 
         // Check if a node is a joiner node
         if (plugin instanceof SQLJoiner) {
-          if (nodeInputs.size() != 2) {
-            throw new IllegalArgumentException("Joiner nodes must have exactly two inputs.");
+          if (nodeInputs.size() < 2) {
+            throw new IllegalArgumentException("Joiner nodes must have at least two inputs.");
           }
         } else {
           // Perform an implicit union if multiple inputs
@@ -342,16 +1286,114 @@ public abstract class AbstractSQLExecutor extends AbstractCustomAction {
       // Check if the node is a splitter node
       if (toNodeMap.containsKey(node) && toNodeMap.get(node).size() > 1) {
         // Add a temporary table if splitter
-        String temporaryTableName = TEMPORARY_TABLE_PREFIX + temporaryTableCounter++;
-        // This adds the potential temporary table schema to the root schema
-        TemporaryTable temporaryTable = new TemporaryTable(temporaryTableName,
-                                                           relationalNodeMap.get(node).getRowType());
-        temporaryTableMap.put(node, temporaryTable);
-        rootSchema.add(temporaryTableName, temporaryTable);
+        addTemporaryTable(node);
       }
     }
   }
 
+  /**
+   * Adds a temporary table which materializes the output of a node.
+   *
+   * @param node The node to materialize
+   * @return The temporary table
+   */
+  private TemporaryTable addTemporaryTable(String node) {
+    String temporaryTableName = stagingTableNames.getTableName(TEMPORARY_TABLE_PREFIX + temporaryTableCounter++);
+    // This adds the potential temporary table schema to the root schema
+    RelNode relationalNode = relationalNodeMap.get(node);
+    TemporaryTable temporaryTable = new TemporaryTable(temporaryTableName, relationalNode.getRowType(),
+                                                       estimateStatistic(relationalNode));
+    temporaryTableMap.put(node, temporaryTable);
+    rootSchema.add(temporaryTableName, temporaryTable);
+    return temporaryTable;
+  }
+
+  /**
+   * Estimates the statistics of a table holding the result of a node, so that the nodes reading the table are
+   * planned with the cardinality of the node rather than a default.
+   */
+  private Statistic estimateStatistic(RelNode rel) {
+    RelMetadataQuery metadataQuery = rel.getCluster().getMetadataQuery();
+    List<ImmutableBitSet> keys = new ArrayList<>();
+    Set<ImmutableBitSet> uniqueKeys = metadataQuery.getUniqueKeys(rel);
+    if (uniqueKeys != null) {
+      keys.addAll(uniqueKeys);
+    }
+    return Statistics.of(metadataQuery.getRowCount(rel), keys);
+  }
+
+  /**
+   * Creates the planner of the statements, which materializes stages into temporary tables until the statements fit
+   * within the limits.
+   */
+  private QueryPlanner createQueryPlanner() {
+    RelToSqlConverter converter = createSqlConverter();
+    Set<String> writtenSinks = new HashSet<>(sinkStages);
+    writtenSinks.removeAll(skippedSinks);
+    return new QueryPlanner(
+      createRelBuilder(), getDialect(), converter, topologicalOrder, fromNodeMap, relationalNodeMap,
+      temporaryTableMap, sourceStages, writtenSinks, cacheHits, stagingDataset != null,
+      new QueryPlanner.Statements() {
+        @Override
+        public TemporaryTable addTemporaryTable(String node) {
+          return AbstractSQLExecutor.this.addTemporaryTable(node);
+        }
+
+        @Override
+        public List<String> createScript() {
+          createStatements(converter);
+          List<String> script = new ArrayList<>(tableCreationQueries);
+          script.addAll(queries);
+          return script;
+        }
+      });
+  }
+
+  /**
+   * Generates the statements of the current plan.
+   */
+  private void createStatements(RelToSqlConverter converter) {
+    queries = new ArrayList<>();
+    tableCreationQueries = new ArrayList<>();
+    stagingQueries = new ArrayList<>();
+    stagingTables = new ArrayList<>();
+    tableCopies = new ArrayList<>();
+    // Creates a temporary table for each splitter
+    createTemporaryTables(converter);
+    // Creates a query for each sink
+    createSinkQueries(converter);
+    // Loads the value lists which are read by the queries
+    if (!queries.isEmpty()) {
+      List<String> loadQueries = new ArrayList<>();
+      for (Map.Entry<String, ValueList> valueList : getValueLists().entrySet()) {
+        loadQueries.add(loadValueListStatement(valueList.getKey(), valueList.getValue()));
+      }
+      if (stagingDataset == null) {
+        queries.addAll(0, loadQueries);
+      } else {
+        stagingQueries.addAll(0, loadQueries);
+        stagingTables.addAll(0, getValueLists().keySet());
+      }
+    }
+    // Make the query lists unmodifiable
+    queries = Collections.unmodifiableList(queries);
+    tableCreationQueries = Collections.unmodifiableList(tableCreationQueries);
+    stagingQueries = Collections.unmodifiableList(stagingQueries);
+    stagingTables = Collections.unmodifiableList(stagingTables);
+    tableCopies = Collections.unmodifiableList(tableCopies);
+  }
+
+  /**
+   * Applies a rewrite to every relational node of every stage. See {@link QueryPlanner#rewriteNodes}.
+   */
+  private void rewriteNodes(Function<RelNode, RelNode> rewriter, @Nullable String excludedNode) {
+    QueryPlanner.rewriteNodes(relationalNodeMap, rewriter, excludedNode);
+  }
+
+  private SqlNode toSqlNode(RelToSqlConverter converter, RelNode relationalQueryNode) {
+    return converter.visitChild(0, relationalQueryNode).asQueryOrValues();
+  }
+
   /**
    * Generates a single temporary table from each node with multiple outputs, sourcing from source or other
    * splitter nodes.
@@ -361,9 +1403,33 @@ public abstract class AbstractSQLExecutor extends AbstractCustomAction {
   private void createTemporaryTables(RelToSqlConverter converter) {
     // Prepending the INSERT INTO and CREATE TEMPORARY statements seem rather hacky
     // TODO: CDAP-16096 Revisit generation of the CREATE TEMPORARY and INSERT INTO statement for sink stages
-    for (String node: temporaryTableMap.keySet()) {
+    // Temporary tables are kept in topological order, so tables are created before they are read
+    for (String node: queryPlanner.getStatementNodes()) {
+      if (!temporaryTableMap.containsKey(node)) {
+        continue;
+      }
       RelNode relationalQueryNode = relationalNodeMap.get(node);
-      SqlNode sqlQueryNode = converter.visitChild(0, relationalQueryNode).asQueryOrValues();
+      SqlNode sqlQueryNode = toSqlNode(converter, relationalQueryNode);
+      String tableName = temporaryTableMap.get(node).getTableName();
+      // With a staging dataset, intermediate results are written by separate statements ahead of the script
+      List<String> statements = stagingDataset == null ? queries : stagingQueries;
+      if (cacheMisses.containsKey(node)) {
+        // Cache tables are persistent, so they are created up front and then filled
+        tableCreationQueries.add(createTableStatement(tableName, relationalQueryNode.getRowType()));
+        statements.add(deleteAllStatement(tableName));
+        SqlBuilder query = new SqlBuilder(getDialect());
+        query.append("INSERT INTO ");
+        query.identifier(tableName);
+        query.append(' ');
+        query.append(sqlQueryNode.toSqlString(getDialect()));
+        statements.add(query.toSqlString().getSql());
+        continue;
+      }
+      if (stagingDataset != null) {
+        stagingQueries.add(createStagingTableStatement(tableName, sqlQueryNode.toSqlString(getDialect()).getSql()));
+        stagingTables.add(tableName);
+        continue;
+      }
       SqlBuilder query = new SqlBuilder(getDialect());
       query.append("CREATE TEMPORARY TABLE ");
       query.identifier(temporaryTableMap.get(node).getTableName());
@@ -379,33 +1445,40 @@ public abstract class AbstractSQLExecutor extends AbstractCustomAction {
    * @param converter The converter to convert the {@link RelNode} to a {@link SqlNode}
    */
   private void createSinkQueries(RelToSqlConverter converter) {
-    for (String node: sinkStages) {
+    for (String node: queryPlanner.getStatementNodes()) {
+      if (!sinkStages.contains(node)) {
+        continue;
+      }
       SQLSink sinkPlugin = (SQLSink) pluginMap.get(node);
       AbstractTableInfo destinationTable = sinkPlugin.getDestinationTable();
       RelNode relationalQueryNode = relationalNodeMap.get(node);
 
+      // Sinks which only copy a source table may not need a query at all
+      TableCopy copy = TableCopy.fromQuery(sinkPlugin.getWriteMode(), destinationTable.getTableName(),
+                                           relationalQueryNode, getSourceTableNames(), createTableFeatureFlag);
+      if (copy != null && supportsTableCopy(copy)) {
+        tableCopies.add(copy);
+        continue;
+      }
+
       if (createTableFeatureFlag) {
-        // Build a create table statement for each sink stage
-        SqlNodeList columns = new SqlNodeList(SqlParserPos.ZERO);
-        SqlIdentifier tableName = new SqlIdentifier(destinationTable.getTableName(), SqlParserPos.QUOTED_ZERO);
-        for (RelDataTypeField field : relationalQueryNode.getRowType().getFieldList()) {
-          SqlDataTypeSpec colType = SqlTypeUtil.convertTypeToSpec(field.getType());
-          ColumnStrategy strategy = ColumnStrategy.NULLABLE;
-          if (!field.getType().isNullable()) {
-            strategy = ColumnStrategy.NOT_NULLABLE;
-          }
-          SqlIdentifier colName = new SqlIdentifier(field.getName(), SqlParserPos.QUOTED_ZERO);
-          SqlNode sqlCol = SqlDdlNodes.column(SqlParserPos.ZERO, colName, colType, null, strategy);
-          columns.add(sqlCol);
-        }
-        SqlCreateTable createTableStatement = SqlDdlNodes.createTable(SqlParserPos.ZERO, false,
-                                                                      true, tableName, columns, null);
-        // Add this to the beginning of the query list
-        queries.add(0, createTableStatement.toSqlString(getDialect()).getSql());
+        // Tables must be created before any query is run
+        tableCreationQueries.add(createTableStatement(destinationTable.getTableName(),
+                                                      relationalQueryNode.getRowType()));
+      }
+
+      if (sinkPlugin.getWriteMode() == SQLSink.WriteMode.MERGE_SKETCHES) {
+        queries.add(mergeSketchesStatement(converter, destinationTable.getTableName(), relationalQueryNode));
+        continue;
+      }
+
+      if (sinkPlugin.getWriteMode() == SQLSink.WriteMode.TRUNCATE) {
+        // Remove the existing rows before inserting
+        queries.add(deleteAllStatement(destinationTable.getTableName()));
       }
 
       // Serialize the final sink query
-      SqlNode sqlQueryNode = converter.visitChild(0, relationalQueryNode).asQueryOrValues();
+      SqlNode sqlQueryNode = toSqlNode(converter, relationalQueryNode);
       SqlBuilder query = new SqlBuilder(getDialect());
       query.append("INSERT INTO ");
       query.identifier(destinationTable.getTableName());
@@ -415,6 +1488,142 @@ public abstract class AbstractSQLExecutor extends AbstractCustomAction {
     }
   }
 
+  /**
+   * Builds a statement which creates a table with the given type if it does not exist.
+   */
+  private String createTableStatement(String tableName, RelDataType rowType) {
+    SqlNodeList columns = new SqlNodeList(SqlParserPos.ZERO);
+    SqlIdentifier tableIdentifier = new SqlIdentifier(tableName, SqlParserPos.QUOTED_ZERO);
+    for (RelDataTypeField field : rowType.getFieldList()) {
+      SqlDataTypeSpec colType = SqlTypeUtil.convertTypeToSpec(field.getType());
+      ColumnStrategy strategy = ColumnStrategy.NULLABLE;
+      if (!field.getType().isNullable()) {
+        strategy = ColumnStrategy.NOT_NULLABLE;
+      }
+      SqlIdentifier colName = new SqlIdentifier(field.getName(), SqlParserPos.QUOTED_ZERO);
+      SqlNode sqlCol = SqlDdlNodes.column(SqlParserPos.ZERO, colName, colType, null, strategy);
+      columns.add(sqlCol);
+    }
+    SqlCreateTable createTableStatement = SqlDdlNodes.createTable(SqlParserPos.ZERO, false,
+                                                                  true, tableIdentifier, columns, null);
+    return createTableStatement.toSqlString(getDialect()).getSql();
+  }
+
+  /**
+   * Builds a statement which merges the sketches output by a sink into its table. Binary columns hold the
+   * sketches and every other column is part of the key. The output is first reduced to one row for each key, since
+   * each row of the table can only be merged with a single row.
+   */
+  private String mergeSketchesStatement(RelToSqlConverter converter, String tableName, RelNode relationalNode) {
+    List<String> keys = new ArrayList<>();
+    List<String> sketchColumns = new ArrayList<>();
+    for (RelDataTypeField field : relationalNode.getRowType().getFieldList()) {
+      if (SqlTypeUtil.isBinary(field.getType())) {
+        sketchColumns.add(field.getName());
+      } else {
+        keys.add(field.getName());
+      }
+    }
+    if (sketchColumns.isEmpty()) {
+      throw new IllegalArgumentException(String.format(
+        "Unable to merge sketches into table %s since the output does not have any sketch columns.", tableName));
+    }
+
+    RelBuilder builder = createRelBuilder();
+    builder.push(relationalNode);
+    List<RelBuilder.AggCall> mergeCalls = new ArrayList<>();
+    for (String sketchColumn : sketchColumns) {
+      mergeCalls.add(builder.aggregateCall(ApproximateAggFunction.mergeSketches(), builder.field(sketchColumn))
+                       .as(sketchColumn));
+    }
+    RelNode merged = builder.aggregate(builder.groupKey(keys.toArray(new String[0])), mergeCalls).build();
+    String query = toSqlNode(converter, merged).toSqlString(getDialect()).getSql();
+    return mergeSketchesStatement(tableName, query, keys, sketchColumns);
+  }
+
+  /**
+   * Builds a statement which merges the sketches of a query into the rows of a table with the same key, and inserts
+   * the rows with new keys. Merging sketches is not supported by default.
+   *
+   * @param tableName The table to merge into
+   * @param query The query holding the sketches to merge, with at most one row for each key
+   * @param keys The key columns
+   * @param sketchColumns The columns holding sketches
+   * @return The statement
+   */
+  protected String mergeSketchesStatement(String tableName, String query, List<String> keys,
+                                          List<String> sketchColumns) {
+    throw new IllegalArgumentException(String.format("Merging sketches into table %s is not supported.", tableName));
+  }
+
+  /**
+   * Builds a query which returns the values of a value list, with a single column named {@link ValueList#COLUMN_NAME}.
+   * The staging table holding the list is created from the result of the query. The values are typically passed as
+   * a parameter of the query, since they are too many to be written into it. Loading value lists is not supported
+   * by default.
+   *
+   * @param tableName The staging table which is created from the query
+   * @param valueList The values to load
+   * @return The query
+   */
+  protected String loadValueListQuery(String tableName, ValueList valueList) {
+    throw new IllegalArgumentException(String.format(
+      "Loading a list of %d values is not supported, the list must be at most %s values long to be inlined.",
+      valueList.getValues().size(), VALUE_LIST_INLINE_THRESHOLD_NAME));
+  }
+
+  /**
+   * Builds a statement which creates a staging table reading a value list from a file, with one value per line, in
+   * a single column named {@link ValueList#COLUMN_NAME}. The table is created in the staging dataset, and is dropped
+   * once the queries complete. Reading value lists from files is not supported by default.
+   *
+   * @param tableName The name of the staging table
+   * @param valueList The value list, which gives the URI of the file
+   * @return The statement
+   */
+  protected String createValueListFileStatement(String tableName, ValueList valueList) {
+    throw new IllegalArgumentException(String.format("Reading value list %s from a file is not supported.",
+                                                     valueList.getFileUri()));
+  }
+
+  /**
+   * Builds a statement which creates the staging table holding a value list.
+   */
+  private String loadValueListStatement(String tableName, ValueList valueList) {
+    if (valueList.getFileUri() != null) {
+      return createValueListFileStatement(tableName, valueList);
+    }
+    String query = loadValueListQuery(tableName, valueList);
+    if (stagingDataset != null) {
+      return createStagingTableStatement(tableName, query);
+    }
+    SqlBuilder statement = new SqlBuilder(getDialect());
+    statement.append("CREATE TEMPORARY TABLE ");
+    statement.identifier(tableName);
+    statement.append(" AS ");
+    statement.append(query);
+    return statement.toSqlString().getSql();
+  }
+
+  /**
+   * Builds a statement which deletes every row of a table.
+   */
+  private String deleteAllStatement(String tableName) {
+    SqlBuilder query = new SqlBuilder(getDialect());
+    query.append("DELETE FROM ");
+    query.identifier(tableName);
+    query.append(" WHERE TRUE");
+    return query.toSqlString().getSql();
+  }
+
+  private Set<String> getSourceTableNames() {
+    Set<String> tableNames = new HashSet<>();
+    for (AbstractTableInfo sourceTable : sourceTables.values()) {
+      tableNames.add(sourceTable.getTableName());
+    }
+    return tableNames;
+  }
+
   /**
    * Creates a {@link RelNode} representing a table scan.
    *
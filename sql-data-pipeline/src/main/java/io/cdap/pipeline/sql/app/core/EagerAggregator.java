@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.hep.HepPlanner;
+import org.apache.calcite.plan.hep.HepProgram;
+import org.apache.calcite.plan.hep.HepProgramBuilder;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.RelFactories;
+import org.apache.calcite.rel.core.Union;
+import org.apache.calcite.rel.rules.AggregateJoinTransposeRule;
+import org.apache.calcite.rel.rules.AggregateProjectMergeRule;
+import org.apache.calcite.rel.rules.AggregateReduceFunctionsRule;
+import org.apache.calcite.rel.rules.AggregateUnionTransposeRule;
+import org.apache.calcite.rel.rules.ProjectMergeRule;
+import org.apache.calcite.rel.rules.ProjectRemoveRule;
+import org.apache.calcite.sql.SqlKind;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+
+/**
+ * Splits an aggregation into partial aggregations below the joins and unions it reads, so that each input is reduced
+ * to one row per key before it is combined, and the aggregation above combines the partial results. Inputs which are
+ * already unique on their keys are not aggregated.
+ *
+ * Averages cannot be combined, so they are split into a sum and a count which are divided above the aggregation.
+ * The split is only kept if a partial aggregation was pushed below a join or union, so that aggregations which are
+ * not combined keep their averages.
+ */
+public class EagerAggregator {
+  private static final HepProgram PROGRAM = new HepProgramBuilder()
+    .addRuleInstance(new AggregateReduceFunctionsRule(Aggregate.class, RelFactories.LOGICAL_BUILDER,
+                                                      EnumSet.of(SqlKind.AVG)))
+    .addRuleInstance(AggregateProjectMergeRule.INSTANCE)
+    .addRuleCollection(Arrays.asList(AggregateJoinTransposeRule.EXTENDED, AggregateUnionTransposeRule.INSTANCE))
+    .addRuleCollection(Arrays.asList(AggregateProjectMergeRule.INSTANCE, ProjectMergeRule.INSTANCE,
+                                     ProjectRemoveRule.INSTANCE))
+    .build();
+
+  private EagerAggregator() {
+  }
+
+  /**
+   * Pushes partial aggregations of an aggregation below its joins and unions.
+   *
+   * @param relationalNode The aggregation, or a projection of it
+   * @return The rewritten node, or the given node if no partial aggregation could be pushed down
+   */
+  public static RelNode rewrite(RelNode relationalNode) {
+    RelNode aggregate = relationalNode instanceof Project ? relationalNode.getInput(0) : relationalNode;
+    if (!(aggregate instanceof Aggregate)) {
+      return relationalNode;
+    }
+    HepPlanner planner = new HepPlanner(PROGRAM);
+    planner.setRoot(relationalNode);
+    RelNode rewritten = planner.findBestExp();
+    if (!RelOptUtil.areRowTypesEqual(rewritten.getRowType(), relationalNode.getRowType(), true)
+      || countCombinedAggregates(rewritten, false) <= countCombinedAggregates(relationalNode, false)) {
+      return relationalNode;
+    }
+    return rewritten;
+  }
+
+  /**
+   * Counts the aggregations which are read by a join or union.
+   */
+  private static int countCombinedAggregates(RelNode rel, boolean combined) {
+    int count = combined && rel instanceof Aggregate ? 1 : 0;
+    boolean combines = rel instanceof Join || rel instanceof Union;
+    for (RelNode input : rel.getInputs()) {
+      count += countCombinedAggregates(input, combined || combines);
+    }
+    return count;
+  }
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import io.cdap.pipeline.sql.api.template.SQLJoiner;
+import io.cdap.pipeline.sql.api.template.interfaces.SQLNode;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.hep.HepMatchOrder;
+import org.apache.calcite.plan.hep.HepPlanner;
+import org.apache.calcite.plan.hep.HepProgram;
+import org.apache.calcite.plan.hep.HepProgramBuilder;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.rules.FilterMultiJoinMergeRule;
+import org.apache.calcite.rel.rules.JoinProjectTransposeRule;
+import org.apache.calcite.rel.rules.JoinToMultiJoinRule;
+import org.apache.calcite.rel.rules.LoptOptimizeJoinRule;
+import org.apache.calcite.rel.rules.MultiJoin;
+import org.apache.calcite.rel.rules.ProjectMergeRule;
+import org.apache.calcite.rel.rules.ProjectMultiJoinMergeRule;
+import org.apache.calcite.rel.rules.ProjectRemoveRule;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Combines each chain of joiner stages which are inlined into one another into a single multi-way join, then picks
+ * the order of the join from the estimated row counts of its inputs so that large intermediate results are avoided.
+ * Only the last stage of each chain is reordered, since it includes the stages before it. Chains holding a joiner
+ * which salts skewed keys are kept as is, since salting requires the join of the joiner to be kept.
+ */
+public class JoinReorderer {
+  private static final Logger LOG = LoggerFactory.getLogger(JoinReorderer.class);
+  // Pulls the projections of joiner stages above the joins, merges adjacent joins, then orders them by cardinality
+  private static final HepProgram PROGRAM = new HepProgramBuilder()
+    .addMatchOrder(HepMatchOrder.BOTTOM_UP)
+    .addRuleCollection(Arrays.asList(JoinProjectTransposeRule.BOTH_PROJECT, JoinProjectTransposeRule.LEFT_PROJECT,
+                                     JoinProjectTransposeRule.RIGHT_PROJECT, ProjectMergeRule.INSTANCE))
+    .addRuleInstance(JoinToMultiJoinRule.INSTANCE)
+    .addRuleCollection(Arrays.asList(ProjectMultiJoinMergeRule.INSTANCE, FilterMultiJoinMergeRule.INSTANCE))
+    .addRuleInstance(LoptOptimizeJoinRule.INSTANCE)
+    .addRuleCollection(Arrays.asList(ProjectMergeRule.INSTANCE, ProjectRemoveRule.INSTANCE))
+    .build();
+
+  private final Map<String, SQLNode> pluginMap;
+  private final Map<String, Set<String>> fromNodeMap;
+  private final Map<String, Set<String>> toNodeMap;
+  private final Map<String, TemporaryTable> temporaryTableMap;
+
+  /**
+   * @param pluginMap The plugin of each stage
+   * @param fromNodeMap The input stages of each stage
+   * @param toNodeMap The output stages of each stage
+   * @param temporaryTableMap The table of each materialized stage, which is read rather than inlined
+   */
+  public JoinReorderer(Map<String, SQLNode> pluginMap, Map<String, Set<String>> fromNodeMap,
+                       Map<String, Set<String>> toNodeMap, Map<String, TemporaryTable> temporaryTableMap) {
+    this.pluginMap = pluginMap;
+    this.fromNodeMap = fromNodeMap;
+    this.toNodeMap = toNodeMap;
+    this.temporaryTableMap = temporaryTableMap;
+  }
+
+  /**
+   * Reorders the joins of a stage if it is the last joiner of a chain.
+   *
+   * @param node The stage
+   * @param relationalNode The relational node of the stage
+   * @return The reordered node, or the given node if the stage is not the last joiner of a chain without skewed
+   *   joiners, or its joins cannot be reordered
+   */
+  public RelNode reorder(String node, RelNode relationalNode) {
+    if (!(pluginMap.get(node) instanceof SQLJoiner) || isInlinedIntoJoiner(node) || hasSkewedJoiner(node)) {
+      return relationalNode;
+    }
+    RelNode reordered;
+    try {
+      HepPlanner planner = new HepPlanner(PROGRAM);
+      planner.setRoot(relationalNode);
+      reordered = planner.findBestExp();
+    } catch (RuntimeException e) {
+      LOG.debug("Failed to reorder the joins of stage {}.", node, e);
+      return relationalNode;
+    }
+    // Multi-joins which could not be reordered, such as full outer joins, cannot be converted to SQL
+    if (containsMultiJoin(reordered)
+      || !RelOptUtil.areRowTypesEqual(reordered.getRowType(), relationalNode.getRowType(), true)
+      || RelOptUtil.toString(reordered).equals(RelOptUtil.toString(relationalNode))) {
+      return relationalNode;
+    }
+    return reordered;
+  }
+
+  /**
+   * Returns whether the result of a stage is read directly by a joiner stage rather than through a temporary table.
+   */
+  public boolean isInlinedIntoJoiner(String node) {
+    if (temporaryTableMap.containsKey(node)) {
+      return false;
+    }
+    for (String toNode : toNodeMap.getOrDefault(node, Collections.emptySet())) {
+      if (pluginMap.get(toNode) instanceof SQLJoiner) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Returns whether a joiner which salts skewed keys is inlined into a stage, since salting requires the join of the
+   * joiner to be kept as is.
+   */
+  public boolean hasSkewedJoiner(String node) {
+    SQLNode plugin = pluginMap.get(node);
+    if (plugin instanceof SQLJoiner && ((SQLJoiner) plugin).getSkewBuckets() > 0) {
+      return true;
+    }
+    for (String fromNode : fromNodeMap.getOrDefault(node, Collections.emptySet())) {
+      if (!temporaryTableMap.containsKey(fromNode) && hasSkewedJoiner(fromNode)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static boolean containsMultiJoin(RelNode rel) {
+    if (rel instanceof MultiJoin) {
+      return true;
+    }
+    for (RelNode input : rel.getInputs()) {
+      if (containsMultiJoin(input)) {
+        return true;
+      }
+    }
+    return false;
+  }
+}
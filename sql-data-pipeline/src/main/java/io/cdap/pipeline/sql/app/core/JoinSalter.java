@@ -0,0 +1,186 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.cdap.pipeline.sql.app.core;
+
+import io.cdap.pipeline.sql.api.template.functions.GenerateArrayFunction;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.JoinInfo;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.Uncollect;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexCorrelVariable;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.Holder;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Rewrites a join whose keys are heavily skewed so that the rows of each heavy key are spread across several
+ * buckets rather than being joined by a single worker.
+ *
+ * Rows of the salted input with a heavy key are assigned a random bucket, while rows of the other input with a
+ * heavy key are replicated into every bucket by joining each row with the array of its buckets. All other rows are
+ * assigned the first bucket, and the bucket is added to the join condition. Only inputs whose unmatched rows are
+ * dropped by the join can be replicated.
+ */
+public class JoinSalter {
+  private static final String SALT_FIELD_NAME = "skew_salt";
+
+  private final RelBuilder builder;
+
+  public JoinSalter(RelBuilder builder) {
+    this.builder = builder;
+  }
+
+  /**
+   * Returns the input of a join which should be salted, which is the larger input if either may be salted.
+   *
+   * @param join The join to salt
+   * @return 0 for the left input, 1 for the right input, or -1 if the join cannot be salted
+   */
+  public static int getSaltedInput(Join join) {
+    switch (join.getJoinType()) {
+      case INNER:
+        RelMetadataQuery metadataQuery = join.getCluster().getMetadataQuery();
+        Double leftRows = metadataQuery.getRowCount(join.getLeft());
+        Double rightRows = metadataQuery.getRowCount(join.getRight());
+        return leftRows != null && rightRows != null && rightRows > leftRows ? 1 : 0;
+      case LEFT:
+      case SEMI:
+      case ANTI:
+        return 0;
+      case RIGHT:
+        return 1;
+      default:
+        // Both inputs of a full join keep their unmatched rows, so neither can be replicated
+        return -1;
+    }
+  }
+
+  /**
+   * Salts the heavy keys of a join.
+   *
+   * @param project The projection of the join
+   * @param saltedInput The input to salt, as returned by {@link #getSaltedInput(Join)}
+   * @param buckets The number of buckets to spread each heavy key across
+   * @param heavyKeys The values of the first join key of the salted input which are skewed, which may include null
+   * @return The salted join with the same projection
+   */
+  public RelNode salt(Project project, int saltedInput, int buckets, List<Object> heavyKeys) {
+    Join join = (Join) project.getInput();
+    JoinInfo joinInfo = join.analyzeCondition();
+    RelNode left = join.getLeft();
+    RelNode right = join.getRight();
+    int leftKey = joinInfo.leftKeys.get(0);
+    int rightKey = joinInfo.rightKeys.get(0);
+    RelNode newLeft = saltedInput == 0 ? addSalt(left, leftKey, buckets, heavyKeys)
+      : replicate(left, leftKey, buckets, heavyKeys);
+    RelNode newRight = saltedInput == 0 ? replicate(right, rightKey, buckets, heavyKeys)
+      : addSalt(right, rightKey, buckets, heavyKeys);
+
+    // Both inputs gained a salt field at their end, which shifts the fields of the right input by one
+    int leftCount = left.getRowType().getFieldCount();
+    int rightCount = right.getRowType().getFieldCount();
+    RexShuttle shift = new RexShuttle() {
+      @Override
+      public RexNode visitInputRef(RexInputRef inputRef) {
+        int index = inputRef.getIndex();
+        return index < leftCount ? inputRef : new RexInputRef(index + 1, inputRef.getType());
+      }
+    };
+    RexBuilder rexBuilder = join.getCluster().getRexBuilder();
+    RexNode saltCondition = rexBuilder.makeCall(
+      SqlStdOperatorTable.EQUALS,
+      rexBuilder.makeInputRef(newLeft.getRowType().getFieldList().get(leftCount).getType(), leftCount),
+      rexBuilder.makeInputRef(newRight.getRowType().getFieldList().get(rightCount).getType(),
+                              leftCount + 1 + rightCount));
+    RexNode condition = rexBuilder.makeCall(SqlStdOperatorTable.AND, join.getCondition().accept(shift),
+                                            saltCondition);
+    Join newJoin = join.copy(join.getTraitSet(), condition, newLeft, newRight, join.getJoinType(),
+                             join.isSemiJoinDone());
+
+    List<RexNode> projects = new ArrayList<>();
+    for (RexNode expression : project.getProjects()) {
+      projects.add(expression.accept(shift));
+    }
+    return project.copy(project.getTraitSet(), newJoin, projects, project.getRowType());
+  }
+
+  /**
+   * Adds a random bucket to the rows of the input with a heavy key, and the first bucket to all other rows.
+   */
+  private RelNode addSalt(RelNode input, int key, int buckets, List<Object> heavyKeys) {
+    builder.push(input);
+    RelDataType bucketType = builder.getTypeFactory().createSqlType(SqlTypeName.BIGINT);
+    RexNode bucket = builder.getRexBuilder().makeCast(
+      bucketType, builder.call(SqlStdOperatorTable.FLOOR,
+                                builder.call(SqlStdOperatorTable.MULTIPLY, builder.call(SqlStdOperatorTable.RAND),
+                                             builder.literal(buckets))));
+    RexNode salt = builder.call(SqlStdOperatorTable.CASE, isHeavy(builder.field(key), heavyKeys), bucket,
+                                builder.literal(0));
+    List<RexNode> fields = new ArrayList<>(builder.fields());
+    fields.add(builder.alias(salt, SALT_FIELD_NAME));
+    return builder.project(fields).build();
+  }
+
+  /**
+   * Replicates the rows of the input with a heavy key into every bucket, and assigns all other rows the first bucket.
+   * Each row is joined with the array of its buckets, from 0 up to the last bucket for heavy keys and up to 0 for all
+   * other keys, so that the input is only read once.
+   */
+  private RelNode replicate(RelNode input, int key, int buckets, List<Object> heavyKeys) {
+    Holder<RexCorrelVariable> correlation = Holder.of(null);
+    builder.push(input).variable(correlation);
+    RexNode correlatedKey = builder.getRexBuilder().makeFieldAccess(correlation.get(), key);
+    RexNode lastBucket = builder.call(SqlStdOperatorTable.CASE, isHeavy(correlatedKey, heavyKeys),
+                                      builder.literal(buckets - 1), builder.literal(0));
+    RelNode correlated = builder.build();
+    builder.values(new String[] {"ZERO"}, 0);
+    builder.project(builder.alias(builder.call(GenerateArrayFunction.INSTANCE, builder.literal(0), lastBucket),
+                                  SALT_FIELD_NAME));
+    RelNode bucketRows = Uncollect.create(builder.peek().getTraitSet(), builder.build(), false);
+    builder.push(correlated).push(bucketRows);
+    builder.correlate(JoinRelType.INNER, correlation.get().id, builder.field(2, 0, key));
+    List<String> names = new ArrayList<>(input.getRowType().getFieldNames());
+    names.add(SALT_FIELD_NAME);
+    return builder.project(builder.fields(), names, true).build();
+  }
+
+  private RexNode isHeavy(RexNode key, List<Object> heavyKeys) {
+    RexBuilder rexBuilder = builder.getRexBuilder();
+    List<RexNode> conditions = new ArrayList<>();
+    for (Object heavyKey : heavyKeys) {
+      if (heavyKey == null) {
+        conditions.add(builder.isNull(key));
+      } else {
+        conditions.add(builder.equals(key, rexBuilder.makeLiteral(heavyKey, key.getType(), true)));
+      }
+    }
+    return builder.or(conditions);
+  }
+}
@@ -0,0 +1,323 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import io.cdap.pipeline.sql.api.template.tables.TableMetadata;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.function.IntUnaryOperator;
+import javax.annotation.Nullable;
+
+/**
+ * Reads the wide columns of a table only for the rows which survive a selective join, rather than carrying them
+ * through the join and the filters above it.
+ *
+ * When one input of an inner join reads a table with a primary key, the join and its filters are run on the columns
+ * they compare and the key of the table, and the surviving keys are joined back to the input, which filters the table
+ * again, to read the columns which are only projected. The rewrite is only applied when it lowers the estimated
+ * number of bytes read and carried by the joins: the columns of the input are carried for every row it returns and
+ * every row the join returns, while the rewrite reads the key and the projected columns a second time for every row
+ * of the table, and carries them for every row which survives.
+ */
+public class LateMaterializer {
+  private static final Logger LOG = LoggerFactory.getLogger(LateMaterializer.class);
+  // The size of a value whose size cannot be estimated otherwise
+  private static final double DEFAULT_VALUE_SIZE = 8;
+
+  private final RelBuilder builder;
+  private final Map<String, TableMetadata> tableMetadata;
+
+  /**
+   * @param builder The builder to create the joins with
+   * @param tableMetadata The metadata of the tables read by the pipeline, by table name
+   */
+  public LateMaterializer(RelBuilder builder, Map<String, TableMetadata> tableMetadata) {
+    this.builder = builder;
+    this.tableMetadata = tableMetadata;
+  }
+
+  /**
+   * Delays reading the projected columns of a table read by a join, if the join is selective enough.
+   *
+   * @param relationalNode The node to rewrite
+   * @return The projection of the join with the columns read after the join, or the given node if the rewrite
+   *   would not pay off
+   */
+  public RelNode rewrite(RelNode relationalNode) {
+    if (!(relationalNode instanceof Project)) {
+      return relationalNode;
+    }
+    Project project = (Project) relationalNode;
+    List<Filter> filters = new ArrayList<>();
+    RelNode node = project.getInput();
+    while (node instanceof Filter) {
+      filters.add((Filter) node);
+      node = node.getInput(0);
+    }
+    if (!(node instanceof Join) || ((Join) node).getJoinType() != JoinRelType.INNER) {
+      return project;
+    }
+    for (int side = 0; side < 2; side++) {
+      RelNode rewritten = materializeLate(project, filters, (Join) node, side);
+      if (rewritten != null) {
+        return rewritten;
+      }
+    }
+    return project;
+  }
+
+  /**
+   * Reads the projected columns of one input of the join after the join and its filters.
+   *
+   * @return The rewritten projection, or null if the input does not read a table with a primary key or the rewrite
+   *   would not pay off
+   */
+  @Nullable
+  private RelNode materializeLate(Project project, List<Filter> filters, Join join, int side) {
+    RelNode wide = join.getInput(side);
+    int wideCount = wide.getRowType().getFieldCount();
+    int offset = side == 0 ? 0 : join.getLeft().getRowType().getFieldCount();
+    int[] columns = new int[wideCount];
+    TableScan scan = resolveColumns(wide, columns);
+    if (scan == null) {
+      return null;
+    }
+    List<String> qualifiedName = scan.getTable().getQualifiedName();
+    String tableName = qualifiedName.get(qualifiedName.size() - 1);
+    TableMetadata metadata = tableMetadata.get(tableName);
+    if (metadata == null || metadata.getPrimaryKey().isEmpty()) {
+      return null;
+    }
+
+    // The key of the table must be returned by the input to join the surviving rows back to the table
+    List<Integer> keyFields = new ArrayList<>();
+    for (String keyColumn : metadata.getPrimaryKey()) {
+      RelDataTypeField tableField = scan.getRowType().getField(keyColumn, true, false);
+      int keyField = tableField == null ? -1 : indexOf(columns, tableField.getIndex());
+      if (keyField < 0 || tableField.getType().isNullable()) {
+        return null;
+      }
+      keyFields.add(keyField);
+    }
+
+    // Fields compared by the join or its filters are needed before the join, while fields which are only projected
+    // can be read afterwards
+    ImmutableBitSet.Builder comparedBuilder = RelOptUtil.InputFinder.bits(join.getCondition()).rebuild();
+    for (Filter filter : filters) {
+      comparedBuilder.addAll(RelOptUtil.InputFinder.bits(filter.getCondition()));
+    }
+    ImmutableBitSet compared = comparedBuilder.build();
+    ImmutableBitSet projected = RelOptUtil.InputFinder.bits(project.getProjects(), null);
+    List<Integer> kept = new ArrayList<>();
+    List<Integer> late = new ArrayList<>();
+    for (int field = 0; field < wideCount; field++) {
+      boolean isCompared = compared.get(offset + field);
+      boolean isProjected = projected.get(offset + field);
+      if (!isCompared && isProjected && columns[field] >= 0 && !keyFields.contains(field)) {
+        late.add(field);
+      } else if (isCompared || isProjected || keyFields.contains(field)) {
+        kept.add(field);
+      }
+    }
+    if (late.isEmpty()) {
+      return null;
+    }
+
+    RelMetadataQuery metadataQuery = join.getCluster().getMetadataQuery();
+    Double tableRows = metadataQuery.getRowCount(scan);
+    Double wideRows = metadataQuery.getRowCount(wide);
+    Double joinedRows = metadataQuery.getRowCount(join);
+    Double survivingRows = metadataQuery.getRowCount(filters.isEmpty() ? join : filters.get(0));
+    if (tableRows == null || wideRows == null || joinedRows == null || survivingRows == null) {
+      return null;
+    }
+    double[] valueSizes = getValueSizes(metadataQuery, wide, scan, columns, metadata);
+    double keptBytes = sum(valueSizes, kept);
+    double lateBytes = sum(valueSizes, late);
+    double keyBytes = sum(valueSizes, keyFields);
+    double usedBytes = keptBytes + lateBytes - sum(valueSizes, unusedKeys(keyFields, compared, projected, offset));
+    double bytesBefore = (wideRows + joinedRows) * usedBytes;
+    double bytesAfter = (wideRows + joinedRows) * keptBytes + (tableRows + survivingRows) * (keyBytes + lateBytes);
+    if (bytesAfter >= bytesBefore) {
+      return null;
+    }
+
+    // Run the join and its filters on the kept fields of the input
+    int[] keptPositions = new int[wideCount];
+    Arrays.fill(keptPositions, -1);
+    List<RexNode> keptRefs = new ArrayList<>();
+    builder.push(wide);
+    for (int field : kept) {
+      keptPositions[field] = keptRefs.size();
+      keptRefs.add(builder.field(field));
+    }
+    RelNode narrow = builder.project(keptRefs).build();
+    int otherCount = join.getRowType().getFieldCount() - wideCount;
+    int newOffset = side == 0 ? 0 : offset;
+    IntUnaryOperator joinMapping = index -> {
+      if (index >= offset && index < offset + wideCount) {
+        return newOffset + keptPositions[index - offset];
+      }
+      return side == 0 ? index - wideCount + kept.size() : index;
+    };
+    RelNode newLeft = side == 0 ? narrow : join.getLeft();
+    RelNode newRight = side == 0 ? join.getRight() : narrow;
+    RelNode current = join.copy(join.getTraitSet(), remap(join.getCondition(), joinMapping), newLeft, newRight,
+                                join.getJoinType(), join.isSemiJoinDone());
+    for (int i = filters.size() - 1; i >= 0; i--) {
+      Filter filter = filters.get(i);
+      current = filter.copy(filter.getTraitSet(), current, remap(filter.getCondition(), joinMapping));
+    }
+
+    // Join the surviving keys back to the input to read the late fields, so that the table is read with the same
+    // filters, which prune its partitions
+    List<Integer> fetchFields = new ArrayList<>(keyFields);
+    fetchFields.addAll(late);
+    RelNode fetch = builder.push(wide).project(builder.fields(fetchFields)).build();
+    int currentCount = kept.size() + otherCount;
+    builder.push(current).push(fetch);
+    List<RexNode> keyConditions = new ArrayList<>();
+    for (int i = 0; i < keyFields.size(); i++) {
+      keyConditions.add(builder.equals(builder.field(2, 0, newOffset + keptPositions[keyFields.get(i)]),
+                                       builder.field(2, 1, i)));
+    }
+    RelNode joined = builder.join(JoinRelType.INNER, keyConditions).build();
+    IntUnaryOperator projectMapping = index -> {
+      if (index >= offset && index < offset + wideCount && keptPositions[index - offset] < 0) {
+        return currentCount + fetchFields.indexOf(index - offset);
+      }
+      return joinMapping.applyAsInt(index);
+    };
+    List<RexNode> projects = new ArrayList<>();
+    for (RexNode expression : project.getProjects()) {
+      projects.add(remap(expression, projectMapping));
+    }
+    LOG.info("Reading {} columns of table {} for an estimated {} rows which survive a join of {} rows.", late.size(),
+             tableName, survivingRows, joinedRows);
+    return project.copy(project.getTraitSet(), joined, projects, project.getRowType());
+  }
+
+  /**
+   * Finds the table read by an input which only filters the table and projects its columns.
+   *
+   * @param input The input to resolve
+   * @param columns Set to the column of the table which each field of the input holds, or -1 if the field is computed
+   * @return The table scan, or null if the input computes anything else
+   */
+  @Nullable
+  private static TableScan resolveColumns(RelNode input, int[] columns) {
+    for (int i = 0; i < columns.length; i++) {
+      columns[i] = i;
+    }
+    RelNode node = input;
+    while (!(node instanceof TableScan)) {
+      if (node instanceof Project) {
+        List<RexNode> projects = ((Project) node).getProjects();
+        for (int i = 0; i < columns.length; i++) {
+          RexNode expression = columns[i] < 0 ? null : projects.get(columns[i]);
+          columns[i] = expression instanceof RexInputRef ? ((RexInputRef) expression).getIndex() : -1;
+        }
+      } else if (!(node instanceof Filter)) {
+        return null;
+      }
+      node = node.getInput(0);
+    }
+    return (TableScan) node;
+  }
+
+  /**
+   * Estimates the average size of each field of the input. The sizes of the columns of the table are taken from its
+   * metadata when known.
+   */
+  private static double[] getValueSizes(RelMetadataQuery metadataQuery, RelNode input, TableScan scan,
+                                        int[] columns, TableMetadata metadata) {
+    List<String> columnNames = scan.getRowType().getFieldNames();
+    Long rowCount = metadata.getRowCount();
+    List<Double> averageSizes = metadataQuery.getAverageColumnSizes(input);
+    double[] sizes = new double[columns.length];
+    for (int field = 0; field < columns.length; field++) {
+      Long columnBytes = columns[field] < 0 ? null : metadata.getColumnSizes().get(columnNames.get(columns[field]));
+      if (columnBytes != null && rowCount != null && rowCount > 0) {
+        sizes[field] = (double) columnBytes / rowCount;
+      } else if (averageSizes != null && averageSizes.get(field) != null) {
+        sizes[field] = averageSizes.get(field);
+      } else {
+        sizes[field] = DEFAULT_VALUE_SIZE;
+      }
+    }
+    return sizes;
+  }
+
+  /**
+   * Returns the key fields which are neither compared nor projected, which the original plan does not carry.
+   */
+  private static List<Integer> unusedKeys(List<Integer> keyFields, ImmutableBitSet compared,
+                                          ImmutableBitSet projected, int offset) {
+    List<Integer> unused = new ArrayList<>();
+    for (int keyField : keyFields) {
+      if (!compared.get(offset + keyField) && !projected.get(offset + keyField)) {
+        unused.add(keyField);
+      }
+    }
+    return unused;
+  }
+
+  private static double sum(double[] sizes, List<Integer> fields) {
+    double sum = 0;
+    for (int field : fields) {
+      sum += sizes[field];
+    }
+    return sum;
+  }
+
+  private static int indexOf(int[] columns, int column) {
+    for (int i = 0; i < columns.length; i++) {
+      if (columns[i] == column) {
+        return i;
+      }
+    }
+    return -1;
+  }
+
+  private static RexNode remap(RexNode expression, IntUnaryOperator mapping) {
+    return expression.accept(new RexShuttle() {
+      @Override
+      public RexNode visitInputRef(RexInputRef inputRef) {
+        return new RexInputRef(mapping.applyAsInt(inputRef.getIndex()), inputRef.getType());
+      }
+    });
+  }
+}
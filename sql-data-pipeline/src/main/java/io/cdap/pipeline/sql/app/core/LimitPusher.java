@@ -0,0 +1,110 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import org.apache.calcite.plan.RelOptRuleCall;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.plan.hep.HepPlanner;
+import org.apache.calcite.plan.hep.HepProgram;
+import org.apache.calcite.plan.hep.HepProgramBuilder;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.RelFactories;
+import org.apache.calcite.rel.core.Sort;
+import org.apache.calcite.rel.rules.SortProjectTransposeRule;
+import org.apache.calcite.rel.rules.SortUnionTransposeRule;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexOver;
+import org.apache.calcite.rex.RexVisitor;
+import org.apache.calcite.rex.RexVisitorImpl;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Pushes sorts with a limit through projections and into the inputs of unions, so that each input of a union only
+ * returns its own first rows. This lets the target platform keep the top rows while sorting each input rather than
+ * sorting all of them.
+ *
+ * Limits are not pushed below projections which compute window functions or non-deterministic expressions, since
+ * those expressions would then be computed over the limited rows rather than over every row.
+ */
+public class LimitPusher {
+  private static final HepProgram PROGRAM = new HepProgramBuilder()
+    .addRuleCollection(Arrays.asList(DeterministicSortProjectTransposeRule.INSTANCE, SortUnionTransposeRule.INSTANCE))
+    .build();
+
+  /**
+   * Pushes the limit of a sort into its inputs.
+   *
+   * @param relationalNode The node to rewrite
+   * @return The rewritten node, or the given node if it is not a sort with a limit or its limit cannot be pushed
+   */
+  public RelNode rewrite(RelNode relationalNode) {
+    if (!(relationalNode instanceof Sort) || ((Sort) relationalNode).fetch == null) {
+      return relationalNode;
+    }
+    HepPlanner planner = new HepPlanner(PROGRAM);
+    planner.setRoot(relationalNode);
+    RelNode pushed = planner.findBestExp();
+    if (!RelOptUtil.areRowTypesEqual(pushed.getRowType(), relationalNode.getRowType(), true)
+      || RelOptUtil.toString(pushed).equals(RelOptUtil.toString(relationalNode))) {
+      return relationalNode;
+    }
+    return pushed;
+  }
+
+  /**
+   * Transposes a sort and a projection unless the projection computes window functions or non-deterministic
+   * expressions.
+   */
+  private static class DeterministicSortProjectTransposeRule extends SortProjectTransposeRule {
+    private static final DeterministicSortProjectTransposeRule INSTANCE = new DeterministicSortProjectTransposeRule();
+
+    private DeterministicSortProjectTransposeRule() {
+      super(Sort.class, Project.class, RelFactories.LOGICAL_BUILDER, "DeterministicSortProjectTransposeRule");
+    }
+
+    @Override
+    public boolean matches(RelOptRuleCall call) {
+      Project project = call.rel(1);
+      return !RexOver.containsOver(project.getProjects(), null) && isDeterministic(project.getProjects());
+    }
+
+    /**
+     * Returns whether expressions only call functions which return the same result for the same arguments, where
+     * functions such as RAND() which are evaluated again for each row are not deterministic.
+     */
+    private static boolean isDeterministic(List<RexNode> expressions) {
+      boolean[] deterministic = {true};
+      RexVisitor<Void> visitor = new RexVisitorImpl<Void>(true) {
+        @Override
+        public Void visitCall(RexCall call) {
+          if (!call.getOperator().isDeterministic() || call.getOperator().isDynamicFunction()) {
+            deterministic[0] = false;
+          }
+          return super.visitCall(call);
+        }
+      };
+      for (RexNode expression : expressions) {
+        expression.accept(visitor);
+      }
+      return deterministic[0];
+    }
+  }
+}
@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import io.cdap.cdap.api.metrics.Metrics;
+import org.apache.calcite.plan.RelOptMaterialization;
+import org.apache.calcite.plan.RelOptMaterializations;
+import org.apache.calcite.plan.RelOptPlanner;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.core.AggregateCall;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.logical.LogicalProject;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.Pair;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.Nullable;
+
+/**
+ * Rewrites nodes to read a materialized view wherever the view holds the result of the node, or a result which the
+ * node can be computed from. Aggregations should be matched before filters, so that a view which pre-aggregates a
+ * table is preferred over one which only filters it.
+ */
+public class MaterializedViewRewriter {
+  private static final Logger LOG = LoggerFactory.getLogger(MaterializedViewRewriter.class);
+
+  private final List<RelOptMaterialization> materializations;
+  private final Metrics metrics;
+
+  /**
+   * @param materializations The views to match, each scanned as a table
+   * @param metrics The metrics to count substitutions with, or null
+   */
+  public MaterializedViewRewriter(List<RelOptMaterialization> materializations, @Nullable Metrics metrics) {
+    this.materializations = materializations;
+    this.metrics = metrics;
+  }
+
+  /**
+   * Rewrites an aggregation to read a view.
+   *
+   * @param relationalNode The node to rewrite
+   * @return The rewritten node, or the given node if it is not an aggregation or no view matches
+   */
+  public RelNode rewriteAggregate(RelNode relationalNode) {
+    if (!(relationalNode instanceof Aggregate)) {
+      return relationalNode;
+    }
+    return useMaterializedViews(normalizeAggregate((Aggregate) relationalNode), relationalNode);
+  }
+
+  /**
+   * Rewrites a filter to read a view.
+   *
+   * @param relationalNode The node to rewrite
+   * @return The rewritten node, or the given node if it is not a filter or no view matches
+   */
+  public RelNode rewriteFilter(RelNode relationalNode) {
+    if (!(relationalNode instanceof Filter)) {
+      return relationalNode;
+    }
+    return useMaterializedViews(relationalNode, relationalNode);
+  }
+
+  /**
+   * Returns the first rewrite of a node which reads a materialized view and produces the same columns.
+   *
+   * @param rel The node to match against the views
+   * @param original The node to return if no view matches
+   */
+  private RelNode useMaterializedViews(RelNode rel, RelNode original) {
+    RelOptPlanner planner = rel.getCluster().getPlanner();
+    if (planner.getExecutor() == null) {
+      // Filters are matched by proving that their condition implies the condition of a view, which simplifies the
+      // conditions with the executor of the planner
+      planner.setExecutor(RexUtil.EXECUTOR);
+    }
+    List<Pair<RelNode, List<RelOptMaterialization>>> substitutions;
+    try {
+      substitutions = RelOptMaterializations.useMaterializedViews(rel, materializations);
+    } catch (RuntimeException e) {
+      LOG.debug("Failed to match materialized views against {}.", RelOptUtil.toString(rel), e);
+      return original;
+    }
+    for (Pair<RelNode, List<RelOptMaterialization>> substitution : substitutions) {
+      if (!RelOptUtil.areRowTypesEqual(substitution.left.getRowType(), original.getRowType(), false)) {
+        continue;
+      }
+      for (RelOptMaterialization materialization : substitution.right) {
+        LOG.info("Substituted materialized view {} for a read of {}.", materialization.qualifiedTableName,
+                 getScannedTableNames(original));
+        if (metrics != null) {
+          metrics.count("materializedViews.substituted", 1);
+        }
+      }
+      return substitution.left;
+    }
+    return original;
+  }
+
+  /**
+   * Inserts a projection of the used columns below an aggregation which reads its input directly, since views are
+   * only matched against aggregations of a projection.
+   */
+  private Aggregate normalizeAggregate(Aggregate aggregate) {
+    if (aggregate.getInput() instanceof Project || aggregate.getGroupType() != Aggregate.Group.SIMPLE) {
+      return aggregate;
+    }
+    ImmutableBitSet.Builder usedBuilder = ImmutableBitSet.builder().addAll(aggregate.getGroupSet());
+    for (AggregateCall call : aggregate.getAggCallList()) {
+      usedBuilder.addAll(call.getArgList());
+      if (call.filterArg >= 0) {
+        usedBuilder.set(call.filterArg);
+      }
+    }
+    List<Integer> used = usedBuilder.build().asList();
+    RelNode input = aggregate.getInput();
+    List<RexNode> projects = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    for (int field : used) {
+      projects.add(RexInputRef.of(field, input.getRowType()));
+      names.add(input.getRowType().getFieldNames().get(field));
+    }
+    RelNode project = LogicalProject.create(input, projects, names);
+
+    ImmutableBitSet.Builder groupSet = ImmutableBitSet.builder();
+    for (int field : aggregate.getGroupSet()) {
+      groupSet.set(used.indexOf(field));
+    }
+    List<AggregateCall> calls = new ArrayList<>();
+    for (AggregateCall call : aggregate.getAggCallList()) {
+      List<Integer> args = new ArrayList<>();
+      for (int arg : call.getArgList()) {
+        args.add(used.indexOf(arg));
+      }
+      calls.add(call.copy(args, call.filterArg < 0 ? -1 : used.indexOf(call.filterArg), call.getCollation()));
+    }
+    return aggregate.copy(aggregate.getTraitSet(), project, groupSet.build(), null, calls);
+  }
+
+  private Set<String> getScannedTableNames(RelNode rel) {
+    Set<String> tableNames = new TreeSet<>();
+    for (RelOptTable table : RelOptUtil.findTables(rel)) {
+      List<String> qualifiedName = table.getQualifiedName();
+      tableNames.add(qualifiedName.get(qualifiedName.size() - 1));
+    }
+    return tableNames;
+  }
+}
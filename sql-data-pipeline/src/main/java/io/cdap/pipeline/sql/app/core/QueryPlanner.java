@@ -0,0 +1,578 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Union;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rel.rel2sql.RelToSqlConverter;
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlDialect;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.SqlSelect;
+import org.apache.calcite.tools.RelBuilder;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.IdentityHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Function;
+import java.util.function.ToIntFunction;
+import javax.annotation.Nullable;
+
+/**
+ * Plans the statements of a pipeline. Whenever a statement is longer or more deeply nested than the limits allow,
+ * intermediate stages inlined into it are materialized into temporary tables until it fits, or until there is
+ * nothing left to cut. When no single stage is enough, the inputs of the largest union in the statement are
+ * materialized in chunks first.
+ *
+ * The statements run as a single script, whose total length is limited as well. Temporary tables are created within
+ * the script, so materializing a stage does not shorten it. If a staging dataset is given, staging tables are
+ * filled by separate statements instead, and the largest stages inlined into the sinks are staged until the script
+ * fits.
+ */
+public class QueryPlanner {
+  private static final Logger LOG = LoggerFactory.getLogger(QueryPlanner.class);
+  private static final String UNION_CHUNK_PREFIX = "union_chunk_";
+  private static final int UNION_ALL_LENGTH = " UNION ALL ".length();
+  private static final int STATEMENT_SEPARATOR_LENGTH = ";\n".length();
+
+  private final RelBuilder builder;
+  private final SqlDialect dialect;
+  private final RelToSqlConverter converter;
+  private final List<String> topologicalOrder;
+  private final Map<String, Set<String>> fromNodeMap;
+  private final Map<String, RelNode> relationalNodeMap;
+  private final Map<String, TemporaryTable> temporaryTableMap;
+  private final Set<String> sourceStages;
+  private final Set<String> sinkStages;
+  private final Set<String> cacheHits;
+  private final boolean staged;
+  private final Statements statements;
+  private int unionChunkCounter;
+  private int maxQueryLength;
+  private int maxQueryDepth;
+  private int maxScriptLength;
+
+  /**
+   * @param builder The builder used to create the scans of materialized stages
+   * @param dialect The dialect of the statements
+   * @param converter The converter of relational nodes to queries
+   * @param topologicalOrder The stages in topological order, to which the stages holding union chunks are added
+   * @param fromNodeMap The input stages of each stage
+   * @param relationalNodeMap The relational node of each stage, which is rewritten to read materialized stages
+   * @param temporaryTableMap The table of each materialized stage
+   * @param sourceStages The source stages
+   * @param sinkStages The sink stages which are written
+   * @param cacheHits The stages which are read from the tables of previous runs
+   * @param staged Whether materialized stages are filled by separate statements ahead of the script
+   * @param statements The creator of the tables and statements of the plan
+   */
+  public QueryPlanner(RelBuilder builder, SqlDialect dialect, RelToSqlConverter converter,
+                      List<String> topologicalOrder, Map<String, Set<String>> fromNodeMap,
+                      Map<String, RelNode> relationalNodeMap, Map<String, TemporaryTable> temporaryTableMap,
+                      Set<String> sourceStages, Set<String> sinkStages, Set<String> cacheHits, boolean staged,
+                      Statements statements) {
+    this.builder = builder;
+    this.dialect = dialect;
+    this.converter = converter;
+    this.topologicalOrder = topologicalOrder;
+    this.fromNodeMap = fromNodeMap;
+    this.relationalNodeMap = relationalNodeMap;
+    this.temporaryTableMap = temporaryTableMap;
+    this.sourceStages = sourceStages;
+    this.sinkStages = sinkStages;
+    this.cacheHits = cacheHits;
+    this.staged = staged;
+    this.statements = statements;
+  }
+
+  /**
+   * Plans the statements within the given limits. The length of the whole script is limited by the length of a
+   * single statement, which replanning does not change.
+   *
+   * @param maxQueryLength The limit on the length of each statement
+   * @param maxQueryDepth The limit on the subquery nesting depth of each statement
+   * @throws IllegalArgumentException If the script is too long and cannot be shortened
+   */
+  public void planQueries(int maxQueryLength, int maxQueryDepth) {
+    this.maxQueryLength = maxQueryLength;
+    this.maxQueryDepth = maxQueryDepth;
+    this.maxScriptLength = maxQueryLength;
+    planQueries();
+  }
+
+  /**
+   * Plans the queries again with more aggressive staging, halving the limits on the length and nesting depth of
+   * each statement. This is used when the target platform rejects a statement as too expensive.
+   *
+   * @return Whether any additional stages were materialized
+   */
+  public boolean replan() {
+    int stagedCount = temporaryTableMap.size();
+    maxQueryLength = Math.max(1, maxQueryLength / 2);
+    maxQueryDepth = Math.max(1, maxQueryDepth / 2);
+    planQueries();
+    return temporaryTableMap.size() > stagedCount;
+  }
+
+  private void planQueries() {
+    Set<String> unsplittable = new HashSet<>();
+    Set<String> uncuttable = new HashSet<>();
+    while (true) {
+      fitStatements(unsplittable, uncuttable);
+      int scriptLength = getScriptLength(statements.createScript());
+      if (scriptLength <= maxScriptLength) {
+        return;
+      }
+      if (!staged) {
+        throw new IllegalArgumentException(String.format(
+          "The generated script is %d characters long, which is more than the limit of %d. Set the runtime argument " +
+            "'%s' to a dataset where intermediate results can be staged by separate statements.",
+          scriptLength, maxScriptLength, AbstractSQLExecutor.STAGING_DATASET_NAME));
+      }
+      String cut = chooseScriptCut(uncuttable);
+      if (cut == null) {
+        throw new IllegalArgumentException(String.format(
+          "The generated script is %d characters long, which is more than the limit of %d, but cannot be split " +
+            "further. The statements writing the sinks must run in a single script.", scriptLength, maxScriptLength));
+      }
+      LOG.info("Materializing stage {} into a staging table to reduce the length of the script.", cut);
+    }
+  }
+
+  /**
+   * Materializes intermediate nodes until every statement is within the length and nesting depth limits.
+   */
+  private void fitStatements(Set<String> unsplittable, Set<String> uncuttable) {
+    while (true) {
+      String oversized = null;
+      QueryMeasure measure = null;
+      for (String node : getStatementNodes()) {
+        QueryMeasure nodeMeasure = new QueryMeasure(relationalNodeMap.get(node));
+        if (!unsplittable.contains(node) && nodeMeasure.exceeds(maxQueryLength, maxQueryDepth)) {
+          oversized = node;
+          measure = nodeMeasure;
+          break;
+        }
+      }
+      if (oversized == null) {
+        return;
+      }
+
+      String cut = chooseCut(oversized, measure, uncuttable, true);
+      if (cut == null && stageUnionChunks(oversized)) {
+        LOG.info("Materializing the inputs of a union in chunks to reduce the size of the query for stage {}.",
+                 oversized);
+        continue;
+      }
+      if (cut == null) {
+        cut = chooseCut(oversized, measure, uncuttable, false);
+      }
+      if (cut == null) {
+        LOG.warn("Query for stage {} is {} characters long with a nesting depth of {}, but cannot be split further.",
+                 oversized, measure.length, measure.depth);
+        unsplittable.add(oversized);
+      } else if (stage(cut)) {
+        LOG.info("Materializing stage {} into a staging table to reduce the size of the query for stage {}.",
+                 cut, oversized);
+      } else {
+        uncuttable.add(cut);
+      }
+    }
+  }
+
+  /**
+   * Returns the length of a script running the given statements.
+   */
+  private static int getScriptLength(List<String> script) {
+    int length = 0;
+    for (String query : script) {
+      length += query.length() + STATEMENT_SEPARATOR_LENGTH;
+    }
+    return length;
+  }
+
+  /**
+   * Materializes the largest node inlined into the statements of the script, so that it is filled by a separate
+   * staging statement.
+   *
+   * @return The materialized node, or null if no node could be materialized
+   */
+  @Nullable
+  private String chooseScriptCut(Set<String> uncuttable) {
+    while (true) {
+      String largest = null;
+      int largestLength = -1;
+      for (String node : getStatementNodes()) {
+        if (!sinkStages.contains(node)) {
+          continue;
+        }
+        for (String candidate : getInlinedNodes(node)) {
+          if (uncuttable.contains(candidate)) {
+            continue;
+          }
+          int length = new QueryMeasure(relationalNodeMap.get(candidate)).length;
+          if (length > largestLength) {
+            largest = candidate;
+            largestLength = length;
+          }
+        }
+      }
+      if (largest == null || stage(largest)) {
+        return largest;
+      }
+      uncuttable.add(largest);
+    }
+  }
+
+  /**
+   * Returns the nodes which produce a statement, which are the materialized nodes followed by the sinks.
+   */
+  public List<String> getStatementNodes() {
+    // Only temporary tables which are read by a sink that is written are needed
+    Set<String> neededNodes = new HashSet<>();
+    Deque<String> toVisit = new ArrayDeque<>(sinkStages);
+    while (!toVisit.isEmpty()) {
+      String node = toVisit.pop();
+      if (neededNodes.add(node)) {
+        toVisit.addAll(fromNodeMap.getOrDefault(node, Collections.emptySet()));
+      }
+    }
+
+    List<String> nodes = new ArrayList<>();
+    for (String node : topologicalOrder) {
+      if (temporaryTableMap.containsKey(node) && neededNodes.contains(node)) {
+        nodes.add(node);
+      }
+    }
+    for (String node : topologicalOrder) {
+      if (sinkStages.contains(node) && neededNodes.contains(node)) {
+        nodes.add(node);
+      }
+    }
+    return nodes;
+  }
+
+  /**
+   * Chooses the intermediate node to materialize in order to shrink the statement of an oversized node. Among the
+   * nodes inlined into the statement, the one with the lowest estimated output size whose removal brings the
+   * statement within the limits is chosen. If no single node is enough, the largest node is chosen so that the
+   * statement shrinks as much as possible, unless only sufficient nodes are requested.
+   *
+   * @param sufficientOnly Whether to only choose a node whose removal brings the statement within the limits
+   * @return The node to materialize, or null if there is no candidate
+   */
+  @Nullable
+  private String chooseCut(String oversized, QueryMeasure measure, Set<String> uncuttable, boolean sufficientOnly) {
+    String cheapest = null;
+    double cheapestCost = Double.MAX_VALUE;
+    String largest = null;
+    int largestLength = -1;
+    for (String candidate : getInlinedNodes(oversized)) {
+      if (uncuttable.contains(candidate)) {
+        continue;
+      }
+      RelNode rel = relationalNodeMap.get(candidate);
+      QueryMeasure candidateMeasure = new QueryMeasure(rel);
+      if (candidateMeasure.length > largestLength) {
+        largest = candidate;
+        largestLength = candidateMeasure.length;
+      }
+      boolean sufficient = measure.length - candidateMeasure.length <= maxQueryLength
+        && measure.depth - candidateMeasure.depth < maxQueryDepth;
+      double cost = estimateOutputSize(rel);
+      if (sufficient && cost < cheapestCost) {
+        cheapest = candidate;
+        cheapestCost = cost;
+      }
+    }
+    return cheapest != null || sufficientOnly ? cheapest : largest;
+  }
+
+  /**
+   * Materializes the inputs of the union with the most inputs in the statement of an oversized node. Consecutive
+   * inputs are packed into chunks which each fit within the length limit, and each chunk of several inputs is
+   * written to its own temporary table, so that the union reads one table per chunk. This shrinks a union of
+   * hundreds of inputs in a single pass rather than cutting its inputs one at a time.
+   *
+   * If a staging dataset is given, the chunk tables are staging tables in that dataset, filled by separate
+   * statements ahead of the script, so the chunks shorten the script as well as the statement. Otherwise they are
+   * created within the script.
+   *
+   * @return Whether any chunk was materialized
+   */
+  private boolean stageUnionChunks(String oversized) {
+    Union union = findLargestUnion(relationalNodeMap.get(oversized), null);
+    if (union == null) {
+      return false;
+    }
+    List<List<RelNode>> chunks = packChunks(
+      union.getInputs(), input -> new QueryMeasure(input).length + UNION_ALL_LENGTH, maxQueryLength);
+    if (chunks.size() == union.getInputs().size()) {
+      // Every input is too large to share a chunk, so the inputs have to be cut on their own
+      return false;
+    }
+    List<RelNode> chunkRels = new ArrayList<>();
+    for (List<RelNode> chunkInputs : chunks) {
+      chunkRels.add(chunkInputs.size() == 1 ? chunkInputs.get(0)
+                      : union.copy(union.getTraitSet(), chunkInputs, true));
+    }
+    if (chunkRels.size() > 1 && !RelOptUtil.areRowTypesEqual(
+      union.copy(union.getTraitSet(), chunkRels, true).getRowType(), union.getRowType(), true)) {
+      return false;
+    }
+
+    // Chunk tables are created before the first stage which reads the union, after every table the inputs read
+    int position = 0;
+    while (!contains(relationalNodeMap.get(topologicalOrder.get(position)), union)) {
+      position++;
+    }
+    Set<String> readers = new HashSet<>();
+    for (Map.Entry<String, RelNode> entry : relationalNodeMap.entrySet()) {
+      if (contains(entry.getValue(), union)) {
+        readers.add(entry.getKey());
+      }
+    }
+    List<RelNode> inputs = new ArrayList<>();
+    for (int i = 0; i < chunks.size(); i++) {
+      if (chunks.get(i).size() == 1) {
+        inputs.add(chunkRels.get(i));
+        continue;
+      }
+      String chunkNode = UNION_CHUNK_PREFIX + unionChunkCounter++;
+      relationalNodeMap.put(chunkNode, chunkRels.get(i));
+      topologicalOrder.add(position++, chunkNode);
+      for (String reader : readers) {
+        fromNodeMap.computeIfAbsent(reader, key -> new HashSet<>()).add(chunkNode);
+      }
+      TemporaryTable temporaryTable = statements.addTemporaryTable(chunkNode);
+      inputs.add(builder.scan(temporaryTable.getTableName()).build());
+    }
+    RelNode chunked = inputs.size() == 1 ? inputs.get(0) : union.copy(union.getTraitSet(), inputs, true);
+    rewriteNodes(relationalNodeMap, rel -> rel == union ? chunked : rel, null);
+    return true;
+  }
+
+  /**
+   * Packs consecutive items into chunks whose total length is within a limit. An item which is longer than the limit
+   * on its own is given a chunk of its own.
+   *
+   * @param items The items to pack, in order
+   * @param length The length of an item
+   * @param maxLength The limit on the total length of a chunk
+   * @return The chunks, which hold the items in their original order
+   */
+  static <T> List<List<T>> packChunks(List<T> items, ToIntFunction<T> length, int maxLength) {
+    List<List<T>> chunks = new ArrayList<>();
+    List<T> chunk = new ArrayList<>();
+    int chunkLength = 0;
+    for (T item : items) {
+      int itemLength = length.applyAsInt(item);
+      if (!chunk.isEmpty() && chunkLength + itemLength > maxLength) {
+        chunks.add(chunk);
+        chunk = new ArrayList<>();
+        chunkLength = 0;
+      }
+      chunk.add(item);
+      chunkLength += itemLength;
+    }
+    chunks.add(chunk);
+    return chunks;
+  }
+
+  /**
+   * Returns the union with the most inputs in a tree, or the given largest union if there is none larger.
+   */
+  @Nullable
+  private static Union findLargestUnion(RelNode rel, @Nullable Union largest) {
+    if (rel instanceof Union && ((Union) rel).all
+      && (largest == null || rel.getInputs().size() > largest.getInputs().size())) {
+      largest = (Union) rel;
+    }
+    for (RelNode input : rel.getInputs()) {
+      largest = findLargestUnion(input, largest);
+    }
+    return largest;
+  }
+
+  /**
+   * Returns every non-source node which is inlined into the statement of the given node.
+   */
+  private Set<String> getInlinedNodes(String node) {
+    Set<String> inlined = new LinkedHashSet<>();
+    Deque<String> toVisit = new ArrayDeque<>(fromNodeMap.getOrDefault(node, Collections.emptySet()));
+    while (!toVisit.isEmpty()) {
+      String fromNode = toVisit.pop();
+      if (sourceStages.contains(fromNode) || temporaryTableMap.containsKey(fromNode) || cacheHits.contains(fromNode)
+        || !inlined.add(fromNode)) {
+        continue;
+      }
+      toVisit.addAll(fromNodeMap.getOrDefault(fromNode, Collections.emptySet()));
+    }
+    return inlined;
+  }
+
+  /**
+   * Estimates the number of bytes a node would write if it were materialized.
+   */
+  private static double estimateOutputSize(RelNode rel) {
+    RelMetadataQuery metadataQuery = rel.getCluster().getMetadataQuery();
+    Double rowCount = metadataQuery.getRowCount(rel);
+    Double rowSize = metadataQuery.getAverageRowSize(rel);
+    if (rowSize == null) {
+      rowSize = (double) rel.getRowType().getFieldCount();
+    }
+    return (rowCount == null ? 1d : rowCount) * rowSize;
+  }
+
+  /**
+   * Materializes a node into a temporary table, replacing it with a scan of the table wherever it was inlined.
+   *
+   * @param node The node to materialize
+   * @return Whether the node was found in any statement and replaced
+   */
+  private boolean stage(String node) {
+    RelNode target = relationalNodeMap.get(node);
+    boolean inlined = false;
+    for (Map.Entry<String, RelNode> entry : relationalNodeMap.entrySet()) {
+      inlined |= !entry.getKey().equals(node) && contains(entry.getValue(), target);
+    }
+    if (!inlined) {
+      // The node was merged into the nodes which consume it, so it cannot be cut out
+      return false;
+    }
+
+    TemporaryTable temporaryTable = statements.addTemporaryTable(node);
+    RelNode scan = builder.scan(temporaryTable.getTableName()).build();
+    rewriteNodes(relationalNodeMap, rel -> rel == target ? scan : rel, node);
+    return true;
+  }
+
+  private static boolean contains(RelNode rel, RelNode target) {
+    if (rel == target) {
+      return true;
+    }
+    for (RelNode input : rel.getInputs()) {
+      if (contains(input, target)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Applies a rewrite to every relational node of every stage, bottom-up. Rewritten nodes are shared between
+   * stages, so a stage which is inlined into another stage remains the same object in both.
+   *
+   * @param relationalNodeMap The relational node of each stage
+   * @param rewriter The rewrite to apply to each node once its inputs have been rewritten
+   * @param excludedNode A stage whose own node is left as is, or null to rewrite every stage
+   */
+  static void rewriteNodes(Map<String, RelNode> relationalNodeMap, Function<RelNode, RelNode> rewriter,
+                           @Nullable String excludedNode) {
+    Map<RelNode, RelNode> rewritten = new IdentityHashMap<>();
+    for (Map.Entry<String, RelNode> entry : relationalNodeMap.entrySet()) {
+      if (!entry.getKey().equals(excludedNode)) {
+        entry.setValue(rewriteNode(entry.getValue(), rewriter, rewritten));
+      }
+    }
+  }
+
+  private static RelNode rewriteNode(RelNode rel, Function<RelNode, RelNode> rewriter,
+                                     Map<RelNode, RelNode> rewritten) {
+    RelNode result = rewritten.get(rel);
+    if (result != null) {
+      return result;
+    }
+    List<RelNode> inputs = new ArrayList<>();
+    boolean changed = false;
+    for (RelNode input : rel.getInputs()) {
+      RelNode newInput = rewriteNode(input, rewriter, rewritten);
+      changed |= newInput != input;
+      inputs.add(newInput);
+    }
+    result = rewriter.apply(changed ? rel.copy(rel.getTraitSet(), inputs) : rel);
+    rewritten.put(rel, result);
+    return result;
+  }
+
+  /**
+   * Creates the tables and statements of a plan.
+   */
+  public interface Statements {
+    /**
+     * Adds a temporary table which materializes the output of a node.
+     *
+     * @param node The node to materialize
+     * @return The temporary table
+     */
+    TemporaryTable addTemporaryTable(String node);
+
+    /**
+     * Generates the statements of the current plan.
+     *
+     * @return The statements which run in the script, in order
+     */
+    List<String> createScript();
+  }
+
+  /**
+   * The length and the subquery nesting depth of a generated query.
+   */
+  private class QueryMeasure {
+    private final int length;
+    private final int depth;
+
+    private QueryMeasure(RelNode rel) {
+      SqlNode query = converter.visitChild(0, rel).asQueryOrValues();
+      this.length = query.toSqlString(dialect).getSql().length();
+      this.depth = getNestingDepth(query);
+    }
+
+    private boolean exceeds(int maxLength, int maxDepth) {
+      return length > maxLength || depth > maxDepth;
+    }
+
+    private int getNestingDepth(@Nullable SqlNode node) {
+      int depth = 0;
+      if (node instanceof SqlNodeList) {
+        for (SqlNode child : (SqlNodeList) node) {
+          depth = Math.max(depth, getNestingDepth(child));
+        }
+      } else if (node instanceof SqlCall) {
+        for (SqlNode operand : ((SqlCall) node).getOperandList()) {
+          depth = Math.max(depth, getNestingDepth(operand));
+        }
+        if (node instanceof SqlSelect) {
+          depth++;
+        }
+      }
+      return depth;
+    }
+  }
+}
@@ -18,6 +18,7 @@ package io.cdap.pipeline.sql.app.core;
 
 import io.cdap.cdap.api.app.AbstractApplication;
 import io.cdap.cdap.api.app.ProgramType;
+import io.cdap.cdap.api.dataset.lib.KeyValueTable;
 import io.cdap.cdap.api.schedule.ScheduleBuilder;
 
 /**
@@ -26,6 +27,7 @@ import io.cdap.cdap.api.schedule.ScheduleBuilder;
 public class SQLPipelineApp extends AbstractApplication<SQLConfig> {
   public static final String SCHEDULE_NAME = "dataPipelineSchedule";
   public static final String DEFAULT_DESCRIPTION = "SQL Pipeline Application";
+  public static final String STATE_DATASET_NAME = "sqlPipelineState";
 
   @Override
   public void configure() {
@@ -37,6 +39,9 @@ public class SQLPipelineApp extends AbstractApplication<SQLConfig> {
       setDescription(DEFAULT_DESCRIPTION);
     }
 
+    // State shared by all SQL pipelines in the namespace, such as admission control leases
+    createDataset(STATE_DATASET_NAME, KeyValueTable.class);
+
     getConfigurer().addWorkflow(new SQLWorkflow(config, getConfigurer()));
 
     String timeSchedule = config.getSchedule();
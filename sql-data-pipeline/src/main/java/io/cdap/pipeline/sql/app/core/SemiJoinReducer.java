@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.cdap.pipeline.sql.app.core;
+
+import com.google.common.collect.ImmutableList;
+import io.cdap.pipeline.sql.api.template.tables.TableMetadata;
+import org.apache.calcite.plan.RelOptCost;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.JoinInfo;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.metadata.RelColumnOrigin;
+import org.apache.calcite.rel.metadata.RelMetadataQuery;
+import org.apache.calcite.rex.RexSubQuery;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.ImmutableIntList;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Filters the large input of a join by the keys of a much smaller input, so that the target platform can prune the
+ * partitions or clustered blocks of the large input which cannot match, rather than scanning the whole table before
+ * joining.
+ *
+ * The filter is only added when the key of the large input is read directly from a partitioning or clustering
+ * column of a table, and when computing the smaller input a second time costs much less than the large input
+ * returns, so that the filter never adds more work than it can save.
+ */
+public class SemiJoinReducer {
+  private static final Logger LOG = LoggerFactory.getLogger(SemiJoinReducer.class);
+
+  private final RelBuilder builder;
+  private final Map<String, TableMetadata> tableMetadata;
+  private final double minRatio;
+
+  /**
+   * @param builder The builder to create the filters with
+   * @param tableMetadata The metadata of the tables read by the pipeline, by table name
+   * @param minRatio The minimum ratio between the rows of the large input and the cost of the small input
+   */
+  public SemiJoinReducer(RelBuilder builder, Map<String, TableMetadata> tableMetadata, double minRatio) {
+    this.builder = builder;
+    this.tableMetadata = tableMetadata;
+    this.minRatio = minRatio;
+  }
+
+  /**
+   * Adds a semi-join filter to the large input of a join if it can prune the input.
+   *
+   * @param relationalNode The node to rewrite
+   * @return The join with a filtered input, or the given node if no input can be pruned
+   */
+  public RelNode rewrite(RelNode relationalNode) {
+    if (!(relationalNode instanceof Join)) {
+      return relationalNode;
+    }
+    Join join = (Join) relationalNode;
+    JoinInfo joinInfo = join.analyzeCondition();
+    if (joinInfo.leftKeys.isEmpty()) {
+      return join;
+    }
+    JoinRelType joinType = join.getJoinType();
+    RelNode left = join.getLeft();
+    RelNode right = join.getRight();
+
+    // Only inputs whose unmatched rows are dropped by the join can be filtered
+    if (joinType == JoinRelType.INNER || joinType == JoinRelType.RIGHT) {
+      RelNode reduced = reduce(left, joinInfo.leftKeys, right, joinInfo.rightKeys);
+      if (reduced != null) {
+        return join.copy(join.getTraitSet(), join.getCondition(), reduced, right, joinType, join.isSemiJoinDone());
+      }
+    }
+    if (joinType == JoinRelType.INNER || joinType == JoinRelType.LEFT) {
+      RelNode reduced = reduce(right, joinInfo.rightKeys, left, joinInfo.leftKeys);
+      if (reduced != null) {
+        return join.copy(join.getTraitSet(), join.getCondition(), left, reduced, joinType, join.isSemiJoinDone());
+      }
+    }
+    return join;
+  }
+
+  /**
+   * Filters the large input by the keys of the small input.
+   *
+   * @return The filtered large input, or null if the filter would not pay off
+   */
+  @Nullable
+  private RelNode reduce(RelNode large, ImmutableIntList largeKeys, RelNode small, ImmutableIntList smallKeys) {
+    RelMetadataQuery metadataQuery = large.getCluster().getMetadataQuery();
+    Double largeRows = metadataQuery.getRowCount(large);
+    RelOptCost smallCost = small.getCluster().getMetadataQuery().getCumulativeCost(small);
+    if (largeRows == null || smallCost == null || smallCost.isInfinite()
+      || largeRows < smallCost.getRows() * minRatio) {
+      return null;
+    }
+
+    // BigQuery does not support multi-column IN, so a single prunable key is enough to filter by
+    for (int i = 0; i < largeKeys.size(); i++) {
+      String tableName = getPruningTable(metadataQuery, large, largeKeys.get(i));
+      if (tableName == null) {
+        continue;
+      }
+      RelNode keys = builder.push(small)
+        .project(builder.field(smallKeys.get(i)))
+        .distinct()
+        .build();
+      RelNode reduced = builder.push(large)
+        .filter(RexSubQuery.in(keys, ImmutableList.of(builder.field(largeKeys.get(i)))))
+        .build();
+      LOG.info("Filtering the read of table {} by the join keys of an input with an estimated cost of {} rows.",
+               tableName, smallCost.getRows());
+      return reduced;
+    }
+    return null;
+  }
+
+  /**
+   * Returns the table which a field is read from if the field is a partitioning or clustering column of the table.
+   */
+  @Nullable
+  private String getPruningTable(RelMetadataQuery metadataQuery, RelNode rel, int field) {
+    RelColumnOrigin origin = metadataQuery.getColumnOrigin(rel, field);
+    if (origin == null || origin.isDerived()) {
+      return null;
+    }
+    List<String> qualifiedName = origin.getOriginTable().getQualifiedName();
+    String tableName = qualifiedName.get(qualifiedName.size() - 1);
+    TableMetadata metadata = tableMetadata.get(tableName);
+    if (metadata == null) {
+      return null;
+    }
+    String columnName = origin.getOriginTable().getRowType().getFieldNames().get(origin.getOriginColumnOrdinal());
+    return metadata.getPruningColumns().contains(columnName) ? tableName : null;
+  }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import com.google.gson.Gson;
+import io.cdap.pipeline.sql.api.template.tables.AbstractTableInfo;
+import io.cdap.pipeline.sql.api.template.tables.TableMetadata;
+import io.cdap.pipeline.sql.app.state.StateStore;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.UUID;
+import javax.annotation.Nullable;
+
+/**
+ * Tracks the state of the sinks of a pipeline between runs, so that sinks whose plan and sources are unchanged
+ * since the last successful run can be skipped. The state of a sink is its plan and the last modified time of every
+ * source it reads, including the tables which its filters look value lists up in. Sinks reading a source whose
+ * changes cannot be tracked are always written.
+ */
+public class SinkStateTracker {
+  private static final Gson GSON = new Gson();
+  private static final String KEY_PREFIX = "sinkState:";
+
+  private final StateStore stateStore;
+  private final String pipelineName;
+  private final Map<String, RelNode> relationalNodeMap;
+  private final Map<String, Set<String>> fromNodeMap;
+  private final Map<String, AbstractTableInfo> sourceTables;
+  private final ValueListResolver valueListResolver;
+  private final StagingTableNames stagingTableNames;
+  private final Map<String, String> states;
+
+  /**
+   * @param stateStore The store holding the state of each sink after the last successful run
+   * @param pipelineName The name of the pipeline, qualified with its namespace
+   * @param relationalNodeMap The relational node of each stage
+   * @param fromNodeMap The input stages of each stage
+   * @param sourceTables The table read by each source stage
+   * @param valueListResolver The resolver of the value lists read by filters
+   * @param stagingTableNames The names of the staging tables of the run, which are left out of the state
+   */
+  public SinkStateTracker(StateStore stateStore, String pipelineName, Map<String, RelNode> relationalNodeMap,
+                          Map<String, Set<String>> fromNodeMap, Map<String, AbstractTableInfo> sourceTables,
+                          ValueListResolver valueListResolver, StagingTableNames stagingTableNames) {
+    this.stateStore = stateStore;
+    this.pipelineName = pipelineName;
+    this.relationalNodeMap = relationalNodeMap;
+    this.fromNodeMap = fromNodeMap;
+    this.sourceTables = sourceTables;
+    this.valueListResolver = valueListResolver;
+    this.stagingTableNames = stagingTableNames;
+    this.states = new HashMap<>();
+  }
+
+  /**
+   * Returns whether the plan and the sources of a sink are unchanged since the last successful run. Otherwise, the
+   * current state of the sink is kept so that it can be recorded once the sink is written.
+   *
+   * @param sink The sink stage
+   * @param forceFullRun Whether every sink must be written
+   * @throws IOException If the state of the last run could not be read
+   */
+  public boolean isUnchanged(String sink, boolean forceFullRun) throws IOException {
+    Map<String, Long> sourceVersions = getSourceVersions(sink);
+    if (sourceVersions == null) {
+      return false;
+    }
+    // The plan captures any change to the configuration of the pipeline, but not the run which stages its tables
+    String plan = stagingTableNames.removeRunSuffix(RelOptUtil.toString(relationalNodeMap.get(sink)));
+    String state = GSON.toJson(new SinkState(
+      UUID.nameUUIDFromBytes(plan.getBytes(StandardCharsets.UTF_8)).toString(), sourceVersions));
+    states.put(sink, state);
+    return !forceFullRun && state.equals(stateStore.get(getKey(sink)));
+  }
+
+  /**
+   * Records the state of a sink which was written by a successful run, so that the next run can skip the sink if
+   * its plan and sources do not change. Sinks whose sources cannot be tracked are not recorded.
+   *
+   * @param sink The sink stage, whose state was computed by {@link #isUnchanged(String, boolean)}
+   * @throws IOException If the state could not be recorded
+   */
+  public void recordWritten(String sink) throws IOException {
+    String state = states.get(sink);
+    if (state != null) {
+      stateStore.update(getKey(sink), value -> state);
+    }
+  }
+
+  /**
+   * Collects the last modified time of every source which a sink reads.
+   *
+   * @return The last modified time of each source table, by table name, or null if the changes of a source cannot
+   *   be tracked
+   */
+  @Nullable
+  private Map<String, Long> getSourceVersions(String sink) {
+    Map<String, Long> sourceVersions = new TreeMap<>();
+    Deque<String> toVisit = new ArrayDeque<>(Collections.singleton(sink));
+    Set<String> visited = new HashSet<>();
+    while (!toVisit.isEmpty()) {
+      String node = toVisit.pop();
+      if (!visited.add(node)) {
+        continue;
+      }
+      AbstractTableInfo sourceTable = sourceTables.get(node);
+      if (sourceTable != null) {
+        TableMetadata metadata = sourceTable.getMetadata();
+        if (metadata == null || metadata.getLastModifiedTime() == null) {
+          return null;
+        }
+        sourceVersions.put(sourceTable.getTableName(), metadata.getLastModifiedTime());
+      }
+      RelNode relationalNode = relationalNodeMap.get(node);
+      if (relationalNode != null && !valueListResolver.collectVersions(relationalNode, sourceVersions)) {
+        return null;
+      }
+      toVisit.addAll(fromNodeMap.getOrDefault(node, Collections.emptySet()));
+    }
+    return sourceVersions;
+  }
+
+  private String getKey(String sink) {
+    return KEY_PREFIX + pipelineName + "." + sink;
+  }
+
+  /**
+   * The state of a sink, recorded after a successful run.
+   */
+  private static class SinkState {
+    private final String plan;
+    private final Map<String, Long> sourceVersions;
+
+    private SinkState(String plan, Map<String, Long> sourceVersions) {
+      this.plan = plan;
+      this.sourceVersions = sourceVersions;
+    }
+  }
+}
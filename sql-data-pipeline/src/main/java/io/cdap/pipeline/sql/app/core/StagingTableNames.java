@@ -0,0 +1,72 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import javax.annotation.Nullable;
+
+/**
+ * Names the tables which hold intermediate results of a run. Without a staging dataset, the tables are temporary
+ * tables of the script. Otherwise they are persistent tables in the staging dataset, whose names end with a suffix
+ * unique to the run since other runs may stage their tables in the same dataset.
+ */
+public class StagingTableNames {
+  private final String dataset;
+  private final String runSuffix;
+
+  /**
+   * @param dataset The dataset to create the tables in, or null to create temporary tables of the script
+   * @param runId The identifier of the run
+   */
+  public StagingTableNames(@Nullable String dataset, String runId) {
+    this.dataset = dataset;
+    this.runSuffix = "_" + runId.replace("-", "");
+  }
+
+  /**
+   * @return The dataset the tables are created in, or null if they are temporary tables of the script
+   */
+  @Nullable
+  public String getDataset() {
+    return dataset;
+  }
+
+  /**
+   * Returns the name of the staging table holding the given intermediate result.
+   *
+   * @param name The name of the table, which is unique within the run
+   */
+  public String getTableName(String name) {
+    if (dataset == null) {
+      return name;
+    }
+    return dataset + "." + name + runSuffix;
+  }
+
+  /**
+   * Removes the suffix unique to the run from the staging tables named in a plan, so that the plans of different
+   * runs which read the same intermediate results are equal.
+   *
+   * @param plan The plan, as printed by {@link org.apache.calcite.plan.RelOptUtil#toString}
+   * @return The plan without the suffix of the run
+   */
+  public String removeRunSuffix(String plan) {
+    if (dataset == null) {
+      return plan;
+    }
+    return plan.replace(runSuffix, "");
+  }
+}
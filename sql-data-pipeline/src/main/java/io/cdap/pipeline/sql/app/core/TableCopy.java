@@ -0,0 +1,143 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import io.cdap.pipeline.sql.api.template.SQLSink;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+/**
+ * Represents a sink which only copies a source table, optionally renaming some of its columns. Such sinks do not
+ * need a query, and can be written by the copy mechanism of the target platform instead.
+ *
+ * Copies and renames are not transactional. They run after the queries have been committed, so if a copy fails,
+ * the sinks written by the queries keep their new contents, and a failed rename leaves the copied table with the
+ * column names of the source.
+ */
+public class TableCopy {
+  private final String sourceTable;
+  private final String destinationTable;
+  private final SQLSink.WriteMode writeMode;
+  private final Map<String, String> renamedColumns;
+  private final boolean createTable;
+
+  public TableCopy(String sourceTable, String destinationTable, SQLSink.WriteMode writeMode,
+                   Map<String, String> renamedColumns, boolean createTable) {
+    this.sourceTable = sourceTable;
+    this.destinationTable = destinationTable;
+    this.writeMode = writeMode;
+    this.renamedColumns = renamedColumns;
+    this.createTable = createTable;
+  }
+
+  /**
+   * Checks whether the query of a sink only copies a source table, either directly or through a projection which
+   * keeps every column in place and only renames some of them.
+   *
+   * @param writeMode The write mode of the sink
+   * @param destinationTable The table written by the sink
+   * @param relationalQueryNode The query of the sink
+   * @param sourceTables The names of the tables read by the sources of the pipeline
+   * @param createTable Whether the destination table should be created if it does not exist
+   * @return The table copy which is equivalent to the query, or null if there is none
+   */
+  @Nullable
+  public static TableCopy fromQuery(SQLSink.WriteMode writeMode, String destinationTable, RelNode relationalQueryNode,
+                                    Set<String> sourceTables, boolean createTable) {
+    // Copies can only append to or replace the destination table
+    if (writeMode == SQLSink.WriteMode.MERGE_SKETCHES) {
+      return null;
+    }
+    RelNode input = relationalQueryNode;
+    Map<String, String> renamedColumns = new LinkedHashMap<>();
+    if (input instanceof Project) {
+      Project project = (Project) input;
+      input = project.getInput();
+      List<String> inputNames = input.getRowType().getFieldNames();
+      List<String> outputNames = project.getRowType().getFieldNames();
+      if (project.getProjects().size() != inputNames.size()) {
+        return null;
+      }
+      for (int i = 0; i < inputNames.size(); i++) {
+        RexNode expression = project.getProjects().get(i);
+        if (!(expression instanceof RexInputRef) || ((RexInputRef) expression).getIndex() != i) {
+          return null;
+        }
+        if (!inputNames.get(i).equals(outputNames.get(i))) {
+          renamedColumns.put(inputNames.get(i), outputNames.get(i));
+        }
+      }
+      // Renames are applied one at a time, so a column cannot take the former name of another column
+      for (String outputName : renamedColumns.values()) {
+        for (String inputName : inputNames) {
+          if (inputName.equalsIgnoreCase(outputName)) {
+            return null;
+          }
+        }
+      }
+    }
+    if (!(input instanceof TableScan)) {
+      return null;
+    }
+    List<String> qualifiedName = input.getTable().getQualifiedName();
+    String tableName = qualifiedName.get(qualifiedName.size() - 1);
+    if (!sourceTables.contains(tableName)) {
+      return null;
+    }
+    // Renames can only be applied afterwards if the copy replaces the whole table
+    if (!renamedColumns.isEmpty() && writeMode != SQLSink.WriteMode.TRUNCATE) {
+      return null;
+    }
+    return new TableCopy(tableName, destinationTable, writeMode, renamedColumns, createTable);
+  }
+
+  public String getSourceTable() {
+    return sourceTable;
+  }
+
+  public String getDestinationTable() {
+    return destinationTable;
+  }
+
+  public SQLSink.WriteMode getWriteMode() {
+    return writeMode;
+  }
+
+  /**
+   * @return A map from the source column names to the destination column names of the renamed columns, which must
+   * be applied to the destination table after the copy
+   */
+  public Map<String, String> getRenamedColumns() {
+    return renamedColumns;
+  }
+
+  /**
+   * @return Whether the destination table should be created if it does not exist
+   */
+  public boolean isCreateTable() {
+    return createTable;
+  }
+}
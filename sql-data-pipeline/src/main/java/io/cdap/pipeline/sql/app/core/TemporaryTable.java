@@ -18,6 +18,8 @@ package io.cdap.pipeline.sql.app.core;
 
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
 import org.apache.calcite.schema.impl.AbstractTable;
 
 /**
@@ -32,10 +34,21 @@ import org.apache.calcite.schema.impl.AbstractTable;
 public class TemporaryTable extends AbstractTable {
   private final String tableName;
   private final RelDataType type;
+  private final Statistic statistic;
 
   public TemporaryTable(String tableName, RelDataType type) {
+    this(tableName, type, Statistics.UNKNOWN);
+  }
+
+  public TemporaryTable(String tableName, RelDataType type, Statistic statistic) {
     this.tableName = tableName;
     this.type = type;
+    this.statistic = statistic;
+  }
+
+  @Override
+  public Statistic getStatistic() {
+    return statistic;
   }
 
   @Override
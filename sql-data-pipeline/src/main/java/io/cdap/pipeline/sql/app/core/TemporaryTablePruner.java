@@ -0,0 +1,297 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexFieldAccess;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.rex.RexVisitorImpl;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.sql.validate.SqlValidatorUtil;
+import org.apache.calcite.tools.RelBuilder;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Deque;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Set;
+import java.util.TreeSet;
+import javax.annotation.Nullable;
+
+/**
+ * Narrows temporary tables to the fields which the nodes reading them use. Fields holding records are narrowed to
+ * the nested fields which are used, so a node which only reads payload.user.id makes the table hold that nested
+ * field rather than the whole payload record, under the name payload_user_id. A table is only narrowed if every
+ * node reads it through a projection, since any other node may use all of its fields.
+ */
+public class TemporaryTablePruner {
+  private final RelBuilder builder;
+  private final SchemaPlus rootSchema;
+
+  /**
+   * @param builder The builder used to create the narrowed nodes and the scans of the narrowed tables
+   * @param rootSchema The schema holding the temporary tables, where narrowed tables replace the original ones
+   */
+  public TemporaryTablePruner(RelBuilder builder, SchemaPlus rootSchema) {
+    this.builder = builder;
+    this.rootSchema = rootSchema;
+  }
+
+  /**
+   * Narrows a temporary table to the fields used by the nodes reading it. The narrowed table replaces the table in
+   * the root schema, and the nodes reading it must then be rewritten with {@link PrunedTable#rewriteReader}.
+   *
+   * @param table The table to narrow
+   * @param rel The node whose result the table holds
+   * @param nodes The nodes which may read the table
+   * @return The narrowed table, or null if the table is not read, is read by a node other than a projection, or
+   *   every field is used
+   */
+  @Nullable
+  public PrunedTable prune(TemporaryTable table, RelNode rel, Collection<RelNode> nodes) {
+    Set<Project> readers = Collections.newSetFromMap(new IdentityHashMap<>());
+    if (!collectReaders(table.getTableName(), nodes, readers)) {
+      return null;
+    }
+    Set<List<Integer>> paths = new TreeSet<>(TemporaryTablePruner::comparePaths);
+    for (Project reader : readers) {
+      for (RexNode expression : reader.getProjects()) {
+        collectPaths(expression, paths);
+      }
+    }
+    // A path is not needed if the record holding it is used as a whole. Paths are sorted, so the paths nested
+    // in a record directly follow it.
+    List<List<Integer>> columns = new ArrayList<>();
+    for (List<Integer> path : paths) {
+      if (columns.isEmpty() || !isPrefix(columns.get(columns.size() - 1), path)) {
+        columns.add(path);
+      }
+    }
+    int fieldCount = rel.getRowType().getFieldCount();
+    if (columns.isEmpty() || (columns.size() == fieldCount && columns.stream().allMatch(path -> path.size() == 1))) {
+      return null;
+    }
+
+    RexBuilder rexBuilder = rel.getCluster().getRexBuilder();
+    List<RexNode> projects = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    for (List<Integer> path : columns) {
+      RexNode field = rexBuilder.makeInputRef(rel, path.get(0));
+      StringBuilder name = new StringBuilder(rel.getRowType().getFieldNames().get(path.get(0)));
+      for (int index : path.subList(1, path.size())) {
+        field = rexBuilder.makeFieldAccess(field, index);
+        name.append('_').append(((RexFieldAccess) field).getField().getName());
+      }
+      projects.add(field);
+      names.add(name.toString());
+    }
+    RelNode pruned = builder.push(rel)
+      .project(projects, SqlValidatorUtil.uniquify(names, SqlValidatorUtil.EXPR_SUGGESTER, true), true)
+      .build();
+    TemporaryTable prunedTable = new TemporaryTable(table.getTableName(), pruned.getRowType(),
+                                                    table.getStatistic());
+    rootSchema.add(table.getTableName(), prunedTable);
+    RelNode scan = builder.scan(table.getTableName()).build();
+    return new PrunedTable(prunedTable, pruned, readers, columns, scan);
+  }
+
+  /**
+   * Collects the projections which read a table.
+   *
+   * @return Whether the table is read, and only read by projections
+   */
+  private static boolean collectReaders(String tableName, Collection<RelNode> nodes, Set<Project> readers) {
+    Set<RelNode> visited = Collections.newSetFromMap(new IdentityHashMap<>());
+    Deque<RelNode> toVisit = new ArrayDeque<>();
+    for (RelNode rel : nodes) {
+      if (tableName.equals(getScannedTableName(rel))) {
+        return false;
+      }
+      toVisit.add(rel);
+    }
+    while (!toVisit.isEmpty()) {
+      RelNode rel = toVisit.pop();
+      if (!visited.add(rel)) {
+        continue;
+      }
+      for (RelNode input : rel.getInputs()) {
+        if (tableName.equals(getScannedTableName(input))) {
+          if (!(rel instanceof Project)) {
+            return false;
+          }
+          readers.add((Project) rel);
+        }
+        toVisit.add(input);
+      }
+    }
+    return !readers.isEmpty();
+  }
+
+  @Nullable
+  private static String getScannedTableName(RelNode rel) {
+    if (!(rel instanceof TableScan)) {
+      return null;
+    }
+    List<String> qualifiedName = rel.getTable().getQualifiedName();
+    return qualifiedName.get(qualifiedName.size() - 1);
+  }
+
+  /**
+   * Collects the paths of the fields, and of the fields nested in records, which an expression uses.
+   */
+  private static void collectPaths(RexNode expression, Set<List<Integer>> paths) {
+    expression.accept(new RexVisitorImpl<Void>(true) {
+      @Override
+      public Void visitInputRef(RexInputRef inputRef) {
+        paths.add(Collections.singletonList(inputRef.getIndex()));
+        return null;
+      }
+
+      @Override
+      public Void visitFieldAccess(RexFieldAccess fieldAccess) {
+        List<Integer> path = getPath(fieldAccess);
+        if (path == null) {
+          return super.visitFieldAccess(fieldAccess);
+        }
+        paths.add(path);
+        return null;
+      }
+    });
+  }
+
+  /**
+   * Returns the indexes of the fields on the path to a field, or null if the expression is not a field.
+   */
+  @Nullable
+  private static List<Integer> getPath(RexNode expression) {
+    List<Integer> path = new ArrayList<>();
+    RexNode node = expression;
+    while (node instanceof RexFieldAccess) {
+      path.add(0, ((RexFieldAccess) node).getField().getIndex());
+      node = ((RexFieldAccess) node).getReferenceExpr();
+    }
+    if (!(node instanceof RexInputRef)) {
+      return null;
+    }
+    path.add(0, ((RexInputRef) node).getIndex());
+    return path;
+  }
+
+  private static int comparePaths(List<Integer> path, List<Integer> other) {
+    for (int i = 0; i < Math.min(path.size(), other.size()); i++) {
+      int compare = Integer.compare(path.get(i), other.get(i));
+      if (compare != 0) {
+        return compare;
+      }
+    }
+    return Integer.compare(path.size(), other.size());
+  }
+
+  private static boolean isPrefix(List<Integer> prefix, List<Integer> path) {
+    return prefix.size() <= path.size() && prefix.equals(path.subList(0, prefix.size()));
+  }
+
+  /**
+   * A narrowed temporary table, with the node computing it and the rewrite of the nodes reading it.
+   */
+  public static class PrunedTable {
+    private final TemporaryTable table;
+    private final RelNode node;
+    private final Set<Project> readers;
+    private final List<List<Integer>> columns;
+    private final RelNode scan;
+    private final RexShuttle shuttle;
+
+    private PrunedTable(TemporaryTable table, RelNode node, Set<Project> readers, List<List<Integer>> columns,
+                        RelNode scan) {
+      this.table = table;
+      this.node = node;
+      this.readers = readers;
+      this.columns = columns;
+      this.scan = scan;
+      this.shuttle = new RexShuttle() {
+        @Override
+        public RexNode visitInputRef(RexInputRef inputRef) {
+          return replace(inputRef);
+        }
+
+        @Override
+        public RexNode visitFieldAccess(RexFieldAccess fieldAccess) {
+          RexNode replaced = replace(fieldAccess);
+          return replaced != null ? replaced : super.visitFieldAccess(fieldAccess);
+        }
+      };
+    }
+
+    /**
+     * @return The narrowed table
+     */
+    public TemporaryTable getTable() {
+      return table;
+    }
+
+    /**
+     * @return The node computing the narrowed table
+     */
+    public RelNode getNode() {
+      return node;
+    }
+
+    /**
+     * Rewrites a node reading the original table to read the narrowed table.
+     *
+     * @param rel The node to rewrite
+     * @return The rewritten node, or the given node if it does not read the table
+     */
+    public RelNode rewriteReader(RelNode rel) {
+      if (!readers.contains(rel)) {
+        return rel;
+      }
+      Project reader = (Project) rel;
+      return reader.copy(reader.getTraitSet(), scan, shuttle.apply(reader.getProjects()), reader.getRowType());
+    }
+
+    /**
+     * Returns the field of the narrowed table holding a field of the original table, or null if the expression is
+     * not a field.
+     */
+    @Nullable
+    private RexNode replace(RexNode expression) {
+      RexBuilder rexBuilder = scan.getCluster().getRexBuilder();
+      List<Integer> path = getPath(expression);
+      for (int i = 1; path != null && i <= path.size(); i++) {
+        int column = columns.indexOf(path.subList(0, i));
+        if (column >= 0) {
+          RexNode field = rexBuilder.makeInputRef(scan, column);
+          for (int index : path.subList(i, path.size())) {
+            field = rexBuilder.makeFieldAccess(field, index);
+          }
+          return field;
+        }
+      }
+      return null;
+    }
+  }
+}
@@ -0,0 +1,220 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.core.Union;
+import org.apache.calcite.rex.RexInputRef;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexOver;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.ImmutableBitSet;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import javax.annotation.Nullable;
+
+/**
+ * Simplifies unions with many inputs, such as the union of hundreds of tables with the same schema.
+ *
+ * Nested unions are merged into a single union. Inputs which apply the same filters and projections to inputs of the
+ * same type are then unioned first, and the filters and projections are applied once to their union, so that the
+ * generated statement does not hold a copy of the shared expressions for every input. The inputs only return the
+ * columns which the shared expressions read.
+ */
+public class UnionFlattener {
+  private final RelBuilder builder;
+
+  /**
+   * @param builder The builder to narrow the inputs of the unions with
+   */
+  public UnionFlattener(RelBuilder builder) {
+    this.builder = builder;
+  }
+
+  /**
+   * Flattens a union and hoists the filters and projections shared by its inputs.
+   *
+   * @param relationalNode The node to rewrite
+   * @return The simplified union, or the given node if it is not a union which can be simplified
+   */
+  public RelNode rewrite(RelNode relationalNode) {
+    if (!(relationalNode instanceof Union) || !((Union) relationalNode).all) {
+      return relationalNode;
+    }
+    Union union = (Union) relationalNode;
+    List<RelNode> inputs = new ArrayList<>();
+    flatten(union, inputs);
+    boolean changed = inputs.size() != union.getInputs().size();
+
+    Map<String, List<RelNode>> groups = new LinkedHashMap<>();
+    for (RelNode input : inputs) {
+      groups.computeIfAbsent(getGroupKey(input), key -> new ArrayList<>()).add(input);
+    }
+    List<RelNode> newInputs = new ArrayList<>();
+    for (List<RelNode> group : groups.values()) {
+      RelNode hoisted = group.size() > 1 ? hoist(union, group) : null;
+      if (hoisted == null) {
+        newInputs.addAll(group);
+      } else {
+        newInputs.add(hoisted);
+        changed = true;
+      }
+    }
+    if (!changed) {
+      return union;
+    }
+    RelNode result = newInputs.size() == 1 ? newInputs.get(0) : union.copy(union.getTraitSet(), newInputs, true);
+    return RelOptUtil.areRowTypesEqual(result.getRowType(), union.getRowType(), true) ? result : union;
+  }
+
+  private static void flatten(Union union, List<RelNode> inputs) {
+    for (RelNode input : union.getInputs()) {
+      if (input instanceof Union && ((Union) input).all) {
+        flatten((Union) input, inputs);
+      } else {
+        inputs.add(input);
+      }
+    }
+  }
+
+  /**
+   * Returns whether a node is a filter or projection which gives the same result when applied to a union of its
+   * inputs. Windowed aggregates and subqueries are evaluated over a single input, so they are not moved.
+   */
+  private static boolean isHoistable(RelNode node) {
+    if (node instanceof Filter) {
+      return !RexUtil.SubQueryFinder.containsSubQuery((Filter) node);
+    }
+    if (node instanceof Project) {
+      Project project = (Project) node;
+      return !RexUtil.SubQueryFinder.containsSubQuery(project) && !RexOver.containsOver(project.getProjects(), null);
+    }
+    return false;
+  }
+
+  /**
+   * Describes the filters and projections applied by an input and the type of the node they are applied to. Inputs
+   * with the same key can share a single copy of the filters and projections.
+   */
+  private static String getGroupKey(RelNode input) {
+    StringBuilder key = new StringBuilder();
+    RelNode node = input;
+    while (isHoistable(node)) {
+      if (node instanceof Filter) {
+        key.append("Filter").append(((Filter) node).getCondition()).append(';');
+      } else {
+        key.append("Project").append(((Project) node).getProjects()).append(';');
+      }
+      node = node.getInput(0);
+    }
+    return key.append(node.getRowType().getFullTypeString()).toString();
+  }
+
+  /**
+   * Applies the filters and projections shared by a group of inputs to the union of the nodes below them.
+   *
+   * @return The filtered and projected union, or null if the inputs only select columns, which is no shorter
+   */
+  @Nullable
+  private RelNode hoist(Union union, List<RelNode> group) {
+    // The layers of filters and projections, from the top down
+    List<RelNode> layers = new ArrayList<>();
+    RelNode node = group.get(0);
+    boolean computes = false;
+    while (isHoistable(node)) {
+      layers.add(node);
+      computes |= node instanceof Filter
+        || !((Project) node).getProjects().stream().allMatch(expression -> expression instanceof RexInputRef);
+      node = node.getInput(0);
+    }
+    if (!computes) {
+      return null;
+    }
+
+    // Find the columns read by the lowest projection and the filters below it, so the inputs only return those
+    int lowestProject = -1;
+    ImmutableBitSet.Builder usedBuilder = ImmutableBitSet.builder();
+    for (int i = 0; i < layers.size(); i++) {
+      if (layers.get(i) instanceof Project) {
+        lowestProject = i;
+        usedBuilder = ImmutableBitSet.builder();
+        usedBuilder.addAll(RelOptUtil.InputFinder.bits(((Project) layers.get(i)).getProjects(), null));
+      } else {
+        usedBuilder.addAll(RelOptUtil.InputFinder.bits(((Filter) layers.get(i)).getCondition()));
+      }
+    }
+    int fieldCount = node.getRowType().getFieldCount();
+    List<Integer> used = usedBuilder.build().toList();
+    boolean narrow = lowestProject >= 0 && used.size() < fieldCount;
+    int[] positions = new int[fieldCount];
+    for (int i = 0; i < used.size(); i++) {
+      positions[used.get(i)] = i;
+    }
+
+    List<RelNode> bases = new ArrayList<>();
+    for (RelNode input : group) {
+      RelNode base = input;
+      for (int i = 0; i < layers.size(); i++) {
+        base = base.getInput(0);
+      }
+      if (narrow) {
+        builder.push(base);
+        List<RexNode> fields = new ArrayList<>();
+        for (int field : used) {
+          fields.add(builder.field(field));
+        }
+        base = builder.project(fields).build();
+      }
+      bases.add(base);
+    }
+
+    RelNode current = union.copy(union.getTraitSet(), bases, true);
+    for (int i = layers.size() - 1; i >= 0; i--) {
+      boolean remap = narrow && i >= lowestProject;
+      if (layers.get(i) instanceof Project) {
+        Project project = (Project) layers.get(i);
+        List<RexNode> projects = new ArrayList<>();
+        for (RexNode expression : project.getProjects()) {
+          projects.add(remap ? remap(expression, positions) : expression);
+        }
+        current = project.copy(project.getTraitSet(), current, projects, project.getRowType());
+      } else {
+        Filter filter = (Filter) layers.get(i);
+        current = filter.copy(filter.getTraitSet(), current,
+                              remap ? remap(filter.getCondition(), positions) : filter.getCondition());
+      }
+    }
+    return current;
+  }
+
+  private static RexNode remap(RexNode expression, int[] positions) {
+    return expression.accept(new RexShuttle() {
+      @Override
+      public RexNode visitInputRef(RexInputRef inputRef) {
+        return new RexInputRef(positions[inputRef.getIndex()], inputRef.getType());
+      }
+    });
+  }
+}
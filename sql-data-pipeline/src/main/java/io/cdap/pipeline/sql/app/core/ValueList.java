@@ -0,0 +1,115 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.util.DateString;
+import org.apache.calcite.util.TimestampString;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * Represents a list of values given to a filter by reference which is too large to be written into a query. The
+ * values must be loaded into a staging table, with a single column named {@link #COLUMN_NAME}, before any query
+ * reading the table is run. Lists read from a file are not loaded by the executor, the staging table reads the file
+ * instead.
+ */
+public class ValueList {
+  public static final String COLUMN_NAME = "value";
+
+  private final RelDataType type;
+  private final List<String> values;
+  private final String fileUri;
+
+  public ValueList(RelDataType type, List<String> values) {
+    this.type = type;
+    this.values = values;
+    this.fileUri = null;
+  }
+
+  public ValueList(RelDataType type, String fileUri) {
+    this.type = type;
+    this.values = Collections.emptyList();
+    this.fileUri = fileUri;
+  }
+
+  /**
+   * @return The type of the values, which is the type of the field they are compared to
+   */
+  public RelDataType getType() {
+    return type;
+  }
+
+  /**
+   * @return The distinct values of the list, as strings, or an empty list if the values are read from a file
+   */
+  public List<String> getValues() {
+    return values;
+  }
+
+  /**
+   * @return The URI of the file holding one value per line, or null if the values are given
+   */
+  @Nullable
+  public String getFileUri() {
+    return fileUri;
+  }
+
+  /**
+   * Converts a value of a list to a literal of the type of the field it is compared to. Timestamps may separate the
+   * date from the time with a space or with 'T', as in ISO 8601.
+   *
+   * @throws IllegalArgumentException If the value is not of the type
+   */
+  public static RexLiteral createLiteral(RexBuilder rexBuilder, String value, RelDataType type) {
+    try {
+      switch (type.getSqlTypeName()) {
+        case TINYINT:
+        case SMALLINT:
+        case INTEGER:
+        case BIGINT:
+        case DECIMAL:
+        case FLOAT:
+        case REAL:
+        case DOUBLE:
+          return (RexLiteral) rexBuilder.makeLiteral(new BigDecimal(value), type, false);
+        case BOOLEAN:
+          if (!value.equalsIgnoreCase("true") && !value.equalsIgnoreCase("false")) {
+            throw new IllegalArgumentException(String.format("Value %s of a value list is not of type %s.",
+                                                             value, type));
+          }
+          return rexBuilder.makeLiteral(Boolean.parseBoolean(value));
+        case CHAR:
+        case VARCHAR:
+          return rexBuilder.makeLiteral(value);
+        case DATE:
+          return rexBuilder.makeDateLiteral(new DateString(value));
+        case TIMESTAMP:
+          return rexBuilder.makeTimestampLiteral(new TimestampString(value.replace('T', ' ')), type.getPrecision());
+        default:
+          throw new IllegalArgumentException("Value lists are not supported for fields of type " + type);
+      }
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(String.format("Value %s of a value list is not of type %s.", value, type));
+    }
+  }
+}
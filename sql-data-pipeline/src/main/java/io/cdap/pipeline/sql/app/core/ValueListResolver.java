@@ -0,0 +1,312 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import com.google.common.collect.ImmutableList;
+import com.google.gson.Gson;
+import io.cdap.pipeline.sql.api.template.functions.ValueListFunction;
+import io.cdap.pipeline.sql.api.template.tables.AbstractTableInfo;
+import org.apache.calcite.plan.RelOptTable;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexCall;
+import org.apache.calcite.rex.RexLiteral;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexShuttle;
+import org.apache.calcite.rex.RexSubQuery;
+import org.apache.calcite.rex.RexUtil;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.apache.calcite.util.TimestampString;
+import org.apache.calcite.util.Util;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+
+/**
+ * Replaces each value list given to a filter by reference with the values of the list. Lists of at most the
+ * inline threshold of values are written into the filter. Larger lists are loaded into a staging table before the
+ * queries run, and the filter looks the field up in the table. The staging table is named after the values it
+ * holds, so the plan of a stage changes whenever the list does. Lists held by a table or a file are not read
+ * while planning: the filter looks the field up in the table, or in a staging table reading the file, instead.
+ */
+public class ValueListResolver {
+  private static final Logger LOG = LoggerFactory.getLogger(ValueListResolver.class);
+  private static final Gson GSON = new Gson();
+  private static final String TABLE_PREFIX = "value_list_";
+
+  private final RelBuilder builder;
+  private final SchemaPlus rootSchema;
+  private final Map<String, String> arguments;
+  private final TableReader tableReader;
+  private final StagingTableNames stagingTableNames;
+  private final int inlineThreshold;
+  private final Map<String, ValueList> valueLists;
+  private final Map<ValueListFunction, List<String>> resolved;
+
+  /**
+   * @param builder The builder to create the lookups with
+   * @param rootSchema The schema which the tables holding value lists are added to
+   * @param arguments The runtime arguments holding value lists
+   * @param tableReader Describes the tables holding value lists
+   * @param stagingTableNames Names the staging tables holding value lists
+   * @param inlineThreshold The maximum number of values which are written into a filter
+   */
+  public ValueListResolver(RelBuilder builder, SchemaPlus rootSchema, Map<String, String> arguments,
+                           TableReader tableReader, StagingTableNames stagingTableNames, int inlineThreshold) {
+    this.builder = builder;
+    this.rootSchema = rootSchema;
+    this.arguments = arguments;
+    this.tableReader = tableReader;
+    this.stagingTableNames = stagingTableNames;
+    this.inlineThreshold = inlineThreshold;
+    this.valueLists = new LinkedHashMap<>();
+    this.resolved = new HashMap<>();
+  }
+
+  /**
+   * Replaces the value lists of a filter.
+   *
+   * @param relationalNode The node to rewrite
+   * @return The filter reading the values of its lists, or the given node if it reads no value list
+   */
+  public RelNode resolve(RelNode relationalNode) {
+    if (!(relationalNode instanceof Filter)) {
+      return relationalNode;
+    }
+    Filter filter = (Filter) relationalNode;
+    RexBuilder rexBuilder = filter.getCluster().getRexBuilder();
+    RexNode condition = filter.getCondition().accept(new RexShuttle() {
+      @Override
+      public RexNode visitCall(RexCall call) {
+        if (!(call.getOperator() instanceof ValueListFunction)) {
+          return super.visitCall(call);
+        }
+        ValueListFunction function = (ValueListFunction) call.getOperator();
+        RexNode field = call.getOperands().get(0);
+        switch (function.getSource()) {
+          case TABLE:
+            return lookUpTable(function.getReference(), field);
+          case FILE:
+            return lookUpFile(rexBuilder, function.getReference(), field);
+          default:
+            List<String> values = resolved.computeIfAbsent(function, f -> readValueList(f.getReference()));
+            return getValueListPredicate(rexBuilder, field, values);
+        }
+      }
+    });
+    return condition == filter.getCondition() ? filter : filter.copy(filter.getTraitSet(), filter.getInput(),
+                                                                     condition);
+  }
+
+  /**
+   * Returns the value lists which are staged before the queries run, keyed by the name of the staging table which
+   * must hold them.
+   */
+  public Map<String, ValueList> getValueLists() {
+    return valueLists;
+  }
+
+  /**
+   * Collects the versions of the tables which the filters of a node, and of its inputs, look value lists up in.
+   * Staging tables holding given values are skipped, since their names already identify their contents.
+   *
+   * @param relationalNode The node whose lookups are collected
+   * @param tableVersions The last modified time of each table, by table name, which the versions are added to
+   * @return Whether the changes of every such table can be tracked, which is not the case for files
+   */
+  public boolean collectVersions(RelNode relationalNode, Map<String, Long> tableVersions) {
+    List<RexSubQuery> subQueries = new ArrayList<>();
+    relationalNode.accept(new RexShuttle() {
+      @Override
+      public RexNode visitSubQuery(RexSubQuery subQuery) {
+        subQueries.add(subQuery);
+        return subQuery;
+      }
+    });
+    for (RexSubQuery subQuery : subQueries) {
+      for (RelOptTable table : RelOptUtil.findTables(subQuery.rel)) {
+        String tableName = Util.last(table.getQualifiedName());
+        ValueList valueList = valueLists.get(tableName);
+        if (valueList != null) {
+          if (valueList.getFileUri() != null) {
+            return false;
+          }
+          continue;
+        }
+        AbstractTableInfo tableInfo = table.unwrap(AbstractTableInfo.class);
+        if (tableInfo == null) {
+          continue;
+        }
+        if (tableInfo.getMetadata() == null || tableInfo.getMetadata().getLastModifiedTime() == null) {
+          return false;
+        }
+        tableVersions.put(tableName, tableInfo.getMetadata().getLastModifiedTime());
+      }
+    }
+    for (RelNode input : relationalNode.getInputs()) {
+      if (!collectVersions(input, tableVersions)) {
+        return false;
+      }
+    }
+    return true;
+  }
+
+  /**
+   * Reads the distinct values of a value list held by a runtime argument.
+   */
+  private List<String> readValueList(String argumentName) {
+    String argument = arguments.get(argumentName);
+    if (argument == null) {
+      throw new IllegalArgumentException("Runtime argument " + argumentName + " holding a value list is not set.");
+    }
+    // Values written by hand may be padded, and trailing separators do not hold values
+    Set<String> distinctValues = new LinkedHashSet<>();
+    for (String value : argument.split(",")) {
+      if (!value.trim().isEmpty()) {
+        distinctValues.add(value.trim());
+      }
+    }
+    return new ArrayList<>(distinctValues);
+  }
+
+  /**
+   * Builds the predicate which looks a field up in the column of a table holding a value list, given as
+   * table.column. The table is read by the query, so the values are neither copied nor staged.
+   */
+  private RexNode lookUpTable(String reference, RexNode field) {
+    int columnIndex = reference.lastIndexOf('.');
+    String tableName = reference.substring(0, columnIndex);
+    String column = reference.substring(columnIndex + 1);
+    // Tables which are also read by a source are already known
+    if (rootSchema.getTable(tableName) == null) {
+      ValueListTable table;
+      try {
+        table = tableReader.getValueListTable(tableName, column, field.getType());
+      } catch (IllegalArgumentException e) {
+        throw e;
+      } catch (Exception e) {
+        throw new IllegalArgumentException("Unable to read value list " + reference, e);
+      }
+      rootSchema.add(tableName, table);
+    }
+    RelNode lookup = builder.scan(tableName).project(builder.field(column)).build();
+    return RexSubQuery.in(lookup, ImmutableList.of(field));
+  }
+
+  /**
+   * Builds the predicate which looks a field up in a staging table reading a file with one value per line. The file
+   * is only read by the queries, so the staging table must outlive the script and is created in the staging
+   * dataset.
+   */
+  private RexNode lookUpFile(RexBuilder rexBuilder, String fileUri, RexNode field) {
+    if (stagingTableNames.getDataset() == null) {
+      throw new IllegalArgumentException(String.format(
+        "Reading value list %s from a file requires the %s runtime argument.", fileUri,
+        AbstractSQLExecutor.STAGING_DATASET_NAME));
+    }
+    String tableName = addValueListTable(rexBuilder, field.getType().getFullTypeString() + fileUri,
+                                         new ValueList(field.getType(), fileUri), Statistics.UNKNOWN);
+    LOG.info("Reading value list file {} from table {}.", fileUri, tableName);
+    return RexSubQuery.in(builder.scan(tableName).build(), ImmutableList.of(field));
+  }
+
+  /**
+   * Builds the predicate which checks that a field is one of the values of a list, either by comparing the field to
+   * each value or by looking the field up in a staging table holding the values.
+   */
+  private RexNode getValueListPredicate(RexBuilder rexBuilder, RexNode field, List<String> values) {
+    if (values.size() <= inlineThreshold) {
+      List<RexNode> comparisons = new ArrayList<>();
+      for (String value : values) {
+        comparisons.add(rexBuilder.makeCall(SqlStdOperatorTable.EQUALS, field,
+                                            ValueList.createLiteral(rexBuilder, value, field.getType())));
+      }
+      return comparisons.isEmpty() ? rexBuilder.makeLiteral(false) : RexUtil.composeDisjunction(rexBuilder,
+                                                                                              comparisons);
+    }
+
+    // Values which cannot be converted to the type of the field are rejected before anything is loaded, and
+    // timestamps are staged in the form the platform reads
+    List<String> stagedValues = new ArrayList<>();
+    for (String value : values) {
+      RexLiteral literal = ValueList.createLiteral(rexBuilder, value, field.getType());
+      stagedValues.add(field.getType().getSqlTypeName() == SqlTypeName.TIMESTAMP
+                         ? literal.getValueAs(TimestampString.class).toString() : value);
+    }
+    String tableName = addValueListTable(rexBuilder, field.getType().getFullTypeString() + GSON.toJson(stagedValues),
+                                         new ValueList(field.getType(), stagedValues), Statistics.of(
+        stagedValues.size(), Collections.singletonList(ImmutableBitSet.of(0))));
+    LOG.info("Staging a list of {} values in table {}.", stagedValues.size(), tableName);
+    RelNode lookup = builder.scan(tableName).build();
+    return RexSubQuery.in(lookup, ImmutableList.of(field));
+  }
+
+  /**
+   * Registers the staging table holding a value list, unless a list with the same key is already staged.
+   *
+   * @param key The key of the list, which the name of the staging table is derived from
+   * @return The name of the staging table
+   */
+  private String addValueListTable(RexBuilder rexBuilder, String key, ValueList valueList, Statistic statistic) {
+    String tableName = stagingTableNames.getTableName(
+      TABLE_PREFIX + UUID.nameUUIDFromBytes(key.getBytes(StandardCharsets.UTF_8)).toString().replace("-", ""));
+    if (!valueLists.containsKey(tableName)) {
+      RelDataType rowType = rexBuilder.getTypeFactory().builder()
+        .add(ValueList.COLUMN_NAME, valueList.getType())
+        .nullable(true)
+        .build();
+      valueLists.put(tableName, valueList);
+      rootSchema.add(tableName, new TemporaryTable(tableName, rowType, statistic));
+    }
+    return tableName;
+  }
+
+  /**
+   * Describes the tables which hold value lists given by reference to one of their columns.
+   */
+  public interface TableReader {
+    /**
+     * Describes a table holding a value list, so that filters can look their field up in the table.
+     *
+     * @param tableName The name of the table
+     * @param column The name of the column holding the values
+     * @param type The type of the field the values are compared to
+     * @return The table
+     * @throws Exception If the table could not be described
+     */
+    ValueListTable getValueListTable(String tableName, String column, RelDataType type) throws Exception;
+  }
+}
@@ -0,0 +1,82 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import io.cdap.pipeline.sql.api.template.tables.AbstractTableInfo;
+import io.cdap.pipeline.sql.api.template.tables.TableMetadata;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.sql.type.SqlTypeName;
+
+import java.util.List;
+import javax.annotation.Nullable;
+
+/**
+ * A table which a filter looks the values of a value list up in, given as a column of the table. Only the column
+ * holding the values is read, so it is given the type of the field it is compared to and the other columns are left
+ * untyped.
+ */
+public class ValueListTable extends AbstractTableInfo {
+  private final String tableName;
+  private final List<String> columns;
+  private final String valueColumn;
+  private final RelDataType valueType;
+  private final TableMetadata metadata;
+
+  /**
+   * @param tableName The name of the table
+   * @param columns The names of the columns of the table
+   * @param valueColumn The column holding the values
+   * @param valueType The type of the field the values are compared to
+   * @param lastModifiedTime The time at which the contents of the table last changed, or null if unknown
+   */
+  public ValueListTable(String tableName, List<String> columns, String valueColumn, RelDataType valueType,
+                        @Nullable Long lastModifiedTime) {
+    if (!columns.contains(valueColumn)) {
+      throw new IllegalArgumentException(String.format("Table %s holding a value list has no column %s.",
+                                                       tableName, valueColumn));
+    }
+    this.tableName = tableName;
+    this.columns = columns;
+    this.valueColumn = valueColumn;
+    this.valueType = valueType;
+    this.metadata = TableMetadata.builder().setLastModifiedTime(lastModifiedTime).build();
+  }
+
+  @Override
+  public String getTableName() {
+    return tableName;
+  }
+
+  @Override
+  public TableMetadata getMetadata() {
+    return metadata;
+  }
+
+  @Override
+  public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+    RelDataTypeFactory.Builder rowType = typeFactory.builder();
+    for (String column : columns) {
+      if (column.equals(valueColumn)) {
+        rowType.add(column, typeFactory.createTypeWithNullability(valueType, true));
+      } else {
+        rowType.add(column, SqlTypeName.ANY).nullable(true);
+      }
+    }
+    return rowType.build();
+  }
+}
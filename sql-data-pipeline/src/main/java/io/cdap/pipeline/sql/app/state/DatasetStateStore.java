@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.state;
+
+import io.cdap.cdap.api.Transactional;
+import io.cdap.cdap.api.common.Bytes;
+import io.cdap.cdap.api.dataset.lib.KeyValueTable;
+import org.apache.tephra.TransactionFailureException;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link StateStore} backed by a {@link KeyValueTable} dataset. Since datasets are scoped to a namespace, every
+ * pipeline in the namespace shares the same state. Each operation runs in its own transaction, and conflicting
+ * updates are retried. Since transactions cannot be nested, the store must not be used from a method which runs in
+ * an implicit transaction, such as a program's initialize method without an explicit transaction policy.
+ */
+public class DatasetStateStore implements StateStore {
+  private static final int MAX_ATTEMPTS = 10;
+
+  private final Transactional transactional;
+  private final String datasetName;
+
+  public DatasetStateStore(Transactional transactional, String datasetName) {
+    this.transactional = transactional;
+    this.datasetName = datasetName;
+  }
+
+  @Nullable
+  @Override
+  public String get(String key) throws IOException {
+    AtomicReference<String> value = new AtomicReference<>();
+    try {
+      transactional.execute(context -> {
+        KeyValueTable table = context.getDataset(datasetName);
+        value.set(Bytes.toString(table.read(key)));
+      });
+    } catch (TransactionFailureException e) {
+      throw new IOException("Failed to read key '" + key + "' from dataset " + datasetName, e);
+    }
+    return value.get();
+  }
+
+  @Nullable
+  @Override
+  public String update(String key, Function<String, String> updater) throws IOException {
+    AtomicReference<String> value = new AtomicReference<>();
+    TransactionFailureException failure = null;
+    for (int attempt = 0; attempt < MAX_ATTEMPTS; attempt++) {
+      try {
+        transactional.execute(context -> {
+          KeyValueTable table = context.getDataset(datasetName);
+          String newValue = updater.apply(Bytes.toString(table.read(key)));
+          if (newValue == null) {
+            table.delete(key);
+          } else {
+            table.write(key, newValue);
+          }
+          value.set(newValue);
+        });
+        return value.get();
+      } catch (TransactionFailureException e) {
+        // Most likely a conflict with another pipeline updating the same key, so try again
+        failure = e;
+      }
+    }
+    throw new IOException("Failed to update key '" + key + "' in dataset " + datasetName, failure);
+  }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.state;
+
+import com.google.gson.Gson;
+import com.google.gson.reflect.TypeToken;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.lang.reflect.Type;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.FileLock;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * A {@link StateStore} backed by a JSON file on the local filesystem. Updates hold an exclusive lock on the file,
+ * so processes on the same host sharing the file are serialized. File locks are held by the whole process, so
+ * threads of the same process are serialized by a lock on the path instead. This is intended for tests and local
+ * runs where no dataset is available.
+ */
+public class FileStateStore implements StateStore {
+  private static final Gson GSON = new Gson();
+  private static final Type MAP_TYPE = new TypeToken<Map<String, String>>() { }.getType();
+  private static final ConcurrentMap<String, Object> PATH_LOCKS = new ConcurrentHashMap<>();
+
+  private final File file;
+  private final Object pathLock;
+
+  public FileStateStore(File file) {
+    this.file = file;
+    this.pathLock = PATH_LOCKS.computeIfAbsent(file.getAbsoluteFile().toPath().normalize().toString(),
+                                               path -> new Object());
+  }
+
+  @Nullable
+  @Override
+  public String get(String key) throws IOException {
+    synchronized (pathLock) {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+           FileLock lock = raf.getChannel().lock()) {
+        return read(raf.getChannel()).get(key);
+      }
+    }
+  }
+
+  @Nullable
+  @Override
+  public String update(String key, Function<String, String> updater) throws IOException {
+    synchronized (pathLock) {
+      try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+           FileLock lock = raf.getChannel().lock()) {
+        FileChannel channel = raf.getChannel();
+        Map<String, String> values = read(channel);
+        String newValue = updater.apply(values.get(key));
+        if (newValue == null) {
+          values.remove(key);
+        } else {
+          values.put(key, newValue);
+        }
+        byte[] contents = GSON.toJson(values).getBytes(StandardCharsets.UTF_8);
+        channel.truncate(0);
+        channel.write(ByteBuffer.wrap(contents), 0);
+        return newValue;
+      }
+    }
+  }
+
+  private Map<String, String> read(FileChannel channel) throws IOException {
+    ByteBuffer buffer = ByteBuffer.allocate((int) channel.size());
+    channel.read(buffer, 0);
+    Map<String, String> values = GSON.fromJson(new String(buffer.array(), StandardCharsets.UTF_8), MAP_TYPE);
+    return values == null ? new HashMap<>() : values;
+  }
+}
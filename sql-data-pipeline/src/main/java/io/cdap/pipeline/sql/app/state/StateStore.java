@@ -0,0 +1,49 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.state;
+
+import java.io.IOException;
+import java.util.function.Function;
+import javax.annotation.Nullable;
+
+/**
+ * A string key-value store which is shared between pipeline runs. Implementations must apply updates atomically
+ * so that concurrent runs of different pipelines observe a consistent value for each key.
+ */
+public interface StateStore {
+  /**
+   * Reads the value of a key.
+   *
+   * @param key The key to read
+   * @return The current value, or null if the key does not exist
+   * @throws IOException If the store could not be read
+   */
+  @Nullable
+  String get(String key) throws IOException;
+
+  /**
+   * Atomically replaces the value of a key with the result of the updater function.
+   *
+   * @param key The key to update
+   * @param updater A function from the current value (null if absent) to the new value (null to delete the key).
+   *                The function may be invoked more than once if the update conflicts with a concurrent writer.
+   * @return The value written by the update
+   * @throws IOException If the store could not be updated
+   */
+  @Nullable
+  String update(String key, Function<String, String> updater) throws IOException;
+}
@@ -0,0 +1,154 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.admission;
+
+import io.cdap.pipeline.sql.app.state.FileStateStore;
+import io.cdap.pipeline.sql.app.state.StateStore;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+
+public class AdmissionControllerTest {
+  private static final long EXPIRY_MILLIS = 60000;
+  private static final long POLL_INTERVAL_MILLIS = 10;
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private StateStore store;
+
+  @Before
+  public void setUp() throws Exception {
+    store = new FileStateStore(temporaryFolder.newFile("state.json"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidMaxConcurrent() {
+    new AdmissionController(store, "pool", 0, EXPIRY_MILLIS, POLL_INTERVAL_MILLIS);
+  }
+
+  @Test
+  public void testAcquireAndRelease() throws Exception {
+    AdmissionController controller = new AdmissionController(store, "pool", 2, EXPIRY_MILLIS, POLL_INTERVAL_MILLIS);
+    AdmissionController.Lease first = controller.acquire("first", 0, 0);
+    AdmissionController.Lease second = controller.acquire("second", 0, 0);
+    Assert.assertEquals("first", first.getHolder());
+    Assert.assertEquals("second", second.getHolder());
+    assertNotAdmitted(controller, "third");
+
+    controller.release(first);
+    Assert.assertEquals("third", controller.acquire("third", 0, 0).getHolder());
+  }
+
+  @Test
+  public void testPoolsAreIndependent() throws Exception {
+    new AdmissionController(store, "pool", 1, EXPIRY_MILLIS, POLL_INTERVAL_MILLIS).acquire("first", 0, 0);
+    AdmissionController other = new AdmissionController(store, "other", 1, EXPIRY_MILLIS, POLL_INTERVAL_MILLIS);
+    Assert.assertEquals("second", other.acquire("second", 0, 0).getHolder());
+  }
+
+  @Test
+  public void testTimedOutWaiterLeavesQueue() throws Exception {
+    AdmissionController controller = new AdmissionController(store, "pool", 1, EXPIRY_MILLIS, POLL_INTERVAL_MILLIS);
+    AdmissionController.Lease lease = controller.acquire("first", 0, 0);
+    // A waiter with a higher priority which timed out must not block the statements queued after it
+    assertNotAdmitted(controller, "second", 10);
+    controller.release(lease);
+    Assert.assertEquals("third", controller.acquire("third", 0, 0).getHolder());
+  }
+
+  @Test
+  public void testExpiredLease() throws Exception {
+    AdmissionController expiring = new AdmissionController(store, "pool", 1, 50, POLL_INTERVAL_MILLIS);
+    expiring.acquire("first", 0, 0);
+    // The lease is never renewed, as if the pipeline holding it died
+    AdmissionController controller = new AdmissionController(store, "pool", 1, EXPIRY_MILLIS, POLL_INTERVAL_MILLIS);
+    Assert.assertEquals("second", controller.acquire("second", 0, 5000).getHolder());
+  }
+
+  @Test
+  public void testRenewedLease() throws Exception {
+    AdmissionController controller = new AdmissionController(store, "pool", 1, 200, POLL_INTERVAL_MILLIS);
+    AdmissionController.Lease lease = controller.acquire("first", 0, 0);
+    for (int i = 0; i < 4; i++) {
+      TimeUnit.MILLISECONDS.sleep(100);
+      controller.renew(lease);
+    }
+    assertNotAdmitted(controller, "second");
+  }
+
+  @Test
+  public void testPriority() throws Exception {
+    AdmissionController controller = new AdmissionController(store, "pool", 1, EXPIRY_MILLIS, POLL_INTERVAL_MILLIS);
+    AdmissionController.Lease lease = controller.acquire("first", 0, 0);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<AdmissionController.Lease> low = executor.submit(() -> controller.acquire("low", 0, 10000));
+      // Wait for the statement with the lower priority to be queued first
+      TimeUnit.MILLISECONDS.sleep(100);
+      Future<AdmissionController.Lease> high = executor.submit(() -> controller.acquire("high", 1, 10000));
+      TimeUnit.MILLISECONDS.sleep(100);
+
+      controller.release(lease);
+      controller.release(high.get(5, TimeUnit.SECONDS));
+      Assert.assertEquals("low", low.get(5, TimeUnit.SECONDS).getHolder());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  @Test
+  public void testArrivalOrder() throws Exception {
+    AdmissionController controller = new AdmissionController(store, "pool", 1, EXPIRY_MILLIS, POLL_INTERVAL_MILLIS);
+    AdmissionController.Lease lease = controller.acquire("first", 0, 0);
+    ExecutorService executor = Executors.newFixedThreadPool(2);
+    try {
+      Future<AdmissionController.Lease> early = executor.submit(() -> controller.acquire("early", 0, 10000));
+      TimeUnit.MILLISECONDS.sleep(100);
+      Future<AdmissionController.Lease> late = executor.submit(() -> controller.acquire("late", 0, 10000));
+      TimeUnit.MILLISECONDS.sleep(100);
+
+      controller.release(lease);
+      controller.release(early.get(5, TimeUnit.SECONDS));
+      Assert.assertEquals("late", late.get(5, TimeUnit.SECONDS).getHolder());
+    } finally {
+      executor.shutdownNow();
+    }
+  }
+
+  private static void assertNotAdmitted(AdmissionController controller, String holder) throws Exception {
+    assertNotAdmitted(controller, holder, 0);
+  }
+
+  private static void assertNotAdmitted(AdmissionController controller, String holder, int priority)
+    throws Exception {
+    try {
+      controller.acquire(holder, priority, 0);
+      Assert.fail("Statement " + holder + " should not have been admitted.");
+    } catch (TimeoutException e) {
+      // expected
+    }
+  }
+}
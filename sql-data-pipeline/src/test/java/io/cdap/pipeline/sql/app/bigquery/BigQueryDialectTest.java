@@ -0,0 +1,175 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.bigquery;
+
+import com.google.common.collect.ImmutableList;
+import io.cdap.pipeline.sql.api.template.functions.ApproximateAggFunction;
+import io.cdap.pipeline.sql.api.template.functions.BucketFunction;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.core.Uncollect;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rex.RexCorrelVariable;
+import org.apache.calcite.rex.RexFieldCollation;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexWindowBound;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.SqlWindow;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.parser.SqlParserPos;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.Holder;
+import org.apache.calcite.util.ImmutableBitSet;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.util.Collections;
+
+public class BigQueryDialectTest {
+  private RelBuilder builder;
+
+  @Before
+  public void setUp() {
+    SchemaPlus rootSchema = Frameworks.createRootSchema(true);
+    rootSchema.add("events", new AbstractTable() {
+      @Override
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+          .add("id", SqlTypeName.BIGINT)
+          .add("name", SqlTypeName.VARCHAR)
+          .add("amount", SqlTypeName.DOUBLE)
+          .add("day", SqlTypeName.DATE)
+          .add("tags", typeFactory.createArrayType(typeFactory.createSqlType(SqlTypeName.VARCHAR), -1))
+          .add("price", SqlTypeName.DECIMAL, 10, 2)
+          .build();
+      }
+    });
+    builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+  }
+
+  @Test
+  public void testUnionAll() {
+    RelNode rel = builder.scan("events").project(builder.field("id"))
+      .scan("events").project(builder.field("id"))
+      .union(true)
+      .build();
+    Assert.assertEquals("SELECT id\nFROM events\nUNION ALL\nSELECT id\nFROM events", toSql(rel));
+  }
+
+  @Test
+  public void testGroupingId() {
+    RelNode rel = builder.scan("events")
+      .aggregate(builder.groupKey(ImmutableBitSet.of(0, 1),
+                                  ImmutableList.of(ImmutableBitSet.of(0, 1), ImmutableBitSet.of(0))),
+                 builder.aggregateCall(SqlStdOperatorTable.GROUPING_ID, builder.field("id"), builder.field("name"))
+                   .as("g"))
+      .build();
+    // The first operand is the most significant bit
+    Assert.assertEquals("SELECT id, name, (GROUPING(id) * 2 + GROUPING(name)) AS g\n" +
+                          "FROM events\n" +
+                          "GROUP BY GROUPING SETS((id, name), id)", toSql(rel));
+  }
+
+  @Test
+  public void testQualify() {
+    builder.scan("events");
+    RexNode rowNumber = builder.getRexBuilder().makeOver(
+      builder.getTypeFactory().createSqlType(SqlTypeName.BIGINT), SqlStdOperatorTable.ROW_NUMBER,
+      Collections.emptyList(), ImmutableList.of(builder.field("name")),
+      ImmutableList.of(new RexFieldCollation(builder.field("day"), Collections.emptySet())),
+      RexWindowBound.create(SqlWindow.createUnboundedPreceding(SqlParserPos.ZERO), null),
+      RexWindowBound.create(SqlWindow.createCurrentRow(SqlParserPos.ZERO), null),
+      true, true, false, false, false);
+    RelNode rel = builder.project(builder.field("id"), builder.field("name"), builder.alias(rowNumber, "rn"))
+      .filter(builder.equals(builder.field("rn"), builder.literal(1)))
+      .project(builder.field("id"), builder.field("name"))
+      .build();
+    Assert.assertEquals("SELECT id, name\n" +
+                          "FROM events\n" +
+                          "WHERE TRUE\n" +
+                          "QUALIFY (ROW_NUMBER() OVER (PARTITION BY name ORDER BY day NULLS LAST)) = 1", toSql(rel));
+  }
+
+  @Test
+  public void testBucket() {
+    RelNode rel = builder.scan("events")
+      .project(builder.alias(builder.call(BucketFunction.bucket(SqlTypeName.DATE, 7), builder.field("day")), "week"),
+               builder.alias(builder.call(BucketFunction.bucketRange(SqlTypeName.DOUBLE, 2.5), builder.field("amount"),
+                                          builder.field("amount")), "buckets"))
+      .build();
+    Assert.assertEquals("SELECT CAST(FLOOR(UNIX_DATE(day) / 7) AS INT64) AS week, " +
+                          "GENERATE_ARRAY(CAST(FLOOR(amount / 2.5) AS INT64), CAST(FLOOR(amount / 2.5) AS INT64)) " +
+                          "AS buckets\nFROM events", toSql(rel));
+  }
+
+  @Test
+  public void testApproximateCountDistinct() {
+    RelNode rel = builder.scan("events")
+      .aggregate(builder.groupKey("name"),
+                 builder.aggregateCall(ApproximateAggFunction.sketch(15), builder.field("id")).as("sketch"),
+                 builder.aggregateCall(ApproximateAggFunction.countDistinct(12), builder.field("id")).as("precise"),
+                 builder.aggregateCall(ApproximateAggFunction.countDistinct(null), builder.field("id")).as("approx"))
+      .build();
+    Assert.assertEquals("SELECT name, HLL_COUNT.INIT(id, 15) AS sketch, " +
+                          "HLL_COUNT.EXTRACT(HLL_COUNT.INIT(id, 12)) AS precise, " +
+                          "APPROX_COUNT_DISTINCT(id) AS approx\n" +
+                          "FROM events\n" +
+                          "GROUP BY name", toSql(rel));
+  }
+
+  @Test
+  public void testUnnest() {
+    Holder<RexCorrelVariable> correlation = Holder.of(null);
+    RelNode input = builder.scan("events").variable(correlation).build();
+    builder.values(new String[] {"ZERO"}, 0)
+      .project(builder.alias(builder.getRexBuilder().makeFieldAccess(correlation.get(), "tags", true), "tag"));
+    RelNode elements = Uncollect.create(builder.peek().getTraitSet(), builder.build(), false);
+    RelNode rel = builder.push(input).push(elements)
+      .correlate(JoinRelType.INNER, correlation.get().id, builder.field(2, 0, "tags"))
+      .project(builder.field("id"), builder.field("tag"))
+      .build();
+    Assert.assertEquals("SELECT events.id, element AS tag\n" +
+                          "FROM events\n" +
+                          "CROSS JOIN UNNEST(events.tags) AS element", toSql(rel));
+  }
+
+  @Test
+  public void testNumericLiteral() {
+    RelBuilder filtered = builder.scan("events");
+    RelNode rel = filtered
+      .filter(builder.call(SqlStdOperatorTable.GREATER_THAN, builder.field("price"),
+                           builder.getRexBuilder().makeExactLiteral(new BigDecimal("1.50"))),
+              builder.call(SqlStdOperatorTable.LESS_THAN, builder.field("amount"), builder.literal(2.5d)))
+      .project(builder.field("id"))
+      .build();
+    // Exact decimals are NUMERIC, while approximate numbers stay FLOAT64
+    Assert.assertEquals("SELECT id\n" +
+                          "FROM events\n" +
+                          "WHERE price > NUMERIC '1.50' AND amount < 2.5", toSql(rel));
+  }
+
+  private static String toSql(RelNode rel) {
+    return new BigQueryRelToSqlConverter(BigQueryDialect.DEFAULT).visitChild(0, rel).asQueryOrValues()
+      .toSqlString(BigQueryDialect.DEFAULT).getSql();
+  }
+}
@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.bigquery;
+
+import com.google.cloud.bigquery.Clustering;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.LegacySQLTypeName;
+import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardTableDefinition;
+import com.google.cloud.bigquery.TimePartitioning;
+import com.google.cloud.bigquery.ViewDefinition;
+import com.google.common.collect.ImmutableMap;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+public class BigQueryExecutorTest {
+  private static final Schema SCHEMA = Schema.of(Field.of("id", LegacySQLTypeName.INTEGER),
+                                                 Field.of("customer_id", LegacySQLTypeName.INTEGER),
+                                                 Field.of("day", LegacySQLTypeName.DATE));
+  private static final TimePartitioning PARTITIONING = TimePartitioning.newBuilder(TimePartitioning.Type.DAY)
+    .setField("day")
+    .build();
+  private static final Clustering CLUSTERING = Clustering.newBuilder()
+    .setFields(Collections.singletonList("customer_id"))
+    .build();
+  private static final StandardTableDefinition SOURCE = definition(SCHEMA, PARTITIONING, CLUSTERING);
+  private static final Map<String, String> NO_RENAMES = Collections.emptyMap();
+
+  @Test
+  public void testSameLayout() {
+    Assert.assertTrue(BigQueryExecutor.isCopyCompatible(SOURCE, definition(SCHEMA, PARTITIONING, CLUSTERING),
+                                                         NO_RENAMES));
+  }
+
+  @Test
+  public void testSchemaMismatch() {
+    Schema schema = Schema.of(Field.of("id", LegacySQLTypeName.INTEGER),
+                              Field.of("customer_id", LegacySQLTypeName.STRING),
+                              Field.of("day", LegacySQLTypeName.DATE));
+    Assert.assertFalse(BigQueryExecutor.isCopyCompatible(SOURCE, definition(schema, PARTITIONING, CLUSTERING),
+                                                          NO_RENAMES));
+  }
+
+  @Test
+  public void testPartitioningMismatch() {
+    Assert.assertFalse(BigQueryExecutor.isCopyCompatible(SOURCE, definition(SCHEMA, null, CLUSTERING), NO_RENAMES));
+    // Partitioning by ingestion time rather than by the day column
+    Assert.assertFalse(BigQueryExecutor.isCopyCompatible(
+      SOURCE, definition(SCHEMA, TimePartitioning.of(TimePartitioning.Type.DAY), CLUSTERING), NO_RENAMES));
+  }
+
+  @Test
+  public void testClusteringMismatch() {
+    Assert.assertFalse(BigQueryExecutor.isCopyCompatible(SOURCE, definition(SCHEMA, PARTITIONING, null), NO_RENAMES));
+    Clustering clustering = Clustering.newBuilder().setFields(Collections.singletonList("id")).build();
+    Assert.assertFalse(BigQueryExecutor.isCopyCompatible(SOURCE, definition(SCHEMA, PARTITIONING, clustering),
+                                                          NO_RENAMES));
+  }
+
+  @Test
+  public void testRenamedColumn() {
+    // The destination was renamed by the previous run, so it matches the source once the renames are applied
+    Schema renamed = Schema.of(Field.of("id", LegacySQLTypeName.INTEGER),
+                               Field.of("customer", LegacySQLTypeName.INTEGER),
+                               Field.of("day", LegacySQLTypeName.DATE));
+    Map<String, String> renames = ImmutableMap.of("customer_id", "customer");
+    Assert.assertTrue(BigQueryExecutor.isCopyCompatible(SOURCE, definition(renamed, PARTITIONING, CLUSTERING),
+                                                         renames));
+    Assert.assertFalse(BigQueryExecutor.isCopyCompatible(SOURCE, definition(SCHEMA, PARTITIONING, CLUSTERING),
+                                                          renames));
+  }
+
+  @Test
+  public void testViewNotCopied() {
+    Assert.assertFalse(BigQueryExecutor.isCopyCompatible(ViewDefinition.of("SELECT 1"), SOURCE, NO_RENAMES));
+  }
+
+  private static StandardTableDefinition definition(Schema schema, TimePartitioning partitioning,
+                                                    Clustering clustering) {
+    return StandardTableDefinition.newBuilder()
+      .setSchema(schema)
+      .setTimePartitioning(partitioning)
+      .setClustering(clustering)
+      .build();
+  }
+}
@@ -0,0 +1,92 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.bigquery;
+
+import io.cdap.pipeline.sql.api.template.tables.AbstractTableInfo;
+import io.cdap.pipeline.sql.api.template.tables.TableMetadata;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class MetadataQueryRewriterTest {
+  private SchemaPlus rootSchema;
+  private RelBuilder builder;
+
+  @Before
+  public void setUp() {
+    rootSchema = Frameworks.createRootSchema(true);
+    rootSchema.add("project.analytics.events", new EventsTable("project.analytics.events"));
+    rootSchema.add("project.analytics.events_*", new EventsTable("project.analytics.events_*"));
+    builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+  }
+
+  @Test
+  public void testRowCount() {
+    RelNode rel = builder.scan("project.analytics.events").aggregate(builder.groupKey(), builder.countStar("c"))
+      .build();
+    RelNode rewritten = new MetadataQueryRewriter(rootSchema, builder).rewrite(rel);
+    Assert.assertEquals("SELECT row_count AS c\n" +
+                          "FROM `project.analytics.__TABLES__`\n" +
+                          "WHERE table_id = 'events'", toSql(rewritten));
+  }
+
+  @Test
+  public void testWildcardTable() {
+    // The row count of a wildcard table sums its shards, which the metadata views describe separately
+    RelNode rel = builder.scan("project.analytics.events_*").aggregate(builder.groupKey(), builder.countStar("c"))
+      .build();
+    Assert.assertSame(rel, new MetadataQueryRewriter(rootSchema, builder).rewrite(rel));
+  }
+
+  private static String toSql(RelNode rel) {
+    return new BigQueryRelToSqlConverter(BigQueryDialect.DEFAULT).visitChild(0, rel).asQueryOrValues()
+      .toSqlString(BigQueryDialect.DEFAULT).getSql();
+  }
+
+  private static class EventsTable extends AbstractTableInfo {
+    private final String tableName;
+
+    EventsTable(String tableName) {
+      this.tableName = tableName;
+    }
+
+    @Override
+    public String getTableName() {
+      return tableName;
+    }
+
+    @Override
+    public TableMetadata getMetadata() {
+      return TableMetadata.builder().setRowCount(100L).build();
+    }
+
+    @Override
+    public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+      return typeFactory.builder()
+        .add("id", SqlTypeName.BIGINT)
+        .add("day", SqlTypeName.DATE)
+        .build();
+    }
+  }
+}
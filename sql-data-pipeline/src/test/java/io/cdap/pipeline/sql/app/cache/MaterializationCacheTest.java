@@ -0,0 +1,91 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.cache;
+
+import io.cdap.pipeline.sql.app.state.FileStateStore;
+import io.cdap.pipeline.sql.app.state.StateStore;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+public class MaterializationCacheTest {
+  private static final long TTL_MILLIS = TimeUnit.HOURS.toMillis(1);
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private StateStore store;
+
+  @Before
+  public void setUp() throws Exception {
+    store = new FileStateStore(temporaryFolder.newFile("state.json"));
+  }
+
+  @Test
+  public void testLookup() throws Exception {
+    MaterializationCache cache = new MaterializationCache(store, "cache", TTL_MILLIS, 1000);
+    Assert.assertNull(cache.lookup("a"));
+    Assert.assertEquals(Collections.emptyList(), cache.put("a", "project.dataset.table_a", 100));
+    Assert.assertEquals("project.dataset.table_a", cache.lookup("a"));
+    Assert.assertNull(cache.lookup("b"));
+
+    // Entries are kept in the store, so they are shared by every cache with the same name
+    Assert.assertEquals("project.dataset.table_a",
+                        new MaterializationCache(store, "cache", TTL_MILLIS, 1000).lookup("a"));
+    Assert.assertNull(new MaterializationCache(store, "other", TTL_MILLIS, 1000).lookup("a"));
+  }
+
+  @Test
+  public void testExpiry() throws Exception {
+    MaterializationCache cache = new MaterializationCache(store, "cache", 100, 1000);
+    cache.put("a", "table_a", 100);
+    Assert.assertEquals("table_a", cache.lookup("a"));
+    TimeUnit.MILLISECONDS.sleep(150);
+    // Using an entry does not extend its time to live
+    Assert.assertNull(cache.lookup("a"));
+    // Expired entries are evicted by the next put
+    Assert.assertEquals(Collections.singletonList("table_a"), cache.put("b", "table_b", 100));
+    Assert.assertEquals("table_b", cache.lookup("b"));
+  }
+
+  @Test
+  public void testEvictionBySize() throws Exception {
+    MaterializationCache cache = new MaterializationCache(store, "cache", TTL_MILLIS, 1000);
+    Assert.assertEquals(Collections.emptyList(), cache.put("a", "table_a", 400));
+    TimeUnit.MILLISECONDS.sleep(5);
+    Assert.assertEquals(Collections.emptyList(), cache.put("b", "table_b", 400));
+    TimeUnit.MILLISECONDS.sleep(5);
+    // Using an entry makes it the most recently used, so the other entry is evicted first
+    Assert.assertEquals("table_a", cache.lookup("a"));
+    TimeUnit.MILLISECONDS.sleep(5);
+    Assert.assertEquals(Collections.singletonList("table_b"), cache.put("c", "table_c", 400));
+    Assert.assertEquals("table_a", cache.lookup("a"));
+    Assert.assertNull(cache.lookup("b"));
+    Assert.assertEquals("table_c", cache.lookup("c"));
+
+    // A result which is larger than the limit on its own is evicted along with everything else
+    TimeUnit.MILLISECONDS.sleep(5);
+    Assert.assertEquals(Arrays.asList("table_a", "table_c", "table_d"), cache.put("d", "table_d", 1200));
+    Assert.assertNull(cache.lookup("d"));
+  }
+}
@@ -0,0 +1,87 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import io.cdap.pipeline.sql.app.bigquery.BigQueryDialect;
+import io.cdap.pipeline.sql.app.bigquery.BigQueryRelToSqlConverter;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class EagerAggregatorTest {
+  private RelBuilder builder;
+
+  @Before
+  public void setUp() {
+    SchemaPlus rootSchema = Frameworks.createRootSchema(true);
+    rootSchema.add("sales", new AbstractTable() {
+      @Override
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+          .add("store", SqlTypeName.BIGINT)
+          .add("amount", SqlTypeName.DOUBLE).nullable(true)
+          .add("amount_sum", SqlTypeName.DOUBLE).nullable(true)
+          .build();
+      }
+    });
+    builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+  }
+
+  @Test
+  public void testAverageAboveUnion() {
+    RelNode rel = builder.scan("sales").scan("sales").union(true)
+      .aggregate(builder.groupKey("store"), builder.avg(builder.field("amount")).as("amount"),
+                 builder.sum(builder.field("amount_sum")).as("amount_sum"))
+      .build();
+    RelNode rewritten = EagerAggregator.rewrite(rel);
+    // The partial sums and counts of the average are named apart from the fields of the stage
+    Assert.assertEquals(
+      "SELECT store, SUM(`$f1`) / COALESCE(SUM(`$f2`), 0) AS amount, SUM(amount_sum) AS amount_sum\n" +
+        "FROM (SELECT store, SUM(amount) AS `$f1`, COUNT(amount) AS `$f2`, SUM(amount_sum) AS amount_sum\n" +
+        "FROM sales\n" +
+        "GROUP BY store\n" +
+        "UNION ALL\n" +
+        "SELECT store, SUM(amount) AS `$f1`, COUNT(amount) AS `$f2`, SUM(amount_sum) AS amount_sum\n" +
+        "FROM sales\n" +
+        "GROUP BY store) AS t1\n" +
+        "GROUP BY store",
+      toSql(rewritten));
+    Assert.assertTrue(RelOptUtil.areRowTypesEqual(rel.getRowType(), rewritten.getRowType(), true));
+  }
+
+  @Test
+  public void testAverageNotCombined() {
+    RelNode rel = builder.scan("sales")
+      .aggregate(builder.groupKey("store"), builder.avg(builder.field("amount")).as("amount"))
+      .build();
+    Assert.assertSame(rel, EagerAggregator.rewrite(rel));
+  }
+
+  private static String toSql(RelNode rel) {
+    return new BigQueryRelToSqlConverter(BigQueryDialect.DEFAULT).visitChild(0, rel).asQueryOrValues()
+      .toSqlString(BigQueryDialect.DEFAULT).getSql();
+  }
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.collect.ImmutableSet;
+import io.cdap.pipeline.sql.api.template.QueryContext;
+import io.cdap.pipeline.sql.api.template.SQLJoiner;
+import io.cdap.pipeline.sql.api.template.interfaces.SQLNode;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+
+public class JoinReordererTest {
+  private static final SQLNode SOURCE = context -> null;
+
+  private RelBuilder builder;
+  private Map<String, SQLNode> pluginMap;
+  private Map<String, TemporaryTable> temporaryTableMap;
+
+  @Before
+  public void setUp() {
+    SchemaPlus rootSchema = Frameworks.createRootSchema(true);
+    rootSchema.add("orders", new Table(1000000) {
+      @Override
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+          .add("id", SqlTypeName.BIGINT)
+          .add("customer_id", SqlTypeName.BIGINT)
+          .add("country_id", SqlTypeName.BIGINT)
+          .build();
+      }
+    });
+    rootSchema.add("customers", new Table(100000) {
+      @Override
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+          .add("id", SqlTypeName.BIGINT)
+          .add("name", SqlTypeName.VARCHAR)
+          .build();
+      }
+    });
+    rootSchema.add("countries", new Table(10) {
+      @Override
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+          .add("id", SqlTypeName.BIGINT)
+          .add("country", SqlTypeName.VARCHAR)
+          .build();
+      }
+    });
+    builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+    pluginMap = new HashMap<>(ImmutableMap.of("orders", SOURCE, "customers", SOURCE, "countries", SOURCE));
+    temporaryTableMap = new HashMap<>();
+  }
+
+  @Test
+  public void testReorderChain() {
+    pluginMap.put("with_customers", new Joiner(0));
+    pluginMap.put("with_countries", new Joiner(0));
+    JoinReorderer reorderer = createReorderer();
+    // The orders are joined with the few countries before the many customers
+    Assert.assertEquals(
+      "LogicalProject(id=[$0], name=[$6], country=[$4])\n" +
+        "  LogicalJoin(condition=[=($1, $5)], joinType=[inner])\n" +
+        "    LogicalJoin(condition=[=($2, $3)], joinType=[inner])\n" +
+        "      LogicalTableScan(table=[[orders]])\n" +
+        "      LogicalTableScan(table=[[countries]])\n" +
+        "    LogicalTableScan(table=[[customers]])\n",
+      RelOptUtil.toString(reorderer.reorder("with_countries", joinCountries(JoinRelType.INNER))));
+  }
+
+  @Test
+  public void testInlinedJoinerNotReordered() {
+    pluginMap.put("with_customers", new Joiner(0));
+    pluginMap.put("with_countries", new Joiner(0));
+    JoinReorderer reorderer = createReorderer();
+    // The first joiner is reordered as part of the second one
+    Assert.assertTrue(reorderer.isInlinedIntoJoiner("with_customers"));
+    Assert.assertFalse(reorderer.isInlinedIntoJoiner("with_countries"));
+    RelNode withCustomers = joinCountries(JoinRelType.INNER).getInput(0).getInput(0);
+    Assert.assertSame(withCustomers, reorderer.reorder("with_customers", withCustomers));
+    // Once materialized, the first joiner is read from its table and is the last joiner of its own chain
+    temporaryTableMap.put("with_customers", new TemporaryTable("with_customers", withCustomers.getRowType()));
+    Assert.assertFalse(reorderer.isInlinedIntoJoiner("with_customers"));
+  }
+
+  @Test
+  public void testFullJoinNotReordered() {
+    pluginMap.put("with_customers", new Joiner(0));
+    pluginMap.put("with_countries", new Joiner(0));
+    RelNode rel = joinCountries(JoinRelType.FULL);
+    Assert.assertSame(rel, createReorderer().reorder("with_countries", rel));
+  }
+
+  @Test
+  public void testSkewedJoinerNotReordered() {
+    pluginMap.put("with_customers", new Joiner(4));
+    pluginMap.put("with_countries", new Joiner(0));
+    JoinReorderer reorderer = createReorderer();
+    // Salting the first joiner requires its join to be kept, which rules out reordering the chain holding it
+    Assert.assertTrue(reorderer.hasSkewedJoiner("with_countries"));
+    RelNode rel = joinCountries(JoinRelType.INNER);
+    Assert.assertSame(rel, reorderer.reorder("with_countries", rel));
+    // A materialized joiner is not part of the chains reading it
+    temporaryTableMap.put("with_customers", new TemporaryTable("with_customers", rel.getRowType()));
+    Assert.assertFalse(reorderer.hasSkewedJoiner("with_countries"));
+    Assert.assertTrue(reorderer.hasSkewedJoiner("with_customers"));
+  }
+
+  @Test
+  public void testNonJoinerNotReordered() {
+    pluginMap.put("with_customers", new Joiner(0));
+    pluginMap.put("with_countries", SOURCE);
+    RelNode rel = joinCountries(JoinRelType.INNER);
+    Assert.assertSame(rel, createReorderer().reorder("with_countries", rel));
+  }
+
+  private RelNode joinCountries(JoinRelType joinType) {
+    RelNode withCustomers = builder.scan("orders").as("orders").scan("customers").as("customers")
+      .join(JoinRelType.INNER,
+            builder.equals(builder.field(2, "orders", "customer_id"), builder.field(2, "customers", "id")))
+      .project(builder.field("orders", "id"), builder.field("orders", "country_id"), builder.field("customers", "name"))
+      .build();
+    return builder.push(withCustomers).as("with_customers").scan("countries").as("countries")
+      .join(joinType,
+            builder.equals(builder.field(2, "with_customers", "country_id"), builder.field(2, "countries", "id")))
+      .project(builder.field("with_customers", "id"), builder.field("with_customers", "name"),
+               builder.field("countries", "country"))
+      .build();
+  }
+
+  private JoinReorderer createReorderer() {
+    Map<String, Set<String>> fromNodeMap = ImmutableMap.of(
+      "with_customers", ImmutableSet.of("orders", "customers"),
+      "with_countries", ImmutableSet.of("with_customers", "countries"));
+    Map<String, Set<String>> toNodeMap = ImmutableMap.of(
+      "orders", Collections.singleton("with_customers"),
+      "customers", Collections.singleton("with_customers"),
+      "with_customers", Collections.singleton("with_countries"),
+      "countries", Collections.singleton("with_countries"));
+    return new JoinReorderer(pluginMap, fromNodeMap, toNodeMap, temporaryTableMap);
+  }
+
+  /**
+   * A joiner which salts skewed keys across the given number of buckets, or not at all if it is 0.
+   */
+  private static class Joiner extends SQLJoiner {
+    private final int skewBuckets;
+
+    private Joiner(int skewBuckets) {
+      this.skewBuckets = skewBuckets;
+    }
+
+    @Override
+    public int getSkewBuckets() {
+      return skewBuckets;
+    }
+
+    @Override
+    public RelNode getQuery(QueryContext context) {
+      return null;
+    }
+  }
+
+  /**
+   * A table with a known number of rows.
+   */
+  private abstract static class Table extends AbstractTable {
+    private final double rowCount;
+
+    private Table(double rowCount) {
+      this.rowCount = rowCount;
+    }
+
+    @Override
+    public Statistic getStatistic() {
+      return Statistics.of(rowCount, Collections.emptyList());
+    }
+  }
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import io.cdap.pipeline.sql.app.bigquery.BigQueryDialect;
+import io.cdap.pipeline.sql.app.bigquery.BigQueryRelToSqlConverter;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.core.Project;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class JoinSalterTest {
+  private RelBuilder builder;
+
+  @Before
+  public void setUp() {
+    SchemaPlus rootSchema = Frameworks.createRootSchema(true);
+    rootSchema.add("orders", new AbstractTable() {
+      @Override
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+          .add("id", SqlTypeName.BIGINT)
+          .add("customer_id", SqlTypeName.BIGINT)
+          .build();
+      }
+    });
+    rootSchema.add("customers", new AbstractTable() {
+      @Override
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+          .add("id", SqlTypeName.BIGINT)
+          .add("name", SqlTypeName.VARCHAR)
+          .build();
+      }
+    });
+    builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+  }
+
+  @Test
+  public void testSaltedInput() {
+    Assert.assertEquals(0, JoinSalter.getSaltedInput((Join) join(JoinRelType.LEFT).getInput(0)));
+    Assert.assertEquals(1, JoinSalter.getSaltedInput((Join) join(JoinRelType.RIGHT).getInput(0)));
+    Assert.assertEquals(-1, JoinSalter.getSaltedInput((Join) join(JoinRelType.FULL).getInput(0)));
+  }
+
+  @Test
+  public void testSalt() {
+    RelNode salted = new JoinSalter(builder).salt(join(JoinRelType.INNER), 0, 4, Arrays.asList(7L, 9L));
+    // The heavy keys of the customers are replicated into every bucket, in a single read of the customers
+    Assert.assertEquals(
+      "SELECT t.id, t0.name\n" +
+        "FROM (SELECT id, customer_id, CASE WHEN customer_id = 7 OR customer_id = 9 " +
+        "THEN CAST(FLOOR(RAND() * 4) AS INT64) ELSE 0 END AS skew_salt\n" +
+        "FROM orders) AS t\n" +
+        "INNER JOIN (SELECT customers.id AS id, customers.name AS name, element AS skew_salt\n" +
+        "FROM customers\n" +
+        "CROSS JOIN UNNEST(GENERATE_ARRAY(0, CASE WHEN customers.id = 7 OR customers.id = 9 THEN 3 ELSE 0 END)) " +
+        "AS element) AS t0 ON t.customer_id = t0.id AND t.skew_salt = t0.skew_salt",
+      toSql(salted));
+    Assert.assertEquals(Arrays.asList("id", "name"), salted.getRowType().getFieldNames());
+  }
+
+  @Test
+  public void testReplicateLeftInput() {
+    RelNode salted = new JoinSalter(builder).salt(join(JoinRelType.RIGHT), 1, 4, Arrays.asList(7L));
+    Assert.assertEquals(
+      "LogicalProject(id=[$0], name=[$4])\n" +
+        "  LogicalJoin(condition=[AND(=($1, $3), =($2, $5))], joinType=[right])\n" +
+        "    LogicalProject(id=[$0], customer_id=[$1], skew_salt=[$2])\n" +
+        "      LogicalCorrelate(correlation=[$cor0], joinType=[inner], requiredColumns=[{1}])\n" +
+        "        LogicalTableScan(table=[[orders]])\n" +
+        "        Uncollect\n" +
+        "          LogicalProject(skew_salt=[GENERATE_ARRAY(0, CASE(=($cor0.customer_id, 7), 3, 0))])\n" +
+        "            LogicalValues(tuples=[[{ 0 }]])\n" +
+        "    LogicalProject(id=[$0], name=[$1], skew_salt=[CASE(=($0, 7), CAST(FLOOR(*(RAND(), 4))):BIGINT NOT NULL, " +
+        "0)])\n" +
+        "      LogicalTableScan(table=[[customers]])\n",
+      RelOptUtil.toString(salted));
+  }
+
+  private Project join(JoinRelType joinType) {
+    return (Project) builder.scan("orders").as("orders").scan("customers").as("customers")
+      .join(joinType, builder.equals(builder.field(2, "orders", "customer_id"), builder.field(2, "customers", "id")))
+      .project(builder.field("orders", "id"), builder.field("customers", "name"))
+      .build();
+  }
+
+  private static String toSql(RelNode rel) {
+    return new BigQueryRelToSqlConverter(BigQueryDialect.DEFAULT).visitChild(0, rel).asQueryOrValues()
+      .toSqlString(BigQueryDialect.DEFAULT).getSql();
+  }
+}
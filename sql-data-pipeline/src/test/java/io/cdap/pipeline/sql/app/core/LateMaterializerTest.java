@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import com.google.common.collect.ImmutableMap;
+import io.cdap.pipeline.sql.api.template.tables.TableMetadata;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+
+public class LateMaterializerTest {
+  private static final TableMetadata PRODUCTS = TableMetadata.builder()
+    .setRowCount(1000L)
+    .setPrimaryKey(Collections.singletonList("id"))
+    .setColumnSize("id", 8000L)
+    .setColumnSize("category", 10000L)
+    .setColumnSize("description", 1000000L)
+    .build();
+
+  private RelBuilder builder;
+
+  @Before
+  public void setUp() {
+    SchemaPlus rootSchema = Frameworks.createRootSchema(true);
+    rootSchema.add("orders", new OrdersTable(1000000));
+    rootSchema.add("sample_orders", new OrdersTable(10));
+    rootSchema.add("products", new AbstractTable() {
+      @Override
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+          .add("id", SqlTypeName.BIGINT)
+          .add("category", SqlTypeName.VARCHAR)
+          .add("description", SqlTypeName.VARCHAR)
+          .build();
+      }
+
+      @Override
+      public Statistic getStatistic() {
+        return Statistics.of(1000, null);
+      }
+    });
+    builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+  }
+
+  @Test
+  public void testMaterializeLate() {
+    RelNode rel = new LateMaterializer(builder, ImmutableMap.of("products", PRODUCTS)).rewrite(join("orders"));
+    // The description is read for the surviving orders, from the products of the same category
+    Assert.assertEquals(
+      "LogicalProject(id=[$0], description=[$5])\n" +
+        "  LogicalJoin(condition=[=($3, $4)], joinType=[inner])\n" +
+        "    LogicalFilter(condition=[>($2, 100)])\n" +
+        "      LogicalJoin(condition=[=($1, $3)], joinType=[inner])\n" +
+        "        LogicalTableScan(table=[[orders]])\n" +
+        "        LogicalProject(id=[$0])\n" +
+        "          LogicalFilter(condition=[=($1, 'books')])\n" +
+        "            LogicalTableScan(table=[[products]])\n" +
+        "    LogicalProject(id=[$0], description=[$2])\n" +
+        "      LogicalFilter(condition=[=($1, 'books')])\n" +
+        "        LogicalTableScan(table=[[products]])\n",
+      RelOptUtil.toString(rel));
+  }
+
+  @Test
+  public void testNotWorthReadingTwice() {
+    // Few orders are joined to the products, so reading the products a second time costs more than it saves
+    RelNode join = join("sample_orders");
+    Assert.assertSame(join, new LateMaterializer(builder, ImmutableMap.of("products", PRODUCTS)).rewrite(join));
+  }
+
+  @Test
+  public void testNoPrimaryKey() {
+    RelNode join = join("orders");
+    TableMetadata metadata = TableMetadata.builder().setRowCount(1000L).build();
+    Assert.assertSame(join, new LateMaterializer(builder, ImmutableMap.of("products", metadata)).rewrite(join));
+  }
+
+  private RelNode join(String ordersTable) {
+    return builder.scan(ordersTable).as("orders")
+      .scan("products").filter(builder.equals(builder.field("category"), builder.literal("books"))).as("products")
+      .join(JoinRelType.INNER,
+            builder.equals(builder.field(2, "orders", "product_id"), builder.field(2, "products", "id")))
+      .filter(builder.call(SqlStdOperatorTable.GREATER_THAN, builder.field("amount"), builder.literal(100)))
+      .project(builder.field("orders", "id"), builder.field("products", "description"))
+      .build();
+  }
+
+  /**
+   * A table of orders with a known number of rows.
+   */
+  private static class OrdersTable extends AbstractTable {
+    private final double rowCount;
+
+    OrdersTable(double rowCount) {
+      this.rowCount = rowCount;
+    }
+
+    @Override
+    public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+      return typeFactory.builder()
+        .add("id", SqlTypeName.BIGINT)
+        .add("product_id", SqlTypeName.BIGINT)
+        .add("amount", SqlTypeName.DOUBLE)
+        .build();
+    }
+
+    @Override
+    public Statistic getStatistic() {
+      return Statistics.of(rowCount, null);
+    }
+  }
+}
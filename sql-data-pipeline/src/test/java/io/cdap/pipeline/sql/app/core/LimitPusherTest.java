@@ -0,0 +1,114 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rex.RexFieldCollation;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexWindowBound;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.SqlWindow;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.parser.SqlParserPos;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.function.Function;
+
+public class LimitPusherTest {
+  private RelBuilder builder;
+
+  @Before
+  public void setUp() {
+    SchemaPlus rootSchema = Frameworks.createRootSchema(true);
+    for (String tableName : new String[] {"orders_2019", "orders_2020"}) {
+      rootSchema.add(tableName, new AbstractTable() {
+        @Override
+        public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+          return typeFactory.builder()
+            .add("id", SqlTypeName.BIGINT)
+            .add("amount", SqlTypeName.DOUBLE)
+            .build();
+        }
+      });
+    }
+    builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+  }
+
+  @Test
+  public void testPushIntoUnion() {
+    RelNode rel = topOrders(b -> b.field("amount"));
+    // Each year only returns its own top orders
+    Assert.assertEquals(
+      "LogicalProject(id=[$0], amount=[$1], computed=[$1])\n" +
+        "  LogicalSort(sort0=[$1], dir0=[DESC], fetch=[10])\n" +
+        "    LogicalUnion(all=[true])\n" +
+        "      LogicalSort(sort0=[$1], dir0=[DESC], fetch=[10])\n" +
+        "        LogicalTableScan(table=[[orders_2019]])\n" +
+        "      LogicalSort(sort0=[$1], dir0=[DESC], fetch=[10])\n" +
+        "        LogicalTableScan(table=[[orders_2020]])\n",
+      RelOptUtil.toString(new LimitPusher().rewrite(rel)));
+  }
+
+  @Test
+  public void testNoLimit() {
+    RelNode rel = builder.scan("orders_2019").scan("orders_2020").union(true)
+      .sort(builder.desc(builder.field("amount")))
+      .build();
+    Assert.assertSame(rel, new LimitPusher().rewrite(rel));
+  }
+
+  @Test
+  public void testWindowFunctionNotPushed() {
+    // The rank is computed over every order, so the limit must be applied after it
+    RelNode rel = topOrders(b -> b.getRexBuilder().makeOver(
+      b.getTypeFactory().createSqlType(SqlTypeName.BIGINT), SqlStdOperatorTable.ROW_NUMBER,
+      Collections.emptyList(), Collections.emptyList(),
+      ImmutableList.of(new RexFieldCollation(b.field("amount"), Collections.emptySet())),
+      RexWindowBound.create(SqlWindow.createUnboundedPreceding(SqlParserPos.ZERO), null),
+      RexWindowBound.create(SqlWindow.createCurrentRow(SqlParserPos.ZERO), null),
+      true, true, false, false, false));
+    Assert.assertSame(rel, new LimitPusher().rewrite(rel));
+  }
+
+  @Test
+  public void testNonDeterministicNotPushed() {
+    RelNode rel = topOrders(b -> b.call(SqlStdOperatorTable.RAND));
+    Assert.assertSame(rel, new LimitPusher().rewrite(rel));
+  }
+
+  /**
+   * Returns the ten orders of both years with the largest amount, with a computed column.
+   */
+  private RelNode topOrders(Function<RelBuilder, RexNode> computed) {
+    builder.scan("orders_2019").scan("orders_2020").union(true);
+    return builder.project(builder.field("id"), builder.field("amount"), builder.alias(computed.apply(builder),
+                                                                                      "computed"))
+      .sortLimit(0, 10, builder.desc(builder.field("amount")))
+      .build();
+  }
+}
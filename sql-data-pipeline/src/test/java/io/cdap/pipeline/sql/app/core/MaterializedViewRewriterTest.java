@@ -0,0 +1,140 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import org.apache.calcite.plan.RelOptMaterialization;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.Util;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import java.util.TreeSet;
+
+public class MaterializedViewRewriterTest {
+  private SchemaPlus rootSchema;
+  private RelBuilder builder;
+  private MaterializedViewRewriter rewriter;
+
+  @Before
+  public void setUp() {
+    rootSchema = Frameworks.createRootSchema(true);
+    rootSchema.add("orders", new AbstractTable() {
+      @Override
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+          .add("order_date", SqlTypeName.DATE)
+          .add("customer_id", SqlTypeName.BIGINT)
+          .add("status", SqlTypeName.VARCHAR)
+          .add("amount", SqlTypeName.DOUBLE)
+          .build();
+      }
+    });
+    builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+    rewriter = new MaterializedViewRewriter(Arrays.asList(
+      createView("daily_totals", builder.scan("orders")
+        .project(builder.field("order_date"), builder.field("customer_id"), builder.field("amount"))
+        .aggregate(builder.groupKey("order_date", "customer_id"),
+                   builder.sum(false, "total", builder.field("amount")))
+        .build()),
+      createView("large_orders", builder.scan("orders")
+        .filter(builder.call(SqlStdOperatorTable.GREATER_THAN, builder.field("amount"), builder.literal(1000)))
+        .build())), null);
+  }
+
+  @Test
+  public void testAggregateOfView() {
+    // The aggregation reads the orders directly, and is matched against the view after projecting its columns
+    RelNode aggregate = builder.scan("orders")
+      .aggregate(builder.groupKey("order_date", "customer_id"), builder.sum(false, "total", builder.field("amount")))
+      .build();
+    Assert.assertEquals(Collections.singleton("daily_totals"), getScannedTableNames(
+      rewriter.rewriteAggregate(aggregate)));
+  }
+
+  @Test
+  public void testRollUpView() {
+    // Totals by date are computed from the totals by date and customer
+    RelNode aggregate = builder.scan("orders")
+      .aggregate(builder.groupKey("order_date"), builder.sum(false, "total", builder.field("amount")))
+      .build();
+    RelNode rewritten = rewriter.rewriteAggregate(aggregate);
+    Assert.assertEquals(Collections.singleton("daily_totals"), getScannedTableNames(rewritten));
+    Assert.assertEquals(aggregate.getRowType(), rewritten.getRowType());
+  }
+
+  @Test
+  public void testAggregateNotInView() {
+    RelNode aggregate = builder.scan("orders")
+      .aggregate(builder.groupKey("status"), builder.sum(false, "total", builder.field("amount")))
+      .build();
+    Assert.assertSame(aggregate, rewriter.rewriteAggregate(aggregate));
+  }
+
+  @Test
+  public void testFilterOfView() {
+    RelNode filter = builder.scan("orders")
+      .filter(builder.call(SqlStdOperatorTable.GREATER_THAN, builder.field("amount"), builder.literal(1000)))
+      .build();
+    // Filters are only matched by the second pass
+    Assert.assertSame(filter, rewriter.rewriteAggregate(filter));
+    Assert.assertEquals(Collections.singleton("large_orders"), getScannedTableNames(rewriter.rewriteFilter(filter)));
+  }
+
+  @Test
+  public void testFilterOfNarrowerView() {
+    RelNode filter = builder.scan("orders")
+      .filter(builder.call(SqlStdOperatorTable.GREATER_THAN, builder.field("amount"), builder.literal(5000)))
+      .build();
+    // The remaining condition is applied to the view
+    Assert.assertEquals(
+      "LogicalFilter(condition=[>($3, 5000)])\n" +
+        "  LogicalTableScan(table=[[large_orders]])\n",
+      RelOptUtil.toString(rewriter.rewriteFilter(filter)));
+  }
+
+  @Test
+  public void testFilterNotInView() {
+    RelNode filter = builder.scan("orders")
+      .filter(builder.call(SqlStdOperatorTable.GREATER_THAN, builder.field("amount"), builder.literal(10)))
+      .build();
+    Assert.assertSame(filter, rewriter.rewriteFilter(filter));
+  }
+
+  private RelOptMaterialization createView(String name, RelNode query) {
+    rootSchema.add(name, new TemporaryTable(name, query.getRowType()));
+    return new RelOptMaterialization(builder.scan(name).build(), query, null, Collections.singletonList(name));
+  }
+
+  private static Set<String> getScannedTableNames(RelNode rel) {
+    Set<String> tableNames = new TreeSet<>();
+    RelOptUtil.findTables(rel).forEach(table -> tableNames.add(Util.last(table.getQualifiedName())));
+    return tableNames;
+  }
+}
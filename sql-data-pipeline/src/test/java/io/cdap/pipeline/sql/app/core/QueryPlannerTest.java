@@ -0,0 +1,232 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import com.google.common.collect.ImmutableSet;
+import io.cdap.pipeline.sql.app.bigquery.BigQueryDialect;
+import io.cdap.pipeline.sql.app.bigquery.BigQueryRelToSqlConverter;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+public class QueryPlannerTest {
+  private SchemaPlus rootSchema;
+  private RelBuilder builder;
+  private Map<String, RelNode> relationalNodeMap;
+  private Map<String, Set<String>> fromNodeMap;
+  private Map<String, TemporaryTable> temporaryTableMap;
+  private List<String> topologicalOrder;
+  private Set<String> sinkStages;
+
+  @Before
+  public void setUp() {
+    rootSchema = Frameworks.createRootSchema(true);
+    rootSchema.add("orders", new AbstractTable() {
+      @Override
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+          .add("id", SqlTypeName.BIGINT)
+          .add("customer", SqlTypeName.VARCHAR)
+          .add("amount", SqlTypeName.DOUBLE)
+          .add("status", SqlTypeName.VARCHAR)
+          .build();
+      }
+
+      @Override
+      public Statistic getStatistic() {
+        return Statistics.of(1000000, Collections.emptyList());
+      }
+    });
+    builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+    relationalNodeMap = new LinkedHashMap<>();
+    fromNodeMap = new HashMap<>();
+    temporaryTableMap = new HashMap<>();
+
+    // The active orders are many rows behind a long condition, while the total is fewer rows behind a short query
+    RelNode source = builder.scan("orders").build();
+    RelNode active = builder.push(source)
+      .filter(builder.notEquals(builder.field("status"), builder.literal("cancelled before the order was shipped")),
+              builder.notEquals(builder.field("status"), builder.literal("returned after the order was shipped")))
+      .build();
+    RelNode total = builder.push(source)
+      .aggregate(builder.groupKey(), builder.sum(false, "total", builder.field("amount")))
+      .build();
+    RelNode sink = builder.push(active).push(total)
+      .join(JoinRelType.INNER, builder.literal(true))
+      .project(builder.field("id"), builder.field("total"))
+      .build();
+    addStage("source", source);
+    addStage("active", active, "source");
+    addStage("total", total, "source");
+    addStage("sink", sink, "active", "total");
+    topologicalOrder = new ArrayList<>(Arrays.asList("source", "active", "total", "sink"));
+    sinkStages = new HashSet<>(Collections.singleton("sink"));
+  }
+
+  @Test
+  public void testCheapestSufficientCut() {
+    // Cutting either stage is enough, so the stage writing the fewest bytes is materialized
+    int maxLength = getLength("sink") - Math.min(getLength("active"), getLength("total")) + 20;
+    createPlanner(true).planQueries(maxLength, 50);
+    Assert.assertEquals(Collections.singleton("total"), temporaryTableMap.keySet());
+    Assert.assertTrue(getLength("sink") <= maxLength);
+  }
+
+  @Test
+  public void testSufficientCut() {
+    // Only cutting the longer stage is enough, so it is materialized even though it writes more bytes
+    int maxLength = getLength("sink") - getLength("active") + 20;
+    Assert.assertTrue(getLength("sink") - getLength("total") > maxLength);
+    createPlanner(true).planQueries(maxLength, 50);
+    Assert.assertEquals(Collections.singleton("active"), temporaryTableMap.keySet());
+    Assert.assertTrue(getLength("sink") <= maxLength);
+  }
+
+  @Test
+  public void testLargestCut() {
+    // No single stage is enough, so the stages are cut from the longest until none is left
+    createPlanner(true).planQueries(getLength("sink") - getLength("active") - 1, 50);
+    Assert.assertEquals(ImmutableSet.of("active", "total"), temporaryTableMap.keySet());
+    Assert.assertEquals(
+      "LogicalProject(id=[$0], total=[$4])\n" +
+        "  LogicalJoin(condition=[true], joinType=[inner])\n" +
+        "    LogicalTableScan(table=[[tmp_active]])\n" +
+        "    LogicalTableScan(table=[[tmp_total]])\n",
+      RelOptUtil.toString(relationalNodeMap.get("sink")));
+  }
+
+  @Test
+  public void testDepthCut() {
+    // The join nests its inputs as subqueries, which are removed by materializing them
+    createPlanner(true).planQueries(Integer.MAX_VALUE, 1);
+    Assert.assertEquals(ImmutableSet.of("active", "total"), temporaryTableMap.keySet());
+  }
+
+  @Test
+  public void testReplan() {
+    QueryPlanner planner = createPlanner(true);
+    // The script holds the sink statement followed by its separator
+    planner.planQueries(getLength("sink") + ";\n".length(), 50);
+    Assert.assertTrue(temporaryTableMap.isEmpty());
+
+    // Halving the limits makes the sink too long, so a stage is materialized
+    Assert.assertTrue(planner.replan());
+    Assert.assertFalse(temporaryTableMap.isEmpty());
+    // Once every inlined stage is materialized there is nothing left to cut
+    while (temporaryTableMap.size() < 2) {
+      Assert.assertTrue(planner.replan());
+    }
+    Assert.assertFalse(planner.replan());
+  }
+
+  @Test
+  public void testScriptCut() {
+    // Each sink fits on its own but not both in the same script, so the longest stage they inline is staged
+    RelNode otherSink = builder.push(relationalNodeMap.get("active"))
+      .project(builder.field("customer"))
+      .build();
+    addStage("other_sink", otherSink, "active");
+    topologicalOrder.add("other_sink");
+    sinkStages.add("other_sink");
+    int maxLength = Math.max(getLength("sink"), getLength("other_sink"));
+    Assert.assertTrue(getLength("sink") + getLength("other_sink") > maxLength);
+
+    createPlanner(true).planQueries(maxLength, 50);
+    Assert.assertEquals(Collections.singleton("active"), temporaryTableMap.keySet());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testScriptTooLongWithoutStaging() {
+    // Temporary tables are created within the script, so staging stages cannot shorten it
+    createPlanner(false).planQueries(getLength("sink") - getLength("active") - 1, 50);
+  }
+
+  @Test
+  public void testStatementNodes() {
+    createPlanner(true).planQueries(getLength("sink") - getLength("active") - 1, 50);
+    Assert.assertEquals(Arrays.asList("active", "total", "sink"), createPlanner(true).getStatementNodes());
+    // Tables which are only read by skipped sinks are not written
+    sinkStages.clear();
+    Assert.assertEquals(Collections.emptyList(), createPlanner(true).getStatementNodes());
+  }
+
+  private void addStage(String name, RelNode rel, String... fromNodes) {
+    relationalNodeMap.put(name, rel);
+    fromNodeMap.put(name, new HashSet<>(Arrays.asList(fromNodes)));
+  }
+
+  /**
+   * Creates a planner whose statements are the queries of the materialized stages and sinks. Materialized stages
+   * are left out of the script if they are staged.
+   */
+  private QueryPlanner createPlanner(boolean staged) {
+    return new QueryPlanner(
+      builder, BigQueryDialect.DEFAULT, new BigQueryRelToSqlConverter(BigQueryDialect.DEFAULT), topologicalOrder,
+      fromNodeMap, relationalNodeMap, temporaryTableMap, Collections.singleton("source"), sinkStages,
+      Collections.emptySet(), staged, new QueryPlanner.Statements() {
+        @Override
+        public TemporaryTable addTemporaryTable(String node) {
+          TemporaryTable table = new TemporaryTable("tmp_" + node, relationalNodeMap.get(node).getRowType());
+          rootSchema.add(table.getTableName(), table);
+          temporaryTableMap.put(node, table);
+          return table;
+        }
+
+        @Override
+        public List<String> createScript() {
+          List<String> script = new ArrayList<>();
+          for (String node : topologicalOrder) {
+            if (sinkStages.contains(node) || (!staged && temporaryTableMap.containsKey(node))) {
+              script.add(toSql(relationalNodeMap.get(node)));
+            }
+          }
+          return script;
+        }
+      });
+  }
+
+  private int getLength(String node) {
+    return toSql(relationalNodeMap.get(node)).length();
+  }
+
+  private static String toSql(RelNode rel) {
+    return new BigQueryRelToSqlConverter(BigQueryDialect.DEFAULT).visitChild(0, rel).asQueryOrValues()
+      .toSqlString(BigQueryDialect.DEFAULT).getSql();
+  }
+}
@@ -0,0 +1,194 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import com.google.common.collect.ImmutableMap;
+import io.cdap.pipeline.sql.api.template.tables.TableMetadata;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.Map;
+
+public class SemiJoinReducerTest {
+  private static final Map<String, TableMetadata> TABLE_METADATA = ImmutableMap.of(
+    "events", TableMetadata.builder().addPruningColumn("day").addPruningColumn("user_id").build());
+
+  private RelBuilder builder;
+
+  @Before
+  public void setUp() {
+    SchemaPlus rootSchema = Frameworks.createRootSchema(true);
+    rootSchema.add("events", new Table(100000000) {
+      @Override
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+          .add("user_id", SqlTypeName.BIGINT)
+          .add("day", SqlTypeName.DATE)
+          .add("region", SqlTypeName.VARCHAR)
+          .build();
+      }
+    });
+    rootSchema.add("users", new Table(1000) {
+      @Override
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+          .add("id", SqlTypeName.BIGINT)
+          .add("region", SqlTypeName.VARCHAR)
+          .build();
+      }
+    });
+    builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+  }
+
+  @Test
+  public void testInnerJoin() {
+    // Either input of an inner join can be filtered, and the events are the large one
+    Assert.assertEquals(
+      "LogicalJoin(condition=[=($0, $3)], joinType=[inner])\n" +
+        "  LogicalFilter(condition=[IN($0, {\n" +
+        "LogicalAggregate(group=[{0}])\n" +
+        "  LogicalProject(id=[$0])\n" +
+        "    LogicalTableScan(table=[[users]])\n" +
+        "})])\n" +
+        "    LogicalTableScan(table=[[events]])\n" +
+        "  LogicalTableScan(table=[[users]])\n",
+      RelOptUtil.toString(reduce(join("events", "users", JoinRelType.INNER, "user_id", "id"), 100)));
+    Assert.assertEquals(
+      "LogicalJoin(condition=[=($0, $2)], joinType=[inner])\n" +
+        "  LogicalTableScan(table=[[users]])\n" +
+        "  LogicalFilter(condition=[IN($0, {\n" +
+        "LogicalAggregate(group=[{0}])\n" +
+        "  LogicalProject(id=[$0])\n" +
+        "    LogicalTableScan(table=[[users]])\n" +
+        "})])\n" +
+        "    LogicalTableScan(table=[[events]])\n",
+      RelOptUtil.toString(reduce(join("users", "events", JoinRelType.INNER, "id", "user_id"), 100)));
+  }
+
+  @Test
+  public void testLeftJoin() {
+    // Only the right input of a left join drops its unmatched rows
+    RelNode preserved = join("events", "users", JoinRelType.LEFT, "user_id", "id");
+    Assert.assertSame(preserved, reduce(preserved, 100));
+    Assert.assertEquals(
+      "LogicalJoin(condition=[=($0, $2)], joinType=[left])\n" +
+        "  LogicalTableScan(table=[[users]])\n" +
+        "  LogicalFilter(condition=[IN($0, {\n" +
+        "LogicalAggregate(group=[{0}])\n" +
+        "  LogicalProject(id=[$0])\n" +
+        "    LogicalTableScan(table=[[users]])\n" +
+        "})])\n" +
+        "    LogicalTableScan(table=[[events]])\n",
+      RelOptUtil.toString(reduce(join("users", "events", JoinRelType.LEFT, "id", "user_id"), 100)));
+  }
+
+  @Test
+  public void testRightJoin() {
+    // Only the left input of a right join drops its unmatched rows
+    RelNode preserved = join("users", "events", JoinRelType.RIGHT, "id", "user_id");
+    Assert.assertSame(preserved, reduce(preserved, 100));
+    Assert.assertEquals(
+      "LogicalJoin(condition=[=($0, $3)], joinType=[right])\n" +
+        "  LogicalFilter(condition=[IN($0, {\n" +
+        "LogicalAggregate(group=[{0}])\n" +
+        "  LogicalProject(id=[$0])\n" +
+        "    LogicalTableScan(table=[[users]])\n" +
+        "})])\n" +
+        "    LogicalTableScan(table=[[events]])\n" +
+        "  LogicalTableScan(table=[[users]])\n",
+      RelOptUtil.toString(reduce(join("events", "users", JoinRelType.RIGHT, "user_id", "id"), 100)));
+  }
+
+  @Test
+  public void testKeyNotPruningColumn() {
+    // The events are neither partitioned nor clustered by region, so filtering them would not prune anything
+    RelNode join = join("events", "users", JoinRelType.INNER, "region", "region");
+    Assert.assertSame(join, reduce(join, 100));
+    // Without the metadata of the events, none of their columns is known to be prunable
+    RelNode clusteredJoin = join("events", "users", JoinRelType.INNER, "user_id", "id");
+    Assert.assertSame(clusteredJoin, new SemiJoinReducer(builder, Collections.emptyMap(), 100).rewrite(clusteredJoin));
+  }
+
+  @Test
+  public void testRatio() {
+    // The events are 100000 times as many rows as the users, so the filter only pays off below that ratio
+    RelNode join = join("events", "users", JoinRelType.INNER, "user_id", "id");
+    Assert.assertSame(join, reduce(join, 1000000));
+    Assert.assertNotSame(join, reduce(join, 10000));
+  }
+
+  @Test
+  public void testMultipleKeys() {
+    // Multi-column IN is not supported, so the events are only filtered by the key they are clustered by
+    builder.scan("events").scan("users");
+    RexNode condition = builder.and(
+      builder.equals(builder.field(2, 0, "region"), builder.field(2, 1, "region")),
+      builder.equals(builder.field(2, 0, "user_id"), builder.field(2, 1, "id")));
+    RelNode join = builder.join(JoinRelType.INNER, condition).build();
+    Assert.assertEquals(
+      "LogicalJoin(condition=[AND(=($2, $4), =($0, $3))], joinType=[inner])\n" +
+        "  LogicalFilter(condition=[IN($0, {\n" +
+        "LogicalAggregate(group=[{0}])\n" +
+        "  LogicalProject(id=[$0])\n" +
+        "    LogicalTableScan(table=[[users]])\n" +
+        "})])\n" +
+        "    LogicalTableScan(table=[[events]])\n" +
+        "  LogicalTableScan(table=[[users]])\n",
+      RelOptUtil.toString(reduce(join, 100)));
+  }
+
+  private RelNode join(String left, String right, JoinRelType joinType, String leftKey, String rightKey) {
+    return builder.scan(left).scan(right)
+      .join(joinType, builder.equals(builder.field(2, 0, leftKey), builder.field(2, 1, rightKey)))
+      .build();
+  }
+
+  private RelNode reduce(RelNode join, double minRatio) {
+    return new SemiJoinReducer(builder, TABLE_METADATA, minRatio).rewrite(join);
+  }
+
+  /**
+   * A table with a known number of rows.
+   */
+  private abstract static class Table extends AbstractTable {
+    private final double rowCount;
+
+    private Table(double rowCount) {
+      this.rowCount = rowCount;
+    }
+
+    @Override
+    public Statistic getStatistic() {
+      return Statistics.of(rowCount, Collections.emptyList());
+    }
+  }
+}
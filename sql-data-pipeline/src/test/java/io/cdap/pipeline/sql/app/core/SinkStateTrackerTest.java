@@ -0,0 +1,222 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import com.google.common.collect.ImmutableMap;
+import io.cdap.pipeline.sql.api.template.functions.ValueListFunction;
+import io.cdap.pipeline.sql.api.template.tables.AbstractTableInfo;
+import io.cdap.pipeline.sql.api.template.tables.TableMetadata;
+import io.cdap.pipeline.sql.app.state.FileStateStore;
+import io.cdap.pipeline.sql.app.state.StateStore;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+public class SinkStateTrackerTest {
+  private static final String FIRST_RUN = "0b6e1c2a-5d1f-11ea-8c6f-0242ac120002";
+  private static final String SECOND_RUN = "7f3d9e44-5d1f-11ea-9a1b-0242ac120002";
+  private static final Map<String, Set<String>> FROM_NODES = ImmutableMap.of("sink", Collections.singleton("orders"));
+
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  private StateStore stateStore;
+  private SchemaPlus rootSchema;
+  private RelBuilder builder;
+
+  @Before
+  public void setUp() throws Exception {
+    stateStore = new FileStateStore(new File(temporaryFolder.getRoot(), "state.json"));
+    rootSchema = Frameworks.createRootSchema(true);
+    builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+  }
+
+  @Test
+  public void testUnchangedSinkSkipped() throws Exception {
+    SinkStateTracker firstRun = createTracker(1000L, 100);
+    Assert.assertFalse(firstRun.isUnchanged("sink", false));
+    firstRun.recordWritten("sink");
+    Assert.assertTrue(createTracker(1000L, 100).isUnchanged("sink", false));
+  }
+
+  @Test
+  public void testChangedSourceWritten() throws Exception {
+    SinkStateTracker firstRun = createTracker(1000L, 100);
+    firstRun.isUnchanged("sink", false);
+    firstRun.recordWritten("sink");
+    Assert.assertFalse(createTracker(2000L, 100).isUnchanged("sink", false));
+  }
+
+  @Test
+  public void testChangedPlanWritten() throws Exception {
+    SinkStateTracker firstRun = createTracker(1000L, 100);
+    firstRun.isUnchanged("sink", false);
+    firstRun.recordWritten("sink");
+    Assert.assertFalse(createTracker(1000L, 200).isUnchanged("sink", false));
+  }
+
+  @Test
+  public void testForceFullRun() throws Exception {
+    SinkStateTracker firstRun = createTracker(1000L, 100);
+    firstRun.isUnchanged("sink", false);
+    firstRun.recordWritten("sink");
+    SinkStateTracker secondRun = createTracker(1000L, 100);
+    Assert.assertFalse(secondRun.isUnchanged("sink", true));
+    // The state is still recorded, so the next run which is not forced skips the sink
+    secondRun.recordWritten("sink");
+    Assert.assertTrue(createTracker(1000L, 100).isUnchanged("sink", false));
+  }
+
+  @Test
+  public void testUntrackedSourceAlwaysWritten() throws Exception {
+    SinkStateTracker firstRun = createTracker(null, 100);
+    Assert.assertFalse(firstRun.isUnchanged("sink", false));
+    firstRun.recordWritten("sink");
+    Assert.assertFalse(createTracker(null, 100).isUnchanged("sink", false));
+    Assert.assertNull(stateStore.get("sinkState:default.pipeline.sink"));
+  }
+
+  @Test
+  public void testFileValueListAlwaysWritten() throws Exception {
+    ValueListFunction file = new ValueListFunction(ValueListFunction.Source.FILE, "gs://lists/customers.txt");
+    SinkStateTracker firstRun = createTracker(FIRST_RUN, "project.staging", file);
+    Assert.assertFalse(firstRun.isUnchanged("sink", false));
+    firstRun.recordWritten("sink");
+    Assert.assertFalse(createTracker(FIRST_RUN, "project.staging", file).isUnchanged("sink", false));
+  }
+
+  @Test
+  public void testFailedRunNotRecorded() throws Exception {
+    // The sink is not recorded as written, since the run failed
+    Assert.assertFalse(createTracker(1000L, 100).isUnchanged("sink", false));
+    Assert.assertFalse(createTracker(1000L, 100).isUnchanged("sink", false));
+    Assert.assertNull(stateStore.get("sinkState:default.pipeline.sink"));
+  }
+
+  @Test
+  public void testStagedValueListSkipped() throws Exception {
+    // The list is staged in a table whose name is unique to each run
+    ValueListFunction list = new ValueListFunction(ValueListFunction.Source.ARGUMENT, "customers");
+    SinkStateTracker firstRun = createTracker(FIRST_RUN, "project.staging", list);
+    Assert.assertFalse(firstRun.isUnchanged("sink", false));
+    firstRun.recordWritten("sink");
+    Assert.assertTrue(createTracker(SECOND_RUN, "project.staging", list).isUnchanged("sink", false));
+  }
+
+  /**
+   * Creates the tracker of a run of a pipeline whose sink writes the orders above a minimum amount.
+   *
+   * @param lastModifiedTime The time at which the orders last changed, or null if unknown
+   * @param minAmount The minimum amount of the written orders
+   */
+  private SinkStateTracker createTracker(@Nullable Long lastModifiedTime, int minAmount) {
+    StagingTableNames stagingTableNames = new StagingTableNames(null, FIRST_RUN);
+    ValueListResolver resolver = createResolver(stagingTableNames);
+    RelNode orders = scanOrders(lastModifiedTime);
+    RelNode sink = builder.push(orders)
+      .filter(builder.call(SqlStdOperatorTable.GREATER_THAN, builder.field("amount"), builder.literal(minAmount)))
+      .build();
+    return createTracker(orders, sink, resolver, stagingTableNames);
+  }
+
+  /**
+   * Creates the tracker of a run of a pipeline whose sink writes the orders of the customers in a value list.
+   *
+   * @param runId The identifier of the run
+   * @param stagingDataset The dataset which staging tables are created in
+   * @param valueList The value list holding the customers
+   */
+  private SinkStateTracker createTracker(String runId, String stagingDataset, ValueListFunction valueList) {
+    StagingTableNames stagingTableNames = new StagingTableNames(stagingDataset, runId);
+    ValueListResolver resolver = createResolver(stagingTableNames);
+    RelNode orders = scanOrders(1000L);
+    RexNode condition = builder.push(orders).call(valueList, builder.field("customer_id"));
+    RelNode sink = resolver.resolve(builder.filter(condition).build());
+    return createTracker(orders, sink, resolver, stagingTableNames);
+  }
+
+  private SinkStateTracker createTracker(RelNode orders, RelNode sink, ValueListResolver resolver,
+                                         StagingTableNames stagingTableNames) {
+    Map<String, RelNode> relationalNodeMap = new HashMap<>();
+    relationalNodeMap.put("orders", orders);
+    relationalNodeMap.put("sink", sink);
+    Map<String, AbstractTableInfo> sourceTables = ImmutableMap.of(
+      "orders", orders.getTable().unwrap(AbstractTableInfo.class));
+    return new SinkStateTracker(stateStore, "default.pipeline", relationalNodeMap, FROM_NODES, sourceTables,
+                                resolver, stagingTableNames);
+  }
+
+  private ValueListResolver createResolver(StagingTableNames stagingTableNames) {
+    // Lists of more than one value are staged
+    return new ValueListResolver(builder, rootSchema, ImmutableMap.of("customers", "7,9"), (table, column, type) -> {
+      throw new IllegalArgumentException("Unexpected table lookup");
+    }, stagingTableNames, 1);
+  }
+
+  private RelNode scanOrders(@Nullable Long lastModifiedTime) {
+    rootSchema.add("orders", new OrdersTable(lastModifiedTime));
+    return builder.scan("orders").build();
+  }
+
+  /**
+   * A source table of orders which was last modified at a known time.
+   */
+  private static class OrdersTable extends AbstractTableInfo {
+    private final Long lastModifiedTime;
+
+    OrdersTable(@Nullable Long lastModifiedTime) {
+      this.lastModifiedTime = lastModifiedTime;
+    }
+
+    @Override
+    public String getTableName() {
+      return "orders";
+    }
+
+    @Override
+    public TableMetadata getMetadata() {
+      return TableMetadata.builder().setLastModifiedTime(lastModifiedTime).build();
+    }
+
+    @Override
+    public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+      return typeFactory.builder()
+        .add("id", SqlTypeName.BIGINT)
+        .add("customer_id", SqlTypeName.BIGINT)
+        .add("amount", SqlTypeName.DOUBLE)
+        .build();
+    }
+  }
+}
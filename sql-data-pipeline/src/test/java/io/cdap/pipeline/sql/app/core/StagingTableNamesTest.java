@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rex.RexSubQuery;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class StagingTableNamesTest {
+  private static final String FIRST_RUN = "0b6e1c2a-5d1f-11ea-8c6f-0242ac120002";
+  private static final String SECOND_RUN = "7f3d9e44-5d1f-11ea-9a1b-0242ac120002";
+
+  @Test
+  public void testTemporaryTables() {
+    StagingTableNames names = new StagingTableNames(null, FIRST_RUN);
+    Assert.assertEquals("temporary_table_0", names.getTableName("temporary_table_0"));
+    Assert.assertEquals("plan", names.removeRunSuffix("plan"));
+  }
+
+  @Test
+  public void testStagingDataset() {
+    StagingTableNames first = new StagingTableNames("project.staging", FIRST_RUN);
+    StagingTableNames second = new StagingTableNames("project.staging", SECOND_RUN);
+    Assert.assertEquals("project.staging.value_list_1_0b6e1c2a5d1f11ea8c6f0242ac120002",
+                        first.getTableName("value_list_1"));
+    Assert.assertNotEquals(first.getTableName("value_list_1"), second.getTableName("value_list_1"));
+
+    // The same filter of both runs reads the list from the table staged by its own run
+    String firstPlan = first.removeRunSuffix(RelOptUtil.toString(lookUp(first.getTableName("value_list_1"))));
+    String secondPlan = second.removeRunSuffix(RelOptUtil.toString(lookUp(second.getTableName("value_list_1"))));
+    Assert.assertEquals(firstPlan, secondPlan);
+    Assert.assertTrue(firstPlan.contains("[[project.staging.value_list_1]]"));
+  }
+
+  /**
+   * Returns a filter of the events whose account is in a value list held by a staging table.
+   */
+  private static RelNode lookUp(String tableName) {
+    SchemaPlus rootSchema = Frameworks.createRootSchema(true);
+    rootSchema.add("events", new AbstractTable() {
+      @Override
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+          .add("account_id", SqlTypeName.BIGINT)
+          .build();
+      }
+    });
+    RelBuilder builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+    rootSchema.add(tableName, new TemporaryTable(tableName, builder.getTypeFactory().builder()
+      .add(ValueList.COLUMN_NAME, SqlTypeName.BIGINT)
+      .build()));
+    RelNode lookup = builder.scan(tableName).build();
+    return builder.scan("events")
+      .filter(RexSubQuery.in(lookup, ImmutableList.of(builder.field("account_id"))))
+      .build();
+  }
+}
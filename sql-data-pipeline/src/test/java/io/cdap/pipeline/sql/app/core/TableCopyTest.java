@@ -0,0 +1,125 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import com.google.common.collect.ImmutableMap;
+import io.cdap.pipeline.sql.api.template.SQLSink;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Set;
+import javax.annotation.Nullable;
+
+public class TableCopyTest {
+  private static final Set<String> SOURCE_TABLES = Collections.singleton("orders");
+
+  private RelBuilder builder;
+
+  @Before
+  public void setUp() {
+    SchemaPlus rootSchema = Frameworks.createRootSchema(true);
+    for (String tableName : new String[] {"orders", "temporary_orders"}) {
+      rootSchema.add(tableName, new AbstractTable() {
+        @Override
+        public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+          return typeFactory.builder()
+            .add("id", SqlTypeName.BIGINT)
+            .add("customer_id", SqlTypeName.BIGINT)
+            .add("amount", SqlTypeName.DOUBLE)
+            .build();
+        }
+      });
+    }
+    builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+  }
+
+  @Test
+  public void testCopy() {
+    TableCopy copy = fromQuery(SQLSink.WriteMode.APPEND, builder.scan("orders").build());
+    Assert.assertNotNull(copy);
+    Assert.assertEquals("orders", copy.getSourceTable());
+    Assert.assertEquals("orders_copy", copy.getDestinationTable());
+    Assert.assertEquals(SQLSink.WriteMode.APPEND, copy.getWriteMode());
+    Assert.assertEquals(Collections.emptyMap(), copy.getRenamedColumns());
+    Assert.assertTrue(copy.isCreateTable());
+  }
+
+  @Test
+  public void testFilterNotCopied() {
+    RelNode rel = builder.scan("orders")
+      .filter(builder.call(SqlStdOperatorTable.GREATER_THAN, builder.field("amount"), builder.literal(100)))
+      .build();
+    Assert.assertNull(fromQuery(SQLSink.WriteMode.APPEND, rel));
+  }
+
+  @Test
+  public void testRenamedColumn() {
+    RelNode rel = rename("id", "customer", "amount");
+    // Appending copies the columns under their original names
+    Assert.assertNull(fromQuery(SQLSink.WriteMode.APPEND, rel));
+    // Replacing the table lets the column be renamed after the copy
+    TableCopy copy = fromQuery(SQLSink.WriteMode.TRUNCATE, rel);
+    Assert.assertNotNull(copy);
+    Assert.assertEquals(ImmutableMap.of("customer_id", "customer"), copy.getRenamedColumns());
+  }
+
+  @Test
+  public void testSwappedColumnsNotCopied() {
+    // The renames would be applied one at a time, so a column cannot take the name of another column
+    RelNode rel = rename("customer_id", "id", "amount");
+    Assert.assertNull(fromQuery(SQLSink.WriteMode.TRUNCATE, rel));
+  }
+
+  @Test
+  public void testReorderedColumnsNotCopied() {
+    RelNode rel = builder.scan("orders")
+      .project(builder.field("customer_id"), builder.field("id"), builder.field("amount"))
+      .build();
+    Assert.assertNull(fromQuery(SQLSink.WriteMode.TRUNCATE, rel));
+  }
+
+  @Test
+  public void testNonSourceNotCopied() {
+    Assert.assertNull(fromQuery(SQLSink.WriteMode.APPEND, builder.scan("temporary_orders").build()));
+  }
+
+  @Test
+  public void testMergeSketchesNotCopied() {
+    Assert.assertNull(fromQuery(SQLSink.WriteMode.MERGE_SKETCHES, builder.scan("orders").build()));
+  }
+
+  private RelNode rename(String... names) {
+    return builder.scan("orders").project(builder.fields(), Arrays.asList(names), true).build();
+  }
+
+  @Nullable
+  private static TableCopy fromQuery(SQLSink.WriteMode writeMode, RelNode rel) {
+    return TableCopy.fromQuery(writeMode, "orders_copy", rel, SOURCE_TABLES, true);
+  }
+}
@@ -0,0 +1,157 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Collections;
+import javax.annotation.Nullable;
+
+public class TemporaryTablePrunerTest {
+  private static final String TABLE_NAME = "events_table";
+
+  private SchemaPlus rootSchema;
+  private RelBuilder builder;
+  private RelNode events;
+  private TemporaryTable table;
+
+  @Before
+  public void setUp() {
+    rootSchema = Frameworks.createRootSchema(true);
+    rootSchema.add("events", new AbstractTable() {
+      @Override
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        RelDataType user = typeFactory.builder()
+          .add("id", SqlTypeName.BIGINT)
+          .add("name", SqlTypeName.VARCHAR)
+          .build();
+        RelDataType payload = typeFactory.builder()
+          .add("user", user)
+          .add("kind", SqlTypeName.VARCHAR)
+          .build();
+        return typeFactory.builder()
+          .add("id", SqlTypeName.BIGINT)
+          .add("payload_user_id", SqlTypeName.BIGINT)
+          .add("payload", payload)
+          .add("extra", SqlTypeName.VARCHAR)
+          .build();
+      }
+    });
+    builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+    events = builder.scan("events").build();
+    table = new TemporaryTable(TABLE_NAME, events.getRowType());
+    rootSchema.add(TABLE_NAME, table);
+  }
+
+  @Test
+  public void testSiblingLeaves() {
+    builder.scan(TABLE_NAME);
+    RelNode reader = builder
+      .project(builder.alias(userField("id"), "user_id"), builder.alias(userField("name"), "user_name"))
+      .build();
+    TemporaryTablePruner.PrunedTable pruned = prune(reader);
+    Assert.assertEquals(
+      "LogicalProject(payload_user_id=[$2.user.id], payload_user_name=[$2.user.name])\n" +
+        "  LogicalTableScan(table=[[events]])\n",
+      RelOptUtil.toString(pruned.getNode()));
+    Assert.assertEquals(
+      "LogicalProject(user_id=[$0], user_name=[$1])\n" +
+        "  LogicalTableScan(table=[[events_table]])\n",
+      RelOptUtil.toString(pruned.rewriteReader(reader)));
+  }
+
+  @Test
+  public void testRecordUsedWhole() {
+    // The reader uses the whole user record, so the table holds the record rather than its id next to it
+    builder.scan(TABLE_NAME);
+    RelNode reader = builder
+      .project(builder.alias(userField("id"), "user_id"), builder.alias(userField(null), "user"))
+      .build();
+    TemporaryTablePruner.PrunedTable pruned = prune(reader);
+    Assert.assertEquals(
+      "LogicalProject(payload_user=[$2.user])\n" +
+        "  LogicalTableScan(table=[[events]])\n",
+      RelOptUtil.toString(pruned.getNode()));
+    Assert.assertEquals(
+      "LogicalProject(user_id=[$0.id], user=[$0])\n" +
+        "  LogicalTableScan(table=[[events_table]])\n",
+      RelOptUtil.toString(pruned.rewriteReader(reader)));
+  }
+
+  @Test
+  public void testRenamedColumns() {
+    // The nested payload.user.id is named like the payload_user_id field, so one of them is renamed
+    builder.scan(TABLE_NAME);
+    RelNode reader = builder
+      .project(builder.field("payload_user_id"), builder.alias(userField("id"), "user_id"))
+      .build();
+    TemporaryTablePruner.PrunedTable pruned = prune(reader);
+    Assert.assertEquals(
+      "LogicalProject(payload_user_id=[$1], payload_user_id0=[$2.user.id])\n" +
+        "  LogicalTableScan(table=[[events]])\n",
+      RelOptUtil.toString(pruned.getNode()));
+    Assert.assertEquals(
+      "LogicalProject(payload_user_id=[$0], user_id=[$1])\n" +
+        "  LogicalTableScan(table=[[events_table]])\n",
+      RelOptUtil.toString(pruned.rewriteReader(reader)));
+  }
+
+  @Test
+  public void testNonProjectReaderNotPruned() {
+    // The filter returns every field of the table
+    RelNode projection = builder.scan(TABLE_NAME).project(builder.field("id")).build();
+    builder.scan(TABLE_NAME);
+    RelNode filter = builder.filter(builder.equals(builder.field("extra"), builder.literal("click"))).build();
+    RelNode union = builder.push(projection).push(builder.push(filter).project(builder.field("id")).build())
+      .union(true)
+      .build();
+    Assert.assertNull(prune(union));
+    Assert.assertSame(table, rootSchema.getTable(TABLE_NAME));
+  }
+
+  @Test
+  public void testAllFieldsUsedNotPruned() {
+    builder.scan(TABLE_NAME);
+    RelNode reader = builder.project(builder.fields()).build();
+    Assert.assertNull(prune(reader));
+  }
+
+  private TemporaryTablePruner.PrunedTable prune(RelNode reader) {
+    return new TemporaryTablePruner(builder, rootSchema)
+      .prune(table, events, Collections.singletonList(reader));
+  }
+
+  /**
+   * Returns a field of the payload.user record of the table on top of the builder, or the record itself.
+   */
+  private RexNode userField(@Nullable String name) {
+    RexNode user = builder.getRexBuilder().makeFieldAccess(builder.field("payload"), "user", false);
+    return name == null ? user : builder.getRexBuilder().makeFieldAccess(user, name, false);
+  }
+}
@@ -0,0 +1,47 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+public class UnionChunkTest {
+  @Test
+  public void testPackChunks() {
+    // Consecutive inputs share a chunk while their total length is within the limit
+    Assert.assertEquals(
+      Arrays.asList(Arrays.asList(40, 30, 30), Arrays.asList(60, 40), Collections.singletonList(90)),
+      QueryPlanner.packChunks(Arrays.asList(40, 30, 30, 60, 40, 90), Integer::intValue, 100));
+  }
+
+  @Test
+  public void testOversizedInput() {
+    // An input over the limit on its own is given its own chunk, without holding back the inputs after it
+    Assert.assertEquals(
+      Arrays.asList(Collections.singletonList(20), Collections.singletonList(150), Arrays.asList(50, 50)),
+      QueryPlanner.packChunks(Arrays.asList(20, 150, 50, 50), Integer::intValue, 100));
+  }
+
+  @Test
+  public void testSingleChunk() {
+    Assert.assertEquals(Collections.singletonList(Arrays.asList(10, 20, 30)),
+                        QueryPlanner.packChunks(Arrays.asList(10, 20, 30), Integer::intValue, 100));
+  }
+}
@@ -0,0 +1,149 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+public class UnionFlattenerTest {
+  private RelBuilder builder;
+
+  @Before
+  public void setUp() {
+    SchemaPlus rootSchema = Frameworks.createRootSchema(true);
+    for (String table : new String[] {"sales_2017", "sales_2018", "sales_2019"}) {
+      rootSchema.add(table, new SalesTable(SqlTypeName.DOUBLE));
+    }
+    rootSchema.add("sales_archive", new SalesTable(SqlTypeName.DECIMAL));
+    builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+  }
+
+  @Test
+  public void testHoistSharedFilter() {
+    RelNode union = builder.push(euSales("sales_2017")).push(euSales("sales_2018")).union(true)
+      .push(euSales("sales_2019")).union(true)
+      .build();
+    // The nested unions are merged, and the filter and projection are applied once to the columns they read
+    Assert.assertEquals(
+      "LogicalProject(id=[$0], doubled=[*($2, 2)])\n" +
+        "  LogicalFilter(condition=[=($1, 'EU')])\n" +
+        "    LogicalUnion(all=[true])\n" +
+        "      LogicalProject(id=[$0], region=[$1], amount=[$3])\n" +
+        "        LogicalTableScan(table=[[sales_2017]])\n" +
+        "      LogicalProject(id=[$0], region=[$1], amount=[$3])\n" +
+        "        LogicalTableScan(table=[[sales_2018]])\n" +
+        "      LogicalProject(id=[$0], region=[$1], amount=[$3])\n" +
+        "        LogicalTableScan(table=[[sales_2019]])\n",
+      RelOptUtil.toString(new UnionFlattener(builder).rewrite(union)));
+  }
+
+  @Test
+  public void testGroupByTypeAndExpressions() {
+    RelNode union = builder.push(euSales("sales_2017")).push(euSales("sales_archive")).push(euSales("sales_2018"))
+      .push(builder.scan("sales_2019").project(builder.field("id"), builder.field("amount")).build())
+      .union(true, 4)
+      .build();
+    // The archive stores the amounts with another type, and the last input computes nothing, so only the inputs
+    // reading the yearly tables through the same filter share it
+    Assert.assertEquals(
+      "LogicalUnion(all=[true])\n" +
+        "  LogicalProject(id=[$0], doubled=[*($2, 2)])\n" +
+        "    LogicalFilter(condition=[=($1, 'EU')])\n" +
+        "      LogicalUnion(all=[true])\n" +
+        "        LogicalProject(id=[$0], region=[$1], amount=[$3])\n" +
+        "          LogicalTableScan(table=[[sales_2017]])\n" +
+        "        LogicalProject(id=[$0], region=[$1], amount=[$3])\n" +
+        "          LogicalTableScan(table=[[sales_2018]])\n" +
+        "  LogicalProject(id=[$0], doubled=[*($3, 2)])\n" +
+        "    LogicalFilter(condition=[=($1, 'EU')])\n" +
+        "      LogicalTableScan(table=[[sales_archive]])\n" +
+        "  LogicalProject(id=[$0], amount=[$3])\n" +
+        "    LogicalTableScan(table=[[sales_2019]])\n",
+      RelOptUtil.toString(new UnionFlattener(builder).rewrite(union)));
+  }
+
+  @Test
+  public void testFilterAboveProjection() {
+    RelNode union = builder.push(largeSales("sales_2017")).push(largeSales("sales_2018")).union(true).build();
+    // Only the filter below the projection reads the columns of the inputs, so only it is remapped
+    Assert.assertEquals(
+      "LogicalFilter(condition=[>($1, 100)])\n" +
+        "  LogicalProject(id=[$0], amount=[$2])\n" +
+        "    LogicalFilter(condition=[=($1, 'EU')])\n" +
+        "      LogicalUnion(all=[true])\n" +
+        "        LogicalProject(id=[$0], region=[$1], amount=[$3])\n" +
+        "          LogicalTableScan(table=[[sales_2017]])\n" +
+        "        LogicalProject(id=[$0], region=[$1], amount=[$3])\n" +
+        "          LogicalTableScan(table=[[sales_2018]])\n",
+      RelOptUtil.toString(new UnionFlattener(builder).rewrite(union)));
+  }
+
+  @Test
+  public void testDistinctUnion() {
+    RelNode union = builder.push(euSales("sales_2017")).push(euSales("sales_2018")).union(false).build();
+    Assert.assertSame(union, new UnionFlattener(builder).rewrite(union));
+  }
+
+  private RelNode euSales(String table) {
+    return builder.scan(table)
+      .filter(builder.equals(builder.field("region"), builder.literal("EU")))
+      .project(builder.field("id"),
+               builder.alias(builder.call(SqlStdOperatorTable.MULTIPLY, builder.field("amount"), builder.literal(2)),
+                             "doubled"))
+      .build();
+  }
+
+  private RelNode largeSales(String table) {
+    return builder.scan(table)
+      .filter(builder.equals(builder.field("region"), builder.literal("EU")))
+      .project(builder.field("id"), builder.field("amount"))
+      .filter(builder.call(SqlStdOperatorTable.GREATER_THAN, builder.field("amount"), builder.literal(100)))
+      .build();
+  }
+
+  /**
+   * A table of sales, whose amounts have the given type.
+   */
+  private static class SalesTable extends AbstractTable {
+    private final SqlTypeName amountType;
+
+    SalesTable(SqlTypeName amountType) {
+      this.amountType = amountType;
+    }
+
+    @Override
+    public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+      return typeFactory.builder()
+        .add("id", SqlTypeName.BIGINT)
+        .add("region", SqlTypeName.VARCHAR)
+        .add("note", SqlTypeName.VARCHAR)
+        .add("amount", amountType)
+        .build();
+    }
+  }
+}
@@ -0,0 +1,172 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import com.google.common.collect.ImmutableMap;
+import io.cdap.pipeline.sql.api.template.functions.ValueListFunction;
+import io.cdap.pipeline.sql.app.bigquery.BigQueryDialect;
+import io.cdap.pipeline.sql.app.bigquery.BigQueryRelToSqlConverter;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import javax.annotation.Nullable;
+
+public class ValueListResolverTest {
+  private static final String RUN_ID = "0b6e1c2a-5d1f-11ea-8c6f-0242ac120002";
+  private static final Map<String, String> ARGUMENTS = ImmutableMap.of("accounts", " 7, 9,7,");
+  private static final ValueListFunction ARGUMENT_LIST = new ValueListFunction(ValueListFunction.Source.ARGUMENT,
+                                                                               "accounts");
+  private static final ValueListFunction TABLE_LIST = new ValueListFunction(ValueListFunction.Source.TABLE,
+                                                                            "crm.accounts.id");
+  private static final ValueListFunction FILE_LIST = new ValueListFunction(ValueListFunction.Source.FILE,
+                                                                           "gs://lists/accounts.txt");
+
+  private SchemaPlus rootSchema;
+  private RelBuilder builder;
+
+  @Before
+  public void setUp() {
+    rootSchema = Frameworks.createRootSchema(true);
+    rootSchema.add("events", new AbstractTable() {
+      @Override
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+          .add("account_id", SqlTypeName.BIGINT)
+          .build();
+      }
+    });
+    builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+  }
+
+  @Test
+  public void testInlineValues() {
+    ValueListResolver resolver = createResolver(2, null, null);
+    // The distinct values are compared to the field, without padding or empty values
+    Assert.assertEquals("SELECT *\n" +
+                          "FROM events\n" +
+                          "WHERE account_id = 7 OR account_id = 9", toSql(resolver.resolve(filter(ARGUMENT_LIST))));
+    Assert.assertTrue(resolver.getValueLists().isEmpty());
+  }
+
+  @Test
+  public void testStagedValues() {
+    ValueListResolver resolver = createResolver(1, null, null);
+    RelNode rel = resolver.resolve(filter(ARGUMENT_LIST));
+    Assert.assertEquals(1, resolver.getValueLists().size());
+    String tableName = resolver.getValueLists().keySet().iterator().next();
+    Assert.assertTrue(tableName.startsWith("value_list_"));
+    Assert.assertEquals(Arrays.asList("7", "9"), resolver.getValueLists().get(tableName).getValues());
+    Assert.assertEquals("SELECT *\n" +
+                          "FROM events\n" +
+                          "WHERE account_id IN (SELECT *\n" +
+                          "FROM " + tableName + ")", toSql(rel));
+
+    // The same list is only staged once, and the table names its values so no version is needed
+    resolver.resolve(filter(ARGUMENT_LIST));
+    Assert.assertEquals(1, resolver.getValueLists().size());
+    Map<String, Long> versions = new HashMap<>();
+    Assert.assertTrue(resolver.collectVersions(rel, versions));
+    Assert.assertTrue(versions.isEmpty());
+  }
+
+  @Test
+  public void testStagedValuesInStagingDataset() {
+    ValueListResolver resolver = createResolver(1, "project.staging", null);
+    resolver.resolve(filter(ARGUMENT_LIST));
+    String tableName = resolver.getValueLists().keySet().iterator().next();
+    Assert.assertTrue(tableName.startsWith("project.staging.value_list_"));
+    Assert.assertTrue(tableName.endsWith("_" + RUN_ID.replace("-", "")));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingArgument() {
+    createResolver(1, null, null).resolve(filter(new ValueListFunction(ValueListFunction.Source.ARGUMENT, "other")));
+  }
+
+  @Test
+  public void testTableLookup() {
+    ValueListResolver resolver = createResolver(1, null, 1000L);
+    RelNode rel = resolver.resolve(filter(TABLE_LIST));
+    // The table is read by the query, so nothing is staged
+    Assert.assertEquals("SELECT *\n" +
+                          "FROM events\n" +
+                          "WHERE account_id IN (SELECT id\n" +
+                          "FROM `crm.accounts`)", toSql(rel));
+    Assert.assertTrue(resolver.getValueLists().isEmpty());
+    Map<String, Long> versions = new TreeMap<>();
+    Assert.assertTrue(resolver.collectVersions(rel, versions));
+    Assert.assertEquals(Collections.singletonMap("crm.accounts", 1000L), versions);
+  }
+
+  @Test
+  public void testUntrackedTableLookup() {
+    ValueListResolver resolver = createResolver(1, null, null);
+    RelNode rel = resolver.resolve(filter(TABLE_LIST));
+    Assert.assertFalse(resolver.collectVersions(rel, new HashMap<>()));
+  }
+
+  @Test
+  public void testFileLookup() {
+    ValueListResolver resolver = createResolver(1, "project.staging", null);
+    RelNode rel = resolver.resolve(filter(FILE_LIST));
+    ValueList valueList = resolver.getValueLists().values().iterator().next();
+    Assert.assertEquals("gs://lists/accounts.txt", valueList.getFileUri());
+    // The contents of files cannot be tracked
+    Assert.assertFalse(resolver.collectVersions(rel, new HashMap<>()));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFileLookupWithoutStagingDataset() {
+    createResolver(1, null, null).resolve(filter(FILE_LIST));
+  }
+
+  /**
+   * Creates a resolver whose table holding accounts was last modified at the given time.
+   */
+  private ValueListResolver createResolver(int inlineThreshold, @Nullable String stagingDataset,
+                                           @Nullable Long lastModifiedTime) {
+    return new ValueListResolver(
+      builder, rootSchema, ARGUMENTS,
+      (tableName, column, type) -> new ValueListTable(tableName, Arrays.asList("region", "id"), column, type,
+                                                      lastModifiedTime),
+      new StagingTableNames(stagingDataset, RUN_ID), inlineThreshold);
+  }
+
+  private RelNode filter(ValueListFunction function) {
+    builder.scan("events");
+    return builder.filter(builder.call(function, builder.field("account_id"))).build();
+  }
+
+  private static String toSql(RelNode rel) {
+    return new BigQueryRelToSqlConverter(BigQueryDialect.DEFAULT).visitChild(0, rel).asQueryOrValues()
+      .toSqlString(BigQueryDialect.DEFAULT).getSql();
+  }
+}
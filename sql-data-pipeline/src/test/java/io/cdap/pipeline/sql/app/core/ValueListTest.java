@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.core;
+
+import com.google.common.collect.ImmutableList;
+import io.cdap.pipeline.sql.app.bigquery.BigQueryDialect;
+import io.cdap.pipeline.sql.app.bigquery.BigQueryRelToSqlConverter;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexSubQuery;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.TimestampString;
+import org.junit.Assert;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class ValueListTest {
+  private SchemaPlus rootSchema;
+  private RelBuilder builder;
+
+  @Before
+  public void setUp() {
+    rootSchema = Frameworks.createRootSchema(true);
+    rootSchema.add("events", new AbstractTable() {
+      @Override
+      public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+        return typeFactory.builder()
+          .add("account_id", SqlTypeName.BIGINT)
+          .add("created", SqlTypeName.TIMESTAMP)
+          .build();
+      }
+    });
+    builder = RelBuilder.create(Frameworks.newConfigBuilder().defaultSchema(rootSchema).build());
+  }
+
+  @Test
+  public void testTimestampLiteral() {
+    RexBuilder rexBuilder = builder.getRexBuilder();
+    RelDataType type = builder.getTypeFactory().createSqlType(SqlTypeName.TIMESTAMP);
+    TimestampString expected = new TimestampString("2019-01-01 12:30:00");
+    Assert.assertEquals(expected, ValueList.createLiteral(rexBuilder, "2019-01-01 12:30:00", type)
+      .getValueAs(TimestampString.class));
+    // Datetimes are also written with a 'T' separator, as in ISO 8601
+    Assert.assertEquals(expected, ValueList.createLiteral(rexBuilder, "2019-01-01T12:30:00", type)
+      .getValueAs(TimestampString.class));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidLiteral() {
+    ValueList.createLiteral(builder.getRexBuilder(), "1001a",
+                            builder.getTypeFactory().createSqlType(SqlTypeName.BIGINT));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingValueColumn() {
+    new ValueListTable("crm.accounts", Arrays.asList("id", "region"), "account_id",
+                       builder.getTypeFactory().createSqlType(SqlTypeName.BIGINT), null);
+  }
+
+  @Test
+  public void testTableLookup() {
+    RelDataType type = builder.getTypeFactory().createSqlType(SqlTypeName.BIGINT);
+    rootSchema.add("crm.accounts", new ValueListTable("crm.accounts", Arrays.asList("region", "id"), "id", type,
+                                                      1000L));
+    RelNode lookup = builder.scan("crm.accounts").project(builder.field("id")).build();
+    RelNode rel = builder.scan("events")
+      .filter(RexSubQuery.in(lookup, ImmutableList.of(builder.field("account_id"))))
+      .build();
+    // The table is semi-joined directly, and only the column holding the values is read
+    Assert.assertEquals("SELECT *\n" +
+                          "FROM events\n" +
+                          "WHERE account_id IN (SELECT id\n" +
+                          "FROM `crm.accounts`)", toSql(rel));
+  }
+
+  private static String toSql(RelNode rel) {
+    return new BigQueryRelToSqlConverter(BigQueryDialect.DEFAULT).visitChild(0, rel).asQueryOrValues()
+      .toSqlString(BigQueryDialect.DEFAULT).getSql();
+  }
+}
@@ -0,0 +1,90 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.app.state;
+
+import org.junit.Assert;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+public class FileStateStoreTest {
+  @Rule
+  public TemporaryFolder temporaryFolder = new TemporaryFolder();
+
+  @Test
+  public void testMissingKey() throws Exception {
+    StateStore store = new FileStateStore(new File(temporaryFolder.getRoot(), "state.json"));
+    Assert.assertNull(store.get("missing"));
+  }
+
+  @Test
+  public void testUpdateAndDelete() throws Exception {
+    File file = temporaryFolder.newFile("state.json");
+    StateStore store = new FileStateStore(file);
+    Assert.assertEquals("a", store.update("key", value -> value == null ? "a" : value + "b"));
+    Assert.assertEquals("ab", store.update("key", value -> value == null ? "a" : value + "b"));
+    store.update("other", value -> "c");
+    Assert.assertEquals("ab", store.get("key"));
+
+    // The values are kept in the file, so other stores sharing it read the same values
+    StateStore otherStore = new FileStateStore(file);
+    Assert.assertEquals("ab", otherStore.get("key"));
+    Assert.assertNull(otherStore.update("key", value -> null));
+    Assert.assertNull(store.get("key"));
+    Assert.assertEquals("c", store.get("other"));
+  }
+
+  @Test
+  public void testShorterValue() throws Exception {
+    StateStore store = new FileStateStore(temporaryFolder.newFile("state.json"));
+    store.update("key", value -> "a long value which is replaced");
+    store.update("key", value -> "short");
+    Assert.assertEquals("short", store.get("key"));
+  }
+
+  @Test
+  public void testConcurrentUpdates() throws Exception {
+    File file = temporaryFolder.newFile("state.json");
+    ExecutorService executor = Executors.newFixedThreadPool(4);
+    try {
+      List<Future<?>> futures = new ArrayList<>();
+      for (int i = 0; i < 4; i++) {
+        // Each thread uses its own store, as separate pipeline runs on the same host would
+        StateStore store = new FileStateStore(file);
+        futures.add(executor.submit(() -> {
+          for (int j = 0; j < 25; j++) {
+            store.update("count", value -> Integer.toString(value == null ? 1 : Integer.parseInt(value) + 1));
+          }
+          return null;
+        }));
+      }
+      for (Future<?> future : futures) {
+        future.get();
+      }
+    } finally {
+      executor.shutdownNow();
+    }
+    Assert.assertEquals("100", new FileStateStore(file).get("count"));
+  }
+}
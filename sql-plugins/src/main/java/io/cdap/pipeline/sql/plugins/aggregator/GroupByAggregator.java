@@ -17,19 +17,29 @@
 package io.cdap.pipeline.sql.plugins.aggregator;
 
 import com.google.common.annotations.VisibleForTesting;
+import com.google.common.collect.ImmutableSet;
 import io.cdap.cdap.api.annotation.Description;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.annotation.Plugin;
 import io.cdap.pipeline.sql.api.template.QueryContext;
 import io.cdap.pipeline.sql.api.template.SQLTransform;
+import io.cdap.pipeline.sql.api.template.functions.ApproximateAggFunction;
 import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rex.RexInputRef;
 import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeName;
 import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.ImmutableBitSet;
 
 import java.util.ArrayList;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * SQL group by aggregator.
@@ -37,11 +47,20 @@ import java.util.Map;
 @Plugin(type = SQLTransform.PLUGIN_TYPE)
 @Name("GroupByAggregate")
 @Description("Groups by one or more fields, then performs one or more aggregate functions on each group. " +
-  "Supports avg, count, count(*), max, min, and sum as aggregate functions.")
+  "Supports avg, count, count(*), max, min, sum, approx_count_distinct, approx_quantiles, approx_top_count, " +
+  "merge_sketches and count_sketches as aggregate functions.")
 public class GroupByAggregator extends SQLTransform {
+  // The range of precisions supported by HyperLogLog++ sketches
+  private static final int MIN_PRECISION = 10;
+  private static final int MAX_PRECISION = 24;
+  private static final Set<String> PARAMETERIZED_FUNCTIONS = ImmutableSet.of(
+    ApproximateAggFunction.COUNT_DISTINCT, ApproximateAggFunction.QUANTILES, ApproximateAggFunction.TOP_COUNT);
+
   private final GroupByConfig conf;
   private Map<String, GroupByConfig.AggregateInfo> aggregateFunctions;
   private List<String> groupByFields;
+  private List<List<String>> groupingSets;
+  private boolean outputSketches;
 
   @VisibleForTesting
   GroupByAggregator(GroupByConfig conf) {
@@ -61,49 +80,166 @@ public class GroupByAggregator extends SQLTransform {
       groupFields.add(builder.field(fieldName));
     }
     for (Map.Entry<String, GroupByConfig.AggregateInfo> entry: aggregateFunctions.entrySet()) {
-      GroupByConfig.AggregateInfo aggInfo = entry.getValue();
-      RelBuilder.AggCall agg = getAggCall(builder, aggInfo.getAlias(), aggInfo.getAggregateFunction(),
-                                          aggInfo.getField());
-      aggCalls.add(agg);
+      aggCalls.add(getAggCall(builder, entry.getValue()));
     }
     RelBuilder.GroupKey groupKey = null;
-    if (groupFields.size() != 0) {
+    if (!groupingSets.isEmpty()) {
+      // Every grouping set is computed in the same pass, and identified by the grouping ID
+      ImmutableBitSet groupSet = getFieldIndexes(builder, groupByFields);
+      List<ImmutableBitSet> groupSets = new ArrayList<>();
+      for (List<String> groupingSet : groupingSets) {
+        groupSets.add(getFieldIndexes(builder, groupingSet));
+      }
+      groupKey = builder.groupKey(groupSet, groupSets);
+      aggCalls.add(builder.aggregateCall(SqlStdOperatorTable.GROUPING_ID, groupFields)
+                     .as(conf.getGroupingIdField()));
+    } else if (groupFields.size() != 0) {
       groupKey = builder.groupKey(groupFields);
     }
     return builder.aggregate(groupKey, aggCalls).build();
   }
 
+  private static ImmutableBitSet getFieldIndexes(RelBuilder builder, List<String> fieldNames) {
+    ImmutableBitSet.Builder indexes = ImmutableBitSet.builder();
+    for (String fieldName : fieldNames) {
+      indexes.set(((RexInputRef) builder.field(fieldName)).getIndex());
+    }
+    return indexes.build();
+  }
+
+  /**
+   * Returns the argument of the average of a field. Exact numbers other than decimals are converted to doubles
+   * first, so that the average is not truncated.
+   */
+  private static RexNode getAverageArgument(RelBuilder builder, String fieldName) {
+    RexNode field = builder.field(fieldName);
+    if (!SqlTypeName.EXACT_TYPES.contains(field.getType().getSqlTypeName())
+      || field.getType().getSqlTypeName() == SqlTypeName.DECIMAL) {
+      return field;
+    }
+    RelDataTypeFactory typeFactory = builder.getTypeFactory();
+    RelDataType type = typeFactory.createTypeWithNullability(typeFactory.createSqlType(SqlTypeName.DOUBLE),
+                                                             field.getType().isNullable());
+    return builder.getRexBuilder().makeCast(type, field);
+  }
+
   private void init() {
     groupByFields = conf.getGroupByFields();
     List<GroupByConfig.AggregateInfo> aggregateInfos = conf.getAggregates();
     aggregateFunctions = new LinkedHashMap<>();
     for (GroupByConfig.AggregateInfo aggInfo: aggregateInfos) {
-      aggregateFunctions.put(aggInfo.getField(), aggInfo);
+      aggregateFunctions.put(aggInfo.getAlias(), aggInfo);
+    }
+    groupingSets = conf.getGroupingSets();
+    if (!groupingSets.isEmpty() && (groupByFields.contains(conf.getGroupingIdField())
+      || aggregateFunctions.containsKey(conf.getGroupingIdField()))) {
+      throw new IllegalArgumentException(String.format(
+        "The grouping ID field '%s' must not have the same name as a group by field or an aggregate.",
+        conf.getGroupingIdField()));
+    }
+    outputSketches = conf.isOutputSketches();
+    if (outputSketches) {
+      // Only sketches can be merged with the output of previous runs
+      for (GroupByConfig.AggregateInfo aggInfo : aggregateInfos) {
+        String functionStr = aggInfo.getAggregateFunction().toUpperCase();
+        if (!functionStr.equals(ApproximateAggFunction.COUNT_DISTINCT)
+          && !functionStr.equals(ApproximateAggFunction.MERGE_SKETCHES)) {
+          throw new IllegalArgumentException(String.format(
+            "Aggregate '%s' cannot be output as a sketch. Only %s and %s are supported when outputting sketches.",
+            aggInfo.getAlias(), ApproximateAggFunction.COUNT_DISTINCT, ApproximateAggFunction.MERGE_SKETCHES));
+        }
+      }
     }
   }
 
-  private RelBuilder.AggCall getAggCall(RelBuilder builder, String alias, String functionStr, String... fields) {
+  private RelBuilder.AggCall getAggCall(RelBuilder builder, GroupByConfig.AggregateInfo aggInfo) {
+    String alias = aggInfo.getAlias();
+    String functionStr = aggInfo.getAggregateFunction();
     switch (functionStr.toUpperCase()) {
       case "AVG":
-        return builder.avg(builder.field(fields[0])).as(alias);
+        getArgument(aggInfo, false);
+        return builder.avg(getAverageArgument(builder, aggInfo.getField())).as(alias);
       case "COUNT":
-        if ("*".equals(fields[0])) {
+        getArgument(aggInfo, false);
+        if ("*".equals(aggInfo.getField())) {
           return builder.countStar(alias);
         } else {
-          List<RexNode> operands = new ArrayList<>();
-          for (String field : fields) {
-            operands.add(builder.field(field));
-          }
-          return builder.count(operands).as(alias);
+          return builder.count(builder.field(aggInfo.getField())).as(alias);
         }
       case "MIN":
-        return builder.min(builder.field(fields[0])).as(alias);
+        getArgument(aggInfo, false);
+        return builder.min(builder.field(aggInfo.getField())).as(alias);
       case "MAX":
-        return builder.max(builder.field(fields[0])).as(alias);
+        getArgument(aggInfo, false);
+        return builder.max(builder.field(aggInfo.getField())).as(alias);
       case "SUM":
-        return builder.sum(builder.field(fields[0])).as(alias);
+        getArgument(aggInfo, false);
+        return builder.sum(builder.field(aggInfo.getField())).as(alias);
+      case ApproximateAggFunction.COUNT_DISTINCT:
+        Integer precision = getArgument(aggInfo, false);
+        if (precision != null && (precision < MIN_PRECISION || precision > MAX_PRECISION)) {
+          throw new IllegalArgumentException(String.format(
+            "Invalid precision %d of aggregate '%s'. The precision must be between %d and %d.",
+            precision, alias, MIN_PRECISION, MAX_PRECISION));
+        }
+        return builder.aggregateCall(outputSketches ? ApproximateAggFunction.sketch(precision)
+                                       : ApproximateAggFunction.countDistinct(precision),
+                                     builder.field(aggInfo.getField())).as(alias);
+      case ApproximateAggFunction.QUANTILES:
+        return builder.aggregateCall(ApproximateAggFunction.quantiles(getArgument(aggInfo, true)),
+                                     builder.field(aggInfo.getField())).as(alias);
+      case ApproximateAggFunction.TOP_COUNT:
+        return builder.aggregateCall(ApproximateAggFunction.topCount(getArgument(aggInfo, true)),
+                                     builder.field(aggInfo.getField())).as(alias);
+      case ApproximateAggFunction.MERGE_SKETCHES:
+        getArgument(aggInfo, false);
+        return builder.aggregateCall(ApproximateAggFunction.mergeSketches(),
+                                     builder.field(aggInfo.getField())).as(alias);
+      case ApproximateAggFunction.COUNT_SKETCHES:
+        getArgument(aggInfo, false);
+        return builder.aggregateCall(ApproximateAggFunction.countSketches(),
+                                     builder.field(aggInfo.getField())).as(alias);
       default:
         throw new IllegalArgumentException("Unsupported aggregate function " + functionStr);
     }
   }
+
+  /**
+   * Returns the positive integer argument which follows the field of an aggregate function.
+   *
+   * @param aggInfo The aggregate
+   * @param required Whether the function requires the argument. Functions which do not require it accept it only
+   *                 if they have a parameter
+   * @return The argument, or null if the argument is optional and was not given
+   */
+  @Nullable
+  private static Integer getArgument(GroupByConfig.AggregateInfo aggInfo, boolean required) {
+    List<String> arguments = aggInfo.getArguments();
+    String functionStr = aggInfo.getAggregateFunction().toUpperCase();
+    boolean parameterized = PARAMETERIZED_FUNCTIONS.contains(functionStr);
+    if (arguments.size() > (parameterized ? 1 : 0)) {
+      throw new IllegalArgumentException(String.format(
+        "Too many arguments for function '%s' of aggregate '%s'.", functionStr, aggInfo.getAlias()));
+    }
+    if (arguments.isEmpty()) {
+      if (required) {
+        throw new IllegalArgumentException(String.format(
+          "Function '%s' of aggregate '%s' requires an argument after the field.", functionStr, aggInfo.getAlias()));
+      }
+      return null;
+    }
+    int argument;
+    try {
+      argument = Integer.parseInt(arguments.get(0));
+    } catch (NumberFormatException e) {
+      throw new IllegalArgumentException(String.format(
+        "Invalid argument '%s' of aggregate '%s'. The argument must be an integer.",
+        arguments.get(0), aggInfo.getAlias()), e);
+    }
+    if (argument <= 0) {
+      throw new IllegalArgumentException(String.format(
+        "Invalid argument %d of aggregate '%s'. The argument must be positive.", argument, aggInfo.getAlias()));
+    }
+    return argument;
+  }
 }
@@ -24,9 +24,11 @@ import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.plugin.PluginConfig;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
+import javax.annotation.Nullable;
 
 /**
  * Config for group by types of plugins.
@@ -34,10 +36,19 @@ import java.util.Set;
 public class GroupByConfig extends PluginConfig {
   private static final String AGGREGATES_NAME = "aggregates";
   private static final String GROUP_BY_FIELDS_NAME = "groupByFields";
+  private static final String OUTPUT_SKETCHES_NAME = "outputSketches";
+  private static final String GROUPING_SETS_NAME = "groupingSets";
+  private static final String GROUPING_ID_FIELD_NAME = "groupingIdField";
+  private static final String DEFAULT_GROUPING_ID_FIELD = "grouping_id";
+  private static final String ROLLUP = "ROLLUP";
+  private static final String CUBE = "CUBE";
   private static final String AGGREGATES_DESC = "Aggregates to compute on grouped records. " +
-    "Supported aggregate functions are count, count(*), sum, avg, min, max. " +
+    "Supported aggregate functions are count, count(*), sum, avg, min, max, " +
+    "approx_count_distinct(field[, precision]), approx_quantiles(field, quantiles) and " +
+    "approx_top_count(field, number), as well as merge_sketches(field) and count_sketches(field) which merge " +
+    "sketches of distinct values into a sketch and a count. " +
     "A function must specify the field it should be applied on, as well as the name it should be called. " +
-    "Aggregates are specified using syntax: \"name:function(field)[, other aggregates]\"." +
+    "Aggregates are specified using syntax: \"name:function(field[, arguments])[, other aggregates]\"." +
     "For example, 'avgPrice:avg(price),cheapest:min(price)' will calculate two aggregates. " +
     "The first will create a field called 'avgPrice' that is the average of all 'price' fields in the group. " +
     "The second will create a field called 'cheapest' that contains the minimum 'price' field in the group.";
@@ -46,6 +57,18 @@ public class GroupByConfig extends PluginConfig {
     "The records output by this aggregator will contain all the group by fields and aggregate fields. " +
     "For example, if grouping by the 'user' field and calculating a count aggregate called 'numActions', " +
     "output records will have a 'user' field and 'numActions' field.";
+  private static final String GROUPING_SETS_DESC = "The combinations of group by fields to group by in a single " +
+    "pass over the input. 'rollup' groups by every prefix of the group by fields, 'cube' groups by every subset " +
+    "of them, and explicit grouping sets are given as parenthesized lists of group by fields, such as " +
+    "'(region, country), (region), ()'. Fields which are not in the grouping set of a record are null. " +
+    "By default, records are only grouped by all of the group by fields.";
+  private static final String GROUPING_ID_FIELD_DESC = "The name of the field which identifies the grouping set of " +
+    "each record when grouping sets are used. The field holds a bit for each group by field, with the first field " +
+    "as the most significant bit, which is set if the field is not in the grouping set. Defaults to 'grouping_id'.";
+  private static final String OUTPUT_SKETCHES_DESC = "Whether to output mergeable sketches of the distinct values " +
+    "instead of approximate distinct counts. Sketches can be merged into a sketch table by a sink, and counted " +
+    "later with count_sketches. Every aggregate must be approx_count_distinct or merge_sketches. " +
+    "Defaults to false.";
 
   @Name(AGGREGATES_NAME)
   @Description(AGGREGATES_DESC)
@@ -55,10 +78,46 @@ public class GroupByConfig extends PluginConfig {
   @Description(GROUP_BY_FIELDS_DESC)
   private final String groupByFields;
 
+  @Name(OUTPUT_SKETCHES_NAME)
+  @Description(OUTPUT_SKETCHES_DESC)
+  @Nullable
+  private final Boolean outputSketches;
+
+  @Name(GROUPING_SETS_NAME)
+  @Description(GROUPING_SETS_DESC)
+  @Nullable
+  private final String groupingSets;
+
+  @Name(GROUPING_ID_FIELD_NAME)
+  @Description(GROUPING_ID_FIELD_DESC)
+  @Nullable
+  private final String groupingIdField;
+
   @VisibleForTesting
   GroupByConfig(String groupByFields, String aggregates) {
+    this(groupByFields, aggregates, null);
+  }
+
+  @VisibleForTesting
+  GroupByConfig(String groupByFields, String aggregates, @Nullable Boolean outputSketches) {
+    this(groupByFields, aggregates, outputSketches, null, null);
+  }
+
+  @VisibleForTesting
+  GroupByConfig(String groupByFields, String aggregates, @Nullable Boolean outputSketches,
+                @Nullable String groupingSets, @Nullable String groupingIdField) {
     this.groupByFields = groupByFields;
     this.aggregates = aggregates;
+    this.outputSketches = outputSketches;
+    this.groupingSets = groupingSets;
+    this.groupingIdField = groupingIdField;
+  }
+
+  /**
+   * @return Whether approximate distinct counts are output as mergeable sketches
+   */
+  boolean isOutputSketches() {
+    return outputSketches != null && outputSketches;
   }
 
   /**
@@ -82,6 +141,78 @@ public class GroupByConfig extends PluginConfig {
     return fields;
   }
 
+  /**
+   * @return The sets of group by fields to group by, or an empty list if records are only grouped by all of the
+   *         group by fields
+   */
+  List<List<String>> getGroupingSets() {
+    List<List<String>> sets = new ArrayList<>();
+    if (Strings.isNullOrEmpty(groupingSets)) {
+      return sets;
+    }
+    List<String> fields = getGroupByFields();
+    if (fields.isEmpty()) {
+      throw new IllegalArgumentException("Grouping sets require group by fields.");
+    }
+    String trimmed = groupingSets.trim();
+    if (trimmed.equalsIgnoreCase(ROLLUP)) {
+      for (int i = fields.size(); i >= 0; i--) {
+        sets.add(fields.subList(0, i));
+      }
+      return sets;
+    }
+    if (trimmed.equalsIgnoreCase(CUBE)) {
+      // Every subset of the fields, from the set of all fields down to the empty set
+      for (int mask = (1 << fields.size()) - 1; mask >= 0; mask--) {
+        List<String> set = new ArrayList<>();
+        for (int i = 0; i < fields.size(); i++) {
+          if ((mask & (1 << (fields.size() - 1 - i))) != 0) {
+            set.add(fields.get(i));
+          }
+        }
+        sets.add(set);
+      }
+      return sets;
+    }
+
+    int index = 0;
+    while (index < trimmed.length()) {
+      if (trimmed.charAt(index) != '(') {
+        throw new IllegalArgumentException(String.format(
+          "Invalid grouping sets '%s'. Grouping sets must be 'rollup', 'cube' or parenthesized lists of fields.",
+          groupingSets));
+      }
+      int end = trimmed.indexOf(')', index);
+      if (end < 0) {
+        throw new IllegalArgumentException(String.format(
+          "Could not find closing ')' in grouping sets '%s'.", groupingSets));
+      }
+      List<String> set = new ArrayList<>();
+      for (String field : Splitter.on(',').trimResults().omitEmptyStrings().split(trimmed.substring(index + 1, end))) {
+        if (!fields.contains(field)) {
+          throw new IllegalArgumentException(String.format(
+            "Field '%s' of grouping sets '%s' is not a group by field.", field, groupingSets));
+        }
+        set.add(field);
+      }
+      sets.add(set);
+      // Skip the separator before the next set
+      index = end + 1;
+      while (index < trimmed.length()
+        && (trimmed.charAt(index) == ',' || Character.isWhitespace(trimmed.charAt(index)))) {
+        index++;
+      }
+    }
+    return sets;
+  }
+
+  /**
+   * @return The name of the field which identifies the grouping set of each record
+   */
+  String getGroupingIdField() {
+    return Strings.isNullOrEmpty(groupingIdField) ? DEFAULT_GROUPING_ID_FIELD : groupingIdField;
+  }
+
   /**
    * @return A map of alias name to aggregate function to perform.
    */
@@ -91,7 +222,7 @@ public class GroupByConfig extends PluginConfig {
       return aggregatesList;
     }
     Set<String> names = new HashSet<>();
-    for (String aggregate : Splitter.on(',').trimResults().split(aggregates)) {
+    for (String aggregate : splitAggregates()) {
       int colonIdx = aggregate.indexOf(':');
       if (colonIdx < 0) {
         throw new IllegalArgumentException(String.format(
@@ -119,12 +250,14 @@ public class GroupByConfig extends PluginConfig {
           "Could not find closing ')' in function '%s'. Functions must be specified as function(field).",
           functionAndField));
       }
-      String field = functionAndField.substring(leftParamIdx + 1, functionAndField.length() - 1).trim();
+      List<String> arguments = Splitter.on(',').trimResults()
+        .splitToList(functionAndField.substring(leftParamIdx + 1, functionAndField.length() - 1));
+      String field = arguments.get(0);
       if (field.isEmpty()) {
         throw new IllegalArgumentException(String.format(
           "Invalid function '%s'. A field must be given as an argument.", functionAndField));
       }
-      aggregatesList.add(new AggregateInfo(name, functionStr, field));
+      aggregatesList.add(new AggregateInfo(name, functionStr, field, arguments.subList(1, arguments.size())));
     }
 
     if (aggregatesList.isEmpty()) {
@@ -133,6 +266,28 @@ public class GroupByConfig extends PluginConfig {
     return aggregatesList;
   }
 
+  /**
+   * Splits the aggregates on the commas which are not within the arguments of a function.
+   */
+  private List<String> splitAggregates() {
+    List<String> aggregateList = new ArrayList<>();
+    int depth = 0;
+    int start = 0;
+    for (int i = 0; i < aggregates.length(); i++) {
+      char c = aggregates.charAt(i);
+      if (c == '(') {
+        depth++;
+      } else if (c == ')') {
+        depth--;
+      } else if (c == ',' && depth == 0) {
+        aggregateList.add(aggregates.substring(start, i).trim());
+        start = i + 1;
+      }
+    }
+    aggregateList.add(aggregates.substring(start).trim());
+    return aggregateList;
+  }
+
   /**
    * Represents a field aggregation.
    */
@@ -140,11 +295,17 @@ public class GroupByConfig extends PluginConfig {
     private final String alias;
     private final String aggregateFunction;
     private final String field;
+    private final List<String> arguments;
 
     public AggregateInfo(String alias, String aggregateFunction, String field) {
+      this(alias, aggregateFunction, field, Collections.emptyList());
+    }
+
+    public AggregateInfo(String alias, String aggregateFunction, String field, List<String> arguments) {
       this.alias = alias;
       this.aggregateFunction = aggregateFunction;
       this.field = field;
+      this.arguments = arguments;
     }
 
     public String getAlias() {
@@ -158,5 +319,12 @@ public class GroupByConfig extends PluginConfig {
     public String getField() {
       return field;
     }
+
+    /**
+     * @return The arguments of the function which follow the field
+     */
+    public List<String> getArguments() {
+      return arguments;
+    }
   }
 }
@@ -28,6 +28,8 @@ import io.cdap.pipeline.sql.api.template.tables.AbstractTableInfo;
 import io.cdap.pipeline.sql.api.template.tables.SchemalessTable;
 import org.apache.calcite.rel.RelNode;
 
+import javax.annotation.Nullable;
+
 /**
  * A BigQuery SQL sink.
  */
@@ -61,6 +63,11 @@ public class BigQuerySQLSink extends SQLSink {
     return new SchemalessTable(String.format("%s.%s.%s", config.getProject(), config.getDataset(), config.getTable()));
   }
 
+  @Override
+  public WriteMode getWriteMode() {
+    return config.parseWriteMode();
+  }
+
   /**
    * The configuration class for a BigQuery SQL sink.
    */
@@ -69,6 +76,7 @@ public class BigQuerySQLSink extends SQLSink {
     public static final String DATASET_NAME = "dataset";
     public static final String TABLE_NAME = "table";
     public static final String SERVICE_ACCOUNT_PATH_NAME = "serviceAccountPath";
+    public static final String WRITE_MODE_NAME = "writeMode";
 
     @Name(PROJECT_NAME)
     @Description("The destination project.")
@@ -86,11 +94,23 @@ public class BigQuerySQLSink extends SQLSink {
     @Description("The path to the service account credentials file.")
     private final String serviceAccountPath;
 
+    @Name(WRITE_MODE_NAME)
+    @Description("Whether to append to or truncate the destination table, or to merge sketches of distinct values " +
+      "into the rows of the destination table with the same key. Defaults to append.")
+    @Nullable
+    private final String writeMode;
+
     public BigQuerySQLSinkConfig(String project, String dataset, String table, String serviceAccountPath) {
+      this(project, dataset, table, serviceAccountPath, null);
+    }
+
+    public BigQuerySQLSinkConfig(String project, String dataset, String table, String serviceAccountPath,
+                                 @Nullable String writeMode) {
       this.project = project;
       this.dataset = dataset;
       this.table = table;
       this.serviceAccountPath = serviceAccountPath;
+      this.writeMode = writeMode;
     }
 
     public String getProject() {
@@ -108,5 +128,26 @@ public class BigQuerySQLSink extends SQLSink {
     public String getServiceAccountPath() {
       return serviceAccountPath;
     }
+
+    @Nullable
+    public String getWriteMode() {
+      return writeMode;
+    }
+
+    /**
+     * Parses the write mode into a {@link WriteMode}.
+     *
+     * @return the write mode of the sink
+     */
+    public WriteMode parseWriteMode() {
+      if (Strings.isNullOrEmpty(writeMode)) {
+        return WriteMode.APPEND;
+      }
+      try {
+        return WriteMode.valueOf(writeMode.toUpperCase());
+      } catch (IllegalArgumentException e) {
+        throw new IllegalArgumentException("Unsupported write mode: " + writeMode);
+      }
+    }
   }
 }
@@ -19,13 +19,23 @@ package io.cdap.pipeline.sql.plugins.bigquery;
 import com.google.auth.oauth2.GoogleCredentials;
 import com.google.auth.oauth2.ServiceAccountCredentials;
 import com.google.cloud.bigquery.BigQuery;
+import com.google.cloud.bigquery.BigQueryException;
 import com.google.cloud.bigquery.BigQueryOptions;
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.FieldValueList;
+import com.google.cloud.bigquery.QueryJobConfiguration;
+import com.google.cloud.bigquery.QueryParameterValue;
 import com.google.cloud.bigquery.Schema;
+import com.google.cloud.bigquery.StandardSQLTypeName;
+import com.google.cloud.bigquery.StandardTableDefinition;
 import com.google.cloud.bigquery.Table;
 import com.google.cloud.bigquery.TableId;
+import com.google.cloud.bigquery.TableResult;
+import com.google.cloud.bigquery.TimePartitioning;
 import com.google.common.annotations.VisibleForTesting;
 import com.google.common.base.Strings;
 import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Macro;
 import io.cdap.cdap.api.annotation.Name;
 import io.cdap.cdap.api.annotation.Plugin;
 import io.cdap.cdap.api.plugin.PluginConfig;
@@ -33,7 +43,14 @@ import io.cdap.pipeline.sql.api.template.QueryContext;
 import io.cdap.pipeline.sql.api.template.SQLSource;
 import io.cdap.pipeline.sql.api.template.tables.AbstractTableInfo;
 import io.cdap.pipeline.sql.api.template.tables.DelegateTable;
+import io.cdap.pipeline.sql.api.template.tables.TableMetadata;
 import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.ImmutableBitSet;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -41,6 +58,19 @@ import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import javax.annotation.Nullable;
 
 /**
  * A BigQuery SQL source.
@@ -51,15 +81,39 @@ import java.io.IOException;
 public class BigQuerySQLSource extends SQLSource {
   private final BigQuerySQLSourceConfig config;
   private static final Logger LOG = LoggerFactory.getLogger(BigQuerySQLSource.class);
+  private static final Pattern VIEW_QUERY_PATTERN = Pattern.compile("\\bAS\\s*(\\(?)\\s*((?:SELECT|WITH)\\b.*)",
+                                                                   Pattern.CASE_INSENSITIVE | Pattern.DOTALL);
 
   @VisibleForTesting
   BigQuerySQLSource(BigQuerySQLSourceConfig config) {
     this.config = config;
   }
 
+  /**
+   * Reads the table. The shards of a wildcard table are restricted to the suffix range with a filter on the
+   * _TABLE_SUFFIX pseudo column, which BigQuery uses to only read the shards in the range. The pseudo column is not
+   * part of the output.
+   */
   @Override
   public RelNode getQuery(QueryContext context) {
-    return context.getRelBuilder().build();
+    RelBuilder builder = context.getRelBuilder();
+    if (!config.isWildcard()) {
+      return builder.build();
+    }
+    RexNode suffix = builder.field(BigQueryTable.TABLE_SUFFIX_FIELD);
+    List<RexNode> predicates = new ArrayList<>();
+    if (!Strings.isNullOrEmpty(config.getTableSuffixStart())) {
+      predicates.add(builder.call(SqlStdOperatorTable.GREATER_THAN_OR_EQUAL, suffix,
+                                  builder.literal(config.getTableSuffixStart())));
+    }
+    if (!Strings.isNullOrEmpty(config.getTableSuffixEnd())) {
+      predicates.add(builder.call(SqlStdOperatorTable.LESS_THAN_OR_EQUAL, suffix,
+                                  builder.literal(config.getTableSuffixEnd())));
+    }
+    builder.filter(predicates);
+    List<RexNode> fields = new ArrayList<>(builder.fields());
+    fields.remove(fields.size() - 1);
+    return builder.project(fields).build();
   }
 
   @Override
@@ -73,6 +127,7 @@ public class BigQuerySQLSource extends SQLSource {
     if (Strings.isNullOrEmpty(config.getTable())) {
       throw new IllegalArgumentException("Destination table string must be provided.");
     }
+    config.validateTableSuffixRange();
     // Get the schema from BigQuery API
     GoogleCredentials credentials;
     File credentialsPath = new File(config.getServiceAccountPath());
@@ -87,14 +142,397 @@ public class BigQuerySQLSource extends SQLSource {
     // Instantiate a client.
     BigQuery bigquery =
       BigQueryOptions.newBuilder().setCredentials(credentials).build().getService();
+    if (config.isWildcard()) {
+      return getWildcardTable(bigquery);
+    }
     Table bqTable = bigquery.getTable(TableId.of(config.getProject(), config.getDataset(), config.getTable()));
     Schema bqSchema = bqTable.getDefinition().getSchema();
-    BigQueryTable table = new BigQueryTable(bqSchema);
+    List<String> primaryKey = bqTable.getDefinition() instanceof StandardTableDefinition
+      ? getPrimaryKey(bigquery) : new ArrayList<>();
+    BigQueryTable table = new BigQueryTable(bqSchema, getStatistic(bqTable, primaryKey));
     DelegateTable delegate = new DelegateTable(String.format("%s.%s.%s", config.getProject(),
-                                                             config.getDataset(), config.getTable()), table);
+                                                             config.getDataset(), config.getTable()), table,
+                                               getMetadata(bigquery, bqTable, primaryKey));
     return delegate;
   }
 
+  /**
+   * Reads the shards of a wildcard table which are in the suffix range. Like BigQuery, the schema is the schema of
+   * the most recently created shard. Its fields which are missing from other shards in the range are read as nulls,
+   * so they are made nullable. The row count and last modified time cover all the shards in the range.
+   */
+  private AbstractTableInfo getWildcardTable(BigQuery bigquery) {
+    String prefix = config.getTablePrefix();
+    String datasetName = String.format("%s.%s", config.getProject(), config.getDataset());
+    String shardQuery = String.format("SELECT table_id, creation_time, last_modified_time, row_count "
+                                        + "FROM `%s.__TABLES__` WHERE STARTS_WITH(table_id, @prefix)", datasetName);
+    String columnQuery = String.format("SELECT table_name, column_name, data_type "
+                                         + "FROM `%s.INFORMATION_SCHEMA.COLUMNS` "
+                                         + "WHERE STARTS_WITH(table_name, @prefix) AND column_name != '_PARTITIONTIME'",
+                                       datasetName);
+    String newestShard = null;
+    long newestCreationTime = Long.MIN_VALUE;
+    long rowCount = 0;
+    long lastModifiedTime = 0;
+    Map<String, Map<String, String>> shardColumns = new HashMap<>();
+    try {
+      for (FieldValueList row : runQuery(bigquery, shardQuery, prefix)) {
+        String shard = row.get("table_id").getStringValue();
+        if (!config.isSuffixInRange(shard.substring(prefix.length()))) {
+          continue;
+        }
+        shardColumns.put(shard, new LinkedHashMap<>());
+        long creationTime = row.get("creation_time").getLongValue();
+        if (creationTime > newestCreationTime) {
+          newestShard = shard;
+          newestCreationTime = creationTime;
+        }
+        rowCount += row.get("row_count").getLongValue();
+        lastModifiedTime = Math.max(lastModifiedTime, row.get("last_modified_time").getLongValue());
+      }
+      if (newestShard == null) {
+        throw new IllegalArgumentException(String.format("No table in dataset %s matches %s in the suffix range.",
+                                                         datasetName, config.getTable()));
+      }
+      for (FieldValueList row : runQuery(bigquery, columnQuery, prefix)) {
+        Map<String, String> columns = shardColumns.get(row.get("table_name").getStringValue());
+        if (columns != null) {
+          columns.put(row.get("column_name").getStringValue(), row.get("data_type").getStringValue());
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while reading the shards of table " + config.getTable());
+    }
+
+    Table newest = bigquery.getTable(TableId.of(config.getProject(), config.getDataset(), newestShard));
+    Schema schema = mergeShardSchemas(newest.getDefinition().getSchema(), newestShard, shardColumns);
+    LOG.debug("Reading {} shards of table {}.{}, with the schema of shard {}.", shardColumns.size(), datasetName,
+              config.getTable(), newestShard);
+    BigQueryTable table = new BigQueryTable(schema, Statistics.of((double) rowCount, new ArrayList<>()), true);
+    TableMetadata metadata = TableMetadata.builder()
+      .setRowCount(rowCount)
+      .setLastModifiedTime(lastModifiedTime)
+      .build();
+    return new DelegateTable(String.format("%s.%s", datasetName, config.getTable()), table, metadata);
+  }
+
+  private static Iterable<FieldValueList> runQuery(BigQuery bigquery, String query, String prefix)
+    throws InterruptedException {
+    QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(query)
+      .addNamedParameter("prefix", QueryParameterValue.string(prefix))
+      .build();
+    return bigquery.query(queryConfig).iterateAll();
+  }
+
+  /**
+   * Merges the schema of the most recently created shard of a wildcard table with the columns of the other shards.
+   * Fields which are missing from any shard are made nullable, and fields whose type differs between shards are
+   * rejected, since BigQuery cannot read them as a single column.
+   *
+   * @param newest The schema of the most recently created shard
+   * @param newestShard The name of the most recently created shard
+   * @param shardColumns The types of the top-level columns of each shard, by column name
+   * @return The schema of the wildcard table
+   */
+  @VisibleForTesting
+  static Schema mergeShardSchemas(Schema newest, String newestShard, Map<String, Map<String, String>> shardColumns) {
+    Map<String, String> newestColumns = shardColumns.getOrDefault(newestShard, Collections.emptyMap());
+    List<Field> fields = new ArrayList<>();
+    for (Field field : newest.getFields()) {
+      boolean missing = false;
+      for (Map.Entry<String, Map<String, String>> shard : shardColumns.entrySet()) {
+        String type = shard.getValue().get(field.getName());
+        if (type == null) {
+          missing = true;
+        } else if (newestColumns.containsKey(field.getName()) && !type.equals(newestColumns.get(field.getName()))) {
+          throw new IllegalArgumentException(String.format(
+            "Field '%s' has type %s in table %s but type %s in table %s.", field.getName(), type, shard.getKey(),
+            newestColumns.get(field.getName()), newestShard));
+        }
+      }
+      if (missing && field.getMode() != Field.Mode.REPEATED) {
+        field = field.toBuilder().setMode(Field.Mode.NULLABLE).build();
+      }
+      fields.add(field);
+    }
+    return Schema.of(fields);
+  }
+
+  /**
+   * Collects the metadata of a BigQuery table which is exact. Rows in the streaming buffer are not reflected in the
+   * table metadata, so only materialized views and the layout of the table are reported for tables which are being
+   * streamed into.
+   */
+  @Nullable
+  private TableMetadata getMetadata(BigQuery bigquery, Table bqTable, List<String> primaryKey) {
+    if (!(bqTable.getDefinition() instanceof StandardTableDefinition)) {
+      return null;
+    }
+    StandardTableDefinition definition = bqTable.getDefinition();
+    TableMetadata.Builder metadata = TableMetadata.builder();
+    for (TableMetadata.MaterializedView view : getMaterializedViews(bigquery)) {
+      metadata.addMaterializedView(view);
+    }
+    if (definition.getTimePartitioning() != null && definition.getTimePartitioning().getField() != null) {
+      metadata.addPruningColumn(definition.getTimePartitioning().getField());
+    }
+    if (definition.getClustering() != null) {
+      for (String field : definition.getClustering().getFields()) {
+        metadata.addPruningColumn(field);
+      }
+    }
+    if (!primaryKey.isEmpty() && definition.getSchema().getFields().stream()
+      .map(Field::getName).collect(Collectors.toList()).containsAll(primaryKey)) {
+      metadata.setPrimaryKey(primaryKey);
+    }
+    if (definition.getNumRows() != null && definition.getNumBytes() != null) {
+      estimateColumnSizes(definition.getSchema(), definition.getNumRows().longValue(), definition.getNumBytes())
+        .forEach(metadata::setColumnSize);
+    }
+    if (definition.getStreamingBuffer() != null) {
+      return metadata.build();
+    }
+    metadata.setRowCount(definition.getNumRows())
+      .setLastModifiedTime(bqTable.getLastModifiedTime());
+    // Only a DATE column partitioned by day holds a single value in each partition
+    TimePartitioning partitioning = definition.getTimePartitioning();
+    if (partitioning != null && partitioning.getField() != null
+      && partitioning.getType() == TimePartitioning.Type.DAY) {
+      Field field = definition.getSchema().getFields().get(partitioning.getField());
+      if (field.getType().getStandardType() == StandardSQLTypeName.DATE) {
+        metadata.setPartitionColumn(field.getName());
+      }
+    }
+    return metadata.build();
+  }
+
+  /**
+   * Estimates the statistics of a BigQuery table for the planner. Unlike the metadata, the statistics do not need to
+   * be exact, so rows in the streaming buffer are estimated as well.
+   */
+  private Statistic getStatistic(Table bqTable, List<String> primaryKey) {
+    if (!(bqTable.getDefinition() instanceof StandardTableDefinition)) {
+      return Statistics.UNKNOWN;
+    }
+    StandardTableDefinition definition = bqTable.getDefinition();
+    Double rowCount = null;
+    if (definition.getNumRows() != null) {
+      rowCount = definition.getNumRows().doubleValue();
+      if (definition.getStreamingBuffer() != null && definition.getStreamingBuffer().getEstimatedRows() != null) {
+        rowCount += definition.getStreamingBuffer().getEstimatedRows();
+      }
+    }
+
+    List<ImmutableBitSet> keys = new ArrayList<>();
+    List<String> fieldNames = new ArrayList<>();
+    for (Field field : definition.getSchema().getFields()) {
+      fieldNames.add(field.getName());
+    }
+    if (!primaryKey.isEmpty() && fieldNames.containsAll(primaryKey)) {
+      ImmutableBitSet.Builder key = ImmutableBitSet.builder();
+      for (String column : primaryKey) {
+        key.set(fieldNames.indexOf(column));
+      }
+      keys.add(key.build());
+    }
+    return Statistics.of(rowCount, keys);
+  }
+
+  /**
+   * Estimates the number of bytes stored by each top-level column of a table from the size of the table. BigQuery
+   * stores fixed size values, such as INT64 and DATE, in a known number of bytes, which is counted for every row. The
+   * rest of the table is shared evenly by the variable size columns, such as STRING and repeated fields.
+   *
+   * @param schema The schema of the table
+   * @param numRows The number of rows in the table
+   * @param numBytes The number of bytes stored by the table
+   * @return The estimated bytes of each column, by column name
+   */
+  @VisibleForTesting
+  static Map<String, Long> estimateColumnSizes(Schema schema, long numRows, long numBytes) {
+    Map<String, Long> sizes = new LinkedHashMap<>();
+    List<String> variableColumns = new ArrayList<>();
+    long fixedBytes = 0;
+    for (Field field : schema.getFields()) {
+      long valueSize = getFixedValueSize(field);
+      if (valueSize < 0) {
+        variableColumns.add(field.getName());
+        continue;
+      }
+      sizes.put(field.getName(), valueSize * numRows);
+      fixedBytes += valueSize * numRows;
+    }
+    for (String column : variableColumns) {
+      sizes.put(column, Math.max(numBytes - fixedBytes, 0) / variableColumns.size());
+    }
+    return sizes;
+  }
+
+  /**
+   * Returns the number of bytes BigQuery stores for a value of a field, or -1 if the size of its values varies.
+   */
+  private static long getFixedValueSize(Field field) {
+    if (field.getMode() == Field.Mode.REPEATED) {
+      return -1;
+    }
+    switch (field.getType().getStandardType()) {
+      case BOOL:
+        return 1;
+      case INT64:
+      case FLOAT64:
+      case DATE:
+      case DATETIME:
+      case TIME:
+      case TIMESTAMP:
+        return 8;
+      case NUMERIC:
+        return 16;
+      case STRUCT:
+        long size = 0;
+        for (Field subField : field.getSubFields()) {
+          long subFieldSize = getFixedValueSize(subField);
+          if (subFieldSize < 0) {
+            return -1;
+          }
+          size += subFieldSize;
+        }
+        return size;
+      default:
+        return -1;
+    }
+  }
+
+  /**
+   * Reads the columns of the primary key declared on the table. BigQuery does not enforce primary keys, so they
+   * are trusted to be unique as declared.
+   *
+   * @return The columns of the primary key, or an empty list if the table has none
+   */
+  private List<String> getPrimaryKey(BigQuery bigquery) {
+    String datasetName = String.format("%s.%s", config.getProject(), config.getDataset());
+    String query = String.format("SELECT k.column_name FROM `%1$s.INFORMATION_SCHEMA.TABLE_CONSTRAINTS` c "
+                                   + "JOIN `%1$s.INFORMATION_SCHEMA.KEY_COLUMN_USAGE` k "
+                                   + "ON c.constraint_name = k.constraint_name AND c.table_name = k.table_name "
+                                   + "WHERE c.table_name = @table AND c.constraint_type = 'PRIMARY KEY' "
+                                   + "ORDER BY k.ordinal_position", datasetName);
+    QueryJobConfiguration queryConfig = QueryJobConfiguration.newBuilder(query)
+      .addNamedParameter("table", QueryParameterValue.string(config.getTable()))
+      .build();
+    List<String> columns = new ArrayList<>();
+    try {
+      for (FieldValueList row : bigquery.query(queryConfig).iterateAll()) {
+        columns.add(row.get("column_name").getStringValue());
+      }
+    } catch (BigQueryException e) {
+      // Keys only improve the estimates of the planner, so the table is planned without them
+      LOG.debug("Unable to read the primary key of table {}.{}.", datasetName, config.getTable(), e);
+      return new ArrayList<>();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while reading the primary key of table " + config.getTable());
+    }
+    return columns;
+  }
+
+  /**
+   * Reads the definitions of the materialized views in the dataset of the table which were either declared in the
+   * config, or which refer to the table when discovery is enabled.
+   */
+  private List<TableMetadata.MaterializedView> getMaterializedViews(BigQuery bigquery) {
+    Set<String> declaredViews = config.getMaterializedViewSet();
+    boolean discover = config.getDiscoverMaterializedViews() != null && config.getDiscoverMaterializedViews();
+    List<TableMetadata.MaterializedView> views = new ArrayList<>();
+    if (declaredViews.isEmpty() && !discover) {
+      return views;
+    }
+
+    String datasetName = String.format("%s.%s", config.getProject(), config.getDataset());
+    String query = String.format("SELECT table_name, ddl FROM `%s.INFORMATION_SCHEMA.TABLES` "
+                                   + "WHERE table_type = 'MATERIALIZED VIEW'", datasetName);
+    TableResult result;
+    try {
+      result = bigquery.query(QueryJobConfiguration.of(query));
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while reading materialized views of dataset " + datasetName);
+    }
+    for (FieldValueList row : result.iterateAll()) {
+      String viewName = row.get("table_name").getStringValue();
+      String viewQuery = extractViewQuery(row.get("ddl").getStringValue());
+      boolean declared = declaredViews.remove(viewName);
+      if (!declared && !(discover && viewQuery != null
+        && referencesTable(viewQuery, config.getProject(), config.getDataset(), config.getTable()))) {
+        continue;
+      }
+      if (viewQuery == null) {
+        LOG.warn("Unable to read the query of materialized view {}.", viewName);
+        continue;
+      }
+      views.add(new TableMetadata.MaterializedView(String.format("%s.%s", datasetName, viewName), viewQuery));
+    }
+    for (String viewName : declaredViews) {
+      LOG.warn("Materialized view {} does not exist in dataset {}.", viewName, datasetName);
+    }
+    return views;
+  }
+
+  /**
+   * Checks whether a query refers to a table. The reference must name the dataset and the table, and may name the
+   * project, with any of the parts enclosed in backticks either on their own or together, such as
+   * `project.dataset.table` or `project`.dataset.table. Names which only contain the name of the table, such as
+   * dataset.table_history, are not references to it.
+   */
+  @VisibleForTesting
+  static boolean referencesTable(String query, String project, String dataset, String table) {
+    Pattern pattern = Pattern.compile("(?<![\\w.`-])(?:" + getReferencePattern(Arrays.asList(project, dataset, table))
+                                        + "|" + getReferencePattern(Arrays.asList(dataset, table)) + ")(?![\\w`-])");
+    return pattern.matcher(query).find();
+  }
+
+  /**
+   * Returns a pattern matching a path of names, where each run of consecutive names may be enclosed in backticks.
+   */
+  private static String getReferencePattern(List<String> names) {
+    if (names.isEmpty()) {
+      return "";
+    }
+    List<String> alternatives = new ArrayList<>();
+    for (int i = 1; i <= names.size(); i++) {
+      String group = String.join(".", names.subList(0, i));
+      String rest = getReferencePattern(names.subList(i, names.size()));
+      String separator = rest.isEmpty() ? "" : "\\.";
+      alternatives.add(Pattern.quote("`" + group + "`") + separator + rest);
+      if (i == 1) {
+        alternatives.add(Pattern.quote(group) + separator + rest);
+      }
+    }
+    return "(?:" + String.join("|", alternatives) + ")";
+  }
+
+  /**
+   * Extracts the query from the DDL statement which creates a materialized view.
+   *
+   * @return The query of the view, or null if the statement does not contain one
+   */
+  @Nullable
+  @VisibleForTesting
+  static String extractViewQuery(String ddl) {
+    Matcher matcher = VIEW_QUERY_PATTERN.matcher(ddl);
+    if (!matcher.find()) {
+      return null;
+    }
+    String query = matcher.group(2).trim();
+    if (query.endsWith(";")) {
+      query = query.substring(0, query.length() - 1).trim();
+    }
+    // Remove the parenthesis around the query
+    if (!matcher.group(1).isEmpty() && query.endsWith(")")) {
+      query = query.substring(0, query.length() - 1).trim();
+    }
+    return query;
+  }
+
   /**
    * The configuration class for a BigQuery SQL source.
    */
@@ -103,6 +541,10 @@ public class BigQuerySQLSource extends SQLSource {
     public static final String DATASET_NAME = "dataset";
     public static final String TABLE_NAME = "table";
     public static final String SERVICE_ACCOUNT_PATH_NAME = "serviceAccountPath";
+    public static final String MATERIALIZED_VIEWS_NAME = "materializedViews";
+    public static final String DISCOVER_MATERIALIZED_VIEWS_NAME = "discoverMaterializedViews";
+    public static final String TABLE_SUFFIX_START_NAME = "tableSuffixStart";
+    public static final String TABLE_SUFFIX_END_NAME = "tableSuffixEnd";
 
     @Name(PROJECT_NAME)
     @Description("The destination project.")
@@ -113,18 +555,58 @@ public class BigQuerySQLSource extends SQLSource {
     private final String dataset;
 
     @Name(TABLE_NAME)
-    @Description("The destination table.")
+    @Description("The destination table. A table name ending with '*', such as 'events_*', reads every table "
+      + "with that prefix, such as date-sharded tables.")
     private final String table;
 
     @Name(SERVICE_ACCOUNT_PATH_NAME)
     @Description("The path to the service account credentials file.")
     private final String serviceAccountPath;
 
+    @Name(MATERIALIZED_VIEWS_NAME)
+    @Description("A comma-separated list of materialized views in the dataset which may be read instead of the "
+      + "table.")
+    @Nullable
+    private final String materializedViews;
+
+    @Name(DISCOVER_MATERIALIZED_VIEWS_NAME)
+    @Description("Whether to use every materialized view in the dataset which reads the table.")
+    @Nullable
+    private final Boolean discoverMaterializedViews;
+
+    @Name(TABLE_SUFFIX_START_NAME)
+    @Description("The first table suffix to read, inclusive, if the table ends with '*'. For example, "
+      + "'${logicalStartTime(yyyyMMdd,7d)}' reads the shards of the last seven days.")
+    @Macro
+    @Nullable
+    private final String tableSuffixStart;
+
+    @Name(TABLE_SUFFIX_END_NAME)
+    @Description("The last table suffix to read, inclusive, if the table ends with '*'.")
+    @Macro
+    @Nullable
+    private final String tableSuffixEnd;
+
     public BigQuerySQLSourceConfig(String project, String dataset, String table, String serviceAccountPath) {
+      this(project, dataset, table, serviceAccountPath, null, null);
+    }
+
+    public BigQuerySQLSourceConfig(String project, String dataset, String table, String serviceAccountPath,
+                                   @Nullable String materializedViews, @Nullable Boolean discoverMaterializedViews) {
+      this(project, dataset, table, serviceAccountPath, materializedViews, discoverMaterializedViews, null, null);
+    }
+
+    public BigQuerySQLSourceConfig(String project, String dataset, String table, String serviceAccountPath,
+                                   @Nullable String materializedViews, @Nullable Boolean discoverMaterializedViews,
+                                   @Nullable String tableSuffixStart, @Nullable String tableSuffixEnd) {
       this.project = project;
       this.dataset = dataset;
       this.table = table;
       this.serviceAccountPath = serviceAccountPath;
+      this.materializedViews = materializedViews;
+      this.discoverMaterializedViews = discoverMaterializedViews;
+      this.tableSuffixStart = tableSuffixStart;
+      this.tableSuffixEnd = tableSuffixEnd;
     }
 
     public String getProject() {
@@ -142,5 +624,93 @@ public class BigQuerySQLSource extends SQLSource {
     public String getServiceAccountPath() {
       return serviceAccountPath;
     }
+
+    @Nullable
+    public String getMaterializedViews() {
+      return materializedViews;
+    }
+
+    @Nullable
+    public Boolean getDiscoverMaterializedViews() {
+      return discoverMaterializedViews;
+    }
+
+    @Nullable
+    public String getTableSuffixStart() {
+      return tableSuffixStart;
+    }
+
+    @Nullable
+    public String getTableSuffixEnd() {
+      return tableSuffixEnd;
+    }
+
+    /**
+     * @return Whether the table is a wildcard table, which reads every table with a prefix
+     */
+    public boolean isWildcard() {
+      return table != null && table.endsWith("*");
+    }
+
+    /**
+     * Returns the prefix of the tables read by a wildcard table.
+     *
+     * @throws IllegalArgumentException If the table is not a wildcard table, or has a wildcard before the end
+     */
+    public String getTablePrefix() {
+      if (!isWildcard() || table.indexOf('*') != table.length() - 1) {
+        throw new IllegalArgumentException("Table '" + table + "' must end with its only wildcard.");
+      }
+      return table.substring(0, table.length() - 1);
+    }
+
+    /**
+     * Validates the table suffix range.
+     *
+     * @throws IllegalArgumentException If the range is set on a table which is not a wildcard table, the wildcard
+     *   is not at the end of the table, or the range is empty
+     */
+    public void validateTableSuffixRange() {
+      boolean hasStart = !Strings.isNullOrEmpty(tableSuffixStart);
+      boolean hasEnd = !Strings.isNullOrEmpty(tableSuffixEnd);
+      if (!isWildcard()) {
+        if (hasStart || hasEnd || (table != null && table.contains("*"))) {
+          throw new IllegalArgumentException("A table suffix range can only be set on a table ending with '*'.");
+        }
+        return;
+      }
+      getTablePrefix();
+      if (hasStart && hasEnd && tableSuffixStart.compareTo(tableSuffixEnd) > 0) {
+        throw new IllegalArgumentException(String.format("Table suffix start '%s' is after table suffix end '%s'.",
+                                                         tableSuffixStart, tableSuffixEnd));
+      }
+    }
+
+    /**
+     * Returns whether a table suffix is within the suffix range. Suffixes are compared as strings, as BigQuery
+     * compares _TABLE_SUFFIX.
+     */
+    public boolean isSuffixInRange(String suffix) {
+      return (Strings.isNullOrEmpty(tableSuffixStart) || suffix.compareTo(tableSuffixStart) >= 0)
+        && (Strings.isNullOrEmpty(tableSuffixEnd) || suffix.compareTo(tableSuffixEnd) <= 0);
+    }
+
+    /**
+     * Parses the declared materialized views into a set of view names.
+     *
+     * @return The names of the declared views
+     */
+    public Set<String> getMaterializedViewSet() {
+      Set<String> views = new HashSet<>();
+      if (Strings.isNullOrEmpty(materializedViews)) {
+        return views;
+      }
+      for (String view : materializedViews.split(",")) {
+        if (!view.trim().isEmpty()) {
+          views.add(view.trim());
+        }
+      }
+      return views;
+    }
   }
 }
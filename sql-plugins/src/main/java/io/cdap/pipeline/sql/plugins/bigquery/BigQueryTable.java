@@ -21,6 +21,8 @@ import com.google.cloud.bigquery.Schema;
 import com.google.cloud.bigquery.StandardSQLTypeName;
 import org.apache.calcite.rel.type.RelDataType;
 import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.Statistic;
+import org.apache.calcite.schema.Statistics;
 import org.apache.calcite.schema.impl.AbstractTable;
 import org.apache.calcite.sql.type.SqlTypeName;
 
@@ -31,10 +33,42 @@ import java.util.List;
  * An adapter implementation for a BigQuery table.
  */
 public class BigQueryTable extends AbstractTable {
+  /**
+   * The pseudo column of a wildcard table which holds the part of the name of each table matched by the wildcard.
+   */
+  public static final String TABLE_SUFFIX_FIELD = "_TABLE_SUFFIX";
+
   private final Schema bigQuerySchema;
+  private final Statistic statistic;
+  private final boolean wildcard;
 
   public BigQueryTable(Schema bigQuerySchema) {
+    this(bigQuerySchema, Statistics.UNKNOWN);
+  }
+
+  /**
+   * @param bigQuerySchema The schema of the table
+   * @param statistic The statistics of the table, which the planner uses to estimate the cost of reading it
+   */
+  public BigQueryTable(Schema bigQuerySchema, Statistic statistic) {
+    this(bigQuerySchema, statistic, false);
+  }
+
+  /**
+   * @param bigQuerySchema The schema of the table
+   * @param statistic The statistics of the table, which the planner uses to estimate the cost of reading it
+   * @param wildcard Whether the table is a wildcard table, which has the {@link #TABLE_SUFFIX_FIELD} pseudo column
+   *   after the columns of the schema
+   */
+  public BigQueryTable(Schema bigQuerySchema, Statistic statistic, boolean wildcard) {
     this.bigQuerySchema = bigQuerySchema;
+    this.statistic = statistic;
+    this.wildcard = wildcard;
+  }
+
+  @Override
+  public Statistic getStatistic() {
+    return statistic;
   }
 
   @Override
@@ -45,6 +79,10 @@ public class BigQueryTable extends AbstractTable {
       colTypes.add(createSubType(field, typeFactory));
       colNames.add(field.getName());
     }
+    if (wildcard) {
+      colTypes.add(typeFactory.createSqlType(SqlTypeName.VARCHAR));
+      colNames.add(TABLE_SUFFIX_FIELD);
+    }
     return typeFactory.createStructType(colTypes, colNames);
   }
 
@@ -0,0 +1,73 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.plugins.common;
+
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.tools.RelBuilder;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+
+/**
+ * Resolves field paths such as 'payload.user.id', which reference a field nested in records, over the fields of
+ * the node at the top of a {@link RelBuilder}. A path without any dot references a top-level field.
+ */
+public final class FieldPath {
+
+  private FieldPath() {
+  }
+
+  /**
+   * Resolves a path given as field names separated by dots.
+   *
+   * @param builder The builder holding the node whose fields are referenced
+   * @param path The path to resolve
+   * @return The field, or an access to the nested field
+   * @throws IllegalArgumentException If the path is empty or references a field which does not exist
+   */
+  public static RexNode resolve(RelBuilder builder, String path) {
+    return resolve(builder, Arrays.asList(path.trim().split(Pattern.quote("."), -1)));
+  }
+
+  /**
+   * Resolves a path given as a list of field names.
+   *
+   * @param builder The builder holding the node whose fields are referenced
+   * @param names The names of the fields on the path, starting with a top-level field
+   * @return The field, or an access to the nested field
+   * @throws IllegalArgumentException If the path is empty or references a field which does not exist
+   */
+  public static RexNode resolve(RelBuilder builder, List<String> names) {
+    if (names.isEmpty() || names.contains("")) {
+      throw new IllegalArgumentException("Invalid field path '" + String.join(".", names) + "'.");
+    }
+    RexNode field = builder.field(names.get(0));
+    for (int i = 1; i < names.size(); i++) {
+      RelDataType type = field.getType();
+      RelDataTypeField nested = type.isStruct() ? type.getField(names.get(i), true, false) : null;
+      if (nested == null) {
+        throw new IllegalArgumentException(String.format("Field '%s' does not exist in '%s'.", names.get(i),
+                                                         String.join(".", names.subList(0, i))));
+      }
+      field = builder.getRexBuilder().makeFieldAccess(field, nested.getIndex());
+    }
+    return field;
+  }
+}
@@ -0,0 +1,162 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.plugins.common;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.ImmutableList;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rex.RexFieldCollation;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.rex.RexWindowBound;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlWindow;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.parser.SqlParserPos;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.RelBuilder;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.EnumSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * An ordering of rows by a list of fields, each optionally followed by 'asc' or 'desc', such as
+ * 'updated_at desc, id'. Null values are the lowest values, so in descending order they come last.
+ */
+public class Ordering {
+  // The rows of each partition are numbered in a column which is dropped once the first rows are kept
+  private static final String ROW_NUMBER_NAME = "row_num";
+
+  private final List<OrderField> fields;
+
+  private Ordering(List<OrderField> fields) {
+    this.fields = fields;
+  }
+
+  /**
+   * Parses an ordering from a plugin config.
+   *
+   * @param orderBy The comma-separated fields to order by, or null for no ordering
+   * @return The ordering, which has no fields if none were given
+   */
+  public static Ordering parse(@Nullable String orderBy) {
+    List<OrderField> fields = new ArrayList<>();
+    if (Strings.isNullOrEmpty(orderBy)) {
+      return new Ordering(fields);
+    }
+    for (String ordering : orderBy.split(Pattern.quote(","))) {
+      String[] parts = ordering.trim().split("\\s+");
+      if (parts[0].isEmpty() || parts.length > 2) {
+        throw new IllegalArgumentException("Invalid ordering '" + ordering + "', must be a field optionally " +
+                                             "followed by 'asc' or 'desc'.");
+      }
+      boolean descending = false;
+      if (parts.length == 2) {
+        if (parts[1].equalsIgnoreCase("desc")) {
+          descending = true;
+        } else if (!parts[1].equalsIgnoreCase("asc")) {
+          throw new IllegalArgumentException("Invalid direction '" + parts[1] + "' for field '" + parts[0] +
+                                               "', must be 'asc' or 'desc'.");
+        }
+      }
+      fields.add(new OrderField(parts[0], descending));
+    }
+    return new Ordering(fields);
+  }
+
+  public List<OrderField> getFields() {
+    return fields;
+  }
+
+  /**
+   * @return The sort keys of the ordering, for the top of the {@link RelBuilder} stack
+   */
+  public List<RexNode> getSortKeys(RelBuilder builder) {
+    List<RexNode> sortKeys = new ArrayList<>();
+    for (OrderField field : fields) {
+      RexNode sortKey = builder.field(field.getField());
+      sortKeys.add(field.isDescending() ? builder.nullsLast(builder.desc(sortKey)) : builder.nullsFirst(sortKey));
+    }
+    return sortKeys;
+  }
+
+  /**
+   * Keeps the first rows of each partition in this ordering. The rows of each partition are numbered with a single
+   * window, and the rows with a number past the count are filtered out, so that the input is only read once.
+   *
+   * @param builder The builder holding the input
+   * @param partitionKeys The fields which partition the input, or an empty list to number all rows together
+   * @param count The number of rows to keep for each partition
+   * @return The first rows of each partition, with the fields of the input
+   */
+  public RelNode keepFirstRows(RelBuilder builder, List<String> partitionKeys, int count) {
+    List<RexNode> partitionFields = new ArrayList<>();
+    for (String key : partitionKeys) {
+      partitionFields.add(builder.field(key));
+    }
+    List<RexFieldCollation> orderKeys = new ArrayList<>();
+    for (OrderField field : fields) {
+      Set<SqlKind> flags = field.isDescending()
+        ? EnumSet.of(SqlKind.DESCENDING, SqlKind.NULLS_LAST) : EnumSet.of(SqlKind.NULLS_FIRST);
+      orderKeys.add(new RexFieldCollation(builder.field(field.getField()), flags));
+    }
+    RexNode rowNumber = builder.getRexBuilder().makeOver(
+      builder.getTypeFactory().createSqlType(SqlTypeName.BIGINT), SqlStdOperatorTable.ROW_NUMBER,
+      Collections.emptyList(), partitionFields, ImmutableList.copyOf(orderKeys),
+      RexWindowBound.create(SqlWindow.createUnboundedPreceding(SqlParserPos.ZERO), null),
+      RexWindowBound.create(SqlWindow.createCurrentRow(SqlParserPos.ZERO), null),
+      true, true, false, false, false);
+
+    List<String> fieldNames = builder.peek().getRowType().getFieldNames();
+    String rowNumberName = ROW_NUMBER_NAME;
+    for (int i = 0; fieldNames.contains(rowNumberName); i++) {
+      rowNumberName = ROW_NUMBER_NAME + i;
+    }
+    List<RexNode> numberedFields = new ArrayList<>(builder.fields());
+    numberedFields.add(builder.alias(rowNumber, rowNumberName));
+    builder.project(numberedFields);
+    RexNode rowNumberField = builder.field(rowNumberName);
+    builder.filter(count == 1 ? builder.equals(rowNumberField, builder.literal(1))
+                     : builder.call(SqlStdOperatorTable.LESS_THAN_OR_EQUAL, rowNumberField, builder.literal(count)));
+    return builder.project(builder.fields(fieldNames)).build();
+  }
+
+  /**
+   * A field to order by.
+   */
+  public static class OrderField {
+    private final String field;
+    private final boolean descending;
+
+    public OrderField(String field, boolean descending) {
+      this.field = field;
+      this.descending = descending;
+    }
+
+    public String getField() {
+      return field;
+    }
+
+    public boolean isDescending() {
+      return descending;
+    }
+  }
+}
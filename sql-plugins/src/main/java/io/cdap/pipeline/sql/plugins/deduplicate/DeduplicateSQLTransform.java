@@ -0,0 +1,103 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.plugins.deduplicate;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.api.plugin.PluginConfig;
+import io.cdap.pipeline.sql.api.template.QueryContext;
+import io.cdap.pipeline.sql.api.template.SQLTransform;
+import io.cdap.pipeline.sql.plugins.common.Ordering;
+import org.apache.calcite.rel.RelNode;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * A SQL Deduplicate transform.
+ */
+@Plugin(type = SQLTransform.PLUGIN_TYPE)
+@Name("Deduplicate")
+@Description("The Deduplicate transform keeps a single row for each distinct combination of key fields, choosing " +
+  "the first row in a given order, such as the latest version of each record.")
+public class DeduplicateSQLTransform extends SQLTransform {
+  private static final String KEYS_NAME = "keys";
+  private static final String ORDER_BY_NAME = "orderBy";
+  private static final String KEYS_DESC = "Comma-separated list of fields which identify a row. For example: " +
+    "'id,region'.";
+  private static final String ORDER_BY_DESC = "Comma-separated list of fields which order the rows of each key, " +
+    "each optionally followed by 'asc' or 'desc'. The first row in this order is kept. For example: " +
+    "'updated_at desc' keeps the latest row. If not set, an arbitrary row is kept.";
+
+  /**
+   * Config class for DeduplicateSQLTransform
+   */
+  public static class DeduplicateSQLTransformConfig extends PluginConfig {
+    @Name(KEYS_NAME)
+    @Description(KEYS_DESC)
+    private final String keys;
+
+    @Name(ORDER_BY_NAME)
+    @Description(ORDER_BY_DESC)
+    @Nullable
+    private final String orderBy;
+
+    public DeduplicateSQLTransformConfig(String keys, @Nullable String orderBy) {
+      this.keys = keys;
+      this.orderBy = orderBy;
+    }
+
+    public List<String> parseKeys() {
+      if (Strings.isNullOrEmpty(keys)) {
+        throw new IllegalArgumentException("Must specify at least one key field.");
+      }
+      List<String> keyFields = new ArrayList<>();
+      for (String field : keys.split(Pattern.quote(","))) {
+        if (field.trim().isEmpty()) {
+          throw new IllegalArgumentException("Key field may not be empty.");
+        }
+        keyFields.add(field.trim());
+      }
+      return keyFields;
+    }
+
+    public Ordering parseOrderBy() {
+      return Ordering.parse(orderBy);
+    }
+  }
+
+  private final DeduplicateSQLTransformConfig config;
+
+  @VisibleForTesting
+  DeduplicateSQLTransform(DeduplicateSQLTransformConfig config) {
+    this.config = config;
+  }
+
+  /**
+   * Keeps the first row of each key by numbering the rows of each key with a single window and filtering on the
+   * number, so that the input is only read once. Dialects which support QUALIFY filter on the window directly.
+   */
+  @Override
+  public RelNode getQuery(QueryContext context) {
+    return config.parseOrderBy().keepFirstRows(context.getRelBuilder(), config.parseKeys(), 1);
+  }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+
+package io.cdap.pipeline.sql.plugins.filter;
+
+import io.cdap.pipeline.sql.plugins.common.FieldPath;
+import org.apache.calcite.config.Lex;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlAbstractDateTimeLiteral;
+import org.apache.calcite.sql.SqlBasicCall;
+import org.apache.calcite.sql.SqlCall;
+import org.apache.calcite.sql.SqlIdentifier;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlLiteral;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.SqlNodeList;
+import org.apache.calcite.sql.SqlNumericLiteral;
+import org.apache.calcite.sql.fun.SqlBetweenOperator;
+import org.apache.calcite.sql.fun.SqlLikeOperator;
+import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.parser.SqlParseException;
+import org.apache.calcite.sql.parser.SqlParser;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.DateString;
+import org.apache.calcite.util.TimeString;
+import org.apache.calcite.util.TimestampString;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Parses a condition written as a SQL boolean expression into a single {@link RexNode} over the fields of the
+ * node at the top of a {@link RelBuilder}.
+ *
+ * Conditions combine comparisons with AND, OR and NOT, and may use IN, BETWEEN, IS [NOT] NULL, LIKE and
+ * arithmetic. Fields are referenced by name, quoted with backticks if necessary, and fields nested in
+ * records by their path, such as payload.user.id. Literals are integers, decimals
+ * such as 1.5, approximate numbers such as 1.5E3, strings in single quotes, TRUE, FALSE, NULL, and typed literals
+ * such as DATE '2019-01-01', TIME '12:00:00' and TIMESTAMP '2019-01-01 12:00:00'.
+ */
+public class ConditionParser {
+  private static final SqlParser.Config PARSER_CONFIG = SqlParser.configBuilder()
+    .setLex(Lex.MYSQL)
+    .build();
+
+  private final RelBuilder builder;
+
+  public ConditionParser(RelBuilder builder) {
+    this.builder = builder;
+  }
+
+  /**
+   * Parses a condition.
+   *
+   * @param condition The condition to parse
+   * @return The condition as an expression over the fields of the node at the top of the builder
+   * @throws IllegalArgumentException If the condition is invalid or uses an unsupported construct
+   */
+  public RexNode parse(String condition) {
+    SqlNode node;
+    try {
+      node = SqlParser.create(condition, PARSER_CONFIG).parseExpression();
+    } catch (SqlParseException e) {
+      throw new IllegalArgumentException(String.format("Invalid condition '%s': %s", condition, e.getMessage()), e);
+    }
+    return convert(node);
+  }
+
+  private RexNode convert(SqlNode node) {
+    if (node instanceof SqlIdentifier) {
+      return convertIdentifier((SqlIdentifier) node);
+    }
+    if (node instanceof SqlLiteral) {
+      return convertLiteral((SqlLiteral) node);
+    }
+    if (!(node instanceof SqlBasicCall)) {
+      throw new IllegalArgumentException("Unsupported expression in condition: " + node);
+    }
+
+    SqlCall call = (SqlCall) node;
+    switch (call.getKind()) {
+      case AND:
+      case OR:
+      case NOT:
+      case EQUALS:
+      case NOT_EQUALS:
+      case LESS_THAN:
+      case LESS_THAN_OR_EQUAL:
+      case GREATER_THAN:
+      case GREATER_THAN_OR_EQUAL:
+      case IS_NULL:
+      case IS_NOT_NULL:
+      case IS_TRUE:
+      case IS_NOT_TRUE:
+      case IS_FALSE:
+      case IS_NOT_FALSE:
+      case PLUS:
+      case MINUS:
+      case TIMES:
+      case DIVIDE:
+      case MINUS_PREFIX:
+        return builder.call(call.getOperator(), convertOperands(call.getOperandList()));
+      case IN:
+      case NOT_IN:
+        return convertIn(call);
+      case BETWEEN:
+        return convertBetween(call);
+      case LIKE:
+        return convertLike(call);
+      default:
+        throw new IllegalArgumentException(String.format("Unsupported operator %s in condition: %s",
+                                                         call.getOperator().getName(), node));
+    }
+  }
+
+  private List<RexNode> convertOperands(List<SqlNode> operands) {
+    List<RexNode> converted = new ArrayList<>();
+    for (SqlNode operand : operands) {
+      converted.add(convert(operand));
+    }
+    return converted;
+  }
+
+  private RexNode convertIdentifier(SqlIdentifier identifier) {
+    if (identifier.isStar()) {
+      throw new IllegalArgumentException("Unsupported field reference in condition: " + identifier);
+    }
+    return FieldPath.resolve(builder, identifier.names);
+  }
+
+  private RexNode convertLiteral(SqlLiteral literal) {
+    RexBuilder rexBuilder = builder.getRexBuilder();
+    switch (literal.getTypeName()) {
+      case NULL:
+        return builder.literal(null);
+      case BOOLEAN:
+        return builder.literal(literal.booleanValue());
+      case CHAR:
+        return builder.literal(literal.getValueAs(String.class));
+      case DECIMAL:
+      case DOUBLE:
+        return convertNumericLiteral((SqlNumericLiteral) literal);
+      case DATE:
+        return rexBuilder.makeDateLiteral(literal.getValueAs(DateString.class));
+      case TIME:
+        return rexBuilder.makeTimeLiteral(literal.getValueAs(TimeString.class),
+                                          ((SqlAbstractDateTimeLiteral) literal).getPrec());
+      case TIMESTAMP:
+        return rexBuilder.makeTimestampLiteral(literal.getValueAs(TimestampString.class),
+                                               ((SqlAbstractDateTimeLiteral) literal).getPrec());
+      default:
+        throw new IllegalArgumentException("Unsupported literal in condition: " + literal);
+    }
+  }
+
+  private RexNode convertNumericLiteral(SqlNumericLiteral literal) {
+    BigDecimal value = literal.bigDecimalValue();
+    if (!literal.isExact()) {
+      return builder.literal(value.doubleValue());
+    }
+    if (value.scale() > 0) {
+      return builder.getRexBuilder().makeExactLiteral(value);
+    }
+    // Integers which fit are kept as integers, so they compare with integer fields without a cast
+    try {
+      return builder.literal(value.intValueExact());
+    } catch (ArithmeticException e) {
+      return builder.literal(value.longValueExact());
+    }
+  }
+
+  /**
+   * Converts an IN list into a disjunction of equalities, which Calcite and every platform can evaluate.
+   */
+  private RexNode convertIn(SqlCall call) {
+    if (!(call.operand(1) instanceof SqlNodeList)) {
+      throw new IllegalArgumentException("IN conditions must have a list of values: " + call);
+    }
+    RexNode value = convert(call.operand(0));
+    List<RexNode> equalities = new ArrayList<>();
+    for (SqlNode element : (SqlNodeList) call.operand(1)) {
+      equalities.add(builder.equals(value, convert(element)));
+    }
+    RexNode in = builder.or(equalities);
+    return call.getKind() == SqlKind.NOT_IN ? builder.not(in) : in;
+  }
+
+  private RexNode convertBetween(SqlCall call) {
+    SqlBetweenOperator operator = (SqlBetweenOperator) call.getOperator();
+    if (operator.flag == SqlBetweenOperator.Flag.SYMMETRIC) {
+      throw new IllegalArgumentException("BETWEEN SYMMETRIC is not supported in conditions: " + call);
+    }
+    RexNode value = convert(call.operand(SqlBetweenOperator.VALUE_OPERAND));
+    RexNode lower = convert(call.operand(SqlBetweenOperator.LOWER_OPERAND));
+    RexNode upper = convert(call.operand(SqlBetweenOperator.UPPER_OPERAND));
+    RexNode between = builder.and(builder.call(SqlStdOperatorTable.GREATER_THAN_OR_EQUAL, value, lower),
+                                  builder.call(SqlStdOperatorTable.LESS_THAN_OR_EQUAL, value, upper));
+    return operator.isNegated() ? builder.not(between) : between;
+  }
+
+  private RexNode convertLike(SqlCall call) {
+    RexNode like = builder.call(SqlStdOperatorTable.LIKE, convertOperands(call.getOperandList()));
+    return ((SqlLikeOperator) call.getOperator()).isNegated() ? builder.not(like) : like;
+  }
+}
@@ -23,29 +23,51 @@ import io.cdap.cdap.api.annotation.Plugin;
 import io.cdap.cdap.api.plugin.PluginConfig;
 import io.cdap.pipeline.sql.api.template.QueryContext;
 import io.cdap.pipeline.sql.api.template.SQLTransform;
+import io.cdap.pipeline.sql.api.template.functions.ValueListFunction;
+import io.cdap.pipeline.sql.plugins.common.FieldPath;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.sql.SqlBinaryOperator;
 import org.apache.calcite.sql.fun.SqlStdOperatorTable;
 import org.apache.calcite.tools.RelBuilder;
 
+import java.util.ArrayList;
+import java.util.List;
+import javax.annotation.Nullable;
+
 /**
  * A SQL Filter transform.
  */
 @Plugin(type = SQLTransform.PLUGIN_TYPE)
 @Name("Filter")
-@Description("The Filter transform lets you add a filter to an SQL query.")
+@Description("The Filter transform lets you add a filter to an SQL query, either as a single comparison or as a " +
+  "condition combining several predicates.")
 public class FilterSQLTransform extends SQLTransform {
   private static final String LEFT_VALUE_NAME = "leftValue";
   private static final String LEFT_TYPE_NAME = "leftType";
   private static final String RIGHT_VALUE_NAME = "rightValue";
   private static final String RIGHT_TYPE_NAME = "rightType";
   private static final String OPERATION_NAME = "operation";
+  private static final String CONDITION_NAME = "condition";
+  private static final String VALUE_LIST_FIELD_NAME = "valueListField";
+  private static final String VALUE_LIST_SOURCE_NAME = "valueListSource";
+  private static final String VALUE_LIST_REFERENCE_NAME = "valueListReference";
   private static final String LEFT_VALUE_DESC = "The value which forms the left-hand operand of the comparison.";
   private static final String LEFT_TYPE_DESC = "The type of the left-hand operand.";
   private static final String RIGHT_VALUE_DESC = "The value which forms the right-hand operand of the comparison.";
   private static final String RIGHT_TYPE_DESC = "The type of the right-hand operand.";
   private static final String OPERATION_DESC = "The operation for this filter.";
+  private static final String CONDITION_DESC = "A condition on the fields of the input, written as a SQL boolean " +
+    "expression such as \"a = 1 AND (b > 5 OR c IS NULL)\". Supports AND, OR, NOT, comparisons, IN, BETWEEN, " +
+    "IS [NOT] NULL, LIKE, arithmetic, and typed literals such as DATE '2019-01-01'. If set, the operand values " +
+    "must not be set, and the operand types and the operation are ignored.";
+  private static final String VALUE_LIST_FIELD_DESC = "A field which must be one of the values of a list given by " +
+    "reference. The list is combined with the comparison or the condition, if either is set.";
+  private static final String VALUE_LIST_SOURCE_DESC = "Where the list of values is read from: a runtime argument " +
+    "holding comma separated values, a file in Cloud Storage holding one value per line, or a column of a table.";
+  private static final String VALUE_LIST_REFERENCE_DESC = "The name of the runtime argument, the URI of the file, " +
+    "such as gs://bucket/accounts.csv, or the table and column, such as dataset.table.column, holding the list of " +
+    "values.";
 
   /**
    * Config class for FilterSQLTransform
@@ -53,52 +75,120 @@ public class FilterSQLTransform extends SQLTransform {
   public static class FilterTransformTransformConfig extends PluginConfig {
     @Name(LEFT_VALUE_NAME)
     @Description(LEFT_VALUE_DESC)
+    @Nullable
     private final String leftValue;
 
     @Name(LEFT_TYPE_NAME)
     @Description(LEFT_TYPE_DESC)
+    @Nullable
     private final String leftType;
 
     @Name(RIGHT_VALUE_NAME)
     @Description(RIGHT_VALUE_DESC)
+    @Nullable
     private final String rightValue;
 
     @Name(RIGHT_TYPE_NAME)
     @Description(RIGHT_TYPE_DESC)
+    @Nullable
     private final String rightType;
 
     @Name(OPERATION_NAME)
     @Description(OPERATION_DESC)
+    @Nullable
     private final String operation;
 
+    @Name(CONDITION_NAME)
+    @Description(CONDITION_DESC)
+    @Nullable
+    private final String condition;
+
+    @Name(VALUE_LIST_FIELD_NAME)
+    @Description(VALUE_LIST_FIELD_DESC)
+    @Nullable
+    private final String valueListField;
+
+    @Name(VALUE_LIST_SOURCE_NAME)
+    @Description(VALUE_LIST_SOURCE_DESC)
+    @Nullable
+    private final String valueListSource;
+
+    @Name(VALUE_LIST_REFERENCE_NAME)
+    @Description(VALUE_LIST_REFERENCE_DESC)
+    @Nullable
+    private final String valueListReference;
+
     public FilterTransformTransformConfig(String leftValue, String leftType,
                                           String rightValue, String rightType, String operation) {
+      this(leftValue, leftType, rightValue, rightType, operation, null);
+    }
+
+    public FilterTransformTransformConfig(@Nullable String leftValue, @Nullable String leftType,
+                                          @Nullable String rightValue, @Nullable String rightType,
+                                          @Nullable String operation, @Nullable String condition) {
+      this(leftValue, leftType, rightValue, rightType, operation, condition, null, null, null);
+    }
+
+    public FilterTransformTransformConfig(@Nullable String leftValue, @Nullable String leftType,
+                                          @Nullable String rightValue, @Nullable String rightType,
+                                          @Nullable String operation, @Nullable String condition,
+                                          @Nullable String valueListField, @Nullable String valueListSource,
+                                          @Nullable String valueListReference) {
       this.leftValue = leftValue;
       this.leftType = leftType;
       this.rightValue = rightValue;
       this.rightType = rightType;
       this.operation = operation;
+      this.condition = condition;
+      this.valueListField = valueListField;
+      this.valueListSource = valueListSource;
+      this.valueListReference = valueListReference;
     }
 
+    @Nullable
     public String getLeftValue() {
       return leftValue;
     }
 
+    @Nullable
     public String getLeftType() {
       return leftType;
     }
 
+    @Nullable
     public String getRightValue() {
       return rightValue;
     }
 
+    @Nullable
     public String getRightType() {
       return rightType;
     }
 
+    @Nullable
     public String getOperation() {
       return operation;
     }
+
+    @Nullable
+    public String getCondition() {
+      return condition;
+    }
+
+    @Nullable
+    public String getValueListField() {
+      return valueListField;
+    }
+
+    @Nullable
+    public String getValueListSource() {
+      return valueListSource;
+    }
+
+    @Nullable
+    public String getValueListReference() {
+      return valueListReference;
+    }
   }
 
   private final FilterTransformTransformConfig config;
@@ -127,7 +217,7 @@ public class FilterSQLTransform extends SQLTransform {
   private RexNode getOperandFromStrings(RelBuilder builder, String value, String type) {
     switch(type) {
       case "FIELD":
-        return builder.field(value);
+        return FieldPath.resolve(builder, value);
       case "INTEGER":
         return builder.literal(Integer.valueOf(value));
       case "STRING":
@@ -137,8 +227,15 @@ public class FilterSQLTransform extends SQLTransform {
     }
   }
 
-  @Override
-  public RelNode getQuery(QueryContext context) {
+  private ValueListFunction.Source getValueListSource(String sourceStr) {
+    try {
+      return ValueListFunction.Source.valueOf(sourceStr.toUpperCase());
+    } catch (IllegalArgumentException e) {
+      throw new IllegalArgumentException("Invalid value list source " + sourceStr);
+    }
+  }
+
+  private RexNode getComparison(QueryContext context) {
     if (Strings.isNullOrEmpty(config.getLeftValue())) {
       throw new IllegalArgumentException("Must specify a left-hand value.");
     }
@@ -158,6 +255,46 @@ public class FilterSQLTransform extends SQLTransform {
     RexNode leftOperand = getOperandFromStrings(builder, config.getLeftValue(), config.getLeftType().toUpperCase());
     RexNode rightOperand = getOperandFromStrings(builder, config.getRightValue(), config.getRightType().toUpperCase());
     SqlBinaryOperator operator = getOperatorFromString(config.getOperation().toUpperCase());
-    return builder.filter(builder.call(operator, leftOperand, rightOperand)).build();
+    return builder.call(operator, leftOperand, rightOperand);
+  }
+
+  /**
+   * Builds a placeholder for the membership of a field in a list given by reference. The list is only read at
+   * runtime, so the executor replaces the placeholder with the values or with a lookup of the values.
+   */
+  private RexNode getValueListPredicate(QueryContext context) {
+    if (Strings.isNullOrEmpty(config.getValueListSource())) {
+      throw new IllegalArgumentException("Must specify the source of the value list.");
+    }
+    if (Strings.isNullOrEmpty(config.getValueListReference())) {
+      throw new IllegalArgumentException("Must specify the reference to the value list.");
+    }
+    ValueListFunction.Source source = getValueListSource(config.getValueListSource());
+    if (source == ValueListFunction.Source.TABLE && config.getValueListReference().indexOf('.') <= 0) {
+      throw new IllegalArgumentException("Value list tables must be given as table.column.");
+    }
+    RelBuilder builder = context.getRelBuilder();
+    return builder.call(new ValueListFunction(source, config.getValueListReference()),
+                        FieldPath.resolve(builder, config.getValueListField()));
+  }
+
+  @Override
+  public RelNode getQuery(QueryContext context) {
+    boolean hasValueList = !Strings.isNullOrEmpty(config.getValueListField());
+    List<RexNode> predicates = new ArrayList<>();
+    if (!Strings.isNullOrEmpty(config.getCondition())) {
+      // The types and the operation have defaults, so only the values are checked
+      if (!Strings.isNullOrEmpty(config.getLeftValue()) || !Strings.isNullOrEmpty(config.getRightValue())) {
+        throw new IllegalArgumentException("Must not specify operand values together with a condition.");
+      }
+      predicates.add(new ConditionParser(context.getRelBuilder()).parse(config.getCondition()));
+    } else if (!hasValueList || !Strings.isNullOrEmpty(config.getLeftValue())
+      || !Strings.isNullOrEmpty(config.getRightValue())) {
+      predicates.add(getComparison(context));
+    }
+    if (hasValueList) {
+      predicates.add(getValueListPredicate(context));
+    }
+    return context.getRelBuilder().filter(predicates.toArray(new RexNode[0])).build();
   }
 }
@@ -0,0 +1,156 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.plugins.flatten;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.api.plugin.PluginConfig;
+import io.cdap.pipeline.sql.api.template.QueryContext;
+import io.cdap.pipeline.sql.api.template.SQLTransform;
+import io.cdap.pipeline.sql.plugins.common.FieldPath;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.core.Uncollect;
+import org.apache.calcite.rex.RexCorrelVariable;
+import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.Holder;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * A SQL Flatten transform.
+ */
+@Plugin(type = SQLTransform.PLUGIN_TYPE)
+@Name("Flatten")
+@Description("The Flatten transform outputs a row for each element of an array field, holding the other fields " +
+  "of the input row and the element.")
+public class FlattenSQLTransform extends SQLTransform {
+  private static final String FIELD_NAME = "field";
+  private static final String ELEMENT_NAME = "element";
+  private static final String KEEP_EMPTY_NAME = "keepEmpty";
+  private static final String FIELD_DESC = "The array field to flatten. Arrays nested in records are referenced by " +
+    "their path. For example: 'payload.items'.";
+  private static final String ELEMENT_DESC = "The name of the output field holding the element, if the elements " +
+    "are not records. The fields of record elements are output as separate fields. Defaults to the name of the " +
+    "array field.";
+  private static final String KEEP_EMPTY_DESC = "Whether to output rows whose array is null or empty, with a " +
+    "null element. Defaults to false.";
+
+  /**
+   * Config class for FlattenSQLTransform
+   */
+  public static class FlattenSQLTransformConfig extends PluginConfig {
+    @Name(FIELD_NAME)
+    @Description(FIELD_DESC)
+    private final String field;
+
+    @Name(ELEMENT_NAME)
+    @Description(ELEMENT_DESC)
+    @Nullable
+    private final String element;
+
+    @Name(KEEP_EMPTY_NAME)
+    @Description(KEEP_EMPTY_DESC)
+    @Nullable
+    private final Boolean keepEmpty;
+
+    public FlattenSQLTransformConfig(String field, @Nullable String element, @Nullable Boolean keepEmpty) {
+      this.field = field;
+      this.element = element;
+      this.keepEmpty = keepEmpty;
+    }
+
+    public List<String> parseField() {
+      if (Strings.isNullOrEmpty(field)) {
+        throw new IllegalArgumentException("Must specify the array field to flatten.");
+      }
+      return Arrays.asList(field.trim().split(Pattern.quote("."), -1));
+    }
+
+    public String getElement() {
+      if (!Strings.isNullOrEmpty(element)) {
+        return element.trim();
+      }
+      List<String> path = parseField();
+      return path.get(path.size() - 1);
+    }
+
+    public boolean isKeepEmpty() {
+      return keepEmpty != null && keepEmpty;
+    }
+  }
+
+  private final FlattenSQLTransformConfig config;
+
+  @VisibleForTesting
+  FlattenSQLTransform(FlattenSQLTransformConfig config) {
+    this.config = config;
+  }
+
+  /**
+   * Joins each row with the elements of its array, which is generated as a join with UNNEST. The array field
+   * itself is dropped if it is a top-level field, since its elements replace it.
+   */
+  @Override
+  public RelNode getQuery(QueryContext context) {
+    List<String> path = config.parseField();
+    RelBuilder builder = context.getRelBuilder();
+    RexNode array = FieldPath.resolve(builder, path);
+    if (array.getType().getSqlTypeName() != SqlTypeName.ARRAY) {
+      throw new IllegalArgumentException("Field '" + String.join(".", path) + "' is not an array.");
+    }
+
+    // The elements are uncollected from the array of the current row of the input
+    Holder<RexCorrelVariable> correlation = Holder.of(null);
+    RelNode input = builder.variable(correlation).build();
+    int arrayIndex = input.getRowType().getField(path.get(0), true, false).getIndex();
+    RexNode element = correlation.get();
+    for (String name : path) {
+      element = builder.getRexBuilder().makeFieldAccess(element, name, true);
+    }
+    builder.values(new String[] {"ZERO"}, 0);
+    builder.project(builder.alias(element, config.getElement()));
+    RelNode elements = Uncollect.create(builder.peek().getTraitSet(), builder.build(), false);
+    builder.push(input).push(elements);
+    builder.correlate(config.isKeepEmpty() ? JoinRelType.LEFT : JoinRelType.INNER, correlation.get().id,
+                      builder.field(2, 0, arrayIndex));
+
+    List<RexNode> fields = new ArrayList<>();
+    List<String> names = new ArrayList<>();
+    List<String> joinedNames = builder.peek().getRowType().getFieldNames();
+    int inputFieldCount = input.getRowType().getFieldCount();
+    boolean recordElements = array.getType().getComponentType().isStruct();
+    for (int i = 0; i < joinedNames.size(); i++) {
+      if (path.size() == 1 && i == arrayIndex) {
+        continue;
+      }
+      fields.add(builder.field(i));
+      // The element was renamed by the join if it has the name of the array field, which is now dropped
+      names.add(!recordElements && i == inputFieldCount ? config.getElement() : joinedNames.get(i));
+    }
+    return builder.project(fields, names).build();
+  }
+}
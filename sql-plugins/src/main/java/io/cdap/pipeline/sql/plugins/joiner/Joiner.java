@@ -26,29 +26,43 @@ import io.cdap.cdap.api.annotation.Plugin;
 import io.cdap.cdap.api.plugin.PluginConfig;
 import io.cdap.pipeline.sql.api.template.QueryContext;
 import io.cdap.pipeline.sql.api.template.SQLJoiner;
+import io.cdap.pipeline.sql.api.template.functions.BucketFunction;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rel.core.JoinRelType;
+import org.apache.calcite.rel.core.Uncollect;
+import org.apache.calcite.rel.type.RelDataTypeField;
+import org.apache.calcite.rex.RexBuilder;
+import org.apache.calcite.rex.RexCorrelVariable;
 import org.apache.calcite.rex.RexNode;
+import org.apache.calcite.sql.SqlBinaryOperator;
+import org.apache.calcite.sql.SqlKind;
 import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeName;
 import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.Holder;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import javax.annotation.Nullable;
 
 /**
  * Represents an SQL Join operation.
  */
 @Plugin(type = SQLJoiner.PLUGIN_TYPE)
 @Name("Joiner")
-@Description("Represents a simple SQL join operation on two inputs.")
+@Description("Represents a simple SQL join operation on two or more inputs.")
 public class Joiner extends SQLJoiner {
   private static final Logger LOG = LoggerFactory.getLogger(Joiner.class);
+  private static final String RANGE_BUCKET_NAME = "range_bucket";
   private final JoinerConfig config;
   private JoinRelType calciteJoinType;
   private Map<String, String> selectedFields;
@@ -63,41 +77,62 @@ public class Joiner extends SQLJoiner {
   public RelNode getQuery(QueryContext context) {
     RelBuilder builder = context.getRelBuilder();
     List<String> inputs = context.getInputs();
-    if (inputs.size() != 2) {
-      throw new IllegalArgumentException("Unable to join more than two inputs. Please use multiple joins for more " +
-                                           "than two sources.");
+    if (inputs.size() < 2) {
+      throw new IllegalArgumentException("Unable to join less than two inputs.");
     }
     // Initialize config
     init(inputs);
+    if (inputs.size() > 2 && calciteJoinType != JoinRelType.INNER && calciteJoinType != JoinRelType.LEFT
+      && calciteJoinType != JoinRelType.FULL) {
+      throw new IllegalArgumentException(String.format("Unable to perform a %s join on more than two inputs.",
+                                                       calciteJoinType));
+    }
+    List<String> joinOrder = getJoinOrder(inputs);
 
-    // Construct the join
-    List<RexNode> conditions = new ArrayList<>();
-    for (JoinerConfig.JoinKey key: joinKeys) {
-      if (!stageOrdinalMap.containsKey(key.getLeftStage()) || !stageOrdinalMap.containsKey(key.getRightStage())) {
-        throw new IllegalArgumentException("Join key stage is not in the list of input stages.");
+    // Label each input with its stage name, so that fields are resolved by stage
+    Map<String, RelNode> inputNodes = new HashMap<>();
+    for (int i = inputs.size() - 1; i >= 0; i--) {
+      inputNodes.put(inputs.get(i), builder.build());
+    }
+    RangeBucket rangeBucket = getRangeBucket(inputNodes, joinOrder.get(0));
+    if (rangeBucket != null) {
+      addRangeBuckets(builder, inputNodes, rangeBucket);
+    }
+    Set<String> joinedStages = new HashSet<>();
+    for (String stage : joinOrder) {
+      builder.push(inputNodes.get(stage));
+      builder.as(stage);
+      if (joinedStages.isEmpty()) {
+        joinedStages.add(stage);
+        continue;
       }
-      int leftStageOrdinal = stageOrdinalMap.get(key.getLeftStage());
-      RexNode leftField = builder.field(inputs.size(), leftStageOrdinal, key.getLeftKey());
-      int rightStageOrdinal = stageOrdinalMap.get(key.getRightStage());
-      RexNode rightField = builder.field(inputs.size(), rightStageOrdinal, key.getRightKey());
-      RexNode condition = builder.call(SqlStdOperatorTable.EQUALS, leftField, rightField);
-      conditions.add(condition);
+
+      // Construct the join with every key between the stage and the stages joined before it
+      List<RexNode> conditions = new ArrayList<>();
+      for (JoinerConfig.JoinKey key: joinKeys) {
+        if ((key.getLeftStage().equals(stage) && joinedStages.contains(key.getRightStage()))
+          || (key.getRightStage().equals(stage) && joinedStages.contains(key.getLeftStage()))) {
+          RexNode leftField = builder.field(2, key.getLeftStage(), key.getLeftKey());
+          RexNode rightField = builder.field(2, key.getRightStage(), key.getRightKey());
+          conditions.add(builder.call(key.getOperator(), leftField, rightField));
+        }
+      }
+      if (rangeBucket != null) {
+        // The range conditions remain as a filter of the rows with the same bucket
+        conditions.add(builder.call(SqlStdOperatorTable.EQUALS,
+                                    builder.field(2, rangeBucket.pointStage, rangeBucket.name),
+                                    builder.field(2, rangeBucket.rangeStage, rangeBucket.name)));
+      }
+      builder.join(calciteJoinType, conditions);
+      joinedStages.add(stage);
     }
-    builder.join(calciteJoinType, conditions);
 
     // Construct the projection
     List<RexNode> fields = new ArrayList<>();
     for (Map.Entry<String, String> selectedFieldsEntry: selectedFields.entrySet()) {
-      String fullFieldName = selectedFieldsEntry.getKey();
-      String[] nameArr = fullFieldName.split(Pattern.quote("."));
-      String stageName = nameArr[0];
-      String fieldName = nameArr[1];
-      if (!stageOrdinalMap.containsKey(stageName)) {
-        throw new IllegalArgumentException("Selected field stage is not in the list of input stages.");
-      }
+      String[] nameArr = selectedFieldsEntry.getKey().split(Pattern.quote("."));
       String alias = selectedFieldsEntry.getValue();
-      RexNode field = builder.alias(builder.field(fieldName), alias);
-      fields.add(field);
+      fields.add(builder.alias(builder.field(nameArr[0], nameArr[1]), alias));
     }
     return builder.project(fields).build();
   }
@@ -112,11 +147,240 @@ public class Joiner extends SQLJoiner {
     for (int i = 0; i < inputs.size(); i++) {
       stageOrdinalMap.put(inputs.get(i), i);
     }
+    for (JoinerConfig.JoinKey key : joinKeys) {
+      if (!stageOrdinalMap.containsKey(key.getLeftStage()) || !stageOrdinalMap.containsKey(key.getRightStage())) {
+        throw new IllegalArgumentException("Join key stage is not in the list of input stages.");
+      }
+      if (key.getLeftStage().equals(key.getRightStage())) {
+        throw new IllegalArgumentException("Join key must compare fields of two different input stages.");
+      }
+    }
+    for (String fullFieldName : selectedFields.keySet()) {
+      if (!stageOrdinalMap.containsKey(fullFieldName.split(Pattern.quote("."))[0])) {
+        throw new IllegalArgumentException("Selected field stage is not in the list of input stages.");
+      }
+    }
 
     // Parse the join type
     calciteJoinType = config.parseJoinType();
   }
 
+  /**
+   * Finds a field of one input which is bounded from below and above by fields of the other input, such as a
+   * timestamp which must be within the start and end of an interval, when range joins are bucketed. Only joins of two
+   * inputs are bucketed, and only if the input holding the bounds does not keep its unmatched rows, since it is
+   * replicated into every bucket of its range.
+   *
+   * @param inputNodes The inputs by stage
+   * @param leftStage The stage which is joined first, and so is the left input of the join
+   * @return The range to bucket the join on, or null if the join is not bucketed
+   */
+  @Nullable
+  private RangeBucket getRangeBucket(Map<String, RelNode> inputNodes, String leftStage) {
+    double width = config.parseRangeBucketWidth();
+    if (width == 0 || inputNodes.size() != 2) {
+      return null;
+    }
+    for (JoinerConfig.JoinKey key : joinKeys) {
+      for (boolean pointOnLeft : new boolean[] {true, false}) {
+        String pointStage = pointOnLeft ? key.getLeftStage() : key.getRightStage();
+        String pointField = pointOnLeft ? key.getLeftKey() : key.getRightKey();
+        String lower = null;
+        String upper = null;
+        String rangeStage = null;
+        for (JoinerConfig.JoinKey bound : joinKeys) {
+          SqlKind kind;
+          String boundField;
+          if (bound.getLeftStage().equals(pointStage) && bound.getLeftKey().equals(pointField)) {
+            kind = bound.getOperator().getKind();
+            boundField = bound.getRightKey();
+            rangeStage = bound.getRightStage();
+          } else if (bound.getRightStage().equals(pointStage) && bound.getRightKey().equals(pointField)) {
+            kind = bound.getOperator().getKind().reverse();
+            boundField = bound.getLeftKey();
+            rangeStage = bound.getLeftStage();
+          } else {
+            continue;
+          }
+          if (lower == null && (kind == SqlKind.GREATER_THAN || kind == SqlKind.GREATER_THAN_OR_EQUAL)) {
+            lower = boundField;
+          } else if (upper == null && (kind == SqlKind.LESS_THAN || kind == SqlKind.LESS_THAN_OR_EQUAL)) {
+            upper = boundField;
+          }
+        }
+        if (lower != null && upper != null) {
+          return createRangeBucket(inputNodes, leftStage, pointStage, pointField, rangeStage, lower, upper, width);
+        }
+      }
+    }
+    return null;
+  }
+
+  @Nullable
+  private RangeBucket createRangeBucket(Map<String, RelNode> inputNodes, String leftStage, String pointStage,
+                                        String pointField, String rangeStage, String lower, String upper,
+                                        double width) {
+    // The side of each input is decided by the join order rather than the order of the inputs
+    boolean pointOnLeft = pointStage.equals(leftStage);
+    boolean preservesRange;
+    switch (calciteJoinType) {
+      case INNER:
+        preservesRange = false;
+        break;
+      case LEFT:
+      case SEMI:
+      case ANTI:
+        preservesRange = !pointOnLeft;
+        break;
+      case RIGHT:
+        preservesRange = pointOnLeft;
+        break;
+      default:
+        preservesRange = true;
+        break;
+    }
+    if (preservesRange) {
+      LOG.warn("Unable to bucket the range join on {}.{} since {} keeps its unmatched rows.", pointStage, pointField,
+               rangeStage);
+      return null;
+    }
+
+    RelNode point = inputNodes.get(pointStage);
+    RelNode range = inputNodes.get(rangeStage);
+    SqlTypeName valueType = getBucketType(point, pointStage, pointField);
+    if (getBucketType(range, rangeStage, lower) != valueType || getBucketType(range, rangeStage, upper) != valueType) {
+      throw new IllegalArgumentException(String.format(
+        "Unable to bucket the range join on %s.%s since its bounds %s.%s and %s.%s have a different type.",
+        pointStage, pointField, rangeStage, lower, rangeStage, upper));
+    }
+    Set<String> usedNames = new HashSet<>(point.getRowType().getFieldNames());
+    usedNames.addAll(range.getRowType().getFieldNames());
+    String name = RANGE_BUCKET_NAME;
+    for (int i = 0; usedNames.contains(name); i++) {
+      name = RANGE_BUCKET_NAME + i;
+    }
+    return new RangeBucket(pointStage, pointField, rangeStage, lower, upper, valueType, width, name);
+  }
+
+  /**
+   * Returns the type of a field which can be bucketed. Numeric fields are bucketed as doubles, and dates and
+   * timestamps by their own type.
+   */
+  private static SqlTypeName getBucketType(RelNode input, String stage, String field) {
+    RelDataTypeField dataTypeField = input.getRowType().getField(field, true, false);
+    if (dataTypeField == null) {
+      throw new IllegalArgumentException(String.format("Field '%s' does not exist in stage %s.", field, stage));
+    }
+    SqlTypeName typeName = dataTypeField.getType().getSqlTypeName();
+    if (SqlTypeName.NUMERIC_TYPES.contains(typeName)) {
+      return SqlTypeName.DOUBLE;
+    }
+    if (typeName == SqlTypeName.DATE || typeName == SqlTypeName.TIMESTAMP) {
+      return typeName;
+    }
+    throw new IllegalArgumentException(String.format("Unable to bucket the range join on field '%s' of type %s.",
+                                                     field, typeName));
+  }
+
+  /**
+   * Adds the bucket of the bounded field to the rows of its input, and replicates the rows of the other input into
+   * every bucket between the buckets of their bounds. The replicated rows are generated by joining each row with
+   * the array of its buckets, so that rows are only compared with the rows of the same bucket.
+   */
+  private static void addRangeBuckets(RelBuilder builder, Map<String, RelNode> inputNodes, RangeBucket rangeBucket) {
+    builder.push(inputNodes.get(rangeBucket.pointStage));
+    List<RexNode> pointFields = new ArrayList<>(builder.fields());
+    pointFields.add(builder.alias(builder.call(BucketFunction.bucket(rangeBucket.valueType, rangeBucket.width),
+                                               builder.field(rangeBucket.pointField)), rangeBucket.name));
+    inputNodes.put(rangeBucket.pointStage, builder.project(pointFields).build());
+
+    Holder<RexCorrelVariable> correlation = Holder.of(null);
+    RelNode range = builder.push(inputNodes.get(rangeBucket.rangeStage)).variable(correlation).build();
+    RexBuilder rexBuilder = builder.getRexBuilder();
+    RexNode buckets = builder.call(BucketFunction.bucketRange(rangeBucket.valueType, rangeBucket.width),
+                                   rexBuilder.makeFieldAccess(correlation.get(), rangeBucket.lower, true),
+                                   rexBuilder.makeFieldAccess(correlation.get(), rangeBucket.upper, true));
+    builder.values(new String[] {"ZERO"}, 0);
+    builder.project(builder.alias(buckets, rangeBucket.name));
+    RelNode bucketRows = Uncollect.create(builder.peek().getTraitSet(), builder.build(), false);
+    builder.push(range).push(bucketRows);
+    builder.correlate(JoinRelType.INNER, correlation.get().id,
+                      builder.field(2, 0, rangeBucket.lower), builder.field(2, 0, rangeBucket.upper));
+    List<String> rangeNames = new ArrayList<>(range.getRowType().getFieldNames());
+    rangeNames.add(rangeBucket.name);
+    inputNodes.put(rangeBucket.rangeStage, builder.project(builder.fields(), rangeNames, true).build());
+  }
+
+  @Override
+  public int getSkewBuckets() {
+    return config.parseSkewBuckets();
+  }
+
+  @Override
+  public double getSkewThreshold() {
+    return config.parseSkewThreshold();
+  }
+
+  /**
+   * Orders the input stages starting from the left stage of the first join key, adding the stage joined by the
+   * earliest key to a stage which was already added until every stage is joined. Each stage is joined to the result
+   * of the stages before it, so for LEFT joins the order of the keys decides the result: the first stage is the one
+   * whose rows are all kept, and 'a.id = b.id & b.id = c.id' keeps the rows of a, while
+   * 'b.id = a.id & b.id = c.id' keeps the rows of b. When the executor reorders the joins by the size of their
+   * inputs, the stages on the right of LEFT joins stay on the right, so the same rows are kept.
+   */
+  private List<String> getJoinOrder(List<String> inputs) {
+    List<String> joinOrder = new ArrayList<>();
+    joinOrder.add(joinKeys.get(0).getLeftStage());
+    boolean added = true;
+    while (added) {
+      added = false;
+      for (JoinerConfig.JoinKey key : joinKeys) {
+        boolean leftJoined = joinOrder.contains(key.getLeftStage());
+        boolean rightJoined = joinOrder.contains(key.getRightStage());
+        if (leftJoined != rightJoined) {
+          joinOrder.add(leftJoined ? key.getRightStage() : key.getLeftStage());
+          added = true;
+          break;
+        }
+      }
+    }
+    for (String input : inputs) {
+      if (!joinOrder.contains(input)) {
+        throw new IllegalArgumentException(String.format("Input stage %s is not joined to the other input stages.",
+                                                         input));
+      }
+    }
+    return joinOrder;
+  }
+
+  /**
+   * A field of one input which is bounded from below and above by two fields of the other input, and the name of
+   * the bucket field which is added to both inputs.
+   */
+  private static class RangeBucket {
+    private final String pointStage;
+    private final String pointField;
+    private final String rangeStage;
+    private final String lower;
+    private final String upper;
+    private final SqlTypeName valueType;
+    private final double width;
+    private final String name;
+
+    private RangeBucket(String pointStage, String pointField, String rangeStage, String lower, String upper,
+                        SqlTypeName valueType, double width, String name) {
+      this.pointStage = pointStage;
+      this.pointField = pointField;
+      this.rangeStage = rangeStage;
+      this.lower = lower;
+      this.upper = upper;
+      this.valueType = valueType;
+      this.width = width;
+      this.name = name;
+    }
+  }
+
   /**
    * The configuration class for a simple joiner.
    */
@@ -124,6 +388,10 @@ public class Joiner extends SQLJoiner {
     private static final String SELECTED_FIELDS_NAME = "selectedFields";
     private static final String JOIN_KEY_NAME = "joinKeys";
     private static final String JOIN_TYPE_NAME = "joinType";
+    private static final String SKEW_BUCKETS_NAME = "skewBuckets";
+    private static final String SKEW_THRESHOLD_NAME = "skewThreshold";
+    private static final String RANGE_BUCKET_WIDTH_NAME = "rangeBucketWidth";
+    private static final Pattern JOIN_KEY_OPERATOR = Pattern.compile("\\s*(<=|>=|=|<|>)\\s*");
     private static final String SELECTED_FIELDS_DESC = "List of fields to be selected and/or renamed in the Joiner " +
       "output from each stages. There must not be a duplicate fields in the output.";
     private static final String JOIN_KEY_DESC = "List of join keys to perform join operation. The list is " +
@@ -131,9 +399,12 @@ public class Joiner extends SQLJoiner {
       "relation among join keys from different inputs is represented by '='. For example: " +
       "customers.customer_id=items.c_id&customers.customer_name=items.c_name means the join key is a composite key" +
       " of customer id and customer name from customers and items input stages and join will be performed on " +
-      "equality of the join keys.";
+      "equality of the join keys. Keys may also compare fields with '<', '<=', '>' or '>=', such as " +
+      "events.ts>=sessions.start_ts&events.ts<sessions.end_ts.";
     private static final String JOIN_TYPE_DESC = "The type of join to perform. Supports INNER, LEFT, RIGHT, FULL, " +
-      "SEMI, and ANTI.";
+      "SEMI, and ANTI. Joins of more than two inputs support INNER, LEFT, and FULL. They start from the left stage " +
+      "of the first join key and join each next stage to the stages before it, so a LEFT join keeps every row of " +
+      "the left stage of the first key.";
 
     @Name(SELECTED_FIELDS_NAME)
     @Description(SELECTED_FIELDS_DESC)
@@ -147,10 +418,46 @@ public class Joiner extends SQLJoiner {
     @Description(JOIN_TYPE_DESC)
     private final String joinType;
 
+    @Name(SKEW_BUCKETS_NAME)
+    @Description("The number of buckets to spread the rows of heavily skewed join keys across. When set, the most " +
+      "frequent keys of the larger input are sampled before the join runs, and keys which account for more than the " +
+      "skew threshold of the rows are salted on that input and replicated on the other. Only joins of two inputs " +
+      "can be salted.")
+    @Nullable
+    private final Integer skewBuckets;
+
+    @Name(SKEW_THRESHOLD_NAME)
+    @Description("The fraction of the rows of an input which a single join key must account for to be salted. " +
+      "Defaults to 0.1.")
+    @Nullable
+    private final Double skewThreshold;
+
+    @Name(RANGE_BUCKET_WIDTH_NAME)
+    @Description("The width of the buckets which a range join is joined on, in days for dates and in seconds for " +
+      "timestamps. When set, a field of one input which is bounded by two fields of the other input is assigned a " +
+      "bucket, and the rows of the other input are replicated into every bucket between their bounds, so that " +
+      "the inputs are joined on the bucket rather than compared with every row. Only joins of two inputs can be " +
+      "bucketed.")
+    @Nullable
+    private final Double rangeBucketWidth;
+
     public JoinerConfig(String selectedFields, String joinKeys, String joinType) {
+      this(selectedFields, joinKeys, joinType, null, null);
+    }
+
+    public JoinerConfig(String selectedFields, String joinKeys, String joinType, @Nullable Integer skewBuckets,
+                        @Nullable Double skewThreshold) {
+      this(selectedFields, joinKeys, joinType, skewBuckets, skewThreshold, null);
+    }
+
+    public JoinerConfig(String selectedFields, String joinKeys, String joinType, @Nullable Integer skewBuckets,
+                        @Nullable Double skewThreshold, @Nullable Double rangeBucketWidth) {
       this.selectedFields = selectedFields;
       this.joinKeys = joinKeys;
       this.joinType = joinType;
+      this.skewBuckets = skewBuckets;
+      this.skewThreshold = skewThreshold;
+      this.rangeBucketWidth = rangeBucketWidth;
     }
 
     public String getSelectedFields() {
@@ -165,6 +472,64 @@ public class Joiner extends SQLJoiner {
       return joinType;
     }
 
+    @Nullable
+    public Integer getSkewBuckets() {
+      return skewBuckets;
+    }
+
+    @Nullable
+    public Double getSkewThreshold() {
+      return skewThreshold;
+    }
+
+    @Nullable
+    public Double getRangeBucketWidth() {
+      return rangeBucketWidth;
+    }
+
+    /**
+     * Parses the number of buckets to salt skewed join keys across.
+     *
+     * @return The number of buckets, or 0 if skewed keys are not salted
+     */
+    public int parseSkewBuckets() {
+      if (skewBuckets == null) {
+        return 0;
+      }
+      if (skewBuckets < 2) {
+        throw new IllegalArgumentException("Skewed join keys must be salted across at least two buckets.");
+      }
+      return skewBuckets;
+    }
+
+    /**
+     * Parses the fraction of rows which a skewed join key accounts for.
+     */
+    public double parseSkewThreshold() {
+      if (skewThreshold == null) {
+        return DEFAULT_SKEW_THRESHOLD;
+      }
+      if (skewThreshold <= 0 || skewThreshold > 1) {
+        throw new IllegalArgumentException("The skew threshold must be greater than 0 and at most 1.");
+      }
+      return skewThreshold;
+    }
+
+    /**
+     * Parses the width of the buckets which range joins are joined on.
+     *
+     * @return The width, or 0 if range joins are not bucketed
+     */
+    public double parseRangeBucketWidth() {
+      if (rangeBucketWidth == null) {
+        return 0;
+      }
+      if (rangeBucketWidth <= 0) {
+        throw new IllegalArgumentException("The width of the range join buckets must be positive.");
+      }
+      return rangeBucketWidth;
+    }
+
     /**
      * Parses the join keys string from the config into {@link JoinKey} objects.
      */
@@ -177,16 +542,17 @@ public class Joiner extends SQLJoiner {
       }
 
       for (String singleJoinKey : multipleJoinKeys) {
-        String[] joinKeyArr = singleJoinKey.trim().split("\\s*=\\s*");
-        if (joinKeyArr.length != 2 || Strings.isNullOrEmpty(joinKeyArr[0]) || Strings.isNullOrEmpty(joinKeyArr[1])) {
+        Matcher matcher = JOIN_KEY_OPERATOR.matcher(singleJoinKey);
+        String leftOperand = matcher.find() ? singleJoinKey.substring(0, matcher.start()) : null;
+        String rightOperand = leftOperand != null ? singleJoinKey.substring(matcher.end()) : null;
+        if (Strings.isNullOrEmpty(leftOperand) || Strings.isNullOrEmpty(rightOperand)
+          || JOIN_KEY_OPERATOR.matcher(rightOperand).find()) {
           throw new IllegalArgumentException("Each join key must have left hand and right hand operands.");
         }
-        String leftOperand = joinKeyArr[0];
         String[] leftOpArr = leftOperand.split(Pattern.quote("."));
         if (leftOpArr.length != 2 || Strings.isNullOrEmpty(leftOpArr[0]) || Strings.isNullOrEmpty(leftOpArr[1])) {
           throw new IllegalArgumentException("Left join key operand must have a stage and a field name.");
         }
-        String rightOperand = joinKeyArr[1];
         String[] rightOpArr = rightOperand.split(Pattern.quote("."));
         if (rightOpArr.length != 2 || Strings.isNullOrEmpty(rightOpArr[0]) || Strings.isNullOrEmpty(rightOpArr[1])) {
           throw new IllegalArgumentException("Right join key operand must have a stage and a field name.");
@@ -195,12 +561,27 @@ public class Joiner extends SQLJoiner {
         String leftKey = leftOpArr[1];
         String rightStage = rightOpArr[0];
         String rightKey = rightOpArr[1];
-        JoinKey key = new JoinKey(leftStage, leftKey, rightStage, rightKey);
+        JoinKey key = new JoinKey(leftStage, leftKey, getOperator(matcher.group(1)), rightStage, rightKey);
         joinKeyList.add(key);
       }
       return joinKeyList;
     }
 
+    private static SqlBinaryOperator getOperator(String operator) {
+      switch (operator) {
+        case "<":
+          return SqlStdOperatorTable.LESS_THAN;
+        case "<=":
+          return SqlStdOperatorTable.LESS_THAN_OR_EQUAL;
+        case ">":
+          return SqlStdOperatorTable.GREATER_THAN;
+        case ">=":
+          return SqlStdOperatorTable.GREATER_THAN_OR_EQUAL;
+        default:
+          return SqlStdOperatorTable.EQUALS;
+      }
+    }
+
     /**
      * Parses the selected fields into a list.
      */
@@ -248,18 +629,21 @@ public class Joiner extends SQLJoiner {
     }
 
     /**
-     * A simple class which represents a join key. Contains the stage and field of each operand and represents
-     * an equals conditional.
+     * A simple class which represents a join key. Contains the stage and field of each operand and the comparison
+     * between them, which is an equality or a range.
      */
     private class JoinKey {
       private final String leftStage;
       private final String leftKey;
+      private final SqlBinaryOperator operator;
       private final String rightStage;
       private final String rightKey;
 
-      private JoinKey(String leftStage, String leftKey, String rightStage, String rightKey) {
+      private JoinKey(String leftStage, String leftKey, SqlBinaryOperator operator, String rightStage,
+                      String rightKey) {
         this.leftStage = leftStage;
         this.leftKey = leftKey;
+        this.operator = operator;
         this.rightStage = rightStage;
         this.rightKey = rightKey;
       }
@@ -280,8 +664,12 @@ public class Joiner extends SQLJoiner {
         return rightKey;
       }
 
+      public SqlBinaryOperator getOperator() {
+        return operator;
+      }
+
       public String toString() {
-        return String.format("%s.%s = %s.%s", leftStage, leftKey, rightStage, rightKey);
+        return String.format("%s.%s %s %s.%s", leftStage, leftKey, operator.getName(), rightStage, rightKey);
       }
     }
   }
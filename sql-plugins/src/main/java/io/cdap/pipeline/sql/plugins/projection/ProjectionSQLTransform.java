@@ -26,6 +26,7 @@ import io.cdap.cdap.api.annotation.Plugin;
 import io.cdap.cdap.api.plugin.PluginConfig;
 import io.cdap.pipeline.sql.api.template.QueryContext;
 import io.cdap.pipeline.sql.api.template.SQLTransform;
+import io.cdap.pipeline.sql.plugins.common.FieldPath;
 import org.apache.calcite.rel.RelNode;
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.sql.type.SqlTypeName;
@@ -55,8 +56,8 @@ public class ProjectionSQLTransform extends SQLTransform {
   private static final String CAST_DESC = "List of fields to cast to a different type. This is a comma-" +
     "separated list of key-value pairs, where each pair is separated by a colon and specifies the field name and " +
     "the desired type.";
-  private static final String SELECT_DESC = "Comma-separated list of fields to select. For example: " +
-    "'field1,field2,field3'.";
+  private static final String SELECT_DESC = "Comma-separated list of fields to select. Fields nested in records " +
+    "are selected by their path. For example: 'field1,field2,record.field3'.";
 
   /**
    * Config class for ProjectionTransform
@@ -172,7 +173,7 @@ public class ProjectionSQLTransform extends SQLTransform {
     }
     List<RexNode> fields = new ArrayList<>();
     for (String colStr : fieldsToSelect) {
-      RexNode field = builder.field(colStr);
+      RexNode field = FieldPath.resolve(builder, colStr);
       if (fieldsToCast.containsKey(colStr)) {
         SqlTypeName castType = fieldsToCast.get(colStr);
         field = builder.cast(field, castType);
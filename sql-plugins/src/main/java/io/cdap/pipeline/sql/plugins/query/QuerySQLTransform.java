@@ -0,0 +1,169 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.plugins.query;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.api.plugin.PluginConfig;
+import io.cdap.pipeline.sql.api.template.QueryContext;
+import io.cdap.pipeline.sql.api.template.SQLTransform;
+import org.apache.calcite.config.Lex;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.RelShuttleImpl;
+import org.apache.calcite.rel.core.TableScan;
+import org.apache.calcite.rel.core.Union;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.schema.SchemaPlus;
+import org.apache.calcite.schema.impl.AbstractTable;
+import org.apache.calcite.sql.SqlKind;
+import org.apache.calcite.sql.SqlNode;
+import org.apache.calcite.sql.parser.SqlParseException;
+import org.apache.calcite.sql.parser.SqlParser;
+import org.apache.calcite.tools.FrameworkConfig;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.Planner;
+import org.apache.calcite.tools.RelConversionException;
+import org.apache.calcite.tools.ValidationException;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * A SQL Query transform.
+ */
+@Plugin(type = SQLTransform.PLUGIN_TYPE)
+@Name("Query")
+@Description("The Query transform lets you transform the input with a SQL SELECT query, which is planned together " +
+  "with the rest of the pipeline.")
+public class QuerySQLTransform extends SQLTransform {
+  private static final String QUERY_NAME = "query";
+  private static final String QUERY_DESC = "A SQL SELECT query over the input, such as \"SELECT region, " +
+    "SUM(revenue) AS revenue FROM input GROUP BY region\". The input is read as the table 'input', and each input " +
+    "stage is also read as a table named after the stage. Identifiers may be quoted with backticks.";
+  @VisibleForTesting
+  static final String INPUT_TABLE_NAME = "input";
+  private static final SqlParser.Config PARSER_CONFIG = SqlParser.configBuilder()
+    .setLex(Lex.MYSQL)
+    .build();
+
+  /**
+   * Config class for QuerySQLTransform
+   */
+  public static class QuerySQLTransformConfig extends PluginConfig {
+    @Name(QUERY_NAME)
+    @Description(QUERY_DESC)
+    private final String query;
+
+    public QuerySQLTransformConfig(String query) {
+      this.query = query;
+    }
+
+    public String getQuery() {
+      if (Strings.isNullOrEmpty(query) || query.trim().isEmpty()) {
+        throw new IllegalArgumentException("Must specify a query.");
+      }
+      return query.trim();
+    }
+  }
+
+  private final QuerySQLTransformConfig config;
+
+  @VisibleForTesting
+  QuerySQLTransform(QuerySQLTransformConfig config) {
+    this.config = config;
+  }
+
+  /**
+   * Plans the query against tables with the types of the inputs, then replaces each table with the input it stands
+   * for. The query becomes part of the plan of the pipeline, so it is pruned, filtered and reused like the other
+   * stages, and is validated whenever the pipeline is planned, including when it is deployed.
+   */
+  @Override
+  public RelNode getQuery(QueryContext context) {
+    String query = config.getQuery();
+    Map<String, RelNode> inputs = getInputTables(context);
+    SchemaPlus schema = Frameworks.createRootSchema(false);
+    for (Map.Entry<String, RelNode> input : inputs.entrySet()) {
+      schema.add(input.getKey(), new InputTable(input.getValue().getRowType()));
+    }
+    FrameworkConfig frameworkConfig = Frameworks.newConfigBuilder()
+      .defaultSchema(schema)
+      .parserConfig(PARSER_CONFIG)
+      .build();
+    Planner planner = Frameworks.getPlanner(frameworkConfig);
+    RelNode rel;
+    try {
+      SqlNode node = planner.parse(query);
+      if (!node.isA(SqlKind.QUERY)) {
+        throw new IllegalArgumentException(String.format("Query '%s' must be a SELECT query.", query));
+      }
+      rel = planner.rel(planner.validate(node)).project();
+    } catch (SqlParseException | ValidationException | RelConversionException e) {
+      throw new IllegalArgumentException(String.format("Invalid query '%s': %s", query, e.getMessage()), e);
+    } finally {
+      planner.close();
+    }
+    return rel.accept(new RelShuttleImpl() {
+      @Override
+      public RelNode visit(TableScan scan) {
+        List<String> name = scan.getTable().getQualifiedName();
+        return inputs.get(name.get(name.size() - 1));
+      }
+    });
+  }
+
+  /**
+   * Returns the nodes which the query may read, by table name. The input is always readable as a whole, and each
+   * input stage by its own name when the input is the union of several stages.
+   */
+  private static Map<String, RelNode> getInputTables(QueryContext context) {
+    RelNode input = context.getRelBuilder().build();
+    List<String> inputNames = context.getInputs() == null ? Collections.emptyList() : context.getInputs();
+    Map<String, RelNode> tables = new LinkedHashMap<>();
+    if (inputNames.size() == 1) {
+      tables.put(inputNames.get(0), input);
+    } else if (input instanceof Union && input.getInputs().size() == inputNames.size()) {
+      for (int i = 0; i < inputNames.size(); i++) {
+        tables.put(inputNames.get(i), input.getInput(i));
+      }
+    }
+    tables.putIfAbsent(INPUT_TABLE_NAME, input);
+    return tables;
+  }
+
+  /**
+   * A table which stands for an input while the query is planned.
+   */
+  private static class InputTable extends AbstractTable {
+    private final RelDataType rowType;
+
+    private InputTable(RelDataType rowType) {
+      this.rowType = rowType;
+    }
+
+    @Override
+    public RelDataType getRowType(RelDataTypeFactory typeFactory) {
+      return typeFactory.copyType(rowType);
+    }
+  }
+}
@@ -0,0 +1,129 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.plugins.topn;
+
+import com.google.common.annotations.VisibleForTesting;
+import com.google.common.base.Strings;
+import io.cdap.cdap.api.annotation.Description;
+import io.cdap.cdap.api.annotation.Name;
+import io.cdap.cdap.api.annotation.Plugin;
+import io.cdap.cdap.api.plugin.PluginConfig;
+import io.cdap.pipeline.sql.api.template.QueryContext;
+import io.cdap.pipeline.sql.api.template.SQLTransform;
+import io.cdap.pipeline.sql.plugins.common.Ordering;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.tools.RelBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.regex.Pattern;
+import javax.annotation.Nullable;
+
+/**
+ * A SQL Top-N transform.
+ */
+@Plugin(type = SQLTransform.PLUGIN_TYPE)
+@Name("TopN")
+@Description("The Top-N transform keeps the first rows in a given order, either of the whole input or of each " +
+  "group of rows.")
+public class TopNSQLTransform extends SQLTransform {
+  private static final String LIMIT_NAME = "limit";
+  private static final String ORDER_BY_NAME = "orderBy";
+  private static final String GROUP_BY_NAME = "groupBy";
+  private static final String LIMIT_DESC = "The number of rows to keep, in total or for each group.";
+  private static final String ORDER_BY_DESC = "Comma-separated list of fields which order the rows, each " +
+    "optionally followed by 'asc' or 'desc'. For example: 'revenue desc'.";
+  private static final String GROUP_BY_DESC = "Comma-separated list of fields which group the rows. If set, the " +
+    "first rows of each group are kept. Otherwise, the first rows of the whole input are kept.";
+
+  /**
+   * Config class for TopNSQLTransform
+   */
+  public static class TopNSQLTransformConfig extends PluginConfig {
+    @Name(LIMIT_NAME)
+    @Description(LIMIT_DESC)
+    private final Integer limit;
+
+    @Name(ORDER_BY_NAME)
+    @Description(ORDER_BY_DESC)
+    private final String orderBy;
+
+    @Name(GROUP_BY_NAME)
+    @Description(GROUP_BY_DESC)
+    @Nullable
+    private final String groupBy;
+
+    public TopNSQLTransformConfig(Integer limit, String orderBy, @Nullable String groupBy) {
+      this.limit = limit;
+      this.orderBy = orderBy;
+      this.groupBy = groupBy;
+    }
+
+    public int getLimit() {
+      if (limit == null || limit <= 0) {
+        throw new IllegalArgumentException("The number of rows to keep must be positive.");
+      }
+      return limit;
+    }
+
+    public Ordering parseOrderBy() {
+      Ordering ordering = Ordering.parse(orderBy);
+      if (ordering.getFields().isEmpty()) {
+        throw new IllegalArgumentException("Must specify at least one field to order by.");
+      }
+      return ordering;
+    }
+
+    public List<String> parseGroupBy() {
+      List<String> groupFields = new ArrayList<>();
+      if (Strings.isNullOrEmpty(groupBy)) {
+        return groupFields;
+      }
+      for (String field : groupBy.split(Pattern.quote(","))) {
+        if (field.trim().isEmpty()) {
+          throw new IllegalArgumentException("Group by field may not be empty.");
+        }
+        groupFields.add(field.trim());
+      }
+      return groupFields;
+    }
+  }
+
+  private final TopNSQLTransformConfig config;
+
+  @VisibleForTesting
+  TopNSQLTransform(TopNSQLTransformConfig config) {
+    this.config = config;
+  }
+
+  /**
+   * Keeps the first rows of the input with a sort and a limit, which lets the target platform keep only the top
+   * rows while sorting instead of sorting the whole input. The first rows of each group are kept with a ranking
+   * window instead, since a limit applies to the whole input.
+   */
+  @Override
+  public RelNode getQuery(QueryContext context) {
+    int limit = config.getLimit();
+    Ordering ordering = config.parseOrderBy();
+    List<String> groupFields = config.parseGroupBy();
+    RelBuilder builder = context.getRelBuilder();
+    if (!groupFields.isEmpty()) {
+      return ordering.keepFirstRows(builder, groupFields, limit);
+    }
+    return builder.sortLimit(0, limit, ordering.getSortKeys(builder)).build();
+  }
+}
@@ -17,13 +17,21 @@
 package io.cdap.pipeline.sql.plugins.aggregator;
 
 import io.cdap.pipeline.sql.api.template.QueryContext;
+import io.cdap.pipeline.sql.plugins.common.TestInputs;
+import org.apache.calcite.plan.RelOptUtil;
 import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Aggregate;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.sql.type.SqlTypeName;
 import org.apache.calcite.tools.RelBuilder;
 import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
 
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.List;
 
 public class GroupByAggregatorTest {
@@ -92,4 +100,174 @@ public class GroupByAggregatorTest {
     RelNode rel = aggregator.getQuery(context);
     Assert.assertEquals(expected, rel);
   }
+
+  @Test
+  public void testAverage() {
+    GroupByConfig config = new GroupByConfig("a", "c:AVG(b)");
+    GroupByAggregator aggregator = new GroupByAggregator(config);
+
+    RelBuilder builder = TestInputs.createBuilder();
+    RelNode rel = aggregator.getQuery(TestInputs.createContext(builder, getRowType(builder, "a", "b")));
+
+    // Integers are averaged as doubles
+    Assert.assertEquals(
+      "LogicalAggregate(group=[{0}], c=[AVG($2)])\n" +
+        "  LogicalProject(a=[$0], b=[$1], b0=[CAST($1):DOUBLE NOT NULL])\n" +
+        "    LogicalTableScan(table=[[input]])\n",
+      RelOptUtil.toString(rel));
+    Assert.assertEquals(SqlTypeName.DOUBLE, rel.getRowType().getField("c", true, false).getType().getSqlTypeName());
+  }
+
+  @Test
+  public void testAggregateArguments() {
+    GroupByConfig config = new GroupByConfig("", "a:APPROX_QUANTILES(b, 4),c:APPROX_COUNT_DISTINCT(b)");
+    List<GroupByConfig.AggregateInfo> aggregates = config.getAggregates();
+    Assert.assertEquals(2, aggregates.size());
+    Assert.assertEquals("b", aggregates.get(0).getField());
+    Assert.assertEquals(Collections.singletonList("4"), aggregates.get(0).getArguments());
+    Assert.assertEquals("b", aggregates.get(1).getField());
+    Assert.assertEquals(Collections.emptyList(), aggregates.get(1).getArguments());
+  }
+
+  @Test
+  public void testApproximateAggregates() {
+    GroupByConfig config = new GroupByConfig(
+      "a", "c:APPROX_COUNT_DISTINCT(b, 14),q:APPROX_QUANTILES(b, 4),t:APPROX_TOP_COUNT(b, 10)");
+    GroupByAggregator aggregator = new GroupByAggregator(config);
+
+    RelBuilder builder = TestInputs.createBuilder();
+    RelNode rel = aggregator.getQuery(TestInputs.createContext(builder, getRowType(builder, "a", "b")));
+
+    Assert.assertEquals(
+      "LogicalAggregate(group=[{0}], c=[APPROX_COUNT_DISTINCT[14]($1)], q=[APPROX_QUANTILES[4]($1)], " +
+        "t=[APPROX_TOP_COUNT[10]($1)])\n" +
+        "  LogicalTableScan(table=[[input]])\n",
+      RelOptUtil.toString(rel));
+    Assert.assertEquals(SqlTypeName.BIGINT, rel.getRowType().getField("c", true, false).getType().getSqlTypeName());
+    Assert.assertEquals(SqlTypeName.ARRAY, rel.getRowType().getField("q", true, false).getType().getSqlTypeName());
+    Assert.assertEquals(SqlTypeName.ARRAY, rel.getRowType().getField("t", true, false).getType().getSqlTypeName());
+  }
+
+  @Test
+  public void testApproximateAggregatesWithDifferentParameters() {
+    GroupByConfig config = new GroupByConfig("a", "q4:APPROX_QUANTILES(b, 4),q10:APPROX_QUANTILES(b, 10)");
+    GroupByAggregator aggregator = new GroupByAggregator(config);
+
+    RelBuilder builder = TestInputs.createBuilder();
+    Aggregate rel = (Aggregate) aggregator.getQuery(TestInputs.createContext(builder,
+                                                                             getRowType(builder, "a", "b")));
+
+    // Calls which only differ in their parameter are distinct
+    Assert.assertEquals(2, rel.getAggCallList().size());
+    Assert.assertNotEquals(rel.getAggCallList().get(0).toString(), rel.getAggCallList().get(1).toString());
+    Assert.assertEquals("APPROX_QUANTILES[4]($1)", rel.getAggCallList().get(0).toString());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidApproximateCountDistinctPrecision() {
+    GroupByConfig config = new GroupByConfig("", "c:APPROX_COUNT_DISTINCT(b, 30)");
+    GroupByAggregator aggregator = new GroupByAggregator(config);
+    RelBuilder builder = Mockito.mock(RelBuilder.class);
+    aggregator.getQuery(new QueryContext(builder, null));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingApproximateQuantilesArgument() {
+    GroupByConfig config = new GroupByConfig("", "q:APPROX_QUANTILES(b)");
+    GroupByAggregator aggregator = new GroupByAggregator(config);
+    RelBuilder builder = Mockito.mock(RelBuilder.class);
+    aggregator.getQuery(new QueryContext(builder, null));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnexpectedAggregateArgument() {
+    GroupByConfig config = new GroupByConfig("", "s:SUM(b, 2)");
+    GroupByAggregator aggregator = new GroupByAggregator(config);
+    RelBuilder builder = Mockito.mock(RelBuilder.class);
+    aggregator.getQuery(new QueryContext(builder, null));
+  }
+
+  @Test
+  public void testOutputSketches() {
+    GroupByConfig config = new GroupByConfig("a", "c:APPROX_COUNT_DISTINCT(b, 14),m:MERGE_SKETCHES(b)", true);
+    GroupByAggregator aggregator = new GroupByAggregator(config);
+
+    RelBuilder builder = TestInputs.createBuilder();
+    RelNode rel = aggregator.getQuery(TestInputs.createContext(builder, getRowType(builder, "a", "b")));
+
+    Assert.assertEquals(
+      "LogicalAggregate(group=[{0}], c=[APPROX_COUNT_DISTINCT_SKETCH[14]($1)], m=[MERGE_SKETCHES($1)])\n" +
+        "  LogicalTableScan(table=[[input]])\n",
+      RelOptUtil.toString(rel));
+    Assert.assertEquals(SqlTypeName.VARBINARY,
+                        rel.getRowType().getField("c", true, false).getType().getSqlTypeName());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testOutputSketchesUnsupportedAggregate() {
+    GroupByConfig config = new GroupByConfig("a", "c:APPROX_COUNT_DISTINCT(b),s:SUM(b)", true);
+    GroupByAggregator aggregator = new GroupByAggregator(config);
+    RelBuilder builder = Mockito.mock(RelBuilder.class);
+    aggregator.getQuery(new QueryContext(builder, null));
+  }
+
+  @Test
+  public void testRollupGroupingSets() {
+    GroupByConfig config = new GroupByConfig("a,b", "c:COUNT(*)", null, "rollup", null);
+    Assert.assertEquals(Arrays.asList(Arrays.asList("a", "b"), Collections.singletonList("a"),
+                                      Collections.emptyList()),
+                        config.getGroupingSets());
+  }
+
+  @Test
+  public void testCubeGroupingSets() {
+    GroupByConfig config = new GroupByConfig("a,b", "c:COUNT(*)", null, "CUBE", null);
+    Assert.assertEquals(Arrays.asList(Arrays.asList("a", "b"), Collections.singletonList("a"),
+                                      Collections.singletonList("b"), Collections.emptyList()),
+                        config.getGroupingSets());
+  }
+
+  @Test
+  public void testExplicitGroupingSets() {
+    GroupByConfig config = new GroupByConfig("a,b,c", "d:COUNT(*)", null, "(a, b), (c), ()", null);
+    Assert.assertEquals(Arrays.asList(Arrays.asList("a", "b"), Collections.singletonList("c"),
+                                      Collections.emptyList()),
+                        config.getGroupingSets());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGroupingSetNotGroupByField() {
+    GroupByConfig config = new GroupByConfig("a,b", "c:COUNT(*)", null, "(a), (d)", null);
+    config.getGroupingSets();
+  }
+
+  @Test
+  public void testGroupingSetsAggregate() {
+    GroupByConfig config = new GroupByConfig("a,b", "c:SUM(c)", null, "rollup", "level");
+    GroupByAggregator aggregator = new GroupByAggregator(config);
+
+    RelBuilder builder = TestInputs.createBuilder();
+    RelNode rel = aggregator.getQuery(TestInputs.createContext(builder, getRowType(builder, "a", "b", "c")));
+
+    Assert.assertEquals(
+      "LogicalAggregate(group=[{0, 1}], groups=[[{0, 1}, {0}, {}]], c=[SUM($2)], level=[GROUPING_ID($0, $1)])\n" +
+        "  LogicalTableScan(table=[[input]])\n",
+      RelOptUtil.toString(rel));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testGroupingIdFieldConflict() {
+    GroupByConfig config = new GroupByConfig("a,b", "c:SUM(c)", null, "rollup", "b");
+    GroupByAggregator aggregator = new GroupByAggregator(config);
+    RelBuilder builder = Mockito.mock(RelBuilder.class);
+    aggregator.getQuery(new QueryContext(builder, null));
+  }
+
+  private static RelDataType getRowType(RelBuilder builder, String... fields) {
+    RelDataTypeFactory.Builder rowType = builder.getTypeFactory().builder();
+    for (String field : fields) {
+      rowType.add(field, SqlTypeName.INTEGER);
+    }
+    return rowType.build();
+  }
 }
@@ -16,10 +16,27 @@
 
 package io.cdap.pipeline.sql.plugins.bigquery;
 
+import com.google.cloud.bigquery.Field;
+import com.google.cloud.bigquery.LegacySQLTypeName;
+import com.google.cloud.bigquery.Schema;
+import com.google.common.collect.ImmutableMap;
+import io.cdap.pipeline.sql.api.template.SQLSink;
 import io.cdap.pipeline.sql.api.template.tables.AbstractTableInfo;
+import io.cdap.pipeline.sql.plugins.common.TestInputs;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.schema.Statistics;
+import org.apache.calcite.tools.RelBuilder;
+import org.apache.calcite.util.ImmutableBitSet;
 import org.junit.Assert;
 import org.junit.Test;
 
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+
 public class BigQueryTest {
   @Test(expected = IllegalArgumentException.class)
   public void testEmptySourceProject() {
@@ -77,4 +94,164 @@ public class BigQueryTest {
     AbstractTableInfo tableInfo = sink.getDestinationTable();
     Assert.assertEquals("a.b.c", tableInfo.getTableName());
   }
+
+  @Test
+  public void testDefaultSinkWriteMode() {
+    BigQuerySQLSink.BigQuerySQLSinkConfig config = new BigQuerySQLSink.BigQuerySQLSinkConfig("a", "b",
+                                                                                             "c", "d");
+    BigQuerySQLSink sink = new BigQuerySQLSink(config);
+    Assert.assertEquals(SQLSink.WriteMode.APPEND, sink.getWriteMode());
+  }
+
+  @Test
+  public void testTruncateSinkWriteMode() {
+    BigQuerySQLSink.BigQuerySQLSinkConfig config = new BigQuerySQLSink.BigQuerySQLSinkConfig("a", "b",
+                                                                                             "c", "d", "Truncate");
+    BigQuerySQLSink sink = new BigQuerySQLSink(config);
+    Assert.assertEquals(SQLSink.WriteMode.TRUNCATE, sink.getWriteMode());
+  }
+
+  @Test
+  public void testMergeSketchesSinkWriteMode() {
+    BigQuerySQLSink.BigQuerySQLSinkConfig config = new BigQuerySQLSink.BigQuerySQLSinkConfig("a", "b", "c", "d",
+                                                                                             "Merge_Sketches");
+    BigQuerySQLSink sink = new BigQuerySQLSink(config);
+    Assert.assertEquals(SQLSink.WriteMode.MERGE_SKETCHES, sink.getWriteMode());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSinkWriteMode() {
+    BigQuerySQLSink.BigQuerySQLSinkConfig config = new BigQuerySQLSink.BigQuerySQLSinkConfig("a", "b",
+                                                                                             "c", "d", "upsert");
+    BigQuerySQLSink sink = new BigQuerySQLSink(config);
+    sink.getWriteMode();
+  }
+
+  @Test
+  public void testExtractViewQuery() {
+    Assert.assertEquals("SELECT dt, SUM(amount) AS total FROM `a.b.c` GROUP BY dt",
+                        BigQuerySQLSource.extractViewQuery(
+                          "CREATE MATERIALIZED VIEW `a.b.v` OPTIONS(enable_refresh=true) AS (\n"
+                            + "SELECT dt, SUM(amount) AS total FROM `a.b.c` GROUP BY dt\n);"));
+    Assert.assertEquals("SELECT id FROM `a.b.c`",
+                        BigQuerySQLSource.extractViewQuery(
+                          "CREATE MATERIALIZED VIEW `a.b.v` AS SELECT id FROM `a.b.c`"));
+    Assert.assertNull(BigQuerySQLSource.extractViewQuery("CREATE TABLE `a.b.v` (id INT64)"));
+  }
+
+  @Test
+  public void testReferencesTable() {
+    Assert.assertTrue(BigQuerySQLSource.referencesTable("SELECT id FROM `p.d.t` GROUP BY id", "p", "d", "t"));
+    Assert.assertTrue(BigQuerySQLSource.referencesTable("SELECT id FROM `p`.`d`.`t`", "p", "d", "t"));
+    Assert.assertTrue(BigQuerySQLSource.referencesTable("SELECT id FROM `my-p`.d.t", "my-p", "d", "t"));
+    Assert.assertTrue(BigQuerySQLSource.referencesTable("SELECT id FROM `p.d`.t", "p", "d", "t"));
+    Assert.assertTrue(BigQuerySQLSource.referencesTable("SELECT id FROM d.t WHERE id > 0", "p", "d", "t"));
+    Assert.assertTrue(BigQuerySQLSource.referencesTable("SELECT id FROM `d.t`", "p", "d", "t"));
+
+    // Other tables whose names contain the name of the table
+    Assert.assertFalse(BigQuerySQLSource.referencesTable("SELECT id FROM `p.d.t_history`", "p", "d", "t"));
+    Assert.assertFalse(BigQuerySQLSource.referencesTable("SELECT id FROM `p.d.t`", "p", "d", "t_"));
+    Assert.assertFalse(BigQuerySQLSource.referencesTable("SELECT id FROM `p.old_d.t`", "p", "d", "t"));
+    Assert.assertFalse(BigQuerySQLSource.referencesTable("SELECT id FROM `other.d.t`", "p", "d", "t"));
+    Assert.assertFalse(BigQuerySQLSource.referencesTable("SELECT id FROM other.d.t", "p", "d", "t"));
+    Assert.assertFalse(BigQuerySQLSource.referencesTable("SELECT t FROM `p.d.x` WHERE d = 1", "p", "d", "t"));
+  }
+
+  @Test
+  public void testDeclaredMaterializedViews() {
+    BigQuerySQLSource.BigQuerySQLSourceConfig config =
+      new BigQuerySQLSource.BigQuerySQLSourceConfig("a", "b", "c", "d", "v1, v2,", null);
+    Assert.assertEquals(new HashSet<>(Arrays.asList("v1", "v2")), config.getMaterializedViewSet());
+  }
+
+  @Test
+  public void testTableStatistic() {
+    Schema schema = Schema.of(Field.of("id", LegacySQLTypeName.INTEGER), Field.of("name", LegacySQLTypeName.STRING));
+    BigQueryTable table = new BigQueryTable(schema,
+                                            Statistics.of(10d, Collections.singletonList(ImmutableBitSet.of(0))));
+    Assert.assertEquals(10d, table.getStatistic().getRowCount(), 0d);
+    Assert.assertTrue(table.getStatistic().isKey(ImmutableBitSet.of(0)));
+    Assert.assertFalse(table.getStatistic().isKey(ImmutableBitSet.of(1)));
+    Assert.assertNull(new BigQueryTable(schema).getStatistic().getRowCount());
+  }
+
+  @Test
+  public void testWildcardSuffixRange() {
+    BigQuerySQLSource.BigQuerySQLSourceConfig config =
+      new BigQuerySQLSource.BigQuerySQLSourceConfig("a", "b", "events_*", "d", null, null, "20190101", "20190131");
+    config.validateTableSuffixRange();
+    Assert.assertTrue(config.isWildcard());
+    Assert.assertEquals("events_", config.getTablePrefix());
+    Assert.assertTrue(config.isSuffixInRange("20190101"));
+    Assert.assertTrue(config.isSuffixInRange("20190131"));
+    Assert.assertFalse(config.isSuffixInRange("20181231"));
+    Assert.assertFalse(config.isSuffixInRange("20190201"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testSuffixRangeWithoutWildcard() {
+    new BigQuerySQLSource.BigQuerySQLSourceConfig("a", "b", "events", "d", null, null, "20190101", null)
+      .validateTableSuffixRange();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testWildcardBeforeEnd() {
+    new BigQuerySQLSource.BigQuerySQLSourceConfig("a", "b", "events_*_v1", "d").validateTableSuffixRange();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptySuffixRange() {
+    new BigQuerySQLSource.BigQuerySQLSourceConfig("a", "b", "events_*", "d", null, null, "20190201", "20190101")
+      .validateTableSuffixRange();
+  }
+
+  @Test
+  public void testWildcardQuery() {
+    BigQuerySQLSource source = new BigQuerySQLSource(
+      new BigQuerySQLSource.BigQuerySQLSourceConfig("a", "b", "events_*", "d", null, null, "20190101", null));
+    Schema schema = Schema.of(Field.of("id", LegacySQLTypeName.INTEGER));
+    RelBuilder builder = TestInputs.createBuilder();
+    RelNode rel = source.getQuery(TestInputs.createContext(
+      builder, new BigQueryTable(schema, Statistics.UNKNOWN, true).getRowType(builder.getTypeFactory())));
+    Assert.assertEquals(
+      "LogicalProject(id=[$0])\n" +
+        "  LogicalFilter(condition=[>=($1, '20190101')])\n" +
+        "    LogicalTableScan(table=[[input]])\n",
+      RelOptUtil.toString(rel));
+  }
+
+  @Test
+  public void testMergeShardSchemas() {
+    Schema newest = Schema.of(Field.newBuilder("id", LegacySQLTypeName.INTEGER).setMode(Field.Mode.REQUIRED).build(),
+                              Field.newBuilder("name", LegacySQLTypeName.STRING).setMode(Field.Mode.REQUIRED).build());
+    Map<String, Map<String, String>> shardColumns = new HashMap<>();
+    shardColumns.put("events_20190102", ImmutableMap.of("id", "INT64", "name", "STRING"));
+    shardColumns.put("events_20190101", ImmutableMap.of("id", "INT64", "legacy", "STRING"));
+    Schema merged = BigQuerySQLSource.mergeShardSchemas(newest, "events_20190102", shardColumns);
+    Assert.assertEquals(2, merged.getFields().size());
+    Assert.assertEquals(Field.Mode.REQUIRED, merged.getFields().get("id").getMode());
+    Assert.assertEquals(Field.Mode.NULLABLE, merged.getFields().get("name").getMode());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConflictingShardSchemas() {
+    Schema newest = Schema.of(Field.of("id", LegacySQLTypeName.INTEGER));
+    Map<String, Map<String, String>> shardColumns = new HashMap<>();
+    shardColumns.put("events_20190102", ImmutableMap.of("id", "INT64"));
+    shardColumns.put("events_20190101", ImmutableMap.of("id", "STRING"));
+    BigQuerySQLSource.mergeShardSchemas(newest, "events_20190102", shardColumns);
+  }
+
+  @Test
+  public void testEstimateColumnSizes() {
+    Schema schema = Schema.of(Field.of("id", LegacySQLTypeName.INTEGER), Field.of("active", LegacySQLTypeName.BOOLEAN),
+                              Field.of("name", LegacySQLTypeName.STRING), Field.of("body", LegacySQLTypeName.STRING),
+                              Field.newBuilder("tags", LegacySQLTypeName.INTEGER).setMode(Field.Mode.REPEATED).build());
+    Map<String, Long> sizes = BigQuerySQLSource.estimateColumnSizes(schema, 100, 3900);
+    Assert.assertEquals(Long.valueOf(800), sizes.get("id"));
+    Assert.assertEquals(Long.valueOf(100), sizes.get("active"));
+    Assert.assertEquals(Long.valueOf(1000), sizes.get("name"));
+    Assert.assertEquals(Long.valueOf(1000), sizes.get("body"));
+    Assert.assertEquals(Long.valueOf(1000), sizes.get("tags"));
+  }
 }
@@ -0,0 +1,70 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.plugins.common;
+
+import io.cdap.pipeline.sql.api.template.QueryContext;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.tools.Frameworks;
+import org.apache.calcite.tools.RelBuilder;
+
+import java.util.ArrayList;
+import java.util.Map;
+
+/**
+ * Creates the inputs of the plugins under test. Each input is a scan of a table named after the input, so that the
+ * plan of a plugin can be compared whole, down to the scans of the inputs it reads.
+ */
+public final class TestInputs {
+  /**
+   * The name of the input of plugins which read a single input, which is scanned as LogicalTableScan(table=[[input]])
+   */
+  public static final String INPUT_NAME = "input";
+
+  private TestInputs() {
+  }
+
+  /**
+   * @return A builder for the row types of the inputs and the plans of the plugins
+   */
+  public static RelBuilder createBuilder() {
+    return RelBuilder.create(Frameworks.newConfigBuilder().build());
+  }
+
+  /**
+   * Creates the context of a plugin which reads a single input, named {@link #INPUT_NAME}.
+   *
+   * @param builder The builder which created the row type
+   * @param rowType The row type of the input
+   */
+  public static QueryContext createContext(RelBuilder builder, RelDataType rowType) {
+    builder.transientScan(INPUT_NAME, rowType);
+    return new QueryContext(builder, null);
+  }
+
+  /**
+   * Creates the context of a plugin which reads several inputs.
+   *
+   * @param builder The builder which created the row types
+   * @param inputs The row types of the inputs by name, in the order of the inputs
+   */
+  public static QueryContext createContext(RelBuilder builder, Map<String, RelDataType> inputs) {
+    for (Map.Entry<String, RelDataType> input : inputs.entrySet()) {
+      builder.transientScan(input.getKey(), input.getValue());
+    }
+    return new QueryContext(builder, new ArrayList<>(inputs.keySet()));
+  }
+}
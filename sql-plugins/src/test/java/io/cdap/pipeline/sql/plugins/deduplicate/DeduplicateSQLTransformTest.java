@@ -0,0 +1,89 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.plugins.deduplicate;
+
+import io.cdap.pipeline.sql.plugins.common.Ordering;
+import io.cdap.pipeline.sql.plugins.common.TestInputs;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+
+public class DeduplicateSQLTransformTest {
+  @Test
+  public void testParseOrderBy() {
+    DeduplicateSQLTransform.DeduplicateSQLTransformConfig config =
+      new DeduplicateSQLTransform.DeduplicateSQLTransformConfig("id", "updated_at DESC, version asc,name");
+    Assert.assertEquals(Arrays.asList("id"), config.parseKeys());
+    List<Ordering.OrderField> fields = config.parseOrderBy().getFields();
+    Assert.assertEquals(3, fields.size());
+    Assert.assertEquals("updated_at", fields.get(0).getField());
+    Assert.assertTrue(fields.get(0).isDescending());
+    Assert.assertEquals("version", fields.get(1).getField());
+    Assert.assertFalse(fields.get(1).isDescending());
+    Assert.assertFalse(fields.get(2).isDescending());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyKeys() {
+    new DeduplicateSQLTransform.DeduplicateSQLTransformConfig("", null).parseKeys();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidDirection() {
+    new DeduplicateSQLTransform.DeduplicateSQLTransformConfig("id", "updated_at latest").parseOrderBy();
+  }
+
+  @Test
+  public void testDeduplicate() {
+    RelNode rel = deduplicate("id, region", "updated_at desc");
+    Assert.assertEquals(
+      "LogicalProject(id=[$0], region=[$1], updated_at=[$2], row_num=[$3])\n" +
+        "  LogicalFilter(condition=[=($4, 1)])\n" +
+        "    LogicalProject(id=[$0], region=[$1], updated_at=[$2], row_num=[$3], row_num0=[ROW_NUMBER() OVER " +
+        "(PARTITION BY $0, $1 ORDER BY $2 DESC NULLS LAST ROWS BETWEEN UNBOUNDED PRECEDING AND CURRENT ROW)])\n" +
+        "      LogicalTableScan(table=[[input]])\n",
+      RelOptUtil.toString(rel));
+  }
+
+  @Test
+  public void testDeduplicateWithoutOrder() {
+    RelNode rel = deduplicate("id", null);
+    Assert.assertTrue(RelOptUtil.toString(rel).contains(
+      "row_num0=[ROW_NUMBER() OVER (PARTITION BY $0 ROWS BETWEEN UNBOUNDED PRECEDING AND CURRENT ROW)]"));
+  }
+
+  private static RelNode deduplicate(String keys, String orderBy) {
+    DeduplicateSQLTransform transform = new DeduplicateSQLTransform(
+      new DeduplicateSQLTransform.DeduplicateSQLTransformConfig(keys, orderBy));
+    RelBuilder builder = TestInputs.createBuilder();
+    // The input already has a row_num column, so the row numbers are held in another column
+    RelDataType rowType = builder.getTypeFactory().builder()
+      .add("id", SqlTypeName.INTEGER)
+      .add("region", SqlTypeName.VARCHAR)
+      .add("updated_at", SqlTypeName.TIMESTAMP)
+      .add("row_num", SqlTypeName.BIGINT)
+      .build();
+    return transform.getQuery(TestInputs.createContext(builder, rowType));
+  }
+}
@@ -17,10 +17,18 @@
 package io.cdap.pipeline.sql.plugins.filter;
 
 import io.cdap.pipeline.sql.api.template.QueryContext;
+import io.cdap.pipeline.sql.api.template.functions.ValueListFunction;
+import io.cdap.pipeline.sql.plugins.common.TestInputs;
+import org.apache.calcite.plan.RelOptUtil;
 import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Filter;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.rex.RexCall;
 import org.apache.calcite.rex.RexInputRef;
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.sql.fun.SqlStdOperatorTable;
+import org.apache.calcite.sql.type.SqlTypeName;
 import org.apache.calcite.tools.RelBuilder;
 import org.junit.Assert;
 import org.junit.Test;
@@ -114,4 +122,112 @@ public class FilterSQLTransformTest {
     RelNode rel = transform.getQuery(context);
     Assert.assertEquals(expected, rel);
   }
+
+  @Test
+  public void testCompoundCondition() {
+    RelNode rel = filter("a = 1 AND (b > 5 OR c IS NULL) AND NOT c LIKE 'x%' AND a IN (1, 2, 3)");
+    Assert.assertEquals(
+      "LogicalFilter(condition=[AND(=($0, 1), OR(>($1, 5), IS NULL($2)), OR(=($0, 1), =($0, 2), =($0, 3)), " +
+        "NOT(LIKE($2, 'x%')))])\n" +
+        "  LogicalTableScan(table=[[input]])\n",
+      RelOptUtil.toString(rel));
+  }
+
+  @Test
+  public void testTypedLiterals() {
+    RelNode rel = filter("d BETWEEN DATE '2019-01-01' AND DATE '2019-01-31' AND e > 1.50 " +
+                           "AND t < TIMESTAMP '2019-01-01 12:00:00'");
+    Assert.assertEquals(
+      "LogicalFilter(condition=[AND(>=($3, 2019-01-01), <=($3, 2019-01-31), >($4, 1.50:DECIMAL(3, 2)), " +
+        "<($5, 2019-01-01 12:00:00))])\n" +
+        "  LogicalTableScan(table=[[input]])\n",
+      RelOptUtil.toString(rel));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidCondition() {
+    filter("a = AND b");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnsupportedCondition() {
+    filter("a = (SELECT 1)");
+  }
+
+  @Test
+  public void testNestedFieldCondition() {
+    RelNode rel = filter("r.id = 1 AND a > 2");
+    Assert.assertEquals("LogicalFilter(condition=[AND(=($6.id, 1), >($0, 2))])\n" +
+                          "  LogicalTableScan(table=[[input]])\n",
+                        RelOptUtil.toString(rel));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMissingNestedField() {
+    filter("r.email = 'x'");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testConditionWithOperands() {
+    FilterSQLTransform.FilterTransformTransformConfig config = new FilterSQLTransform.FilterTransformTransformConfig(
+      "a", "field", "c", "string", "equals", "a = 1");
+    FilterSQLTransform transform = new FilterSQLTransform(config);
+    RelBuilder builder = Mockito.mock(RelBuilder.class);
+    transform.getQuery(new QueryContext(builder, null));
+  }
+
+  @Test
+  public void testValueList() {
+    RelNode rel = filter(new FilterSQLTransform.FilterTransformTransformConfig(
+      null, null, null, null, null, "b > 5", "a", "argument", "accounts"));
+    Assert.assertEquals("LogicalFilter(condition=[AND(>($1, 5), IN_VALUE_LIST($0))])\n" +
+                          "  LogicalTableScan(table=[[input]])\n",
+                        RelOptUtil.toString(rel));
+    ValueListFunction function = (ValueListFunction) ((RexCall) ((RexCall) ((Filter) rel).getCondition())
+      .getOperands().get(1)).getOperator();
+    Assert.assertEquals(ValueListFunction.Source.ARGUMENT, function.getSource());
+    Assert.assertEquals("accounts", function.getReference());
+  }
+
+  @Test
+  public void testValueListOnly() {
+    RelNode rel = filter(new FilterSQLTransform.FilterTransformTransformConfig(
+      null, null, null, null, null, null, "c", "table", "dataset.accounts.id"));
+    Assert.assertEquals("LogicalFilter(condition=[IN_VALUE_LIST($2)])\n" +
+                          "  LogicalTableScan(table=[[input]])\n",
+                        RelOptUtil.toString(rel));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidValueListSource() {
+    filter(new FilterSQLTransform.FilterTransformTransformConfig(
+      null, null, null, null, null, null, "a", "query", "accounts"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testValueListTableWithoutColumn() {
+    filter(new FilterSQLTransform.FilterTransformTransformConfig(
+      null, null, null, null, null, null, "a", "table", "accounts"));
+  }
+
+  private static RelNode filter(String condition) {
+    return filter(new FilterSQLTransform.FilterTransformTransformConfig(null, null, null, null, null, condition));
+  }
+
+  private static RelNode filter(FilterSQLTransform.FilterTransformTransformConfig config) {
+    FilterSQLTransform transform = new FilterSQLTransform(config);
+
+    RelBuilder builder = TestInputs.createBuilder();
+    RelDataTypeFactory typeFactory = builder.getTypeFactory();
+    RelDataType rowType = typeFactory.builder()
+      .add("a", SqlTypeName.INTEGER)
+      .add("b", SqlTypeName.INTEGER)
+      .add("c", typeFactory.createTypeWithNullability(typeFactory.createSqlType(SqlTypeName.VARCHAR), true))
+      .add("d", SqlTypeName.DATE)
+      .add("e", SqlTypeName.DECIMAL, 10, 2)
+      .add("t", SqlTypeName.TIMESTAMP)
+      .add("r", typeFactory.builder().add("id", SqlTypeName.INTEGER).add("name", SqlTypeName.VARCHAR).build())
+      .build();
+    return transform.getQuery(TestInputs.createContext(builder, rowType));
+  }
 }
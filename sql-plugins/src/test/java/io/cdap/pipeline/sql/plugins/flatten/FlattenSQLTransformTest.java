@@ -0,0 +1,101 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.plugins.flatten;
+
+import io.cdap.pipeline.sql.plugins.common.TestInputs;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class FlattenSQLTransformTest {
+  @Test
+  public void testParseConfig() {
+    FlattenSQLTransform.FlattenSQLTransformConfig config =
+      new FlattenSQLTransform.FlattenSQLTransformConfig("payload.items", null, null);
+    Assert.assertEquals(Arrays.asList("payload", "items"), config.parseField());
+    Assert.assertEquals("items", config.getElement());
+    Assert.assertFalse(config.isKeepEmpty());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyField() {
+    new FlattenSQLTransform.FlattenSQLTransformConfig("", null, null).parseField();
+  }
+
+  @Test
+  public void testFlattenRecords() {
+    RelNode rel = flatten(new FlattenSQLTransform.FlattenSQLTransformConfig("items", null, null));
+    Assert.assertEquals(Arrays.asList("id", "payload", "tags", "sku", "qty"), rel.getRowType().getFieldNames());
+    Assert.assertEquals(
+      "LogicalProject(id=[$0], payload=[$1], tags=[$3], sku=[$4], qty=[$5])\n" +
+        "  LogicalCorrelate(correlation=[$cor0], joinType=[inner], requiredColumns=[{2}])\n" +
+        "    LogicalTableScan(table=[[input]])\n" +
+        "    Uncollect\n" +
+        "      LogicalProject(items=[$cor0.items])\n" +
+        "        LogicalValues(tuples=[[{ 0 }]])\n",
+      RelOptUtil.toString(rel));
+  }
+
+  @Test
+  public void testFlattenValues() {
+    RelNode rel = flatten(new FlattenSQLTransform.FlattenSQLTransformConfig("tags", "tag", true));
+    Assert.assertEquals(Arrays.asList("id", "payload", "items", "tag"), rel.getRowType().getFieldNames());
+    Assert.assertTrue(RelOptUtil.toString(rel).contains("joinType=[left]"));
+  }
+
+  @Test
+  public void testFlattenNestedArray() {
+    RelNode rel = flatten(new FlattenSQLTransform.FlattenSQLTransformConfig("payload.scores", null, null));
+    // Only top-level arrays are replaced by their elements
+    Assert.assertEquals(Arrays.asList("id", "payload", "items", "tags", "scores"),
+                        rel.getRowType().getFieldNames());
+    Assert.assertTrue(RelOptUtil.toString(rel).contains("LogicalProject(scores=[$cor0.payload.scores])"));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testFlattenNonArray() {
+    flatten(new FlattenSQLTransform.FlattenSQLTransformConfig("payload.user", null, null));
+  }
+
+  private static RelNode flatten(FlattenSQLTransform.FlattenSQLTransformConfig config) {
+    FlattenSQLTransform transform = new FlattenSQLTransform(config);
+    RelBuilder builder = TestInputs.createBuilder();
+    RelDataTypeFactory typeFactory = builder.getTypeFactory();
+    RelDataType item = typeFactory.builder()
+      .add("sku", SqlTypeName.VARCHAR)
+      .add("qty", SqlTypeName.INTEGER)
+      .build();
+    RelDataType payload = typeFactory.builder()
+      .add("user", SqlTypeName.VARCHAR)
+      .add("scores", typeFactory.createArrayType(typeFactory.createSqlType(SqlTypeName.DOUBLE), -1))
+      .build();
+    RelDataType rowType = typeFactory.builder()
+      .add("id", SqlTypeName.INTEGER)
+      .add("payload", payload)
+      .add("items", typeFactory.createArrayType(item, -1))
+      .add("tags", typeFactory.createArrayType(typeFactory.createSqlType(SqlTypeName.VARCHAR), -1))
+      .build();
+    return transform.getQuery(TestInputs.createContext(builder, rowType));
+  }
+}
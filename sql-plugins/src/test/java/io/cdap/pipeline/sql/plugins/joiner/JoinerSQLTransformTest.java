@@ -16,15 +16,28 @@
 
 package io.cdap.pipeline.sql.plugins.joiner;
 
+import com.google.common.collect.ImmutableMap;
 import io.cdap.pipeline.sql.api.template.QueryContext;
+import io.cdap.pipeline.sql.api.template.SQLJoiner;
+import io.cdap.pipeline.sql.plugins.common.TestInputs;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.core.Join;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
+import org.apache.calcite.sql.type.SqlTypeName;
 import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
 import org.junit.Test;
 import org.mockito.Mockito;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 
 public class JoinerSQLTransformTest {
+  // Range join keys which are written from the sessions, so that the sessions are joined first
+  private static final String SESSIONS_FIRST = "sessions.start_ts <= events.ts & sessions.end_ts > events.ts";
+
   @Test(expected = IllegalArgumentException.class)
   public void testInvalidSelectedFields() {
     Joiner.JoinerConfig config = new Joiner.JoinerConfig(",x.a as a", "", "INNER");
@@ -108,4 +121,247 @@ public class JoinerSQLTransformTest {
     Joiner.JoinerConfig config = new Joiner.JoinerConfig("x.a as a,y.b as b", "x.a = y.b", "invalid");
     config.parseJoinType();
   }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidJoinKeySameStage() {
+    Joiner.JoinerConfig config = new Joiner.JoinerConfig("x.a as a,y.b as b", "x.a = x.b", "INNER");
+    Joiner joiner = new Joiner(config);
+    List<String> inputs = new ArrayList<>();
+    inputs.add("x");
+    inputs.add("y");
+    RelBuilder builder = Mockito.mock(RelBuilder.class);
+    QueryContext context = new QueryContext(builder, inputs);
+    joiner.getQuery(context);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMultiwayJoinStageNotJoined() {
+    Joiner.JoinerConfig config = new Joiner.JoinerConfig("x.a as a,y.b as b,z.c as c", "x.a = y.b", "INNER");
+    Joiner joiner = new Joiner(config);
+    List<String> inputs = new ArrayList<>();
+    inputs.add("x");
+    inputs.add("y");
+    inputs.add("z");
+    RelBuilder builder = Mockito.mock(RelBuilder.class);
+    QueryContext context = new QueryContext(builder, inputs);
+    joiner.getQuery(context);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMultiwayJoinDisconnectedStages() {
+    Joiner.JoinerConfig config = new Joiner.JoinerConfig("x.a as a", "x.a = y.b & z.c = w.d", "INNER");
+    Joiner joiner = new Joiner(config);
+    List<String> inputs = new ArrayList<>();
+    inputs.add("x");
+    inputs.add("y");
+    inputs.add("z");
+    inputs.add("w");
+    RelBuilder builder = Mockito.mock(RelBuilder.class);
+    QueryContext context = new QueryContext(builder, inputs);
+    joiner.getQuery(context);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testMultiwayJoinUnsupportedType() {
+    Joiner.JoinerConfig config = new Joiner.JoinerConfig("x.a as a", "x.a = y.b & y.b = z.c", "SEMI");
+    Joiner joiner = new Joiner(config);
+    List<String> inputs = new ArrayList<>();
+    inputs.add("x");
+    inputs.add("y");
+    inputs.add("z");
+    RelBuilder builder = Mockito.mock(RelBuilder.class);
+    QueryContext context = new QueryContext(builder, inputs);
+    joiner.getQuery(context);
+  }
+
+  @Test
+  public void testMultiwayLeftJoin() {
+    RelNode rel = threeWayLeftJoin("orders.cid = customers.id & orders.pid = products.id");
+    Assert.assertEquals(
+      "LogicalProject(oid=[$0], name=[$4], title=[$6])\n" +
+        "  LogicalJoin(condition=[=($2, $5)], joinType=[left])\n" +
+        "    LogicalJoin(condition=[=($1, $3)], joinType=[left])\n" +
+        "      LogicalTableScan(table=[[orders]])\n" +
+        "      LogicalTableScan(table=[[customers]])\n" +
+        "    LogicalTableScan(table=[[products]])\n",
+      RelOptUtil.toString(rel));
+    // Orders is the preserved input of both joins
+    Join outer = (Join) rel.getInput(0);
+    Join inner = (Join) outer.getLeft();
+    Assert.assertEquals(Arrays.asList("oid", "cid", "pid"), inner.getLeft().getRowType().getFieldNames());
+  }
+
+  @Test
+  public void testMultiwayLeftJoinStartsFromFirstKey() {
+    // Starting from customers keeps every customer, with the orders of each customer and their products
+    RelNode rel = threeWayLeftJoin("customers.id = orders.cid & orders.pid = products.id");
+    Assert.assertEquals(
+      "LogicalProject(oid=[$2], name=[$1], title=[$6])\n" +
+        "  LogicalJoin(condition=[=($4, $5)], joinType=[left])\n" +
+        "    LogicalJoin(condition=[=($0, $3)], joinType=[left])\n" +
+        "      LogicalTableScan(table=[[customers]])\n" +
+        "      LogicalTableScan(table=[[orders]])\n" +
+        "    LogicalTableScan(table=[[products]])\n",
+      RelOptUtil.toString(rel));
+    Join inner = (Join) ((Join) rel.getInput(0)).getLeft();
+    Assert.assertEquals(Arrays.asList("id", "name"), inner.getLeft().getRowType().getFieldNames());
+  }
+
+  @Test
+  public void testSkewDisabledByDefault() {
+    Joiner joiner = new Joiner(new Joiner.JoinerConfig("x.a as a", "x.a = y.b", "INNER"));
+    Assert.assertEquals(0, joiner.getSkewBuckets());
+    Assert.assertEquals(SQLJoiner.DEFAULT_SKEW_THRESHOLD, joiner.getSkewThreshold(), 0d);
+  }
+
+  @Test
+  public void testSkewConfig() {
+    Joiner joiner = new Joiner(new Joiner.JoinerConfig("x.a as a", "x.a = y.b", "INNER", 16, 0.3));
+    Assert.assertEquals(16, joiner.getSkewBuckets());
+    Assert.assertEquals(0.3, joiner.getSkewThreshold(), 0d);
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSkewBuckets() {
+    Joiner.JoinerConfig config = new Joiner.JoinerConfig("x.a as a", "x.a = y.b", "INNER", 1, null);
+    config.parseSkewBuckets();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidSkewThreshold() {
+    Joiner.JoinerConfig config = new Joiner.JoinerConfig("x.a as a", "x.a = y.b", "INNER", 8, 1.5);
+    config.parseSkewThreshold();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidJoinKeyTwoOperators() {
+    Joiner.JoinerConfig config = new Joiner.JoinerConfig("x.a as a", "x.a <= y.b < y.c", "INNER");
+    config.parseJoinKeys();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testInvalidRangeBucketWidth() {
+    Joiner.JoinerConfig config = new Joiner.JoinerConfig("x.a as a", "x.a = y.b", "INNER", null, null, 0d);
+    config.parseRangeBucketWidth();
+  }
+
+  @Test
+  public void testRangeJoin() {
+    RelNode rel = rangeJoin("INNER", null, SqlTypeName.TIMESTAMP);
+    Assert.assertEquals(
+      "LogicalProject(id=[$0], sid=[$2])\n" +
+        "  LogicalJoin(condition=[AND(>=($1, $3), >($4, $1))], joinType=[inner])\n" +
+        "    LogicalTableScan(table=[[events]])\n" +
+        "    LogicalTableScan(table=[[sessions]])\n",
+      RelOptUtil.toString(rel));
+  }
+
+  @Test
+  public void testBucketedRangeJoin() {
+    RelNode rel = rangeJoin("LEFT", 3600d, SqlTypeName.TIMESTAMP);
+    Assert.assertEquals(
+      "LogicalProject(id=[$0], sid=[$3])\n" +
+        "  LogicalJoin(condition=[AND(>=($1, $4), >($5, $1), =($2, $6))], joinType=[left])\n" +
+        "    LogicalProject(id=[$0], ts=[$1], range_bucket=[BUCKET[3600]($1)])\n" +
+        "      LogicalTableScan(table=[[events]])\n" +
+        "    LogicalProject(sid=[$0], start_ts=[$1], end_ts=[$2], range_bucket=[$3])\n" +
+        "      LogicalCorrelate(correlation=[$cor0], joinType=[inner], requiredColumns=[{1, 2}])\n" +
+        "        LogicalTableScan(table=[[sessions]])\n" +
+        "        Uncollect\n" +
+        "          LogicalProject(range_bucket=[BUCKET_RANGE[3600]($cor0.start_ts, $cor0.end_ts)])\n" +
+        "            LogicalValues(tuples=[[{ 0 }]])\n",
+      RelOptUtil.toString(rel));
+  }
+
+  @Test
+  public void testBucketWidthInDigest() {
+    // Buckets of different widths are never merged as the same expression
+    RelNode hourly = rangeJoin("INNER", 3600d, SqlTypeName.TIMESTAMP);
+    RelNode daily = rangeJoin("INNER", 86400d, SqlTypeName.TIMESTAMP);
+    Assert.assertTrue(RelOptUtil.toString(daily).contains("BUCKET[86400]($1)"));
+    Assert.assertNotEquals(RelOptUtil.toString(hourly), RelOptUtil.toString(daily));
+  }
+
+  @Test
+  public void testRangeJoinNotBucketedWhenRangePreserved() {
+    RelNode rel = rangeJoin("RIGHT", 3600d, SqlTypeName.TIMESTAMP);
+    Assert.assertFalse(RelOptUtil.toString(rel).contains("BUCKET"));
+  }
+
+  @Test
+  public void testRangeJoinedFirstNotBucketedWhenPreserved() {
+    // The sessions are joined first, so they are the left input whose rows are all kept
+    RelNode rel = rangeJoin(SESSIONS_FIRST, "LEFT", 3600d, SqlTypeName.TIMESTAMP);
+    Assert.assertEquals(
+      "LogicalProject(id=[$3], sid=[$0])\n" +
+        "  LogicalJoin(condition=[AND(<=($1, $4), >($2, $4))], joinType=[left])\n" +
+        "    LogicalTableScan(table=[[sessions]])\n" +
+        "    LogicalTableScan(table=[[events]])\n",
+      RelOptUtil.toString(rel));
+  }
+
+  @Test
+  public void testRangeJoinedFirstBucketed() {
+    // The events on the right keep their unmatched rows, so the sessions on the left are replicated into buckets
+    RelNode rel = rangeJoin(SESSIONS_FIRST, "RIGHT", 3600d, SqlTypeName.TIMESTAMP);
+    Assert.assertEquals(
+      "LogicalProject(id=[$4], sid=[$0])\n" +
+        "  LogicalJoin(condition=[AND(<=($1, $5), >($2, $5), =($6, $3))], joinType=[right])\n" +
+        "    LogicalProject(sid=[$0], start_ts=[$1], end_ts=[$2], range_bucket=[$3])\n" +
+        "      LogicalCorrelate(correlation=[$cor0], joinType=[inner], requiredColumns=[{1, 2}])\n" +
+        "        LogicalTableScan(table=[[sessions]])\n" +
+        "        Uncollect\n" +
+        "          LogicalProject(range_bucket=[BUCKET_RANGE[3600]($cor0.start_ts, $cor0.end_ts)])\n" +
+        "            LogicalValues(tuples=[[{ 0 }]])\n" +
+        "    LogicalProject(id=[$0], ts=[$1], range_bucket=[BUCKET[3600]($1)])\n" +
+        "      LogicalTableScan(table=[[events]])\n",
+      RelOptUtil.toString(rel));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testBucketedRangeJoinUnsupportedType() {
+    rangeJoin("INNER", 10d, SqlTypeName.VARCHAR);
+  }
+
+  private static RelNode threeWayLeftJoin(String joinKeys) {
+    Joiner joiner = new Joiner(new Joiner.JoinerConfig(
+      "orders.oid as oid,customers.name as name,products.title as title", joinKeys, "LEFT"));
+    RelBuilder builder = TestInputs.createBuilder();
+    RelDataTypeFactory typeFactory = builder.getTypeFactory();
+    return joiner.getQuery(TestInputs.createContext(builder, ImmutableMap.of(
+      "orders", typeFactory.builder()
+        .add("oid", SqlTypeName.INTEGER)
+        .add("cid", SqlTypeName.INTEGER)
+        .add("pid", SqlTypeName.INTEGER)
+        .build(),
+      "customers", typeFactory.builder()
+        .add("id", SqlTypeName.INTEGER)
+        .add("name", SqlTypeName.VARCHAR)
+        .build(),
+      "products", typeFactory.builder()
+        .add("id", SqlTypeName.INTEGER)
+        .add("title", SqlTypeName.VARCHAR)
+        .build())));
+  }
+
+  private static RelNode rangeJoin(String joinType, Double bucketWidth, SqlTypeName type) {
+    return rangeJoin("events.ts >= sessions.start_ts & sessions.end_ts > events.ts", joinType, bucketWidth, type);
+  }
+
+  private static RelNode rangeJoin(String joinKeys, String joinType, Double bucketWidth, SqlTypeName type) {
+    Joiner joiner = new Joiner(new Joiner.JoinerConfig(
+      "events.id as id,sessions.sid as sid", joinKeys, joinType, null, null, bucketWidth));
+    RelBuilder builder = TestInputs.createBuilder();
+    RelDataTypeFactory typeFactory = builder.getTypeFactory();
+    return joiner.getQuery(TestInputs.createContext(builder, ImmutableMap.of(
+      "events", typeFactory.builder()
+        .add("id", SqlTypeName.INTEGER)
+        .add("ts", type)
+        .build(),
+      "sessions", typeFactory.builder()
+        .add("sid", SqlTypeName.INTEGER)
+        .add("start_ts", type)
+        .add("end_ts", type)
+        .build())));
+  }
 }
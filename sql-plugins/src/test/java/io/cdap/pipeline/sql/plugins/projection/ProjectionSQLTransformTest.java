@@ -17,7 +17,11 @@
 package io.cdap.pipeline.sql.plugins.projection;
 
 import io.cdap.pipeline.sql.api.template.QueryContext;
+import io.cdap.pipeline.sql.plugins.common.TestInputs;
+import org.apache.calcite.plan.RelOptUtil;
 import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.rel.type.RelDataTypeFactory;
 import org.apache.calcite.rex.RexInputRef;
 import org.apache.calcite.rex.RexNode;
 import org.apache.calcite.sql.type.SqlTypeName;
@@ -120,4 +124,21 @@ public class ProjectionSQLTransformTest {
     RelNode rel = transform.getQuery(context);
     Assert.assertEquals(expected, rel);
   }
+
+  @Test
+  public void testNestedField() {
+    ProjectionSQLTransform transform = new ProjectionSQLTransform(
+      new ProjectionSQLTransform.ProjectionSQLTransformConfig("payload.user.id:user_id", null, "id,payload.user.id"));
+    RelBuilder builder = TestInputs.createBuilder();
+    RelDataTypeFactory typeFactory = builder.getTypeFactory();
+    RelDataType user = typeFactory.builder().add("id", SqlTypeName.INTEGER).build();
+    RelDataType rowType = typeFactory.builder()
+      .add("id", SqlTypeName.INTEGER)
+      .add("payload", typeFactory.builder().add("user", user).build())
+      .build();
+    RelNode rel = transform.getQuery(TestInputs.createContext(builder, rowType));
+    Assert.assertEquals("LogicalProject(id=[$0], user_id=[$1.user.id])\n" +
+                          "  LogicalTableScan(table=[[input]])\n",
+                        RelOptUtil.toString(rel));
+  }
 }
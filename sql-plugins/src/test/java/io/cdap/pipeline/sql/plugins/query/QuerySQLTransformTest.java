@@ -0,0 +1,99 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.plugins.query;
+
+import com.google.common.collect.ImmutableMap;
+import io.cdap.pipeline.sql.api.template.QueryContext;
+import io.cdap.pipeline.sql.plugins.common.TestInputs;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+public class QuerySQLTransformTest {
+  @Test
+  public void testQuery() {
+    RelNode rel = query("SELECT region, revenue * 2 AS doubled FROM input WHERE revenue > 10", "sales");
+    Assert.assertEquals(
+      "LogicalProject(region=[$0], doubled=[*($1, 2)])\n" +
+        "  LogicalFilter(condition=[>($1, 10)])\n" +
+        "    LogicalTableScan(table=[[sales]])\n",
+      RelOptUtil.toString(rel));
+  }
+
+  @Test
+  public void testStageName() {
+    RelNode rel = query("SELECT region, SUM(revenue) AS revenue FROM `sales` GROUP BY region", "sales");
+    Assert.assertEquals(
+      "LogicalAggregate(group=[{0}], revenue=[SUM($1)])\n" +
+        "  LogicalTableScan(table=[[sales]])\n",
+      RelOptUtil.toString(rel));
+  }
+
+  @Test
+  public void testNamedInputs() {
+    RelBuilder builder = TestInputs.createBuilder();
+    QueryContext context = TestInputs.createContext(builder, ImmutableMap.of("a", getRowType(builder),
+                                                                             "b", getRowType(builder)));
+    // Several inputs reach the query as the union of their scans
+    builder.union(true, 2);
+    RelNode rel = new QuerySQLTransform(new QuerySQLTransform.QuerySQLTransformConfig(
+      "SELECT a.region, b.revenue FROM a JOIN b ON a.region = b.region")).getQuery(context);
+    Assert.assertEquals(
+      "LogicalProject(region=[$0], revenue=[$3])\n" +
+        "  LogicalJoin(condition=[=($0, $2)], joinType=[inner])\n" +
+        "    LogicalTableScan(table=[[a]])\n" +
+        "    LogicalTableScan(table=[[b]])\n",
+      RelOptUtil.toString(rel));
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownField() {
+    query("SELECT country FROM input", "sales");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testUnknownTable() {
+    query("SELECT region FROM orders", "sales");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNotSelect() {
+    query("INSERT INTO input SELECT * FROM input", "sales");
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyQuery() {
+    query(" ", "sales");
+  }
+
+  private static RelNode query(String query, String inputName) {
+    RelBuilder builder = TestInputs.createBuilder();
+    return new QuerySQLTransform(new QuerySQLTransform.QuerySQLTransformConfig(query))
+      .getQuery(TestInputs.createContext(builder, ImmutableMap.of(inputName, getRowType(builder))));
+  }
+
+  private static RelDataType getRowType(RelBuilder builder) {
+    return builder.getTypeFactory().builder()
+      .add("region", SqlTypeName.VARCHAR)
+      .add("revenue", SqlTypeName.DOUBLE)
+      .build();
+  }
+}
@@ -0,0 +1,81 @@
+/*
+ * Copyright © 2019 Cask Data, Inc.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License"); you may not
+ * use this file except in compliance with the License. You may obtain a copy of
+ * the License at
+ *
+ * http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS, WITHOUT
+ * WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied. See the
+ * License for the specific language governing permissions and limitations under
+ * the License.
+ */
+
+package io.cdap.pipeline.sql.plugins.topn;
+
+import io.cdap.pipeline.sql.plugins.common.TestInputs;
+import org.apache.calcite.plan.RelOptUtil;
+import org.apache.calcite.rel.RelNode;
+import org.apache.calcite.rel.type.RelDataType;
+import org.apache.calcite.sql.type.SqlTypeName;
+import org.apache.calcite.tools.RelBuilder;
+import org.junit.Assert;
+import org.junit.Test;
+
+import java.util.Arrays;
+
+public class TopNSQLTransformTest {
+  @Test
+  public void testParseConfig() {
+    TopNSQLTransform.TopNSQLTransformConfig config =
+      new TopNSQLTransform.TopNSQLTransformConfig(10, "revenue desc", "region, country");
+    Assert.assertEquals(10, config.getLimit());
+    Assert.assertEquals(Arrays.asList("region", "country"), config.parseGroupBy());
+    Assert.assertTrue(config.parseOrderBy().getFields().get(0).isDescending());
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testNonPositiveLimit() {
+    new TopNSQLTransform.TopNSQLTransformConfig(0, "revenue desc", null).getLimit();
+  }
+
+  @Test(expected = IllegalArgumentException.class)
+  public void testEmptyOrderBy() {
+    new TopNSQLTransform.TopNSQLTransformConfig(10, "", null).parseOrderBy();
+  }
+
+  @Test
+  public void testTopN() {
+    RelNode rel = topN(10, "revenue desc", null);
+    Assert.assertEquals(
+      "LogicalSort(sort0=[$1], dir0=[DESC-nulls-last], fetch=[10])\n" +
+        "  LogicalTableScan(table=[[input]])\n",
+      RelOptUtil.toString(rel));
+  }
+
+  @Test
+  public void testTopNPerGroup() {
+    RelNode rel = topN(3, "revenue desc", "region");
+    Assert.assertEquals(
+      "LogicalProject(region=[$0], revenue=[$1])\n" +
+        "  LogicalFilter(condition=[<=($2, 3)])\n" +
+        "    LogicalProject(region=[$0], revenue=[$1], row_num=[ROW_NUMBER() OVER " +
+        "(PARTITION BY $0 ORDER BY $1 DESC NULLS LAST ROWS BETWEEN UNBOUNDED PRECEDING AND CURRENT ROW)])\n" +
+        "      LogicalTableScan(table=[[input]])\n",
+      RelOptUtil.toString(rel));
+  }
+
+  private static RelNode topN(int limit, String orderBy, String groupBy) {
+    TopNSQLTransform transform = new TopNSQLTransform(
+      new TopNSQLTransform.TopNSQLTransformConfig(limit, orderBy, groupBy));
+    RelBuilder builder = TestInputs.createBuilder();
+    RelDataType rowType = builder.getTypeFactory().builder()
+      .add("region", SqlTypeName.VARCHAR)
+      .add("revenue", SqlTypeName.DOUBLE)
+      .build();
+    return transform.getQuery(TestInputs.createContext(builder, rowType));
+  }
+}